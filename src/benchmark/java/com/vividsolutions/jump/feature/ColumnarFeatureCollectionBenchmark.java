@@ -0,0 +1,163 @@
+package com.vividsolutions.jump.feature;
+
+import java.util.Iterator;
+
+import com.vividsolutions.jts.geom.*;
+
+/**
+ * Compares the heap footprint, scan time and query time of a FeatureDataset
+ * and a ColumnarFeatureCollection holding the same synthetic polygon features
+ * with INTEGER, DOUBLE and STRING attributes. Run with an optional feature
+ * count argument (default 200000).
+ */
+public class ColumnarFeatureCollectionBenchmark {
+
+    private static final int VERTICES = 8;
+    private static final int DISTINCT_NAMES = 50;
+
+    private static GeometryFactory factory = new GeometryFactory();
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        FeatureSchema schema = new FeatureSchema();
+        schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+        schema.addAttribute("ID", AttributeType.INTEGER);
+        schema.addAttribute("VALUE", AttributeType.DOUBLE);
+        schema.addAttribute("NAME", AttributeType.STRING);
+
+        long base = usedMemory();
+        FeatureCollection dataset = createFeatures(schema, count);
+        long datasetBytes = usedMemory() - base;
+
+        base = usedMemory();
+        ColumnarFeatureCollection columnar = new ColumnarFeatureCollection(schema);
+        for (Iterator i = dataset.iterator(); i.hasNext();) {
+            columnar.add((Feature) i.next());
+        }
+        // the dataset is still reachable, so this is the columnar copy alone
+        long columnarBytes = usedMemory() - base;
+
+        System.out.println("Features: " + count);
+        System.out.println("FeatureDataset:            " + (datasetBytes / 1024) + " KB");
+        System.out.println("ColumnarFeatureCollection: " + (columnarBytes / 1024) + " KB");
+
+        int runs = 5;
+        System.out.println("Attribute scan, FeatureDataset:            "
+                + timeScan(dataset, runs) + " ms");
+        System.out.println("Attribute scan, ColumnarFeatureCollection: "
+                + timeScan(columnar, runs) + " ms");
+
+        System.out.println("Geometry scan, FeatureDataset:            "
+                + timeGeometryScan(dataset, runs) + " ms");
+        System.out.println("Geometry scan, ColumnarFeatureCollection: "
+                + timeGeometryScan(columnar, runs) + " ms");
+
+        Envelope window = new Envelope(0, 50, 0, 50);
+        int columnarResults = columnar.query(window).size();
+        // measured before the dataset builds an index of its own
+        System.out.println("ColumnarFeatureCollection with its index: "
+                + ((usedMemory() - base) / 1024) + " KB");
+        System.out.println("Query results: " + dataset.query(window).size() + " / "
+                + columnarResults);
+
+        System.out.println("Query, FeatureDataset:            "
+                + timeQuery(dataset, window, runs) + " ms");
+        System.out.println("Query, ColumnarFeatureCollection: "
+                + timeQuery(columnar, window, runs) + " ms");
+
+        // one edit should not cost the views of the rest of the window
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < runs; i++) {
+            Feature edited = (Feature) columnar.query(window).get(i);
+            edited.setGeometry((Geometry) edited.getGeometry().clone());
+            query(columnar, window);
+        }
+        System.out.println("Edit and query, ColumnarFeatureCollection: "
+                + ((System.currentTimeMillis() - start) / runs) + " ms");
+    }
+
+    private static FeatureCollection createFeatures(FeatureSchema schema, int count) {
+        FeatureDataset dataset = new FeatureDataset(schema);
+        int side = (int) Math.ceil(Math.sqrt(count));
+        for (int i = 0; i < count; i++) {
+            Feature feature = new BasicFeature(schema);
+            feature.setGeometry(createPolygon(i % side, i / side));
+            feature.setAttribute("ID", new Integer(i));
+            feature.setAttribute("VALUE", new Double(i * 0.5));
+            feature.setAttribute("NAME", "Name " + (i % DISTINCT_NAMES));
+            dataset.add(feature);
+        }
+        return dataset;
+    }
+
+    private static Polygon createPolygon(double x, double y) {
+        Coordinate[] coordinates = new Coordinate[VERTICES + 1];
+        for (int i = 0; i < VERTICES; i++) {
+            double angle = -2 * Math.PI * i / VERTICES;
+            coordinates[i] = new Coordinate(x + 0.4 * Math.cos(angle),
+                    y + 0.4 * Math.sin(angle));
+        }
+        coordinates[VERTICES] = new Coordinate(coordinates[0]);
+        return factory.createPolygon(factory.createLinearRing(coordinates), null);
+    }
+
+    private static long timeScan(FeatureCollection features, int runs) {
+        scan(features); //warm up
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < runs; i++) {
+            scan(features);
+        }
+        return (System.currentTimeMillis() - start) / runs;
+    }
+
+    private static double scan(FeatureCollection features) {
+        double sum = 0;
+        for (Iterator i = features.iterator(); i.hasNext();) {
+            Feature feature = (Feature) i.next();
+            sum += feature.getDouble(2) + feature.getInteger(1);
+        }
+        return sum;
+    }
+
+    private static long timeGeometryScan(FeatureCollection features, int runs) {
+        scanGeometries(features); //warm up
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < runs; i++) {
+            scanGeometries(features);
+        }
+        return (System.currentTimeMillis() - start) / runs;
+    }
+
+    private static int scanGeometries(FeatureCollection features) {
+        int points = 0;
+        for (Iterator i = features.iterator(); i.hasNext();) {
+            points += ((Feature) i.next()).getGeometry().getNumPoints();
+        }
+        return points;
+    }
+
+    private static long timeQuery(FeatureCollection features, Envelope window, int runs) {
+        query(features, window); //warm up, filling any cache
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < runs; i++) {
+            query(features, window);
+        }
+        return (System.currentTimeMillis() - start) / runs;
+    }
+
+    private static int query(FeatureCollection features, Envelope window) {
+        int points = 0;
+        for (Iterator i = features.query(window).iterator(); i.hasNext();) {
+            points += ((Feature) i.next()).getGeometry().getNumPoints();
+        }
+        return points;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,186 @@
+package com.vividsolutions.jump.workbench.ui.renderer;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import com.vividsolutions.jts.geom.*;
+import com.vividsolutions.jump.feature.*;
+import com.vividsolutions.jump.workbench.model.Layer;
+import com.vividsolutions.jump.workbench.model.LayerManager;
+import com.vividsolutions.jump.workbench.ui.LayerViewPanel;
+import com.vividsolutions.jump.workbench.ui.LayerViewPanelContext;
+import com.vividsolutions.jump.workbench.ui.Viewport;
+import com.vividsolutions.jump.workbench.ui.renderer.style.Style;
+
+/**
+ * Times painting a layer of detailed polygons with its BasicStyle and
+ * VertexStyle both enabled, in the renderers' style-by-style order: first
+ * converting each polygon to a Shape for every style, then once per frame
+ * with Java2DConverter#startCaching. Also counts the pixels that differ, and
+ * times a LayerRenderer for comparison. Runs at the full extent and zoomed
+ * in, where the polygons are clipped to the view. Run headless, with optional polygon
+ * count and vertices-per-polygon arguments (defaults 5000 and 400).
+ */
+public class MultiStyleRenderingBenchmark {
+
+    private static final int WIDTH = 1000;
+    private static final int HEIGHT = 800;
+    private static final double EXTENT = 100000;
+    private static final int RUNS = 3;
+
+    private static GeometryFactory factory = new GeometryFactory();
+
+    public static void main(String[] args) throws Exception {
+        int polygonCount = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int vertices = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+
+        LayerManager layerManager = new LayerManager();
+        // keep the panel from starting renders of its own
+        layerManager.setFiringEvents(false);
+        LayerViewPanel panel = new LayerViewPanel(layerManager, new LayerViewPanelContext() {
+            public void setStatusMessage(String message) {
+            }
+            public void warnUser(String warning) {
+                System.err.println(warning);
+            }
+            public void handleThrowable(Throwable t) {
+                t.printStackTrace();
+            }
+        });
+        panel.setSize(WIDTH, HEIGHT);
+        panel.getViewport().initialize(HEIGHT / EXTENT, new Point2D.Double(0, 0));
+
+        Layer layer = layerManager.addLayer("Benchmark", "Polygons",
+                createPolygons(polygonCount, vertices, new Random(0)));
+        layer.getLabelStyle().setEnabled(false);
+        layer.getVertexStyle().setEnabled(true);
+        System.out.println("Polygons: " + polygonCount + ", vertices per polygon: " + vertices);
+
+        System.out.print("Full extent: ");
+        time(layer, panel);
+        //close enough that most polygons in view are clipped to it
+        System.out.print("Zoomed in: ");
+        panel.getViewport().initialize(HEIGHT / (EXTENT / 10),
+                new Point2D.Double(EXTENT / 2, EXTENT / 2));
+        time(layer, panel);
+        panel.dispose();
+    }
+
+    private static void time(Layer layer, LayerViewPanel panel) throws Exception {
+        // as the renderers query them
+        List features = layer.getFeatureCollectionWrapper().query(
+                panel.getViewport().getEnvelopeInModelCoordinates());
+        System.out.println(features.size() + " polygons in view");
+        for (int pass = 0; pass < 2; pass++) {
+            //the first pass warms up
+            BufferedImage expected = paint(layer, features, panel.getViewport(), false);
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < RUNS; i++) {
+                paint(layer, features, panel.getViewport(), false);
+            }
+            long uncachedTime = (System.currentTimeMillis() - start) / RUNS;
+
+            BufferedImage actual = paint(layer, features, panel.getViewport(), true);
+            start = System.currentTimeMillis();
+            for (int i = 0; i < RUNS; i++) {
+                paint(layer, features, panel.getViewport(), true);
+            }
+            long cachedTime = (System.currentTimeMillis() - start) / RUNS;
+
+            start = System.currentTimeMillis();
+            for (int i = 0; i < RUNS; i++) {
+                render(layer, panel);
+            }
+            long rendererTime = (System.currentTimeMillis() - start) / RUNS;
+
+            if (pass == 1) {
+                System.out.println("Shape per style: " + uncachedTime + " ms");
+                System.out.println("Shape per frame: " + cachedTime
+                        + " ms, differing pixels: " + countDifferences(expected, actual));
+                System.out.println("LayerRenderer:   " + rendererTime + " ms");
+            }
+        }
+    }
+
+    private static void render(Layer layer, LayerViewPanel panel) {
+        Renderer renderer = new LayerRenderer(layer, panel);
+        Runnable runnable = renderer.createRunnable();
+        if (runnable != null) {
+            runnable.run();
+        }
+        BufferedImage result = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = result.createGraphics();
+        // a SimpleRenderer paints here
+        renderer.copyTo(g);
+        g.dispose();
+    }
+
+    private static FeatureCollection createPolygons(int count, int vertices, Random random) {
+        FeatureSchema schema = new FeatureSchema();
+        schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+        FeatureDataset dataset = new FeatureDataset(schema);
+        for (int i = 0; i < count; i++) {
+            double x = random.nextDouble() * EXTENT;
+            double y = random.nextDouble() * EXTENT;
+            double radius = 500 + 1500 * random.nextDouble();
+            Coordinate[] coordinates = new Coordinate[vertices + 1];
+            for (int j = 0; j < vertices; j++) {
+                double angle = -2 * Math.PI * j / vertices;
+                double r = radius * (1 + 0.2 * random.nextDouble());
+                coordinates[j] = new Coordinate(x + r * Math.cos(angle), y + r * Math.sin(angle));
+            }
+            coordinates[vertices] = new Coordinate(coordinates[0]);
+            Feature feature = new BasicFeature(schema);
+            feature.setGeometry(factory.createPolygon(factory.createLinearRing(coordinates), null));
+            dataset.add(feature);
+        }
+        return dataset;
+    }
+
+    /**
+     * Paints as SimpleFeatureCollectionRenderer does, with or without sharing
+     * Shapes between the styles.
+     */
+    private static BufferedImage paint(Layer layer, List features, Viewport viewport,
+            boolean caching) throws Exception {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        if (caching) {
+            viewport.getJava2DConverter().startCaching();
+        }
+        try {
+            for (Iterator i = layer.getStyles().iterator(); i.hasNext();) {
+                Style style = (Style) i.next();
+                if (!style.isEnabled()) {
+                    continue;
+                }
+                style.initialize(layer);
+                for (Iterator j = features.iterator(); j.hasNext();) {
+                    style.paint((Feature) j.next(), g, viewport);
+                }
+            }
+        } finally {
+            viewport.getJava2DConverter().stopCaching();
+            g.dispose();
+        }
+        return image;
+    }
+
+    private static int countDifferences(BufferedImage a, BufferedImage b) {
+        int differences = 0;
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                if (a.getRGB(x, y) != b.getRGB(x, y)) {
+                    differences++;
+                }
+            }
+        }
+        return differences;
+    }
+}
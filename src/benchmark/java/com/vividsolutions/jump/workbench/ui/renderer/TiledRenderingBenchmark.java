@@ -0,0 +1,164 @@
+package com.vividsolutions.jump.workbench.ui.renderer;
+
+import java.awt.Graphics2D;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import com.vividsolutions.jts.geom.*;
+import com.vividsolutions.jump.feature.*;
+import com.vividsolutions.jump.workbench.model.Layer;
+import com.vividsolutions.jump.workbench.model.LayerManager;
+import com.vividsolutions.jump.workbench.ui.LayerViewPanel;
+import com.vividsolutions.jump.workbench.ui.LayerViewPanelContext;
+
+/**
+ * Times a full repaint of many polygon layers, first one layer at a time as
+ * RenderingManager does by default, then with tiled rendering on 1, 2, 4, ...
+ * threads up to the number of processors. Also counts the pixels that differ
+ * from the one-at-a-time image by more than rounding. Run headless, with optional layer count and
+ * features-per-layer arguments (defaults 40 and 5000).
+ */
+public class TiledRenderingBenchmark {
+
+    private static final int WIDTH = 1600;
+    private static final int HEIGHT = 1200;
+    private static final double EXTENT = 1000;
+
+    // Compositing translucent tiles rounds colours slightly differently
+    // from painting straight into the layer image
+    private static final int TOLERANCE = 2;
+
+    private static GeometryFactory factory = new GeometryFactory();
+
+    public static void main(String[] args) throws Exception {
+        int layerCount = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+        int featuresPerLayer = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+
+        LayerManager layerManager = new LayerManager();
+        // keep the panel from starting renders of its own
+        layerManager.setFiringEvents(false);
+        LayerViewPanel panel = new LayerViewPanel(layerManager, new LayerViewPanelContext() {
+            public void setStatusMessage(String message) {
+            }
+            public void warnUser(String warning) {
+                System.err.println(warning);
+            }
+            public void handleThrowable(Throwable t) {
+                t.printStackTrace();
+            }
+        });
+        panel.setSize(WIDTH, HEIGHT);
+        panel.getViewport().initialize(WIDTH / EXTENT, new Point2D.Double(0, 0));
+
+        Random random = new Random(0);
+        for (int i = 0; i < layerCount; i++) {
+            layerManager.addLayer("Benchmark", "Layer " + i,
+                    createFeatures(featuresPerLayer, random));
+        }
+        System.out.println("Layers: " + layerCount + ", features per layer: "
+                + featuresPerLayer + ", processors: "
+                + Runtime.getRuntime().availableProcessors());
+
+        panel.getBlackboard().put(RenderingManager.USE_TILED_RENDERING_KEY, false);
+        BufferedImage expected = render(panel, 1); // warm up
+        long serialTime = time(panel, 1);
+        System.out.println("One layer at a time: " + serialTime + " ms");
+
+        panel.getBlackboard().put(RenderingManager.USE_TILED_RENDERING_KEY, true);
+        for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads *= 2) {
+            panel.getRenderingManager().setTiledRenderingThreads(threads);
+            BufferedImage actual = render(panel, threads);
+            long tiledTime = time(panel, threads);
+            System.out.println("Tiled, " + threads + " threads: " + tiledTime
+                    + " ms (" + ((double) serialTime / Math.max(1, tiledTime))
+                    + "x), differing pixels: " + countDifferences(expected, actual));
+        }
+        panel.dispose();
+    }
+
+    private static FeatureCollection createFeatures(int count, Random random) {
+        FeatureSchema schema = new FeatureSchema();
+        schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+        FeatureDataset dataset = new FeatureDataset(schema);
+        for (int i = 0; i < count; i++) {
+            double x = random.nextDouble() * EXTENT;
+            double y = random.nextDouble() * EXTENT;
+            double size = 2 + random.nextDouble() * 20;
+            Feature feature = new BasicFeature(schema);
+            feature.setGeometry(factory.createPolygon(factory.createLinearRing(
+                    new Coordinate[] { new Coordinate(x, y), new Coordinate(x, y + size),
+                            new Coordinate(x + size, y + size), new Coordinate(x + size, y),
+                            new Coordinate(x, y) }), null));
+            dataset.add(feature);
+        }
+        return dataset;
+    }
+
+    private static long time(LayerViewPanel panel, int threads) throws Exception {
+        int runs = 3;
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < runs; i++) {
+            render(panel, threads);
+        }
+        return (System.currentTimeMillis() - start) / runs;
+    }
+
+    /**
+     * Renders every layer from scratch on a queue of the given size, and
+     * returns the composited result.
+     */
+    private static BufferedImage render(LayerViewPanel panel, int threads) throws Exception {
+        List layers = panel.getLayerManager().getLayers();
+        Renderer[] renderers = new Renderer[layers.size()];
+        final CountDownLatch done = new CountDownLatch(layers.size());
+        ThreadQueue queue = new ThreadQueue(threads);
+        for (int i = 0; i < renderers.length; i++) {
+            renderers[i] = new LayerRenderer((Layer) layers.get(i), panel);
+            final Runnable runnable = renderers[i].createRunnable();
+            queue.add(new Runnable() {
+                public void run() {
+                    try {
+                        runnable.run();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        done.await();
+        queue.dispose();
+
+        BufferedImage result = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = result.createGraphics();
+        // layers are listed top first
+        for (int i = renderers.length - 1; i >= 0; i--) {
+            renderers[i].copyTo(g);
+        }
+        g.dispose();
+        return result;
+    }
+
+    private static int countDifferences(BufferedImage a, BufferedImage b) {
+        int differences = 0;
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                if (channelDifference(a.getRGB(x, y), b.getRGB(x, y)) > TOLERANCE) {
+                    differences++;
+                }
+            }
+        }
+        return differences;
+    }
+
+    private static int channelDifference(int argb1, int argb2) {
+        int difference = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            difference = Math.max(difference,
+                    Math.abs(((argb1 >> shift) & 0xFF) - ((argb2 >> shift) & 0xFF)));
+        }
+        return difference;
+    }
+}
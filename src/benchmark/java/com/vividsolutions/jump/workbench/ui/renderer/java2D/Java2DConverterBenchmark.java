@@ -0,0 +1,144 @@
+package com.vividsolutions.jump.workbench.ui.renderer.java2D;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import com.vividsolutions.jts.geom.*;
+
+/**
+ * Compares Java2DConverter#toShape with #toReusableShape on a polygon with
+ * a 1,000,000-vertex shell and a few holes, reporting the time per
+ * conversion and the garbage collections during each run, the number of path
+ * segments each produces, and whether their fills differ. Run with an
+ * optional vertex count argument.
+ */
+public class Java2DConverterBenchmark {
+
+    private static final int HOLES = 10;
+    private static final int RUNS = 20;
+
+    private static GeometryFactory factory = new GeometryFactory();
+
+    public static void main(String[] args) throws Exception {
+        int vertices = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        Polygon polygon = createPolygon(vertices);
+        System.out.println("Vertices: " + polygon.getNumPoints());
+
+        final AffineTransform transform = new AffineTransform();
+        transform.translate(0, 1000);
+        transform.scale(1, -1);
+        transform.scale(0.37, 0.37);
+        transform.translate(-12.5, -7.25);
+        Java2DConverter converter = new Java2DConverter(
+                new Java2DConverter.AffinePointConverter() {
+                    public AffineTransform getModelToViewTransform() {
+                        return transform;
+                    }
+                    public Point2D toViewPoint(Coordinate modelCoordinate) {
+                        return transform.transform(new Point2D.Double(
+                                modelCoordinate.x, modelCoordinate.y), null);
+                    }
+                });
+
+        System.out.println("Path segments: toShape " + segments(converter.toShape(polygon))
+                + ", toReusableShape " + segments(converter.toReusableShape(polygon)));
+        System.out.println("Same fill: " + Arrays.equals(fill(converter.toShape(polygon)),
+                fill(converter.toReusableShape(polygon))));
+
+        for (int pass = 0; pass < 2; pass++) {
+            //the first pass warms up
+            long collections = collections();
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < RUNS; i++) {
+                consume(converter.toShape(polygon));
+            }
+            long shapeTime = System.currentTimeMillis() - start;
+            long shapeCollections = collections() - collections;
+
+            collections = collections();
+            start = System.currentTimeMillis();
+            for (int i = 0; i < RUNS; i++) {
+                consume(converter.toReusableShape(polygon));
+            }
+            long reusableTime = System.currentTimeMillis() - start;
+            long reusableCollections = collections() - collections;
+
+            if (pass == 1) {
+                System.out.println("toShape:         " + ((double) shapeTime / RUNS)
+                        + " ms, " + shapeCollections + " collections");
+                System.out.println("toReusableShape: " + ((double) reusableTime / RUNS)
+                        + " ms, " + reusableCollections + " collections");
+            }
+        }
+    }
+
+    private static Polygon createPolygon(int vertices) {
+        Coordinate[] shell = new Coordinate[vertices + 1];
+        for (int i = 0; i < vertices; i++) {
+            double angle = -2 * Math.PI * i / vertices;
+            //a wavy circle, so consecutive vertices are not collinear
+            double radius = 1000 + 5 * Math.sin(i * 0.1);
+            shell[i] = new Coordinate(radius * Math.cos(angle), radius * Math.sin(angle));
+        }
+        shell[vertices] = new Coordinate(shell[0]);
+        LinearRing[] holes = new LinearRing[HOLES];
+        for (int i = 0; i < HOLES; i++) {
+            double x = -500 + 100 * i;
+            holes[i] = factory.createLinearRing(new Coordinate[] {
+                    new Coordinate(x, 0), new Coordinate(x + 50, 0),
+                    new Coordinate(x + 50, 50), new Coordinate(x, 50),
+                    new Coordinate(x, 0) });
+        }
+        return factory.createPolygon(factory.createLinearRing(shell), holes);
+    }
+
+    /**
+     * Walks the path, as Graphics2D#fill would.
+     */
+    private static double consume(Shape shape) {
+        double[] coords = new double[6];
+        double sum = 0;
+        for (PathIterator i = shape.getPathIterator(null); !i.isDone(); i.next()) {
+            if (i.currentSegment(coords) != PathIterator.SEG_CLOSE) {
+                sum += coords[0] + coords[1];
+            }
+        }
+        return sum;
+    }
+
+    private static int segments(Shape shape) {
+        int segments = 0;
+        for (PathIterator i = shape.getPathIterator(null); !i.isDone(); i.next()) {
+            segments++;
+        }
+        return segments;
+    }
+
+    private static int[] fill(Shape shape) {
+        BufferedImage image = new BufferedImage(800, 800, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        // the polygon's centre is at (-5, 1003)
+        g.translate(400, -600);
+        g.setColor(Color.BLACK);
+        g.fill(shape);
+        g.dispose();
+        return image.getRGB(0, 0, 800, 800, null, 0, 800);
+    }
+
+    private static long collections() {
+        long collections = 0;
+        for (Iterator i = ManagementFactory.getGarbageCollectorMXBeans().iterator(); i.hasNext();) {
+            collections += ((GarbageCollectorMXBean) i.next()).getCollectionCount();
+        }
+        return collections;
+    }
+}
@@ -0,0 +1,131 @@
+package org.geotools.shapefile;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import com.vividsolutions.jts.geom.*;
+import com.vividsolutions.jump.io.EndianDataInputStream;
+import com.vividsolutions.jump.io.EndianDataOutputStream;
+
+/**
+ * Compares the linear and the indexed hole-to-shell assignment of
+ * PolygonHandler#read on a synthetic multipolygon: a large, densely noded
+ * "coastline" shell with many lakes, next to a grid of small islands with
+ * holes of their own. Run with an optional grid size argument (default 40).
+ */
+public class PolygonHandlerBenchmark {
+
+    private static final int COASTLINE_VERTICES = 20000;
+    private static final int HOLES_PER_CELL = 3;
+
+    private static GeometryFactory factory = new GeometryFactory();
+
+    public static void main(String[] args) throws Exception {
+        int gridSize = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+        MultiPolygon multi = createManyHoles(gridSize);
+        System.out.println("Polygons: " + multi.getNumGeometries() + ", rings: "
+                + countRings(multi) + ", vertices: " + multi.getNumPoints());
+
+        PolygonHandler handler = new PolygonHandler();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        handler.write(multi, new EndianDataOutputStream(bytes));
+        byte[] record = bytes.toByteArray();
+        int contentLength = handler.getLength(multi);
+
+        PolygonHandler linear = new PolygonHandler();
+        linear.indexedAssignmentThreshold = Integer.MAX_VALUE;
+        PolygonHandler indexed = new PolygonHandler();
+        indexed.indexedAssignmentThreshold = 0;
+
+        Geometry linearResult = read(linear, record, contentLength);
+        Geometry indexedResult = read(indexed, record, contentLength);
+        System.out.println("Same result: " + linearResult.equalsExact(indexedResult));
+
+        int runs = 3;
+        long linearTime = time(linear, record, contentLength, runs);
+        long indexedTime = time(indexed, record, contentLength, runs);
+        System.out.println("Linear assignment:  " + linearTime + " ms per read");
+        System.out.println("Indexed assignment: " + indexedTime + " ms per read");
+        System.out.println("Speedup: " + ((double) linearTime / Math.max(1, indexedTime)) + "x");
+    }
+
+    private static Geometry read(PolygonHandler handler, byte[] record, int contentLength)
+            throws Exception {
+        return handler.read(new EndianDataInputStream(ByteBuffer.wrap(record)), factory,
+                contentLength);
+    }
+
+    private static long time(PolygonHandler handler, byte[] record, int contentLength,
+            int runs) throws Exception {
+        read(handler, record, contentLength); //warm up
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < runs; i++) {
+            read(handler, record, contentLength);
+        }
+        return (System.currentTimeMillis() - start) / runs;
+    }
+
+    private static int countRings(MultiPolygon multi) {
+        int rings = 0;
+        for (int i = 0; i < multi.getNumGeometries(); i++) {
+            rings += 1 + ((Polygon) multi.getGeometryN(i)).getNumInteriorRing();
+        }
+        return rings;
+    }
+
+    /**
+     * Shells are clockwise and holes counter-clockwise, as in a shapefile.
+     */
+    static MultiPolygon createManyHoles(int gridSize) {
+        Polygon[] polygons = new Polygon[1 + gridSize * gridSize];
+
+        //coastline: a circle of radius gridSize around (0, 0), with a lake in
+        //every cell of the inscribed grid
+        double radius = gridSize;
+        Coordinate[] coastline = new Coordinate[COASTLINE_VERTICES + 1];
+        for (int i = 0; i < COASTLINE_VERTICES; i++) {
+            double angle = -2 * Math.PI * i / COASTLINE_VERTICES;
+            coastline[i] = new Coordinate(radius * Math.cos(angle), radius * Math.sin(angle));
+        }
+        coastline[COASTLINE_VERTICES] = new Coordinate(coastline[0]);
+        double half = radius / Math.sqrt(2);
+        int lakesPerSide = gridSize;
+        double lakeCell = 2 * half / lakesPerSide;
+        LinearRing[] lakes = new LinearRing[lakesPerSide * lakesPerSide];
+        for (int i = 0; i < lakesPerSide; i++) {
+            for (int j = 0; j < lakesPerSide; j++) {
+                double x = -half + i * lakeCell;
+                double y = -half + j * lakeCell;
+                lakes[i * lakesPerSide + j] = square(x + 0.25 * lakeCell, y + 0.25 * lakeCell,
+                        0.5 * lakeCell, false);
+            }
+        }
+        polygons[0] = factory.createPolygon(factory.createLinearRing(coastline), lakes);
+
+        //islands east of the coastline, each with holes of its own
+        for (int i = 0; i < gridSize; i++) {
+            for (int j = 0; j < gridSize; j++) {
+                double x = 2 * radius + i;
+                double y = -radius + j;
+                LinearRing[] holes = new LinearRing[HOLES_PER_CELL];
+                for (int k = 0; k < HOLES_PER_CELL; k++) {
+                    holes[k] = square(x + 0.1 + 0.3 * k, y + 0.4, 0.2, false);
+                }
+                polygons[1 + i * gridSize + j] = factory.createPolygon(
+                        square(x, y, 0.95, true), holes);
+            }
+        }
+        return factory.createMultiPolygon(polygons);
+    }
+
+    private static LinearRing square(double x, double y, double size, boolean clockwise) {
+        Coordinate[] pts = clockwise
+                ? new Coordinate[] { new Coordinate(x, y), new Coordinate(x, y + size),
+                    new Coordinate(x + size, y + size), new Coordinate(x + size, y),
+                    new Coordinate(x, y) }
+                : new Coordinate[] { new Coordinate(x, y), new Coordinate(x + size, y),
+                    new Coordinate(x + size, y + size), new Coordinate(x, y + size),
+                    new Coordinate(x, y) };
+        return factory.createLinearRing(pts);
+    }
+}
@@ -13,6 +13,7 @@ public class FilterQuery
   private String[] propertyNames;
   private Geometry geom;
   private String condition;
+  private double simplificationTolerance = 0;
   /**
    * Not all query processors need this.
    */
@@ -27,6 +28,12 @@ public class FilterQuery
 
   public void setDatasetName(String datasetName) { this.datasetName = datasetName; }
   public String getDatasetName() { return datasetName; }
+  /**
+   * Limits the attributes whose values are fetched; the others are
+   * still present, but null. Not all query processors support this.
+   *
+   * @param propertyNames the attributes to fetch, or null for all
+   */
   public void setPropertyNames(String[] propertyNames) { this.propertyNames = propertyNames; }
   public String[] getPropertyNames() { return propertyNames; }
   public void setFilterGeometry(Geometry geom) { this.geom = geom; }
@@ -34,6 +41,17 @@ public class FilterQuery
   public void setCondition(String condition) { this.condition = condition; }
   public String getCondition() { return condition; }
 
+  /**
+   * Lets the query processor simplify the geometries it returns, for
+   * example to the pixel size of the view they are to be drawn in.
+   * Not all query processors support this.
+   *
+   * @param simplificationTolerance the distance, in the units of the
+   * geometries, by which they may be simplified; 0 for none
+   */
+  public void setSimplificationTolerance(double simplificationTolerance) { this.simplificationTolerance = simplificationTolerance; }
+  public double getSimplificationTolerance() { return simplificationTolerance; }
+
   public void setGeometryAttributeName(String geomAttrName) { this.geomAttrName = geomAttrName; }
   public String getGeometryAttributeName() { return geomAttrName; }
 
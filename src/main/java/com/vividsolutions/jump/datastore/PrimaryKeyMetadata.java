@@ -0,0 +1,16 @@
+package com.vividsolutions.jump.datastore;
+
+/**
+ * Implemented by {@link DataStoreMetadata} that can tell which attribute
+ * identifies each feature of a dataset. Optional, so that drivers written
+ * before it was added keep working.
+ */
+public interface PrimaryKeyMetadata
+{
+  /**
+   * @param datasetName
+   * @return the attribute identifying each feature of the dataset; null if it
+   * has no single-column primary key, or it cannot be determined
+   */
+  String getPrimaryKeyColumnName(String datasetName);
+}
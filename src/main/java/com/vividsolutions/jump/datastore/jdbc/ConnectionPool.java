@@ -0,0 +1,343 @@
+package com.vividsolutions.jump.datastore.jdbc;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * A bounded pool of JDBC connections to one database, so that several
+ * queries can run at once without each opening a connection of its own.
+ * A connection that has been idle for a while is checked with a
+ * validation query before it is handed out, and one idle for longer
+ * than the maximum idle time is closed.
+ */
+public class ConnectionPool
+{
+  /**
+   * Opens the pool's connections.
+   */
+  public interface ConnectionFactory
+  {
+    Connection createConnection() throws SQLException;
+  }
+
+  public static final int DEFAULT_MAX_SIZE = 8;
+  public static final long DEFAULT_MAX_IDLE_TIME = 5 * 60 * 1000;
+
+  private static final int MAX_STATEMENTS_PER_CONNECTION = 32;
+
+  // Connections used more recently than this are assumed to be valid
+  private static final long VALIDATION_INTERVAL = 10 * 1000;
+  private static final long WAIT_TIMEOUT = 60 * 1000;
+
+  private static Timer evictionTimer = null;
+
+  private ConnectionFactory factory;
+  private int maxSize;
+  private String validationQuery;
+  private long maxIdleTime;
+  // The state a connection is given back in
+  private boolean autoCommit = true;
+
+  // Most recently released last
+  private LinkedList idleConnections = new LinkedList();
+  // Idle and in use
+  private int size = 0;
+  private boolean closed = false;
+  // null if idle connections are kept
+  private TimerTask evictionTask = null;
+  // Connection -> SQL -> PreparedStatement, least recently used first
+  private Map connectionToStatementsMap = new HashMap();
+
+  /**
+   * @param validationQuery a cheap query which succeeds on a working
+   * connection
+   * @param maxIdleTime in milliseconds
+   */
+  public ConnectionPool(ConnectionFactory factory, int maxSize,
+                        String validationQuery, long maxIdleTime)
+  {
+    this.factory = factory;
+    this.maxSize = maxSize;
+    this.validationQuery = validationQuery;
+    this.maxIdleTime = maxIdleTime;
+    evictionTask = new TimerTask() {
+      public void run() {
+        evictIdleConnections();
+      }
+    };
+    getEvictionTimer().schedule(evictionTask, maxIdleTime / 2, maxIdleTime / 2);
+  }
+
+  /**
+   * Creates a pool of just the given connection, which is lent to one
+   * borrower at a time, is never validated or closed while idle, and is
+   * closed with the pool. Each borrower gets it back in the autocommit
+   * mode it is in now.
+   */
+  public ConnectionPool(Connection connection)
+      throws SQLException
+  {
+    factory = new ConnectionFactory() {
+      public Connection createConnection() throws SQLException {
+        throw new SQLException("The pool's connection is closed");
+      }
+    };
+    maxSize = 1;
+    autoCommit = connection.getAutoCommit();
+    idleConnections.add(new IdleConnection(connection));
+    size = 1;
+  }
+
+  private static synchronized Timer getEvictionTimer()
+  {
+    if (evictionTimer == null)
+      evictionTimer = new Timer(true);
+    return evictionTimer;
+  }
+
+  /**
+   * Hands out an idle connection, or opens one if the pool is not full,
+   * or else waits for one to be released.
+   * Each connection must be given back with {@link #releaseConnection}.
+   */
+  public Connection getConnection()
+      throws SQLException
+  {
+    while (true) {
+      IdleConnection idleConnection = takeIdleConnection();
+      if (idleConnection == null) {
+        // A place in the pool has been reserved for a new connection
+        try {
+          return factory.createConnection();
+        }
+        catch (SQLException ex) {
+          discarded(null);
+          throw ex;
+        }
+        catch (RuntimeException ex) {
+          discarded(null);
+          throw ex;
+        }
+      }
+      if (isValid(idleConnection))
+        return idleConnection.connection;
+      close(idleConnection.connection);
+      discarded(idleConnection.connection);
+    }
+  }
+
+  /**
+   * @return an idle connection, or null once a place has been reserved for
+   * a new one
+   */
+  private synchronized IdleConnection takeIdleConnection()
+      throws SQLException
+  {
+    long giveUpTime = System.currentTimeMillis() + WAIT_TIMEOUT;
+    while (true) {
+      if (closed)
+        throw new SQLException("Connection pool is closed");
+      if (! idleConnections.isEmpty())
+        return (IdleConnection) idleConnections.removeLast();
+      if (size < maxSize) {
+        size++;
+        return null;
+      }
+      long waitTime = giveUpTime - System.currentTimeMillis();
+      if (waitTime <= 0)
+        throw new SQLException("Timed out waiting for one of the "
+                               + maxSize + " connections to be released");
+      try {
+        wait(waitTime);
+      }
+      catch (InterruptedException ex) {
+        throw new SQLException("Interrupted waiting for a connection");
+      }
+    }
+  }
+
+  private boolean isValid(IdleConnection idleConnection)
+  {
+    try {
+      if (idleConnection.connection.isClosed())
+        return false;
+      if (validationQuery == null)
+        return true;
+      if (System.currentTimeMillis() - idleConnection.releaseTime < VALIDATION_INTERVAL)
+        return true;
+      Statement stmt = idleConnection.connection.createStatement();
+      try {
+        stmt.executeQuery(validationQuery).close();
+      }
+      finally {
+        stmt.close();
+      }
+      return true;
+    }
+    catch (SQLException ex) {
+      return false;
+    }
+  }
+
+  /**
+   * Gives back a connection from {@link #getConnection}, ending any
+   * transaction its borrower started, such as a cursor's, even if the pool
+   * hands its connections out with autocommit off.
+   */
+  public void releaseConnection(Connection connection)
+  {
+    try {
+      if (! connection.isClosed()) {
+        if (! connection.getAutoCommit())
+          connection.rollback();
+        if (connection.getAutoCommit() != autoCommit)
+          connection.setAutoCommit(autoCommit);
+      }
+    }
+    catch (SQLException ex) {
+      close(connection);
+    }
+    synchronized (this) {
+      if (! closed && ! isClosed(connection)) {
+        idleConnections.addLast(new IdleConnection(connection));
+        notifyAll();
+        return;
+      }
+    }
+    close(connection);
+    discarded(connection);
+  }
+
+  /**
+   * @param connection the closed connection, or null if it failed to open
+   */
+  private synchronized void discarded(Connection connection)
+  {
+    size--;
+    connectionToStatementsMap.remove(connection);
+    notifyAll();
+  }
+
+  /**
+   * Prepares the SQL on a connection from {@link #getConnection}, or reuses
+   * the statement prepared for it before, so that the driver can have the
+   * server plan it once. The statement belongs to the pool and must not be
+   * closed.
+   */
+  public PreparedStatement prepareStatement(Connection connection, String sql)
+      throws SQLException
+  {
+    Map statements;
+    synchronized (this) {
+      statements = (Map) connectionToStatementsMap.get(connection);
+      if (statements == null) {
+        statements = new LinkedHashMap(16, 0.75f, true) {
+          protected boolean removeEldestEntry(Map.Entry eldest) {
+            if (size() <= MAX_STATEMENTS_PER_CONNECTION)
+              return false;
+            close((PreparedStatement) eldest.getValue());
+            return true;
+          }
+        };
+        connectionToStatementsMap.put(connection, statements);
+      }
+    }
+    // Only the connection's borrower uses its statements
+    PreparedStatement stmt = (PreparedStatement) statements.get(sql);
+    if (stmt == null) {
+      stmt = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                                         ResultSet.CONCUR_READ_ONLY);
+      statements.put(sql, stmt);
+    }
+    return stmt;
+  }
+
+  private void evictIdleConnections()
+  {
+    List evicted = new ArrayList();
+    synchronized (this) {
+      long now = System.currentTimeMillis();
+      // The least recently released are first
+      while (! idleConnections.isEmpty()
+             && now - ((IdleConnection) idleConnections.getFirst()).releaseTime > maxIdleTime) {
+        Connection connection = ((IdleConnection) idleConnections.removeFirst()).connection;
+        evicted.add(connection);
+        connectionToStatementsMap.remove(connection);
+        size--;
+      }
+      notifyAll();
+    }
+    for (Iterator i = evicted.iterator(); i.hasNext(); ) {
+      close((Connection) i.next());
+    }
+  }
+
+  /**
+   * Closes the idle connections, and the others as they are released.
+   */
+  public void close()
+  {
+    List idle;
+    synchronized (this) {
+      closed = true;
+      if (evictionTask != null)
+        evictionTask.cancel();
+      idle = new ArrayList(idleConnections);
+      idleConnections.clear();
+      for (Iterator i = idle.iterator(); i.hasNext(); ) {
+        connectionToStatementsMap.remove(((IdleConnection) i.next()).connection);
+      }
+      size -= idle.size();
+      notifyAll();
+    }
+    for (Iterator i = idle.iterator(); i.hasNext(); ) {
+      close(((IdleConnection) i.next()).connection);
+    }
+  }
+
+  public synchronized boolean isClosed()
+  {
+    return closed;
+  }
+
+  private static boolean isClosed(Connection connection)
+  {
+    try {
+      return connection.isClosed();
+    }
+    catch (SQLException ex) {
+      return true;
+    }
+  }
+
+  private static void close(Connection connection)
+  {
+    try {
+      connection.close();
+    }
+    catch (SQLException ex) {
+      // it is being discarded anyway
+    }
+  }
+
+  private static void close(Statement stmt)
+  {
+    try {
+      stmt.close();
+    }
+    catch (SQLException ex) {
+      // it is being discarded anyway
+    }
+  }
+
+  private static class IdleConnection
+  {
+    Connection connection;
+    long releaseTime = System.currentTimeMillis();
+
+    IdleConnection(Connection connection)
+    {
+      this.connection = connection;
+    }
+  }
+}
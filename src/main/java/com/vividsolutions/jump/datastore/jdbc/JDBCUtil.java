@@ -11,6 +11,24 @@ import com.vividsolutions.jump.datastore.*;
  */
 public class JDBCUtil
 {
+  /**
+   * Executes the query on a connection from the pool, giving it back
+   * afterwards.
+   */
+  public static void execute(ConnectionPool pool, String sql, ResultSetBlock block) {
+      Connection conn;
+      try {
+          conn = pool.getConnection();
+      } catch (SQLException e) {
+          throw new RuntimeException(e);
+      }
+      try {
+          execute(conn, sql, block);
+      } finally {
+          pool.releaseConnection(conn);
+      }
+  }
+
   public static void execute(Connection conn, String sql, ResultSetBlock block) {
       try {
           Statement statement = conn.createStatement();
@@ -11,6 +11,7 @@ import com.vividsolutions.jump.datastore.DataStoreMetadata;
 import com.vividsolutions.jump.datastore.FilterQuery;
 import com.vividsolutions.jump.datastore.Query;
 import com.vividsolutions.jump.datastore.SpatialReferenceSystemID;
+import com.vividsolutions.jump.datastore.jdbc.ConnectionPool;
 import com.vividsolutions.jump.io.FeatureInputStream;
 
 /**
@@ -18,24 +19,82 @@ import com.vividsolutions.jump.io.FeatureInputStream;
 public class PostgisDSConnection
     implements DataStoreConnection
 {
+  /**
+   * The number of rows fetched at a time by the queries' cursors.
+   */
+  public static final int DEFAULT_FETCH_SIZE = 1000;
+
   private PostgisDSMetadata dbMetadata;
-  private Connection connection;
+  private ConnectionPool connectionPool;
+  // Only for #getConnection
+  private Connection connection = null;
+  private int fetchSize = DEFAULT_FETCH_SIZE;
 
+  /**
+   * Queries through the given connection, one at a time.
+   *
+   * @deprecated Use #PostgisDSConnection(ConnectionPool), so that queries
+   * from several layers run at once.
+   */
   public PostgisDSConnection(Connection conn) {
+    this(newConnectionPool(conn));
     connection = conn;
+  }
+
+  private static ConnectionPool newConnectionPool(Connection conn) {
+    try {
+      return new ConnectionPool(conn);
+    }
+    catch (SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  /**
+   * Each query takes a connection from the pool until its stream is
+   * closed, so queries from several layers run at once.
+   */
+  public PostgisDSConnection(ConnectionPool connectionPool) {
+    this.connectionPool = connectionPool;
     dbMetadata = new PostgisDSMetadata(this);
   }
 
+  /**
+   * @return the connection given to the constructor, or null if the
+   * connection has a pool of them
+   * @deprecated Borrow a connection from #getConnectionPool, and give it
+   * back, instead.
+   */
   public Connection getConnection()
   {
     return connection;
   }
 
+  public ConnectionPool getConnectionPool()
+  {
+    return connectionPool;
+  }
+
   public DataStoreMetadata getMetadata()
   {
     return dbMetadata;
   }
 
+  /**
+   * Sets the number of rows fetched at a time by the cursors of filter
+   * queries executed afterwards. 0 reads each result set in full when the query
+   * is executed, as the driver does by default.
+   */
+  public void setFetchSize(int fetchSize)
+  {
+    this.fetchSize = fetchSize;
+  }
+
+  public int getFetchSize()
+  {
+    return fetchSize;
+  }
+
     public FeatureInputStream execute(Query query) {
         if (query instanceof FilterQuery) {
             try {
@@ -66,16 +125,17 @@ public class PostgisDSConnection
     String[] colNames = dbMetadata.getColumnNames(query.getDatasetName());
 
     PostgisSQLBuilder builder = new PostgisSQLBuilder(srid, colNames);
-    String queryString = builder.getSQL(query);
+    String queryString = builder.getPreparedSQL(query);
 
-    PostgisFeatureInputStream ifs = new PostgisFeatureInputStream(connection, queryString);
+    PostgisFeatureInputStream ifs = new PostgisFeatureInputStream(this, queryString,
+                                                                  builder.getParameters(query));
     return ifs;
   }
 
   public FeatureInputStream executeAdhocQuery(AdhocQuery query)
   {
     String queryString = query.getQuery();
-    PostgisFeatureInputStream ifs = new PostgisFeatureInputStream(connection, queryString);
+    PostgisFeatureInputStream ifs = new PostgisFeatureInputStream(this, queryString);
     return ifs;
   }
 
@@ -84,17 +144,13 @@ public class PostgisDSConnection
       throws DataStoreException
   {
     try {
-      connection.close();
+      connectionPool.close();
     }
     catch (Exception ex) { throw new DataStoreException(ex); }
   }
 
   public boolean isClosed() throws DataStoreException {
-    try {
-        return connection.isClosed();
-    } catch (SQLException e) {
-        throw new DataStoreException(e);
-    }
+    return connectionPool.isClosed();
   }
 
 }
\ No newline at end of file
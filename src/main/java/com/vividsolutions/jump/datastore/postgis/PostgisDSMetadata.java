@@ -3,7 +3,9 @@ package com.vividsolutions.jump.datastore.postgis;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -11,19 +13,25 @@ import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.io.WKBReader;
 import com.vividsolutions.jump.datastore.DataStoreMetadata;
+import com.vividsolutions.jump.datastore.PrimaryKeyMetadata;
 import com.vividsolutions.jump.datastore.SpatialReferenceSystemID;
 import com.vividsolutions.jump.datastore.jdbc.JDBCUtil;
 import com.vividsolutions.jump.datastore.jdbc.ResultSetBlock;
 
 
 
-public class PostgisDSMetadata implements DataStoreMetadata {
+public class PostgisDSMetadata implements DataStoreMetadata, PrimaryKeyMetadata {
 
   private final WKBReader reader = new WKBReader();
 
   private PostgisDSConnection conn;
 
-  private Map sridMap = new HashMap();
+  // Caches, as each query needs the SRID and columns, and each view the
+  // extents, which are slow to find. Render threads query at once.
+  private Map sridMap = Collections.synchronizedMap(new HashMap());
+  private Map columnNamesMap = Collections.synchronizedMap(new HashMap());
+  private Map extentsMap = Collections.synchronizedMap(new HashMap());
+  private Map primaryKeyMap = Collections.synchronizedMap(new HashMap());
 
   public PostgisDSMetadata( PostgisDSConnection conn ) {
     this.conn = conn;
@@ -33,7 +41,7 @@ public class PostgisDSMetadata implements DataStoreMetadata {
     final List datasetNames = new ArrayList();
     // Spatial tables only.
     JDBCUtil.execute(
-        conn.getConnection(),
+        conn.getConnectionPool(),
         "SELECT DISTINCT f_table_schema, f_table_name FROM geometry_columns",
         new ResultSetBlock() {
       public void yield( ResultSet resultSet ) throws SQLException {
@@ -51,7 +59,55 @@ public class PostgisDSMetadata implements DataStoreMetadata {
   }
 
 
+  /**
+   * Forgets what is known of the datasets' columns, SRIDs and extents,
+   * so that changes to them are seen.
+   */
+  public void invalidate() {
+    sridMap.clear();
+    columnNamesMap.clear();
+    extentsMap.clear();
+    primaryKeyMap.clear();
+  }
+
+  /**
+   * Forgets what is known of a dataset's columns, SRIDs and extents.
+   */
+  public void invalidate( String datasetName ) {
+    columnNamesMap.remove( datasetName );
+    primaryKeyMap.remove( datasetName );
+    String keyPrefix = datasetName + "#";
+    synchronized ( sridMap ) {
+      removeKeysStartingWith( sridMap, keyPrefix );
+    }
+    synchronized ( extentsMap ) {
+      removeKeysStartingWith( extentsMap, keyPrefix );
+    }
+  }
+
+  private static void removeKeysStartingWith( Map map, String keyPrefix ) {
+    for ( Iterator i = map.keySet().iterator(); i.hasNext(); ) {
+      if ( ( ( String ) i.next() ).startsWith( keyPrefix ) ) {
+        i.remove();
+      }
+    }
+  }
+
   public Envelope getExtents( String datasetName, String attributeName ) {
+    String key = datasetName + "#" + attributeName;
+    Envelope extents = ( Envelope ) extentsMap.get( key );
+    if ( extents == null ) {
+      extents = queryExtents( datasetName, attributeName );
+      // Null for an empty table, or if the query failed, so ask again next
+      // time
+      if ( extents != null ) {
+        extentsMap.put( key, extents );
+      }
+    }
+    return extents;
+  }
+
+  private Envelope queryExtents( String datasetName, String attributeName ) {
     final Envelope[] e = new Envelope[]{null};
     //
     // Use find_extent - sometimes estimated_extent was returning null
@@ -59,7 +115,7 @@ public class PostgisDSMetadata implements DataStoreMetadata {
     String sql = "SELECT AsBinary(find_extent( '" + datasetName + "', '" + attributeName + "' ))";
 
     JDBCUtil.execute(
-        conn.getConnection(), sql,
+        conn.getConnectionPool(), sql,
         new ResultSetBlock() {
       public void yield( ResultSet resultSet ) throws Exception {
         if ( resultSet.next() ) {
@@ -94,7 +150,7 @@ public class PostgisDSMetadata implements DataStoreMetadata {
     final StringBuffer srid = new StringBuffer();
     String sql = "SELECT getsrid(" + colName + ") FROM " + tableName + " LIMIT 1";
 
-    JDBCUtil.execute(conn.getConnection(), sql, new ResultSetBlock() {
+    JDBCUtil.execute(conn.getConnectionPool(), sql, new ResultSetBlock() {
       public void yield(ResultSet resultSet) throws SQLException {
         if (resultSet.next()) {
           srid.append(resultSet.getString(1));
@@ -110,7 +166,7 @@ public class PostgisDSMetadata implements DataStoreMetadata {
     String sql = "SELECT f_geometry_column FROM geometry_columns "
                + geomColumnMetadataWhereClause( "f_table_schema", "f_table_name", datasetName );
     JDBCUtil.execute(
-        conn.getConnection(), sql,
+        conn.getConnectionPool(), sql,
         new ResultSetBlock() {
       public void yield( ResultSet resultSet ) throws SQLException {
         while ( resultSet.next() ) {
@@ -123,14 +179,44 @@ public class PostgisDSMetadata implements DataStoreMetadata {
 
 
   public String[] getColumnNames( String datasetName ) {
+    String[] colNames = ( String[] ) columnNamesMap.get( datasetName );
+    if ( colNames == null ) {
+      colNames = queryColumnNames( datasetName );
+      columnNamesMap.put( datasetName, colNames );
+    }
+    return colNames;
+  }
+
+  private String[] queryColumnNames( String datasetName ) {
     String sql = "SELECT column_name FROM information_schema.columns "
                + geomColumnMetadataWhereClause( "table_schema", "table_name", datasetName );
     ColumnNameBlock block = new ColumnNameBlock();
-    JDBCUtil.execute( conn.getConnection(), sql, block );
+    JDBCUtil.execute( conn.getConnectionPool(), sql, block );
     return block.colName;
   }
 
 
+  /**
+   * @return the column of the dataset's primary key, or null if it has none
+   * or it has several columns
+   */
+  public String getPrimaryKeyColumnName( String datasetName ) {
+    // May be null
+    if ( primaryKeyMap.containsKey( datasetName ) ) {
+      return ( String ) primaryKeyMap.get( datasetName );
+    }
+    String sql = "SELECT k.column_name FROM information_schema.table_constraints c"
+               + " JOIN information_schema.key_column_usage k"
+               + " ON k.constraint_schema = c.constraint_schema AND k.constraint_name = c.constraint_name "
+               + geomColumnMetadataWhereClause( "c.table_schema", "c.table_name", datasetName )
+               + " AND c.constraint_type = 'PRIMARY KEY'";
+    ColumnNameBlock block = new ColumnNameBlock();
+    JDBCUtil.execute( conn.getConnectionPool(), sql, block );
+    String primaryKey = block.colName.length == 1 ? block.colName[0] : null;
+    primaryKeyMap.put( datasetName, primaryKey );
+    return primaryKey;
+  }
+
   private String geomColumnMetadataWhereClause( String schemaCol, String tableCol, String tableName ) {
     int dotPos = tableName.indexOf( "." );
     return dotPos == -1
@@ -3,6 +3,7 @@ package com.vividsolutions.jump.datastore.postgis;
 import java.sql.*;
 
 import com.vividsolutions.jump.datastore.*;
+import com.vividsolutions.jump.datastore.jdbc.ConnectionPool;
 
 import com.vividsolutions.jump.parameter.ParameterList;
 import com.vividsolutions.jump.parameter.ParameterListSchema;
@@ -59,10 +60,10 @@ public class PostgisDataStoreDriver
     String host = params.getParameterString(PARAM_Server);
     int port = params.getParameterInt(PARAM_Port);
     String database = params.getParameterString(PARAM_Instance);
-    String user = params.getParameterString(PARAM_User);
-    String password = params.getParameterString(PARAM_Password);
+    final String user = params.getParameterString(PARAM_User);
+    final String password = params.getParameterString(PARAM_Password);
 
-    String url
+    final String url
         = String.valueOf(new StringBuffer(URL_PREFIX).append
         (host).append
         (":").append
@@ -72,8 +73,20 @@ public class PostgisDataStoreDriver
     Driver driver = (Driver) Class.forName(JDBC_CLASS).newInstance();
     DriverManager.registerDriver(driver);
 
-    Connection conn = DriverManager.getConnection(url, user, password);
-    return new PostgisDSConnection(conn);
+    ConnectionPool pool = new ConnectionPool(new ConnectionPool.ConnectionFactory() {
+      public Connection createConnection() throws SQLException {
+        return DriverManager.getConnection(url, user, password);
+      }
+    }, ConnectionPool.DEFAULT_MAX_SIZE, "SELECT 1", ConnectionPool.DEFAULT_MAX_IDLE_TIME);
+    // Open one now, so that a wrong password or server is reported at once
+    try {
+      pool.releaseConnection(pool.getConnection());
+    }
+    catch (SQLException ex) {
+      pool.close();
+      throw ex;
+    }
+    return new PostgisDSConnection(pool);
   }
   public boolean isAdHocQuerySupported() {
       return true;
@@ -4,6 +4,7 @@ import java.sql.*;
 
 import org.postgresql.*;
 
+import com.vividsolutions.jump.datastore.jdbc.ConnectionPool;
 import com.vividsolutions.jump.feature.Feature;
 import com.vividsolutions.jump.feature.FeatureSchema;
 import com.vividsolutions.jump.io.BaseFeatureInputStream;
@@ -24,6 +25,14 @@ public class PostgisFeatureInputStream
   private ResultSet rs = null;
   private PostgisResultSetConverter mapper;
 
+  // The pool conn is taken from, while the stream is open; null if conn
+  // was given
+  private ConnectionPool connectionPool = null;
+  private int fetchSize = 0;
+  // For a statement prepared by the pool; null for a plain statement
+  private Object[] parameters = null;
+  private boolean closed = false;
+
   int geometryColIndex = -1;
 
   public PostgisFeatureInputStream(Connection conn, String queryString) {
@@ -32,34 +41,105 @@ public class PostgisFeatureInputStream
   }
 
   /**
-   * @return The underlaying {@link Connection}.
+   * Creates a stream which runs the query on a connection of its own from
+   * the pool, until it is closed. The query runs in the connection's
+   * autocommit mode, and its whole result set is read when it is executed.
+   *
+   * @param dsConnection the connection to query
+   */
+  public PostgisFeatureInputStream(PostgisDSConnection dsConnection, String queryString) {
+    this.connectionPool = dsConnection.getConnectionPool();
+    this.queryString = queryString;
+  }
+
+  /**
+   * Creates a stream which executes a statement prepared with the
+   * connection pool, which reuses it whenever the same SQL is executed on
+   * the same connection. It fetches rows a batch at a time through a
+   * server-side cursor, so that the first features can be used while the
+   * rest are still arriving, and the driver does not hold the whole result
+   * set in memory. The cursor's read-only transaction is rolled back when
+   * the stream is closed.
+   *
+   * @param dsConnection the connection to query, whose fetch size is used
+   * @param queryString SQL with a placeholder for each parameter
+   * @param parameters the placeholders' values, or null to execute the SQL
+   * as it is
+   * @see PostgisDSConnection#setFetchSize(int)
+   */
+  public PostgisFeatureInputStream(PostgisDSConnection dsConnection, String queryString,
+                                   Object[] parameters) {
+    this(dsConnection, queryString);
+    this.fetchSize = dsConnection.getFetchSize();
+    this.parameters = parameters;
+  }
+
+  /**
+   * @return The underlaying {@link Connection}; for a stream from a
+   * connection pool, null until the query is executed
    */
   public Connection getConnection(){return conn;}
 
-  private void init()
+  private synchronized void init()
       throws SQLException
   {
-    if (initialized)
+    // a closed stream must not take a connection from the pool
+    if (initialized || closed)
       return;
     initialized = true;
 
     //conn.setDefaultRowPrefetch(100);
-    stmt = conn.createStatement();
     String parsedQuery = queryString;
     //String parsedQuery = QueryUtil.parseQuery(queryString);
-    rs = stmt.executeQuery(parsedQuery);
-    mapper = new PostgisResultSetConverter(conn, rs);
-    featureSchema = mapper.getFeatureSchema();
+    try {
+      if (connectionPool != null)
+        conn = connectionPool.getConnection();
+      if (fetchSize > 0 && conn.getAutoCommit()) {
+        // The driver only uses a cursor outside autocommit mode; the
+        // pool ends the transaction when the connection is released
+        conn.setAutoCommit(false);
+      }
+      if (parameters != null) {
+        PreparedStatement preparedStmt = connectionPool.prepareStatement(conn, parsedQuery);
+        for (int i = 0; i < parameters.length; i++) {
+          preparedStmt.setObject(i + 1, parameters[i]);
+        }
+        preparedStmt.setFetchSize(fetchSize);
+        // the pool's, so kept out of stmt, which is closed with the stream
+        rs = preparedStmt.executeQuery();
+      }
+      else {
+        if (fetchSize > 0) {
+          stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+          stmt.setFetchSize(fetchSize);
+        }
+        else {
+          stmt = conn.createStatement();
+        }
+        rs = stmt.executeQuery(parsedQuery);
+      }
+      mapper = new PostgisResultSetConverter(conn, rs);
+      featureSchema = mapper.getFeatureSchema();
+    }
+    // Give a pooled connection back whatever goes wrong
+    catch (SQLException ex) {
+      close();
+      throw ex;
+    }
+    catch (RuntimeException ex) {
+      close();
+      throw ex;
+    }
   }
 
-  protected Feature readNext()
+  protected synchronized Feature readNext()
       throws Exception
   {
     if (savedException != null)
       throw savedException;
     if (! initialized)
       init();
-    if (rs == null)
+    if (closed || rs == null)
       return null;
     if (! rs.next())
       return null;
@@ -72,12 +152,25 @@ public class PostgisFeatureInputStream
     return mapper.getFeature();
   }
 
-  public void close() throws SQLException {
-    if (rs != null) {
-      rs.close();
+  /**
+   * May be called from another thread than the one reading, for example
+   * when the features are no longer wanted; reading then stops.
+   */
+  public synchronized void close() throws SQLException {
+    if (closed)
+      return;
+    closed = true;
+    try {
+      if (rs != null) {
+        rs.close();
+      }
+      if (stmt != null) {
+        stmt.close();
+      }
     }
-    if (stmt != null) {
-      stmt.close();
+    finally {
+      if (connectionPool != null && conn != null)
+        connectionPool.releaseConnection(conn);
     }
   }
 
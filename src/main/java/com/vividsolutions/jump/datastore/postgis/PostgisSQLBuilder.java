@@ -1,5 +1,8 @@
 package com.vividsolutions.jump.datastore.postgis;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
@@ -22,19 +25,50 @@ public class PostgisSQLBuilder
 
   public String getSQL(FilterQuery query)
   {
-    return buildQueryString(query);
+    return buildQueryString(query, false);
   }
 
-  private String buildQueryString(FilterQuery query) {
+  /**
+   * Creates the SQL with placeholders for the values which change from one
+   * view to the next, so that one statement can be prepared for a dataset
+   * and executed for every pan and zoom.
+   *
+   * @see #getParameters(FilterQuery)
+   */
+  public String getPreparedSQL(FilterQuery query)
+  {
+    return buildQueryString(query, true);
+  }
+
+  /**
+   * @return the values for the placeholders in {@link #getPreparedSQL}
+   */
+  public Object[] getParameters(FilterQuery query)
+  {
+    List parameters = new ArrayList();
+    double tolerance = query.getSimplificationTolerance();
+    if (tolerance > 0)
+      parameters.add(new Double(tolerance));
+    Envelope env = query.getFilterGeometry().getEnvelopeInternal();
+    parameters.add(new Double(env.getMinX()));
+    parameters.add(new Double(env.getMinY()));
+    parameters.add(new Double(env.getMaxX()));
+    parameters.add(new Double(env.getMaxY()));
+    return parameters.toArray();
+  }
+
+  private String buildQueryString(FilterQuery query, boolean prepared) {
     StringBuffer qs = new StringBuffer();
     //HACK
     qs.append("SELECT ");
-    qs.append(getColumnListSpecifier(colNames, query.getGeometryAttributeName()));
+    qs.append(getColumnListSpecifier(colNames, query, prepared));
     qs.append(" FROM ");
     qs.append(query.getDatasetName());
     qs.append(" t WHERE ");
     // srid = 1042102
-        qs.append(buildBoxFilter(query.getGeometryAttributeName(), query.getSRSName(), query.getFilterGeometry()));
+        qs.append(prepared
+                  ? buildPreparedBoxFilter(query.getGeometryAttributeName(), query.getSRSName())
+                  : buildBoxFilter(query.getGeometryAttributeName(), query.getSRSName(), query.getFilterGeometry()));
 
     String whereCond = query.getCondition();
     if (whereCond != null) {
@@ -62,6 +96,13 @@ public class PostgisSQLBuilder
     return buf.toString();
   }
 
+  private String buildPreparedBoxFilter(String geometryColName, SpatialReferenceSystemID SRID)
+  {
+    // The box is built from the minimum and maximum x and y
+    return geometryColName + " && SetSRID(MakeBox2D(MakePoint(?,?),MakePoint(?,?)),"
+           + getSRID(SRID) + ")";
+  }
+
   private String getSRID(SpatialReferenceSystemID querySRID)
   {
     SpatialReferenceSystemID srid = defaultSRID;
@@ -75,16 +116,47 @@ public class PostgisSQLBuilder
   }
 
   private String getColumnListSpecifier(
-      String[] colName, String geomColName)
+      String[] colName, FilterQuery query, boolean prepared)
   {
+    String geomColName = query.getGeometryAttributeName();
+    double tolerance = query.getSimplificationTolerance();
     StringBuffer buf = new StringBuffer();
-    buf.append("AsBinary(" + geomColName + ") as " + geomColName + "_wkb");
+    buf.append("AsBinary(" + getGeometrySpecifier(geomColName, tolerance,
+                                                  prepared ? "?" : String.valueOf(tolerance))
+               + ") as " + geomColName + "_wkb");
     for (int i = 0; i < colName.length; i++) {
       if (! geomColName.equalsIgnoreCase(colName[i])) {
         buf.append(",");
-        buf.append(colName[i]);
+        if (isFetched(colName[i], query.getPropertyNames()))
+          buf.append(colName[i]);
+        else
+          // a null of the column's own type, so that the feature schema
+          // is the same whichever columns are fetched
+          buf.append("CASE WHEN false THEN " + colName[i] + " END as " + colName[i]);
       }
     }
     return buf.toString();
   }
+
+  private String getGeometrySpecifier(String geomColName, double tolerance,
+                                      String toleranceSpecifier)
+  {
+    if (tolerance <= 0)
+      return geomColName;
+    // Simplify returns null for a polygon whose shell collapses; such
+    // a polygon is too small to matter, so send it as it is
+    return "COALESCE(Simplify(" + geomColName + "," + toleranceSpecifier + "),"
+           + geomColName + ")";
+  }
+
+  private static boolean isFetched(String colName, String[] propertyNames)
+  {
+    if (propertyNames == null)
+      return true;
+    for (int i = 0; i < propertyNames.length; i++) {
+      if (colName.equalsIgnoreCase(propertyNames[i]))
+        return true;
+    }
+    return false;
+  }
 }
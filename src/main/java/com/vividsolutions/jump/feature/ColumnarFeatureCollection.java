@@ -0,0 +1,848 @@
+/*
+ * The Unified Mapping Platform (JUMP) is an extensible, interactive GUI
+ * for visualizing and manipulating spatial features with geometry and attributes.
+ *
+ * Copyright (C) 2003 Vivid Solutions
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * For more information, contact:
+ *
+ * Vivid Solutions
+ * Suite #1A
+ * 2328 Government Street
+ * Victoria BC  V8T 5G5
+ * Canada
+ *
+ * (250)385-6040
+ * www.vividsolutions.com
+ */
+
+package com.vividsolutions.jump.feature;
+
+import java.util.*;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+
+/**
+ * A FeatureCollection that stores its Features by column rather than as
+ * BasicFeatures, for very large layers. INTEGER, DOUBLE and DATE attributes
+ * are kept in primitive arrays, STRING attributes as codes into a dictionary
+ * of distinct values, and Geometries in {@link PackedGeometries}.
+ * <p>
+ * The Features handed out are lightweight views of a row. Two views of the
+ * same row are equal, and reading or writing an attribute through a view
+ * reads or writes the column. A view's Geometry is rebuilt the first time it
+ * is asked for; to change it, call #setGeometry rather than modifying the
+ * Geometry in place.
+ * <p>
+ * The most recently used views returned by #query and #getFeature are kept
+ * in a bounded cache, so that a layer drawn again and again does not rebuild
+ * every Geometry each time. Iterating does not fill the cache, so a full scan
+ * does not push out the views of the area being drawn.
+ * <p>
+ * Once the collection is large enough, #query uses a
+ * {@link PackedGeometriesIndex}, built on the first query. Rows added or given
+ * new Geometries after that are searched linearly until enough of them have
+ * built up for the next query to build a new index.
+ * <p>
+ * Features added to the collection are copied (keeping their IDs), so the
+ * object passed to #add is not itself a member of the collection. Removed
+ * rows are not reused.
+ */
+public class ColumnarFeatureCollection implements FeatureCollection {
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+    private static final int MIN_INDEXED_SIZE = 256;
+
+    private FeatureSchema featureSchema;
+    private Column[] columns;
+    private PackedGeometries geometries = new PackedGeometries();
+
+    private int rowCount = 0;
+    private int[] ids = new int[16];
+
+    //per row, incremented whenever the row's Geometry is replaced, so that
+    //views of that row alone drop their copies
+    private int[] geometryVersions = new int[16];
+    private BitSet deleted = new BitSet();
+    private int size = 0;
+
+    //position -> row, or null if no row has been deleted
+    private int[] liveRows = null;
+    private boolean liveRowsValid = true;
+    private Envelope envelope = null;
+    private List features = new FeatureList();
+
+    //row -> ColumnarFeature, least recently used first
+    private LinkedHashMap views;
+
+    //ID -> row of the live rows, built the first time a Feature that is not
+    //a view is removed
+    private HashMap idToRowMap = null;
+
+    //null until the first query of a large enough collection
+    private PackedGeometriesIndex index = null;
+
+    /**
+     * Creates an empty ColumnarFeatureCollection.
+     * @param featureSchema the types of the attributes of the features in this collection
+     */
+    public ColumnarFeatureCollection(FeatureSchema featureSchema) {
+        this(featureSchema, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Creates an empty ColumnarFeatureCollection.
+     * @param featureSchema the types of the attributes of the features in this collection
+     * @param cacheSize the maximum number of Feature views, with their
+     * Geometries, to hold on to
+     */
+    public ColumnarFeatureCollection(FeatureSchema featureSchema,
+        final int cacheSize) {
+        this.featureSchema = featureSchema;
+        this.views = new LinkedHashMap(16, 0.75f, true) {
+                    protected boolean removeEldestEntry(Map.Entry eldest) {
+                        return size() > cacheSize;
+                    }
+                };
+        columns = new Column[featureSchema.getAttributeCount()];
+
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = createColumn(featureSchema.getAttributeType(i));
+        }
+    }
+
+    /**
+     * Creates a ColumnarFeatureCollection holding copies of the Features in the
+     * given collection.
+     */
+    public ColumnarFeatureCollection(FeatureCollection featureCollection) {
+        this(featureCollection.getFeatureSchema());
+        addAll(featureCollection.getFeatures());
+    }
+
+    private static Column createColumn(AttributeType type) {
+        if (type == AttributeType.GEOMETRY) {
+            return null;
+        } else if (type == AttributeType.INTEGER) {
+            return new IntColumn();
+        } else if (type == AttributeType.DOUBLE) {
+            return new DoubleColumn();
+        } else if (type == AttributeType.DATE) {
+            return new DateColumn();
+        } else if (type == AttributeType.STRING) {
+            return new StringColumn();
+        }
+
+        return new ObjectColumn();
+    }
+
+    public FeatureSchema getFeatureSchema() {
+        return featureSchema;
+    }
+
+    public synchronized Envelope getEnvelope() {
+        if (envelope == null) {
+            envelope = new Envelope();
+
+            for (int row = 0; row < rowCount; row++) {
+                if (!deleted.get(row)) {
+                    geometries.expandEnvelope(row, envelope);
+                }
+            }
+        }
+
+        return envelope;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public List getFeatures() {
+        return features;
+    }
+
+    public Iterator iterator() {
+        return new FeatureIterator();
+    }
+
+    /**
+     * Returns the Feature at the given index (zero-based).
+     */
+    public synchronized Feature getFeature(int index) {
+        if ((index < 0) || (index >= size)) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " +
+                size);
+        }
+
+        return view(toRow(index));
+    }
+
+    private ColumnarFeature view(int row) {
+        Integer key = new Integer(row);
+        ColumnarFeature feature = (ColumnarFeature) views.get(key);
+
+        if (feature == null) {
+            feature = new ColumnarFeature(row);
+            views.put(key, feature);
+        }
+
+        return feature;
+    }
+
+    private int toRow(int index) {
+        if (!liveRowsValid) {
+            liveRows = new int[size];
+
+            int position = 0;
+
+            for (int row = 0; row < rowCount; row++) {
+                if (!deleted.get(row)) {
+                    liveRows[position++] = row;
+                }
+            }
+
+            liveRowsValid = true;
+        }
+
+        return (liveRows == null) ? index : liveRows[index];
+    }
+
+    /**
+     *@return    a List containing the features whose envelopes intersect the
+     *      given envelope
+     */
+    public synchronized List query(Envelope envelope) {
+        ArrayList queryResult = new ArrayList();
+
+        if ((index != null) && (index.getUpdateCount() > (size / 8))) {
+            index = null;
+        }
+
+        if ((index == null) && (size >= MIN_INDEXED_SIZE)) {
+            int[] rows = new int[size];
+            int count = 0;
+
+            for (int row = 0; row < rowCount; row++) {
+                if (!deleted.get(row)) {
+                    rows[count++] = row;
+                }
+            }
+
+            index = new PackedGeometriesIndex(geometries, rows, count);
+        }
+
+        if (index == null) {
+            if (!envelope.intersects(getEnvelope())) {
+                return queryResult;
+            }
+
+            for (int row = 0; row < rowCount; row++) {
+                if (!deleted.get(row) && geometries.intersects(row, envelope)) {
+                    queryResult.add(view(row));
+                }
+            }
+
+            return queryResult;
+        }
+
+        //in row order, as the linear scan would give, for the stacking order
+        int[] rows = index.query(envelope);
+
+        for (int i = 0; i < rows.length; i++) {
+            if (geometries.intersects(rows[i], envelope)) {
+                queryResult.add(view(rows[i]));
+            }
+        }
+
+        return queryResult;
+    }
+
+    public synchronized void add(Feature feature) {
+        int row = rowCount;
+
+        if (row == ids.length) {
+            int[] newIds = new int[2 * ids.length];
+            System.arraycopy(ids, 0, newIds, 0, ids.length);
+            ids = newIds;
+        }
+
+        //kept across #clear, so it may already be long enough
+        if (row == geometryVersions.length) {
+            int[] newVersions = new int[2 * geometryVersions.length];
+            System.arraycopy(geometryVersions, 0, newVersions, 0,
+                geometryVersions.length);
+            geometryVersions = newVersions;
+        }
+
+        ids[row] = feature.getID();
+        rowCount++;
+
+        if ((idToRowMap != null) &&
+                !idToRowMap.containsKey(new Integer(ids[row]))) {
+            idToRowMap.put(new Integer(ids[row]), new Integer(row));
+        }
+        size++;
+
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] != null) {
+                columns[i].ensureCapacity(rowCount);
+                setAttribute(row, i, feature.getAttribute(i));
+            }
+        }
+
+        geometries.add(feature.getGeometry());
+
+        if (index != null) {
+            index.update(row);
+        }
+
+        if (envelope != null) {
+            geometries.expandEnvelope(row, envelope);
+        }
+
+        if (liveRows != null) {
+            liveRowsValid = false;
+        }
+    }
+
+    public synchronized void addAll(Collection features) {
+        for (Iterator i = features.iterator(); i.hasNext();) {
+            add((Feature) i.next());
+        }
+    }
+
+    /**
+     * Removes the given Feature: a view handed out by this collection, or
+     * else the Feature that was added with the same ID.
+     */
+    public synchronized void remove(Feature feature) {
+        int row = findRow(feature);
+
+        if ((row == -1) || deleted.get(row)) {
+            return;
+        }
+
+        deleted.set(row);
+        size--;
+        views.remove(new Integer(row));
+
+        if ((idToRowMap != null) &&
+                new Integer(row).equals(idToRowMap.get(new Integer(ids[row])))) {
+            idToRowMap.remove(new Integer(ids[row]));
+        }
+        liveRowsValid = false;
+
+        if (liveRows == null) {
+            liveRows = new int[0];
+        }
+
+        //release the Geometry's space (which also drops the row from the index)
+        geometries.set(row, null);
+        geometryVersions[row]++;
+        envelope = null;
+    }
+
+    private int findRow(Feature feature) {
+        if (feature instanceof ColumnarFeature &&
+                (((ColumnarFeature) feature).getCollection() == this)) {
+            return ((ColumnarFeature) feature).row;
+        }
+
+        if (idToRowMap == null) {
+            idToRowMap = new HashMap();
+
+            //backwards, so that of rows with the same ID the first is kept
+            for (int row = rowCount - 1; row >= 0; row--) {
+                if (!deleted.get(row)) {
+                    idToRowMap.put(new Integer(ids[row]), new Integer(row));
+                }
+            }
+        }
+
+        Integer row = (Integer) idToRowMap.get(new Integer(feature.getID()));
+
+        return (row == null) ? -1 : row.intValue();
+    }
+
+    public synchronized void removeAll(Collection features) {
+        for (Iterator i = features.iterator(); i.hasNext();) {
+            remove((Feature) i.next());
+        }
+    }
+
+    /**
+     * Removes the features which intersect the given envelope
+     */
+    public synchronized Collection remove(Envelope env) {
+        Collection features = query(env);
+        removeAll(features);
+
+        return features;
+    }
+
+    /**
+     * Removes all features from this collection.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = createColumn(featureSchema.getAttributeType(i));
+        }
+
+        //views of the old rows must not match the rows that replace them
+        for (int row = 0; row < rowCount; row++) {
+            geometryVersions[row]++;
+        }
+
+        geometries = new PackedGeometries();
+        rowCount = 0;
+        size = 0;
+        ids = new int[16];
+        index = null;
+        deleted = new BitSet();
+        liveRows = null;
+        liveRowsValid = true;
+        envelope = null;
+        views.clear();
+        idToRowMap = null;
+    }
+
+    private synchronized Object getAttribute(int row, int attributeIndex) {
+        return columns[attributeIndex].get(row);
+    }
+
+    private synchronized void setAttribute(int row, int attributeIndex,
+        Object value) {
+        if (!columns[attributeIndex].set(row, value)) {
+            //not the declared type; keep it as it is, like BasicFeature
+            ObjectColumn objectColumn = new ObjectColumn();
+            objectColumn.ensureCapacity(rowCount);
+
+            for (int i = 0; i < rowCount; i++) {
+                objectColumn.set(i, columns[attributeIndex].get(i));
+            }
+
+            columns[attributeIndex] = objectColumn;
+            objectColumn.set(row, value);
+        }
+    }
+
+    private synchronized void setGeometry(int row, Geometry geometry) {
+        geometries.set(row, geometry);
+        geometryVersions[row]++;
+        envelope = null;
+
+        if (index != null) {
+            index.update(row);
+        }
+    }
+
+    /**
+     * Returns the live row at or after the given row, or -1 if there is none.
+     */
+    private synchronized int nextLiveRow(int row) {
+        while ((row < rowCount) && deleted.get(row)) {
+            row++;
+        }
+
+        return (row < rowCount) ? row : (-1);
+    }
+
+    /**
+     * Walks the rows directly rather than through #getFeature, handing out
+     * views without going through the cache.
+     */
+    private class FeatureIterator implements Iterator {
+        //the row #next will return, or -1 once there are none left
+        private int nextRow = nextLiveRow(0);
+
+        public boolean hasNext() {
+            return nextRow != -1;
+        }
+
+        public Object next() {
+            if (nextRow == -1) {
+                throw new NoSuchElementException();
+            }
+
+            Feature feature = new ColumnarFeature(nextRow);
+            nextRow = nextLiveRow(nextRow + 1);
+
+            return feature;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * A read-write List view that creates Feature views on access.
+     */
+    private class FeatureList extends AbstractList {
+        public Object get(int index) {
+            return getFeature(index);
+        }
+
+        public int size() {
+            return ColumnarFeatureCollection.this.size();
+        }
+
+        public Iterator iterator() {
+            return ColumnarFeatureCollection.this.iterator();
+        }
+    }
+
+    /**
+     * A Feature backed by one row of the columns.
+     */
+    private class ColumnarFeature implements Feature {
+        private int row;
+        private Geometry geometry = null;
+        private int geometryVersion;
+
+        public ColumnarFeature(int row) {
+            this.row = row;
+        }
+
+        private ColumnarFeatureCollection getCollection() {
+            return ColumnarFeatureCollection.this;
+        }
+
+        public void setAttributes(Object[] attributes) {
+            for (int i = 0; i < attributes.length; i++) {
+                setAttribute(i, attributes[i]);
+            }
+        }
+
+        public void setSchema(FeatureSchema schema) {
+            throw new UnsupportedOperationException(
+                "Columnar features cannot change schema");
+        }
+
+        public int getID() {
+            return ids[row];
+        }
+
+        public void setAttribute(int attributeIndex, Object newAttribute) {
+            if (attributeIndex == featureSchema.getGeometryIndex()) {
+                setGeometry((Geometry) newAttribute);
+            } else {
+                ColumnarFeatureCollection.this.setAttribute(row,
+                    attributeIndex, newAttribute);
+            }
+        }
+
+        public void setAttribute(String attributeName, Object newAttribute) {
+            setAttribute(featureSchema.getAttributeIndex(attributeName),
+                newAttribute);
+        }
+
+        public void setGeometry(Geometry geometry) {
+            synchronized (ColumnarFeatureCollection.this) {
+                ColumnarFeatureCollection.this.setGeometry(row, geometry);
+                this.geometry = geometry;
+                this.geometryVersion = geometryVersions[row];
+            }
+        }
+
+        public Object getAttribute(int i) {
+            if (i == featureSchema.getGeometryIndex()) {
+                return getGeometry();
+            }
+
+            return ColumnarFeatureCollection.this.getAttribute(row, i);
+        }
+
+        public Object getAttribute(String name) {
+            return getAttribute(featureSchema.getAttributeIndex(name));
+        }
+
+        public String getString(int attributeIndex) {
+            Object result = getAttribute(attributeIndex);
+
+            return (result != null) ? result.toString() : "";
+        }
+
+        public int getInteger(int attributeIndex) {
+            Column column = columns[attributeIndex];
+
+            if (column instanceof IntColumn) {
+                return ((IntColumn) column).getInt(row);
+            }
+
+            return ((Integer) getAttribute(attributeIndex)).intValue();
+        }
+
+        public double getDouble(int attributeIndex) {
+            Column column = columns[attributeIndex];
+
+            if (column instanceof DoubleColumn) {
+                return ((DoubleColumn) column).getDouble(row);
+            }
+
+            return ((Double) getAttribute(attributeIndex)).doubleValue();
+        }
+
+        public String getString(String attributeName) {
+            return getString(featureSchema.getAttributeIndex(attributeName));
+        }
+
+        public Geometry getGeometry() {
+            synchronized (ColumnarFeatureCollection.this) {
+                if ((geometry == null) ||
+                        (geometryVersion != geometryVersions[row])) {
+                    geometry = geometries.get(row);
+                    geometryVersion = geometryVersions[row];
+                }
+
+                return geometry;
+            }
+        }
+
+        public FeatureSchema getSchema() {
+            return featureSchema;
+        }
+
+        public Object clone() {
+            return clone(true);
+        }
+
+        public Feature clone(boolean deep) {
+            return AbstractBasicFeature.clone(this, deep);
+        }
+
+        public Object[] getAttributes() {
+            Object[] attributes = new Object[featureSchema.getAttributeCount()];
+
+            for (int i = 0; i < attributes.length; i++) {
+                attributes[i] = getAttribute(i);
+            }
+
+            return attributes;
+        }
+
+        public int compareTo(Object o) {
+            return AbstractBasicFeature.compare(this, (Feature) o);
+        }
+
+        public boolean equals(Object o) {
+            return (o instanceof ColumnarFeature) &&
+            (((ColumnarFeature) o).getCollection() == getCollection()) &&
+            (((ColumnarFeature) o).row == row);
+        }
+
+        public int hashCode() {
+            return row;
+        }
+    }
+
+    private static abstract class Column {
+        public abstract Object get(int row);
+
+        /**
+         * @return false if the value is not of this column's type
+         */
+        public abstract boolean set(int row, Object value);
+
+        public abstract void ensureCapacity(int rows);
+
+        protected static int newCapacity(int current, int rows) {
+            return Math.max(rows, Math.max(16, 2 * current));
+        }
+    }
+
+    private static class IntColumn extends Column {
+        private int[] values = new int[0];
+        private BitSet nulls = new BitSet();
+
+        public Object get(int row) {
+            return nulls.get(row) ? null : new Integer(values[row]);
+        }
+
+        public int getInt(int row) {
+            if (nulls.get(row)) {
+                //as unboxing the null attribute of a BasicFeature would
+                throw new NullPointerException();
+            }
+
+            return values[row];
+        }
+
+        public boolean set(int row, Object value) {
+            if (value == null) {
+                nulls.set(row);
+            } else if (value instanceof Integer) {
+                values[row] = ((Integer) value).intValue();
+                nulls.clear(row);
+            } else {
+                return false;
+            }
+
+            return true;
+        }
+
+        public void ensureCapacity(int rows) {
+            if (rows > values.length) {
+                int[] newValues = new int[newCapacity(values.length, rows)];
+                System.arraycopy(values, 0, newValues, 0, values.length);
+                values = newValues;
+            }
+        }
+    }
+
+    private static class DoubleColumn extends Column {
+        private double[] values = new double[0];
+        private BitSet nulls = new BitSet();
+
+        public Object get(int row) {
+            return nulls.get(row) ? null : new Double(values[row]);
+        }
+
+        public double getDouble(int row) {
+            if (nulls.get(row)) {
+                throw new NullPointerException();
+            }
+
+            return values[row];
+        }
+
+        public boolean set(int row, Object value) {
+            if (value == null) {
+                nulls.set(row);
+            } else if (value instanceof Double) {
+                values[row] = ((Double) value).doubleValue();
+                nulls.clear(row);
+            } else {
+                return false;
+            }
+
+            return true;
+        }
+
+        public void ensureCapacity(int rows) {
+            if (rows > values.length) {
+                double[] newValues = new double[newCapacity(values.length, rows)];
+                System.arraycopy(values, 0, newValues, 0, values.length);
+                values = newValues;
+            }
+        }
+    }
+
+    private static class DateColumn extends Column {
+        private long[] values = new long[0];
+        private BitSet nulls = new BitSet();
+
+        public Object get(int row) {
+            return nulls.get(row) ? null : new Date(values[row]);
+        }
+
+        public boolean set(int row, Object value) {
+            //subclasses such as java.sql.Timestamp would lose information
+            if (value == null) {
+                nulls.set(row);
+            } else if (value.getClass() == Date.class) {
+                values[row] = ((Date) value).getTime();
+                nulls.clear(row);
+            } else {
+                return false;
+            }
+
+            return true;
+        }
+
+        public void ensureCapacity(int rows) {
+            if (rows > values.length) {
+                long[] newValues = new long[newCapacity(values.length, rows)];
+                System.arraycopy(values, 0, newValues, 0, values.length);
+                values = newValues;
+            }
+        }
+    }
+
+    /**
+     * Stores each distinct String once; rows hold its code, or -1 for null.
+     */
+    private static class StringColumn extends Column {
+        private int[] codes = new int[0];
+        private ArrayList dictionary = new ArrayList();
+        private HashMap codesByValue = new HashMap();
+
+        public Object get(int row) {
+            return (codes[row] == -1) ? null : dictionary.get(codes[row]);
+        }
+
+        public boolean set(int row, Object value) {
+            if (value == null) {
+                codes[row] = -1;
+
+                return true;
+            }
+
+            if (!(value instanceof String)) {
+                return false;
+            }
+
+            Integer code = (Integer) codesByValue.get(value);
+
+            if (code == null) {
+                code = new Integer(dictionary.size());
+                dictionary.add(value);
+                codesByValue.put(value, code);
+            }
+
+            codes[row] = code.intValue();
+
+            return true;
+        }
+
+        public void ensureCapacity(int rows) {
+            if (rows > codes.length) {
+                int[] newCodes = new int[newCapacity(codes.length, rows)];
+                System.arraycopy(codes, 0, newCodes, 0, codes.length);
+                codes = newCodes;
+            }
+        }
+    }
+
+    private static class ObjectColumn extends Column {
+        private Object[] values = new Object[0];
+
+        public Object get(int row) {
+            return values[row];
+        }
+
+        public boolean set(int row, Object value) {
+            values[row] = value;
+
+            return true;
+        }
+
+        public void ensureCapacity(int rows) {
+            if (rows > values.length) {
+                Object[] newValues = new Object[newCapacity(values.length, rows)];
+                System.arraycopy(values, 0, newValues, 0, values.length);
+                values = newValues;
+            }
+        }
+    }
+}
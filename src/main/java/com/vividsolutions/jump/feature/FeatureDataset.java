@@ -41,15 +41,29 @@ import com.vividsolutions.jts.geom.Envelope;
 
 /**
  * Default implementation of FeatureCollection.
+ * <p>
+ * Once a FeatureDataset of more than a few hundred Features is queried, it
+ * builds a {@link FeatureIndex}, which is kept up to date as Features are
+ * added and removed, so that later queries need not scan every Feature.
+ * Call #invalidateEnvelope after modifying a Feature's Geometry.
+ * <p>
+ * The methods that add and remove Features hold the same lock as the
+ * index's construction, so that a Feature added while a render thread is
+ * indexing is neither lost nor indexed twice.
  */
 public class FeatureDataset implements FeatureCollection, Serializable {
     private static final long serialVersionUID = 5573446944516446540L;
-    private FeatureSchema featureSchema;
 
-    //<<TODO>> Possibly use hashtable to do spatial indexing [Jon Aquino]
+    //Smaller datasets are scanned; many are only used as temporary lists
+    private static final int MIN_INDEXED_SIZE = 256;
+    private FeatureSchema featureSchema;
     private ArrayList features;
     private Envelope envelope = null;
 
+    //Built on the first query of a large dataset; rebuilt after deserialization
+    private transient FeatureIndex index = null;
+    private transient boolean indexStale = false;
+
     /**
      * Creates a FeatureDataset, initialized with a group of Features.
      * @param newFeatures an initial group of features to add to this FeatureDataset
@@ -68,6 +82,22 @@ public class FeatureDataset implements FeatureCollection, Serializable {
         this(new ArrayList(), featureSchema);
     }
 
+    /**
+     * Returns whether queries of the given FeatureCollection are answered by
+     * the index of the FeatureDataset it wraps, so that analysis tools can
+     * query it directly instead of building an index of their own. Edits
+     * keep that index up to date, and may be made from another thread while
+     * it is being queried.
+     */
+    public static boolean isIndexed(FeatureCollection fc) {
+        if (fc instanceof FeatureCollectionWrapper) {
+            fc = ((FeatureCollectionWrapper) fc).getUltimateWrappee();
+        }
+
+        return (fc instanceof FeatureDataset) &&
+        (fc.size() >= MIN_INDEXED_SIZE);
+    }
+
     /**
      * Returns the Feature at the given index (zero-based).
      */
@@ -117,6 +147,12 @@ public class FeatureDataset implements FeatureCollection, Serializable {
             return new ArrayList();
         }
 
+        FeatureIndex index = getIndex();
+
+        if (index != null) {
+            return index.query(envelope);
+        }
+
         //<<TODO:NAMING>> Rename this method to getFeatures(Envelope), to parallel
         //getFeatures() [Jon Aquino]
         ArrayList queryResult = new ArrayList();
@@ -132,8 +168,31 @@ public class FeatureDataset implements FeatureCollection, Serializable {
         return queryResult;
     }
 
-    public void add(Feature feature) {
+    /**
+     * Returns the spatial index, building or refreshing it first if needed,
+     * or null if this dataset is too small to be worth indexing.
+     */
+    private synchronized FeatureIndex getIndex() {
+        if (index == null) {
+            if (features.size() < MIN_INDEXED_SIZE) {
+                return null;
+            }
+
+            index = new FeatureIndex(features);
+            indexStale = false;
+        } else if (indexStale) {
+            index.refresh();
+            indexStale = false;
+        }
+
+        return index;
+    }
+
+    public synchronized void add(Feature feature) {
         features.add(feature);
+        if (index != null) {
+            index.insert(feature);
+        }
         if (envelope != null) {
             envelope.expandToInclude(feature.getGeometry().getEnvelopeInternal());
         }
@@ -158,17 +217,21 @@ public class FeatureDataset implements FeatureCollection, Serializable {
         return features;
     }
 
-    public void remove(Feature feature) {
+    public synchronized void remove(Feature feature) {
         features.remove(feature);
-        invalidateEnvelope();
+        if (index != null) {
+            index.remove(feature);
+        }
+        envelope = null;
     }
 
     /**
      * Removes all features from this collection.
      */
-    public void clear() {
+    public synchronized void clear() {
         invalidateEnvelope();
         features.clear();
+        index = null;
     }
 
     public int size() {
@@ -181,14 +244,19 @@ public class FeatureDataset implements FeatureCollection, Serializable {
 
     /**
      * Clears the cached envelope of this FeatureDataset's Features. Call this method
-     * when a Feature's Geometry is modified.
+     * when a Feature's Geometry is modified. The spatial index is updated for
+     * the modified Geometries on the next query.
      */
-    public void invalidateEnvelope() {
+    public synchronized void invalidateEnvelope() {
         envelope = null;
+        indexStale = true;
     }
 
-    public void addAll(Collection features) {
+    public synchronized void addAll(Collection features) {
         this.features.addAll(features);
+        if (index != null) {
+            index.insertAll(features);
+        }
         if (envelope != null) {
             for (Iterator i = features.iterator(); i.hasNext(); ) {
                 Feature feature = (Feature) i.next();
@@ -197,8 +265,11 @@ public class FeatureDataset implements FeatureCollection, Serializable {
         }
     }
 
-    public void removeAll(Collection features) {
+    public synchronized void removeAll(Collection features) {
         this.features.removeAll(features);
-        invalidateEnvelope();
+        if (index != null) {
+            index.removeAll(features);
+        }
+        envelope = null;
     }
 }
@@ -0,0 +1,207 @@
+/*
+ * The Unified Mapping Platform (JUMP) is an extensible, interactive GUI
+ * for visualizing and manipulating spatial features with geometry and attributes.
+ *
+ * Copyright (C) 2003 Vivid Solutions
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * For more information, contact:
+ *
+ * Vivid Solutions
+ * Suite #1A
+ * 2328 Government Street
+ * Victoria BC  V8T 5G5
+ * Canada
+ *
+ * (250)385-6040
+ * www.vividsolutions.com
+ */
+
+package com.vividsolutions.jump.feature;
+
+import java.util.*;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.index.ItemVisitor;
+import com.vividsolutions.jts.index.quadtree.Quadtree;
+
+
+/**
+ * A spatial index of Features that is updated as Features are inserted and
+ * removed, unlike an STRtree, which cannot be changed once built. Queries
+ * return Features in the order they were inserted, so that callers that
+ * draw the results get the same stacking order as with a linear scan.
+ * <p>
+ * The index remembers the envelope each Feature had when it was inserted.
+ * If a Feature's Geometry is changed, call #update or #refresh, otherwise
+ * queries will use the old envelope.
+ */
+public class FeatureIndex {
+    private Quadtree quadtree = new Quadtree();
+
+    //Feature -> Entry
+    private HashMap entries = new HashMap();
+    private long nextSequence = 0;
+
+    /**
+     * Creates an empty FeatureIndex.
+     */
+    public FeatureIndex() {
+    }
+
+    /**
+     * Creates a FeatureIndex containing the given Features, in order.
+     */
+    public FeatureIndex(Collection features) {
+        insertAll(features);
+    }
+
+    public synchronized void insert(Feature feature) {
+        Entry entry = new Entry(feature, nextSequence++);
+        Entry old = (Entry) entries.put(feature, entry);
+
+        if (old != null) {
+            removeFromTree(old);
+        }
+
+        insertIntoTree(entry);
+    }
+
+    public synchronized void insertAll(Collection features) {
+        for (Iterator i = features.iterator(); i.hasNext();) {
+            insert((Feature) i.next());
+        }
+    }
+
+    /**
+     * @return whether the Feature was in the index
+     */
+    public synchronized boolean remove(Feature feature) {
+        Entry entry = (Entry) entries.remove(feature);
+
+        if (entry == null) {
+            return false;
+        }
+
+        removeFromTree(entry);
+
+        return true;
+    }
+
+    public synchronized void removeAll(Collection features) {
+        for (Iterator i = features.iterator(); i.hasNext();) {
+            remove((Feature) i.next());
+        }
+    }
+
+    /**
+     * Re-indexes a Feature whose Geometry has changed, keeping its place in
+     * the query order.
+     */
+    public synchronized void update(Feature feature) {
+        Entry entry = (Entry) entries.get(feature);
+
+        if (entry == null) {
+            return;
+        }
+
+        if (entry.envelope != feature.getGeometry().getEnvelopeInternal()) {
+            removeFromTree(entry);
+            entry.envelope = feature.getGeometry().getEnvelopeInternal();
+            insertIntoTree(entry);
+        }
+    }
+
+    /**
+     * Re-indexes every Feature whose Geometry has changed. This looks at
+     * every Feature, but is much cheaper than building a new index, because
+     * Geometries cache their envelopes.
+     */
+    public synchronized void refresh() {
+        for (Iterator i = entries.keySet().iterator(); i.hasNext();) {
+            update((Feature) i.next());
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized boolean contains(Feature feature) {
+        return entries.containsKey(feature);
+    }
+
+    /**
+     * @return the Features whose envelopes intersect the given envelope, in
+     * the order they were inserted
+     */
+    public synchronized List query(final Envelope envelope) {
+        final ArrayList hits = new ArrayList();
+        quadtree.query(envelope,
+            new ItemVisitor() {
+                public void visitItem(Object item) {
+                    Entry entry = (Entry) item;
+
+                    if (entry.envelope.intersects(envelope)) {
+                        hits.add(entry);
+                    }
+                }
+            });
+        Collections.sort(hits);
+
+        ArrayList result = new ArrayList(hits.size());
+
+        for (Iterator i = hits.iterator(); i.hasNext();) {
+            result.add(((Entry) i.next()).feature);
+        }
+
+        return result;
+    }
+
+    private void insertIntoTree(Entry entry) {
+        //Empty geometries intersect nothing, so leave them out of the tree
+        if (!entry.envelope.isNull()) {
+            quadtree.insert(entry.envelope, entry);
+        }
+    }
+
+    private void removeFromTree(Entry entry) {
+        if (!entry.envelope.isNull()) {
+            quadtree.remove(entry.envelope, entry);
+        }
+    }
+
+    private static class Entry implements Comparable {
+        private Feature feature;
+        private long sequence;
+
+        //The Geometry's own cached envelope, which JTS replaces rather than
+        //modifies when the Geometry changes
+        private Envelope envelope;
+
+        public Entry(Feature feature, long sequence) {
+            this.feature = feature;
+            this.sequence = sequence;
+            this.envelope = feature.getGeometry().getEnvelopeInternal();
+        }
+
+        public int compareTo(Object o) {
+            long other = ((Entry) o).sequence;
+
+            return (sequence < other) ? (-1) : ((sequence == other) ? 0 : 1);
+        }
+    }
+}
@@ -97,10 +97,11 @@ public class FeatureUtil {
 	private static int lastID = 0;
 	
     /**
-     * Increments and returns the feature-ID counter
+     * Increments and returns the feature-ID counter. Synchronized because
+     * features may be created by several loader threads at once.
      * @see Feature#getID()
      */
-	public static int nextID() { return ++lastID; }
+	public static synchronized int nextID() { return ++lastID; }
 
     /**
      * Although Feature implements Cloneable, this method is useful
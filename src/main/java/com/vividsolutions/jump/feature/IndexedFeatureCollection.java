@@ -47,6 +47,7 @@ import com.vividsolutions.jts.index.strtree.STRtree;
  * implementation, Features cannot be added or removed (an Exception is thrown)
  * and Features' Geometries should not be modified (otherwise they will be out
  * of sync with the spatial index).
+ * @see FeatureDataset#isIndexed
  */
 public class IndexedFeatureCollection extends FeatureCollectionWrapper {
     private SpatialIndex spatialIndex;
@@ -0,0 +1,554 @@
+/*
+ * The Unified Mapping Platform (JUMP) is an extensible, interactive GUI
+ * for visualizing and manipulating spatial features with geometry and attributes.
+ *
+ * Copyright (C) 2003 Vivid Solutions
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * For more information, contact:
+ *
+ * Vivid Solutions
+ * Suite #1A
+ * 2328 Government Street
+ * Victoria BC  V8T 5G5
+ * Canada
+ *
+ * (250)385-6040
+ * www.vividsolutions.com
+ */
+
+package com.vividsolutions.jump.feature;
+
+import com.vividsolutions.jts.geom.*;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequence;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequenceFactory;
+
+
+/**
+ * A growable array of Geometries stored without per-coordinate objects. The
+ * structure of each Geometry (types, part and ring counts) is kept in one
+ * int array and its ordinates in one double array; Geometries are rebuilt,
+ * on PackedCoordinateSequences, when asked for.
+ * <p>
+ * Replacing a Geometry appends the new one and leaves the old one's space
+ * unused until enough has built up to be worth compacting.
+ */
+public class PackedGeometries {
+    private static final int NULL = 0;
+    private static final int POINT = 1;
+    private static final int LINESTRING = 2;
+    private static final int LINEARRING = 3;
+    private static final int POLYGON = 4;
+    private static final int MULTIPOINT = 5;
+    private static final int MULTILINESTRING = 6;
+    private static final int MULTIPOLYGON = 7;
+    private static final int COLLECTION = 8;
+
+    private GeometryFactory factory;
+
+    private int[] structure = new int[64];
+    private int structureSize = 0;
+    private double[] ordinates = new double[64];
+    private int ordinatesSize = 0;
+
+    //where each Geometry starts in the two arrays, and how many ordinates it has
+    private int[] structureStarts = new int[16];
+    private int[] ordinateStarts = new int[16];
+    private int[] ordinateCounts = new int[16];
+
+    //minx, miny, maxx, maxy for each Geometry, rounded outwards; NaN if empty
+    private float[] bounds = new float[64];
+    private int size = 0;
+
+    //ordinates no longer used by any Geometry
+    private int garbage = 0;
+
+    public PackedGeometries() {
+        this(new GeometryFactory(PackedCoordinateSequenceFactory.DOUBLE_FACTORY));
+    }
+
+    /**
+     * @param factory the factory used to create the Geometries handed out
+     */
+    public PackedGeometries(GeometryFactory factory) {
+        this.factory = factory;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Appends a Geometry.
+     * @param geometry the Geometry to store, or null
+     * @return the index of the Geometry
+     */
+    public int add(Geometry geometry) {
+        if (size == structureStarts.length) {
+            int capacity = 2 * size;
+            structureStarts = grow(structureStarts, capacity);
+            ordinateStarts = grow(ordinateStarts, capacity);
+            ordinateCounts = grow(ordinateCounts, capacity);
+            bounds = grow(bounds, 4 * capacity);
+        }
+
+        size++;
+        write(size - 1, geometry);
+
+        return size - 1;
+    }
+
+    /**
+     * Replaces the Geometry at the given index.
+     * @param geometry the new Geometry, or null
+     */
+    public void set(int index, Geometry geometry) {
+        checkIndex(index);
+        garbage += ordinateCounts[index];
+        write(index, geometry);
+
+        if (garbage > ordinatesSize / 2) {
+            compact();
+        }
+    }
+
+    /**
+     * Returns a new Geometry equal to the one stored at the given index.
+     */
+    public Geometry get(int index) {
+        checkIndex(index);
+
+        int[] position = new int[] {
+                structureStarts[index] + 1, ordinateStarts[index]
+            };
+
+        return read(structure[structureStarts[index]], position);
+    }
+
+    /**
+     * Tests the envelope against the (slightly enlarged) bounds of the given
+     * Geometry, without rebuilding it.
+     */
+    public boolean mayIntersect(int index, Envelope envelope) {
+        int i = 4 * index;
+
+        //comparisons with NaN are false, so empty geometries never intersect
+        return bounds[i] <= envelope.getMaxX() &&
+            bounds[i + 2] >= envelope.getMinX() &&
+            bounds[i + 1] <= envelope.getMaxY() &&
+            bounds[i + 3] >= envelope.getMinY();
+    }
+
+    /**
+     * Returns the (slightly enlarged) bounds of the given Geometry, or null if
+     * it is null or empty. The same stored Geometry always gives equal bounds.
+     */
+    public Envelope getBounds(int index) {
+        checkIndex(index);
+
+        int i = 4 * index;
+
+        if (Float.isNaN(bounds[i])) {
+            return null;
+        }
+
+        return new Envelope(bounds[i], bounds[i + 2], bounds[i + 1],
+            bounds[i + 3]);
+    }
+
+    /**
+     * Expands the given envelope to include the exact envelope of the given
+     * Geometry, without rebuilding it.
+     */
+    public void expandEnvelope(int index, Envelope envelope) {
+        checkIndex(index);
+
+        int dimension = structure[structureStarts[index]];
+        int end = ordinateStarts[index] + ordinateCounts[index];
+
+        for (int i = ordinateStarts[index]; i < end; i += dimension) {
+            envelope.expandToInclude(ordinates[i], ordinates[i + 1]);
+        }
+    }
+
+    /**
+     * Tests whether the exact envelope of the given Geometry intersects the
+     * given envelope, without rebuilding the Geometry.
+     */
+    public boolean intersects(int index, Envelope envelope) {
+        if (!mayIntersect(index, envelope)) {
+            return false;
+        }
+
+        Envelope geometryEnvelope = new Envelope();
+        expandEnvelope(index, geometryEnvelope);
+
+        return geometryEnvelope.intersects(envelope);
+    }
+
+    private void checkIndex(int index) {
+        if ((index < 0) || (index >= size)) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " +
+                size);
+        }
+    }
+
+    private void write(int index, Geometry geometry) {
+        int dimension = ((geometry != null) && hasZ(geometry)) ? 3 : 2;
+        structureStarts[index] = structureSize;
+        ordinateStarts[index] = ordinatesSize;
+        addStructure(dimension);
+
+        if (geometry == null) {
+            addStructure(NULL);
+        } else {
+            write(geometry, dimension);
+        }
+
+        ordinateCounts[index] = ordinatesSize - ordinateStarts[index];
+
+        Envelope envelope = new Envelope();
+        expandEnvelope(index, envelope);
+
+        if (envelope.isNull()) {
+            for (int i = 0; i < 4; i++) {
+                bounds[(4 * index) + i] = Float.NaN;
+            }
+        } else {
+            bounds[4 * index] = roundDown(envelope.getMinX());
+            bounds[(4 * index) + 1] = roundDown(envelope.getMinY());
+            bounds[(4 * index) + 2] = roundUp(envelope.getMaxX());
+            bounds[(4 * index) + 3] = roundUp(envelope.getMaxY());
+        }
+    }
+
+    private void write(Geometry geometry, int dimension) {
+        if (geometry instanceof Point) {
+            addStructure(POINT);
+            write(((Point) geometry).getCoordinateSequence(), dimension);
+        } else if (geometry instanceof LinearRing) {
+            addStructure(LINEARRING);
+            write(((LineString) geometry).getCoordinateSequence(), dimension);
+        } else if (geometry instanceof LineString) {
+            addStructure(LINESTRING);
+            write(((LineString) geometry).getCoordinateSequence(), dimension);
+        } else if (geometry instanceof Polygon) {
+            Polygon polygon = (Polygon) geometry;
+            addStructure(POLYGON);
+
+            if (polygon.isEmpty()) {
+                addStructure(0);
+
+                return;
+            }
+
+            addStructure(1 + polygon.getNumInteriorRing());
+            write(polygon.getExteriorRing().getCoordinateSequence(), dimension);
+
+            for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+                write(polygon.getInteriorRingN(i).getCoordinateSequence(),
+                    dimension);
+            }
+        } else {
+            if (geometry instanceof MultiPoint) {
+                addStructure(MULTIPOINT);
+            } else if (geometry instanceof MultiLineString) {
+                addStructure(MULTILINESTRING);
+            } else if (geometry instanceof MultiPolygon) {
+                addStructure(MULTIPOLYGON);
+            } else {
+                addStructure(COLLECTION);
+            }
+
+            addStructure(geometry.getNumGeometries());
+
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                write(geometry.getGeometryN(i), dimension);
+            }
+        }
+    }
+
+    private void write(CoordinateSequence sequence, int dimension) {
+        int n = sequence.size();
+        addStructure(n);
+
+        if ((ordinatesSize + (n * dimension)) > ordinates.length) {
+            ordinates = grow(ordinates,
+                    Math.max(2 * ordinates.length, ordinatesSize + (n * dimension)));
+        }
+
+        for (int i = 0; i < n; i++) {
+            ordinates[ordinatesSize++] = sequence.getX(i);
+            ordinates[ordinatesSize++] = sequence.getY(i);
+
+            if (dimension == 3) {
+                ordinates[ordinatesSize++] = (sequence.getDimension() < 3)
+                    ? Double.NaN : sequence.getOrdinate(i, CoordinateSequence.Z);
+            }
+        }
+    }
+
+    /**
+     * @param position the next structure and ordinate positions, updated as
+     * they are read
+     */
+    private Geometry read(int dimension, int[] position) {
+        int type = structure[position[0]++];
+
+        switch (type) {
+        case NULL:
+            return null;
+
+        case POINT:
+            return factory.createPoint(readSequence(dimension, position));
+
+        case LINESTRING:
+            return factory.createLineString(readSequence(dimension, position));
+
+        case LINEARRING:
+            return factory.createLinearRing(readSequence(dimension, position));
+
+        case POLYGON: {
+            int rings = structure[position[0]++];
+
+            if (rings == 0) {
+                return factory.createPolygon(null, null);
+            }
+
+            LinearRing shell = factory.createLinearRing(readSequence(
+                        dimension, position));
+            LinearRing[] holes = new LinearRing[rings - 1];
+
+            for (int i = 0; i < holes.length; i++) {
+                holes[i] = factory.createLinearRing(readSequence(dimension,
+                            position));
+            }
+
+            return factory.createPolygon(shell, holes);
+        }
+
+        default: {
+            int n = structure[position[0]++];
+
+            if (type == MULTIPOINT) {
+                Point[] points = new Point[n];
+
+                for (int i = 0; i < n; i++) {
+                    points[i] = (Point) read(dimension, position);
+                }
+
+                return factory.createMultiPoint(points);
+            } else if (type == MULTILINESTRING) {
+                LineString[] lines = new LineString[n];
+
+                for (int i = 0; i < n; i++) {
+                    lines[i] = (LineString) read(dimension, position);
+                }
+
+                return factory.createMultiLineString(lines);
+            } else if (type == MULTIPOLYGON) {
+                Polygon[] polygons = new Polygon[n];
+
+                for (int i = 0; i < n; i++) {
+                    polygons[i] = (Polygon) read(dimension, position);
+                }
+
+                return factory.createMultiPolygon(polygons);
+            }
+
+            Geometry[] geometries = new Geometry[n];
+
+            for (int i = 0; i < n; i++) {
+                geometries[i] = read(dimension, position);
+            }
+
+            return factory.createGeometryCollection(geometries);
+        }
+        }
+    }
+
+    private CoordinateSequence readSequence(int dimension, int[] position) {
+        int n = structure[position[0]++];
+        double[] coords = new double[n * dimension];
+        System.arraycopy(ordinates, position[1], coords, 0, coords.length);
+        position[1] += coords.length;
+
+        return new PackedCoordinateSequence.Double(coords, dimension);
+    }
+
+    /**
+     * Rewrites the arrays without the space left by replaced Geometries.
+     * Indices are unchanged.
+     */
+    private void compact() {
+        int[] newStructure = new int[structureSize];
+        double[] newOrdinates = new double[ordinatesSize - garbage];
+        int newStructureSize = 0;
+        int newOrdinatesSize = 0;
+
+        for (int i = 0; i < size; i++) {
+            int structureLength = structureLength(i);
+            System.arraycopy(structure, structureStarts[i], newStructure,
+                newStructureSize, structureLength);
+            structureStarts[i] = newStructureSize;
+            newStructureSize += structureLength;
+
+            System.arraycopy(ordinates, ordinateStarts[i], newOrdinates,
+                newOrdinatesSize, ordinateCounts[i]);
+            ordinateStarts[i] = newOrdinatesSize;
+            newOrdinatesSize += ordinateCounts[i];
+        }
+
+        structure = newStructure;
+        structureSize = newStructureSize;
+        ordinates = newOrdinates;
+        ordinatesSize = newOrdinatesSize;
+        garbage = 0;
+    }
+
+    private int structureLength(int index) {
+        int[] position = new int[] {
+                structureStarts[index] + 1, ordinateStarts[index]
+            };
+        skip(position);
+
+        return position[0] - structureStarts[index];
+    }
+
+    private void skip(int[] position) {
+        int type = structure[position[0]++];
+
+        switch (type) {
+        case NULL:
+            return;
+
+        case POINT:
+        case LINESTRING:
+        case LINEARRING:
+            position[0]++;
+
+            return;
+
+        case POLYGON:
+            position[0] += (1 + structure[position[0]]);
+
+            return;
+
+        default:
+
+            int n = structure[position[0]++];
+
+            for (int i = 0; i < n; i++) {
+                skip(position);
+            }
+        }
+    }
+
+    private void addStructure(int value) {
+        if (structureSize == structure.length) {
+            structure = grow(structure, Math.max(64, 2 * structure.length));
+        }
+
+        structure[structureSize++] = value;
+    }
+
+    /**
+     * Returns whether any coordinate has a z value, as in
+     * ShapefileWriter#guessCoorinateDims.
+     */
+    private static boolean hasZ(Geometry geometry) {
+        if (geometry instanceof Point) {
+            return hasZ(((Point) geometry).getCoordinateSequence());
+        }
+
+        if (geometry instanceof LineString) {
+            return hasZ(((LineString) geometry).getCoordinateSequence());
+        }
+
+        if (geometry instanceof Polygon) {
+            Polygon polygon = (Polygon) geometry;
+
+            if (hasZ(polygon.getExteriorRing())) {
+                return true;
+            }
+
+            for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+                if (hasZ(polygon.getInteriorRingN(i))) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        for (int i = 0; i < geometry.getNumGeometries(); i++) {
+            if (hasZ(geometry.getGeometryN(i))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean hasZ(CoordinateSequence sequence) {
+        //a 2D PackedCoordinateSequence (such as those of the Geometries handed
+        //out here) has no Z to read, though its Coordinates report a Z of 0
+        if (sequence.getDimension() < 3) {
+            return false;
+        }
+
+        for (int i = 0; i < sequence.size(); i++) {
+            if (!Double.isNaN(sequence.getOrdinate(i, CoordinateSequence.Z))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static float roundDown(double d) {
+        float f = (float) d;
+
+        return (f > d) ? Math.nextAfter(f, Double.NEGATIVE_INFINITY) : f;
+    }
+
+    private static float roundUp(double d) {
+        float f = (float) d;
+
+        return (f < d) ? Math.nextAfter(f, Double.POSITIVE_INFINITY) : f;
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        int[] result = new int[capacity];
+        System.arraycopy(array, 0, result, 0, array.length);
+
+        return result;
+    }
+
+    private static double[] grow(double[] array, int capacity) {
+        double[] result = new double[capacity];
+        System.arraycopy(array, 0, result, 0, array.length);
+
+        return result;
+    }
+
+    private static float[] grow(float[] array, int capacity) {
+        float[] result = new float[capacity];
+        System.arraycopy(array, 0, result, 0, array.length);
+
+        return result;
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * The Unified Mapping Platform (JUMP) is an extensible, interactive GUI
+ * for visualizing and manipulating spatial features with geometry and attributes.
+ *
+ * Copyright (C) 2003 Vivid Solutions
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * For more information, contact:
+ *
+ * Vivid Solutions
+ * Suite #1A
+ * 2328 Government Street
+ * Victoria BC  V8T 5G5
+ * Canada
+ *
+ * (250)385-6040
+ * www.vividsolutions.com
+ */
+
+package com.vividsolutions.jump.feature;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+
+/**
+ * A packed R-tree, held in memory, over Geometries stored in a
+ * {@link PackedGeometries}. It is laid out like
+ * org.geotools.shapefile.ShapefileSpatialIndex: the Geometries' indices are
+ * sorted along a Hilbert curve through their centres, and each level of nodes
+ * is a flat array of float bounds in which the children of node <i>j</i> are
+ * entries <i>j*16</i> to <i>j*16+15</i> of the level below. The leaves use the
+ * bounds PackedGeometries already keeps, so the tree costs little more than
+ * an int per Geometry.
+ * <p>
+ * A packed tree cannot take new entries. Geometries added or replaced after
+ * the tree was built (see #update) are kept in a list that is searched
+ * linearly, and are skipped where the tree still has them; once
+ * #getUpdateCount grows large, build a new index. Geometries set to null
+ * need no update, as their bounds intersect nothing.
+ */
+public class PackedGeometriesIndex {
+    private static final int NODE_CAPACITY = 16;
+    private static final int HILBERT_ORDER = 15;
+
+    private PackedGeometries geometries;
+
+    //the indexed Geometries, in Hilbert order
+    private int[] leaves;
+
+    //minx, miny, maxx, maxy of each node, for each level above the leaves
+    //(the last level is the root)
+    private float[][] nodeBounds;
+
+    //Geometries updated since the tree was built
+    private BitSet updated = new BitSet();
+    private int[] updates = new int[16];
+    private int updateCount = 0;
+
+    /**
+     * Builds an index of the given Geometries. Null and empty Geometries are
+     * left out.
+     * @param indices the indices of the Geometries to index
+     * @param count the number of indices to use
+     */
+    public PackedGeometriesIndex(PackedGeometries geometries, int[] indices,
+        int count) {
+        this.geometries = geometries;
+
+        Envelope[] bounds = new Envelope[count];
+        Envelope extent = new Envelope();
+        int entries = 0;
+
+        for (int i = 0; i < count; i++) {
+            Envelope envelope = geometries.getBounds(indices[i]);
+
+            if (envelope != null) {
+                bounds[i] = envelope;
+                extent.expandToInclude(envelope);
+                entries++;
+            }
+        }
+
+        //sort the entries along a Hilbert curve through their centres
+        long[] keys = new long[entries];
+        int side = 1 << HILBERT_ORDER;
+        double width = (extent.getWidth() > 0) ? extent.getWidth() : 1;
+        double height = (extent.getHeight() > 0) ? extent.getHeight() : 1;
+        int key = 0;
+
+        for (int i = 0; i < count; i++) {
+            if (bounds[i] != null) {
+                double cx = (bounds[i].getMinX() + bounds[i].getMaxX()) / 2;
+                double cy = (bounds[i].getMinY() + bounds[i].getMaxY()) / 2;
+                int x = (int) Math.min(side - 1,
+                        ((side - 1) * (cx - extent.getMinX())) / width);
+                int y = (int) Math.min(side - 1,
+                        ((side - 1) * (cy - extent.getMinY())) / height);
+                keys[key++] = ((long) hilbert(x, y, side) << 32) | i;
+            }
+        }
+
+        Arrays.sort(keys);
+        leaves = new int[entries];
+
+        for (int i = 0; i < entries; i++) {
+            leaves[i] = indices[(int) keys[i]];
+        }
+
+        //levels of nodes up to a single root
+        int levels = 0;
+
+        for (int n = entries; n > 1; n = (n + NODE_CAPACITY - 1) / NODE_CAPACITY) {
+            levels++;
+        }
+
+        nodeBounds = new float[levels][];
+
+        int childCount = entries;
+
+        for (int level = 0; level < levels; level++) {
+            int nodeCount = (childCount + NODE_CAPACITY - 1) / NODE_CAPACITY;
+            float[] nodes = new float[4 * nodeCount];
+
+            for (int node = 0; node < nodeCount; node++) {
+                int firstChild = node * NODE_CAPACITY;
+                int lastChild = Math.min(firstChild + NODE_CAPACITY, childCount);
+                float minX = Float.POSITIVE_INFINITY;
+                float minY = Float.POSITIVE_INFINITY;
+                float maxX = Float.NEGATIVE_INFINITY;
+                float maxY = Float.NEGATIVE_INFINITY;
+
+                for (int child = firstChild; child < lastChild; child++) {
+                    if (level == 0) {
+                        Envelope envelope = bounds[(int) keys[child]];
+                        minX = Math.min(minX, (float) envelope.getMinX());
+                        minY = Math.min(minY, (float) envelope.getMinY());
+                        maxX = Math.max(maxX, (float) envelope.getMaxX());
+                        maxY = Math.max(maxY, (float) envelope.getMaxY());
+                    } else {
+                        float[] children = nodeBounds[level - 1];
+                        minX = Math.min(minX, children[4 * child]);
+                        minY = Math.min(minY, children[(4 * child) + 1]);
+                        maxX = Math.max(maxX, children[(4 * child) + 2]);
+                        maxY = Math.max(maxY, children[(4 * child) + 3]);
+                    }
+                }
+
+                nodes[4 * node] = minX;
+                nodes[(4 * node) + 1] = minY;
+                nodes[(4 * node) + 2] = maxX;
+                nodes[(4 * node) + 3] = maxY;
+            }
+
+            nodeBounds[level] = nodes;
+            childCount = nodeCount;
+        }
+    }
+
+    /**
+     * Returns the distance of the given cell along the Hilbert curve filling a
+     * side x side grid (side being a power of 2).
+     */
+    private static int hilbert(int x, int y, int side) {
+        int d = 0;
+
+        for (int s = side / 2; s > 0; s /= 2) {
+            int rx = ((x & s) > 0) ? 1 : 0;
+            int ry = ((y & s) > 0) ? 1 : 0;
+            d += (s * s * ((3 * rx) ^ ry));
+
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = side - 1 - x;
+                    y = side - 1 - y;
+                }
+
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+
+        return d;
+    }
+
+    /**
+     * Notes that the Geometry at the given index has been added or replaced
+     * since the index was built.
+     */
+    public void update(int index) {
+        if (updated.get(index)) {
+            return;
+        }
+
+        updated.set(index);
+
+        if (updateCount == updates.length) {
+            int[] newUpdates = new int[2 * updates.length];
+            System.arraycopy(updates, 0, newUpdates, 0, updateCount);
+            updates = newUpdates;
+        }
+
+        updates[updateCount++] = index;
+    }
+
+    /**
+     * Returns the number of Geometries searched linearly because they were
+     * updated after the index was built.
+     */
+    public int getUpdateCount() {
+        return updateCount;
+    }
+
+    /**
+     * Returns the indices of the Geometries whose (slightly enlarged) bounds
+     * intersect the given envelope, in ascending order.
+     * @see PackedGeometries#mayIntersect(int, Envelope)
+     */
+    public int[] query(Envelope envelope) {
+        int[] result = new int[16];
+        int resultCount = 0;
+
+        if ((leaves.length > 0) && !envelope.isNull()) {
+            //depth-first traversal; the stack holds (level, node) pairs, with
+            //level -1 for the leaves
+            int[] stack = new int[2 * ((NODE_CAPACITY * (nodeBounds.length + 1)) + 1)];
+            int top = 0;
+
+            if (nodeBounds.length == 0) {
+                stack[top++] = -1;
+                stack[top++] = 0;
+            } else {
+                stack[top++] = nodeBounds.length - 1;
+                stack[top++] = 0;
+            }
+
+            while (top > 0) {
+                int node = stack[--top];
+                int level = stack[--top];
+
+                if (level == -1) {
+                    int leaf = leaves[node];
+
+                    if (!updated.get(leaf) &&
+                            geometries.mayIntersect(leaf, envelope)) {
+                        result = add(leaf, result, resultCount++);
+                    }
+
+                    continue;
+                }
+
+                float[] nodes = nodeBounds[level];
+
+                if ((nodes[4 * node] > envelope.getMaxX()) ||
+                        (nodes[(4 * node) + 1] > envelope.getMaxY()) ||
+                        (nodes[(4 * node) + 2] < envelope.getMinX()) ||
+                        (nodes[(4 * node) + 3] < envelope.getMinY())) {
+                    continue;
+                }
+
+                int childCount = (level == 0) ? leaves.length
+                                              : (nodeBounds[level - 1].length / 4);
+                int firstChild = node * NODE_CAPACITY;
+                int lastChild = Math.min(firstChild + NODE_CAPACITY, childCount);
+
+                for (int child = lastChild - 1; child >= firstChild; child--) {
+                    stack[top++] = level - 1;
+                    stack[top++] = child;
+                }
+            }
+        }
+
+        for (int i = 0; i < updateCount; i++) {
+            if (geometries.mayIntersect(updates[i], envelope)) {
+                result = add(updates[i], result, resultCount++);
+            }
+        }
+
+        int[] trimmed = new int[resultCount];
+        System.arraycopy(result, 0, trimmed, 0, resultCount);
+        Arrays.sort(trimmed);
+
+        return trimmed;
+    }
+
+    private static int[] add(int index, int[] array, int count) {
+        if (count == array.length) {
+            int[] grown = new int[2 * count];
+            System.arraycopy(array, 0, grown, 0, count);
+            array = grown;
+        }
+
+        array[count] = index;
+
+        return array;
+    }
+}
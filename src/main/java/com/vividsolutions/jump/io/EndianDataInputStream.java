@@ -41,6 +41,8 @@ package com.vividsolutions.jump.io;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.BufferedInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  *  A class that gives most of the functionality of DataInputStream, but is endian aware.
@@ -55,6 +57,16 @@ public class EndianDataInputStream {
         inputStream = new DataInputStream(new BufferedInputStream(in));
     }
 
+    /**
+     * Creates an EndianDataInputStream that reads the remaining bytes of the
+     * given buffer. No intermediate buffering is done, so this is cheap enough
+     * to create for every record of a memory-mapped file.
+     * @param buffer the bytes to read; its position is advanced as they are read
+     */
+    public EndianDataInputStream(ByteBuffer buffer) {
+        inputStream = new DataInputStream(new ByteBufferInputStream(buffer));
+    }
+
     /** close the stream**/
     public void close() throws IOException {
         inputStream.close();
@@ -157,4 +169,49 @@ public class EndianDataInputStream {
     public int skipBytes(int num) throws IOException {
         return inputStream.skipBytes(num);
     }
+
+    /**
+     * Adapts a ByteBuffer to the InputStream interface.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private ByteBuffer buffer;
+
+        public ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public int read() {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            return buffer.get() & 0xff;
+        }
+
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+
+            return len;
+        }
+
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+
+            return skipped;
+        }
+
+        public int available() {
+            return buffer.remaining();
+        }
+    }
 }
@@ -0,0 +1,378 @@
+/*
+ * The Unified Mapping Platform (JUMP) is an extensible, interactive GUI
+ * for visualizing and manipulating spatial features with geometry and attributes.
+ *
+ * Copyright (C) 2003 Vivid Solutions
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * For more information, contact:
+ *
+ * Vivid Solutions
+ * Suite #1A
+ * 2328 Government Street
+ * Victoria BC  V8T 5G5
+ * Canada
+ *
+ * (250)385-6040
+ * www.vividsolutions.com
+ */
+package com.vividsolutions.jump.io;
+
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+import org.geotools.dbffile.DbfFile;
+import org.geotools.shapefile.MappedShapefile;
+import org.geotools.shapefile.ShapeHandler;
+import org.geotools.shapefile.Shapefile;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jump.feature.BasicFeature;
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.feature.FeatureSchema;
+import com.vividsolutions.jump.feature.FeatureUtil;
+
+/**
+ * A read-only FeatureCollection over a shapefile that decodes geometries and
+ * attributes only when they are asked for.
+ * <p>
+ * If the MappedShapefile has a spatial index, queries go straight to it and
+ * nothing but the cache is kept in memory. Otherwise the record bounding boxes
+ * are read once and kept in memory (as floats, rounded outwards); record
+ * offsets stay in the memory-mapped .shx file in either case. Decoded
+ * Features are kept in a bounded least-recently-used cache. A Feature that is
+ * still referenced elsewhere (e.g. by the selection) is returned again as the
+ * same object, and a Feature keeps its ID even after it has been evicted and
+ * decoded again.
+ * <p>
+ * Like IndexedFeatureCollection, this collection cannot be modified.
+ * @see ShapefileReader#LAZY_LOAD_PROPERTY_KEY
+ */
+public class LazyShapefileFeatureCollection implements FeatureCollection {
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    private MappedShapefile shapefile;
+    private DbfFile dbf;
+    private int[] fields;
+    private FeatureSchema featureSchema;
+    private GeometryFactory geometryFactory;
+    private ShapeHandler handler;
+    private int size;
+
+    //minx, miny, maxx, maxy for each record; NaN for null shapes
+    private float[] bounds;
+    private Envelope envelope;
+
+    //feature IDs, assigned the first time each record is decoded
+    private int[] ids;
+    private LinkedHashMap cache;
+    private HashMap liveFeatures = new HashMap();
+    private ReferenceQueue referenceQueue = new ReferenceQueue();
+    private List features = new FeatureList();
+
+    /**
+     * Creates a LazyShapefileFeatureCollection.
+     * @param shapefile the geometries
+     * @param dbf the attributes, or null if there is no .dbf file
+     * @param fields the indices of the .dbf fields to read
+     * @param featureSchema the schema, with the geometry first followed by
+     * <code>fields</code> in order
+     * @param cacheSize the maximum number of decoded Features to hold on to
+     */
+    public LazyShapefileFeatureCollection(MappedShapefile shapefile, DbfFile dbf,
+        int[] fields, FeatureSchema featureSchema, final int cacheSize)
+        throws Exception {
+        this.shapefile = shapefile;
+        this.dbf = dbf;
+        this.fields = fields;
+        this.featureSchema = featureSchema;
+        this.geometryFactory = new GeometryFactory();
+        this.handler = Shapefile.getShapeHandler(shapefile.getShapeType());
+        this.size = (dbf == null) ? shapefile.getNumRecords() : dbf.getLastRec();
+        this.ids = new int[size];
+        this.cache = new LinkedHashMap(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                return size() > cacheSize;
+            }
+        };
+        if (shapefile.getSpatialIndex() != null) {
+            envelope = shapefile.getSpatialIndex().getBounds();
+        } else {
+            readBounds();
+        }
+    }
+
+    private void readBounds() throws IOException {
+        bounds = new float[4 * size];
+        envelope = new Envelope();
+
+        for (int i = 0; i < size; i++) {
+            Envelope recordEnvelope = (i < shapefile.getNumRecords())
+                ? shapefile.getRecordEnvelope(i) : null;
+
+            if (recordEnvelope == null) {
+                Arrays.fill(bounds, 4 * i, 4 * i + 4, Float.NaN);
+                continue;
+            }
+
+            bounds[4 * i] = roundDown(recordEnvelope.getMinX());
+            bounds[(4 * i) + 1] = roundDown(recordEnvelope.getMinY());
+            bounds[(4 * i) + 2] = roundUp(recordEnvelope.getMaxX());
+            bounds[(4 * i) + 3] = roundUp(recordEnvelope.getMaxY());
+            envelope.expandToInclude(recordEnvelope);
+        }
+    }
+
+    private static float roundDown(double d) {
+        float f = (float) d;
+
+        return (f > d) ? Math.nextAfter(f, Double.NEGATIVE_INFINITY) : f;
+    }
+
+    private static float roundUp(double d) {
+        float f = (float) d;
+
+        return (f < d) ? Math.nextAfter(f, Double.POSITIVE_INFINITY) : f;
+    }
+
+    public FeatureSchema getFeatureSchema() {
+        return featureSchema;
+    }
+
+    public Envelope getEnvelope() {
+        return envelope;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public List getFeatures() {
+        return features;
+    }
+
+    public Iterator iterator() {
+        return features.iterator();
+    }
+
+    public List query(Envelope envelope) {
+        ArrayList queryResult = new ArrayList();
+
+        if (!envelope.intersects(getEnvelope())) {
+            return queryResult;
+        }
+
+        if (bounds == null) {
+            int[] candidates = shapefile.getSpatialIndex().query(envelope);
+
+            for (int i = 0; i < candidates.length; i++) {
+                if (candidates[i] >= size) {
+                    break;
+                }
+
+                Feature feature = getFeature(candidates[i]);
+
+                if (feature.getGeometry().getEnvelopeInternal().intersects(envelope)) {
+                    queryResult.add(feature);
+                }
+            }
+
+            return queryResult;
+        }
+
+        for (int i = 0; i < size; i++) {
+            if (!mayIntersect(i, envelope)) {
+                continue;
+            }
+
+            Feature feature = getFeature(i);
+
+            if (feature.getGeometry().getEnvelopeInternal().intersects(envelope)) {
+                queryResult.add(feature);
+            }
+        }
+
+        return queryResult;
+    }
+
+    /**
+     * Tests the envelope against the in-memory (slightly enlarged) bounds of
+     * the given record, without decoding it.
+     */
+    protected boolean mayIntersect(int recordIndex, Envelope envelope) {
+        int i = 4 * recordIndex;
+
+        //comparisons with NaN are false, so null shapes never intersect
+        return bounds[i] <= envelope.getMaxX() &&
+            bounds[i + 2] >= envelope.getMinX() &&
+            bounds[i + 1] <= envelope.getMaxY() &&
+            bounds[i + 3] >= envelope.getMinY();
+    }
+
+    /**
+     * Returns the Feature for the given record, decoding it if it is not
+     * cached.
+     */
+    public synchronized Feature getFeature(int recordIndex) {
+        if ((recordIndex < 0) || (recordIndex >= size)) {
+            throw new IndexOutOfBoundsException("Index: " + recordIndex +
+                ", Size: " + size);
+        }
+
+        Integer key = new Integer(recordIndex);
+        Feature feature = (Feature) cache.get(key);
+
+        if (feature != null) {
+            return feature;
+        }
+
+        expungeStaleFeatures();
+
+        FeatureReference reference = (FeatureReference) liveFeatures.get(key);
+        feature = (reference == null) ? null : (Feature) reference.get();
+
+        if (feature == null) {
+            feature = decode(recordIndex);
+            liveFeatures.put(key,
+                new FeatureReference(feature, recordIndex, referenceQueue));
+        }
+
+        cache.put(key, feature);
+
+        return feature;
+    }
+
+    private Feature decode(int recordIndex) {
+        if (ids[recordIndex] == 0) {
+            ids[recordIndex] = FeatureUtil.nextID();
+        }
+
+        Feature feature = new LazyFeature(featureSchema, ids[recordIndex]);
+
+        try {
+            Geometry geometry = (recordIndex < shapefile.getNumRecords())
+                ? shapefile.readGeometry(recordIndex, geometryFactory, handler)
+                : new GeometryCollection(null, null, -1);
+            feature.setGeometry(geometry);
+
+            if (dbf != null) {
+                ShapefileReader.readAttributes(dbf, recordIndex, fields, feature);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Error reading record " + recordIndex +
+                " of " + shapefile.getFile() + ": " + e.getMessage(), e);
+        }
+
+        return feature;
+    }
+
+    private void expungeStaleFeatures() {
+        FeatureReference reference;
+
+        while ((reference = (FeatureReference) referenceQueue.poll()) != null) {
+            Integer key = new Integer(reference.recordIndex);
+
+            //the record may have been decoded again since
+            if (liveFeatures.get(key) == reference) {
+                liveFeatures.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Releases the underlying .shp, .shx and .dbf files.
+     */
+    public synchronized void close() throws IOException {
+        shapefile.close();
+
+        if (dbf != null) {
+            dbf.close();
+        }
+    }
+
+    public void add(Feature feature) {
+        throw new UnsupportedOperationException("Lazy shapefile collection cannot be modified");
+    }
+
+    public void addAll(Collection features) {
+        throw new UnsupportedOperationException("Lazy shapefile collection cannot be modified");
+    }
+
+    public void removeAll(Collection features) {
+        throw new UnsupportedOperationException("Lazy shapefile collection cannot be modified");
+    }
+
+    public void remove(Feature feature) {
+        throw new UnsupportedOperationException("Lazy shapefile collection cannot be modified");
+    }
+
+    public void clear() {
+        throw new UnsupportedOperationException("Lazy shapefile collection cannot be modified");
+    }
+
+    public Collection remove(Envelope env) {
+        throw new UnsupportedOperationException("Lazy shapefile collection cannot be modified");
+    }
+
+    /**
+     * A read-only List view that decodes its elements on access.
+     */
+    private class FeatureList extends AbstractList {
+        public Object get(int index) {
+            return getFeature(index);
+        }
+
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * A BasicFeature whose ID survives being evicted and decoded again.
+     */
+    private static class LazyFeature extends BasicFeature {
+        private int id;
+
+        public LazyFeature(FeatureSchema featureSchema, int id) {
+            super(featureSchema);
+            this.id = id;
+        }
+
+        public int getID() {
+            return id;
+        }
+    }
+
+    private static class FeatureReference extends WeakReference {
+        private int recordIndex;
+
+        public FeatureReference(Feature feature, int recordIndex,
+            ReferenceQueue queue) {
+            super(feature, queue);
+            this.recordIndex = recordIndex;
+        }
+    }
+}
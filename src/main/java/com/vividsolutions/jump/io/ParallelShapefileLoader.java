@@ -0,0 +1,244 @@
+/*
+ * The Unified Mapping Platform (JUMP) is an extensible, interactive GUI
+ * for visualizing and manipulating spatial features with geometry and attributes.
+ *
+ * Copyright (C) 2003 Vivid Solutions
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * For more information, contact:
+ *
+ * Vivid Solutions
+ * Suite #1A
+ * 2328 Government Street
+ * Victoria BC  V8T 5G5
+ * Canada
+ *
+ * (250)385-6040
+ * www.vividsolutions.com
+ */
+package com.vividsolutions.jump.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import org.geotools.dbffile.MappedDbfFile;
+import org.geotools.shapefile.MappedShapefile;
+import org.geotools.shapefile.ShapeHandler;
+import org.geotools.shapefile.Shapefile;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jump.feature.BasicFeature;
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.feature.FeatureDataset;
+import com.vividsolutions.jump.feature.FeatureSchema;
+
+/**
+ * Loads a whole shapefile into a FeatureDataset using several threads.
+ * <p>
+ * The calling thread reads the raw bytes of consecutive records (located
+ * through the .shx offsets) into batches; a pool of worker threads turns
+ * each batch into Features, decoding the geometries and parsing the .dbf
+ * rows. Features are stored by record number, so the resulting collection is
+ * in the same order as with the single-threaded reader. The number of batches
+ * waiting to be decoded is bounded, so the reading stage never gets far
+ * ahead of the workers.
+ * @see ShapefileReader#THREADS_PROPERTY_KEY
+ */
+public class ParallelShapefileLoader {
+    private static final int BATCH_SIZE = 1024;
+
+    private MappedShapefile shapefile;
+    private MappedDbfFile dbf;
+    private int[] fields;
+    private FeatureSchema featureSchema;
+    private int threads;
+    private GeometryFactory geometryFactory = new GeometryFactory();
+
+    /**
+     * Creates a ParallelShapefileLoader.
+     * @param shapefile the geometries
+     * @param dbf the attributes, or null if there is no .dbf file
+     * @param fields the indices of the .dbf fields to read
+     * @param featureSchema the schema, with the geometry first followed by
+     * <code>fields</code> in order
+     * @param threads the number of decoding threads
+     */
+    public ParallelShapefileLoader(MappedShapefile shapefile, MappedDbfFile dbf,
+        int[] fields, FeatureSchema featureSchema, int threads) {
+        this.shapefile = shapefile;
+        this.dbf = dbf;
+        this.fields = fields;
+        this.featureSchema = featureSchema;
+        this.threads = Math.max(1, threads);
+    }
+
+    public FeatureCollection load() throws Exception {
+        int size = (dbf == null) ? shapefile.getNumRecords() : dbf.getLastRec();
+        final Feature[] features = new Feature[size];
+        ExecutorService pool = Executors.newFixedThreadPool(threads,
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "Shapefile decoder");
+                        thread.setDaemon(true);
+
+                        return thread;
+                    }
+                });
+        final Semaphore pendingBatches = new Semaphore(2 * threads);
+        final ThreadLocal workerState = new ThreadLocal() {
+                protected Object initialValue() {
+                    return new WorkerState();
+                }
+            };
+        List futures = new ArrayList();
+
+        try {
+            for (int start = 0; start < size; start += BATCH_SIZE) {
+                pendingBatches.acquire();
+
+                final Batch batch = readBatch(start,
+                        Math.min(start + BATCH_SIZE, size));
+                futures.add(pool.submit(new Runnable() {
+                        public void run() {
+                            try {
+                                decode(batch, (WorkerState) workerState.get(),
+                                    features);
+                            } finally {
+                                pendingBatches.release();
+                            }
+                        }
+                    }));
+            }
+
+            for (Iterator i = futures.iterator(); i.hasNext();) {
+                ((Future) i.next()).get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+
+            throw e;
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return new FeatureDataset(Arrays.asList(features), featureSchema);
+    }
+
+    /**
+     * Copies the content of records [start, end) into one buffer.
+     */
+    private Batch readBatch(int start, int end) throws Exception {
+        Batch batch = new Batch();
+        batch.start = start;
+        batch.offsets = new int[(end - start) + 1];
+
+        int length = 0;
+
+        for (int i = start; i < end; i++) {
+            batch.offsets[i - start] = length;
+
+            if (i < shapefile.getNumRecords()) {
+                length += (2 * shapefile.getContentLength(i));
+            }
+        }
+
+        batch.offsets[end - start] = length;
+        batch.content = new byte[length];
+
+        for (int i = start; i < end; i++) {
+            if (i < shapefile.getNumRecords()) {
+                shapefile.getRecordContent(i).get(batch.content,
+                    batch.offsets[i - start], 2 * shapefile.getContentLength(i));
+            }
+        }
+
+        return batch;
+    }
+
+    private void decode(Batch batch, WorkerState state, Feature[] features) {
+        int count = batch.offsets.length - 1;
+
+        for (int j = 0; j < count; j++) {
+            int recordIndex = batch.start + j;
+            int length = batch.offsets[j + 1] - batch.offsets[j];
+            Geometry geometry = (recordIndex < shapefile.getNumRecords())
+                ? MappedShapefile.readGeometry(ByteBuffer.wrap(batch.content,
+                        batch.offsets[j], length).slice(), recordIndex,
+                    geometryFactory, state.handler)
+                : new GeometryCollection(null, null, -1);
+            Feature feature = new BasicFeature(featureSchema);
+
+            if (state.dbf != null) {
+                try {
+                    ShapefileReader.readAttributes(state.dbf, recordIndex,
+                        fields, feature);
+                } catch (Exception e) {
+                    throw new RuntimeException("Error reading record " +
+                        recordIndex + " of " + shapefile.getFile() + ": " +
+                        e.getMessage(), e);
+                }
+            }
+
+            feature.setGeometry(geometry);
+            features[recordIndex] = feature;
+        }
+    }
+
+    private static class Batch {
+        int start;
+        int[] offsets;
+        byte[] content;
+    }
+
+    /**
+     * Per-thread decoding state: ShapeHandlers and the .dbf decoding buffers
+     * are not shared between threads.
+     */
+    private class WorkerState {
+        ShapeHandler handler;
+        MappedDbfFile dbf;
+
+        WorkerState() {
+            try {
+                handler = Shapefile.getShapeHandler(shapefile.getShapeType());
+            } catch (Exception e) {
+                throw new RuntimeException(e.getMessage(), e);
+            }
+
+            if (handler == null) {
+                throw new RuntimeException("Unsuported shape type:" +
+                    shapefile.getShapeType());
+            }
+
+            dbf = (ParallelShapefileLoader.this.dbf == null) ? null
+                : ParallelShapefileLoader.this.dbf.duplicate();
+        }
+    }
+}
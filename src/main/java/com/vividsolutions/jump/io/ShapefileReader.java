@@ -41,11 +41,16 @@ import com.vividsolutions.jts.geom.*;
 import com.vividsolutions.jump.feature.*;
 
 import org.geotools.dbffile.DbfFile;
+import org.geotools.dbffile.MappedDbfFile;
 
+import org.geotools.shapefile.MappedShapefile;
 import org.geotools.shapefile.Shapefile;
+import org.geotools.shapefile.ShapefileSpatialIndex;
 
 import java.io.*;
 
+import java.util.StringTokenizer;
+
 /**
  * ShapefileReader is a {@link JUMPReader} specialized to read Shapefiles.
  *
@@ -75,6 +80,39 @@ import java.io.*;
  *    </tr>
  *
  *    <tr>
+ *      <td>Attributes</td>
+ *      <td>Comma-separated names of the .dbf fields to read (default: all).
+ *          Fields not listed are not parsed at all.</td>
+ *    </tr>
+ *
+ *    <tr>
+ *      <td>Threads</td>
+ *      <td>Number of threads decoding records (default 1). With more than
+ *          one, records are read through the .shx file by a
+ *          {@link ParallelShapefileLoader}; ignored for compressed files.</td>
+ *    </tr>
+ *
+ *    <tr>
+ *      <td>LazyLoad</td>
+ *      <td>"true" to return a {@link LazyShapefileFeatureCollection}, which
+ *          decodes features on demand instead of reading the whole file.
+ *          Requires the .shx file; ignored for compressed files.</td>
+ *    </tr>
+ *
+ *    <tr>
+ *      <td>SpatialIndex</td>
+ *      <td>For lazily loaded files: "false" to scan record bounds instead
+ *          of using (and if necessary building) the spatial index file
+ *          beside the .shp</td>
+ *    </tr>
+ *
+ *    <tr>
+ *      <td>CacheSize</td>
+ *      <td>Number of decoded features a lazily loaded collection keeps
+ *          in memory (default 10000)</td>
+ *    </tr>
+ *
+ *    <tr>
  *      <td colspan='2'>
  *         Uses a modified version of geotools to do the .dbf and .shp
  *         file reading.  If you are reading from a .zip file, the dbf
@@ -91,6 +129,11 @@ public class ShapefileReader implements JUMPReader {
 	public static final String FILE_PROPERTY_KEY = "File";
 	public static final String DEFAULT_VALUE_PROPERTY_KEY = "DefaultValue";
 	public static final String COMPRESSED_FILE_PROPERTY_KEY = "CompressedFile";
+	public static final String ATTRIBUTES_PROPERTY_KEY = "Attributes";
+	public static final String THREADS_PROPERTY_KEY = "Threads";
+	public static final String LAZY_LOAD_PROPERTY_KEY = "LazyLoad";
+	public static final String CACHE_SIZE_PROPERTY_KEY = "CacheSize";
+	public static final String SPATIAL_INDEX_PROPERTY_KEY = "SpatialIndex";
 
     /** Creates new ShapeReader */
     public ShapefileReader() {
@@ -128,6 +171,24 @@ public class ShapefileReader implements JUMPReader {
         String fnameWithoutExtention = fname.substring(0, loc); // ie. "hills.shp" -> "hills"
         String dbfFileName = path + fnameWithoutExtention + ".dbf";
 
+        if (isLazyLoad(dp)) {
+            FeatureCollection lazyCollection = readLazily(dp, shpfileName,
+                    dbfFileName);
+
+            if (lazyCollection != null) {
+                return lazyCollection;
+            }
+        }
+
+        if (getThreads(dp) > 1) {
+            FeatureCollection parallelCollection = readInParallel(dp,
+                    shpfileName, dbfFileName);
+
+            if (parallelCollection != null) {
+                return parallelCollection;
+            }
+        }
+
         //okay, have .shp and .dbf file paths, lets start
         // install Shapefile and DbfFile
         Shapefile myshape = getShapefile(shpfileName, dp.getProperty(COMPRESSED_FILE_PROPERTY_KEY));
@@ -157,24 +218,15 @@ public class ShapefileReader implements JUMPReader {
         } else {
             // There is a DBF file so we have to associate the attributes in
             // the DBF file with the features.
-            int numfields = mydbf.getNumFields();
-
-            for (int j = 0; j < numfields; j++) {
-                AttributeType type = AttributeType.toAttributeType(mydbf.getFieldType(j));
-                fs.addAttribute( mydbf.getFieldName(j), type );
-            }
+            int[] fields = getFields(mydbf, dp);
+            addAttributes(fs, mydbf, fields);
 
             featureCollection = new FeatureDataset(fs);
 
             for (int x = 0; x < mydbf.getLastRec(); x++) {
                 Feature feature = new BasicFeature(fs);
                 Geometry geo = collection.getGeometryN(x);
-                StringBuffer s = mydbf.GetDbfRec(x);
-
-                for (int y = 0; y < numfields; y++) {
-                    feature.setAttribute(y + 1, mydbf.ParseRecordColumn(s, y));
-                }
-
+                readAttributes(mydbf, x, fields, feature);
                 feature.setGeometry(geo);
                 featureCollection.add(feature);
             }
@@ -189,6 +241,196 @@ public class ShapefileReader implements JUMPReader {
     }
 
 
+    private boolean isLazyLoad(DriverProperties dp) {
+        String compressedFname = dp.getProperty(COMPRESSED_FILE_PROPERTY_KEY);
+
+        return "true".equalsIgnoreCase(dp.getProperty(LAZY_LOAD_PROPERTY_KEY)) &&
+            ((compressedFname == null) || (compressedFname.length() == 0));
+    }
+
+    /**
+     * Opens the shapefile as a LazyShapefileFeatureCollection.
+     * @return the collection, or null if there is no .shx file to read the
+     * records from
+     */
+    private FeatureCollection readLazily(DriverProperties dp,
+        String shpfileName, String dbfFileName) throws Exception {
+        File shpFile = new File(shpfileName);
+
+        if (!MappedShapefile.findIndexFile(shpFile).exists()) {
+            return null;
+        }
+
+        int cacheSize = LazyShapefileFeatureCollection.DEFAULT_CACHE_SIZE;
+
+        if (dp.getProperty(CACHE_SIZE_PROPERTY_KEY) != null) {
+            cacheSize = Integer.parseInt(dp.getProperty(
+                        CACHE_SIZE_PROPERTY_KEY).trim());
+        }
+
+        MappedShapefile mappedShapefile = new MappedShapefile(shpFile);
+        DbfFile mydbf = null;
+
+        try {
+            if (!"false".equalsIgnoreCase(dp.getProperty(SPATIAL_INDEX_PROPERTY_KEY))) {
+                mappedShapefile.setSpatialIndex(ShapefileSpatialIndex.openOrBuild(
+                        mappedShapefile));
+            }
+
+            mydbf = getMappedDbfFile(dbfFileName);
+
+            FeatureSchema fs = new FeatureSchema();
+            fs.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+
+            int[] fields = null;
+
+            if (mydbf != null) {
+                fields = getFields(mydbf, dp);
+                addAttributes(fs, mydbf, fields);
+            }
+
+            return new LazyShapefileFeatureCollection(mappedShapefile, mydbf,
+                fields, fs, cacheSize);
+        } catch (Exception e) {
+            // the collection would have closed them; nothing else will
+            mappedShapefile.close();
+
+            if (mydbf != null) {
+                mydbf.close();
+            }
+
+            throw e;
+        }
+    }
+
+    private int getThreads(DriverProperties dp) {
+        String compressedFname = dp.getProperty(COMPRESSED_FILE_PROPERTY_KEY);
+
+        if ((dp.getProperty(THREADS_PROPERTY_KEY) == null) ||
+                ((compressedFname != null) && (compressedFname.length() > 0))) {
+            return 1;
+        }
+
+        return Integer.parseInt(dp.getProperty(THREADS_PROPERTY_KEY).trim());
+    }
+
+    /**
+     * Reads the whole shapefile with a ParallelShapefileLoader.
+     * @return the features, or null if there is no .shx file to locate the
+     * records with, or the .dbf file is not a MappedDbfFile
+     */
+    private FeatureCollection readInParallel(DriverProperties dp,
+        String shpfileName, String dbfFileName) throws Exception {
+        File shpFile = new File(shpfileName);
+
+        if (!MappedShapefile.findIndexFile(shpFile).exists()) {
+            return null;
+        }
+
+        DbfFile dbf = getMappedDbfFile(dbfFileName);
+
+        if ((dbf != null) && !(dbf instanceof MappedDbfFile)) {
+            // A subclass opened it some other way; read it sequentially
+            dbf.close();
+
+            return null;
+        }
+
+        MappedDbfFile mydbf = (MappedDbfFile) dbf;
+        MappedShapefile mappedShapefile = new MappedShapefile(shpFile);
+
+        try {
+            FeatureSchema fs = new FeatureSchema();
+            fs.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+
+            int[] fields = null;
+
+            if (mydbf != null) {
+                fields = getFields(mydbf, dp);
+                addAttributes(fs, mydbf, fields);
+            }
+
+            return new ParallelShapefileLoader(mappedShapefile, mydbf, fields,
+                fs, getThreads(dp)).load();
+        } finally {
+            mappedShapefile.close();
+
+            if (mydbf != null) {
+                mydbf.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the indices of the .dbf fields named by the Attributes
+     * property, or of all fields if it is not set.
+     */
+    private int[] getFields(DbfFile dbf, DriverProperties dp)
+        throws IllegalParametersException {
+        String names = dp.getProperty(ATTRIBUTES_PROPERTY_KEY);
+
+        if (names == null) {
+            int[] fields = new int[dbf.getNumFields()];
+
+            for (int j = 0; j < fields.length; j++) {
+                fields[j] = j;
+            }
+
+            return fields;
+        }
+
+        StringTokenizer tokenizer = new StringTokenizer(names, ",");
+        int[] fields = new int[tokenizer.countTokens()];
+
+        for (int i = 0; i < fields.length; i++) {
+            String name = tokenizer.nextToken().trim();
+            fields[i] = -1;
+
+            for (int j = 0; j < dbf.getNumFields(); j++) {
+                if (dbf.getFieldName(j).equals(name)) {
+                    fields[i] = j;
+                }
+            }
+
+            if (fields[i] == -1) {
+                throw new IllegalParametersException("no field named '" +
+                    name + "' in the .dbf file");
+            }
+        }
+
+        return fields;
+    }
+
+    private void addAttributes(FeatureSchema fs, DbfFile dbf, int[] fields) {
+        for (int j = 0; j < fields.length; j++) {
+            fs.addAttribute(dbf.getFieldName(fields[j]),
+                AttributeType.toAttributeType(dbf.getFieldType(fields[j])));
+        }
+    }
+
+    /**
+     * Sets attributes 1..n of the feature from the given .dbf fields of the
+     * given row.
+     */
+    static void readAttributes(DbfFile dbf, int row, int[] fields,
+        Feature feature) throws Exception {
+        if (dbf instanceof MappedDbfFile) {
+            MappedDbfFile mappedDbf = (MappedDbfFile) dbf;
+
+            for (int y = 0; y < fields.length; y++) {
+                feature.setAttribute(y + 1, mappedDbf.getValue(row, fields[y]));
+            }
+
+            return;
+        }
+
+        StringBuffer s = dbf.GetDbfRec(row);
+
+        for (int y = 0; y < fields.length; y++) {
+            feature.setAttribute(y + 1, dbf.ParseRecordColumn(s, fields[y]));
+        }
+    }
+
     protected Shapefile getShapefile(String shpfileName, String compressedFname)
         throws Exception {
         InputStream in = CompressedFile.openFile(shpfileName,compressedFname);
@@ -226,19 +468,53 @@ public class ShapefileReader implements JUMPReader {
             in.close();
             out.close();
 
-            mydbf = new DbfFile(file.toString());
+            mydbf = readDbfFile(file.toString());
             delete_this_tmp_dbf = file; // to be deleted later on
         } else {
             File dbfFile = new File( dbfFileName );
 
             if ( dbfFile.exists() ) {
-                mydbf = new DbfFile(dbfFileName);
+                mydbf = readDbfFile(dbfFileName);
             }
         }
 
         return mydbf;
     }
 
+    /**
+     * Reads the .dbf file into a heap buffer and parses it as MappedDbfFile
+     * does, which is much faster than DbfFile's stream without holding a
+     * mapping open. A file too large to copy comfortably is streamed by a
+     * plain DbfFile instead.
+     */
+    private static DbfFile readDbfFile(String dbfFileName) throws Exception {
+        long maxLength = Math.min(Integer.MAX_VALUE,
+                Runtime.getRuntime().maxMemory() / 4);
+
+        if (new File(dbfFileName).length() > maxLength) {
+            return new DbfFile(dbfFileName);
+        }
+
+        return MappedDbfFile.readFully(dbfFileName);
+    }
+
+    /**
+     * Opens an uncompressed .dbf file for the lazy and parallel paths, as a
+     * MappedDbfFile. The mapping is only released when it is garbage
+     * collected, which on Windows keeps the file locked until then, so the
+     * default eager load reads a copy in memory through {@link #getDbfFile}
+     * instead.
+     * @return null if there is no .dbf file
+     */
+    protected DbfFile getMappedDbfFile(String dbfFileName)
+        throws Exception {
+        if (!new File(dbfFileName).exists()) {
+            return null;
+        }
+
+        return new MappedDbfFile(dbfFileName);
+    }
+
 
     private void deleteTmpDbf() {
         if (delete_this_tmp_dbf != null) {
@@ -41,7 +41,9 @@ import org.geotools.dbffile.DbfFieldDef;
 import org.geotools.dbffile.DbfFile;
 import org.geotools.dbffile.DbfFileWriter;
 
+import org.geotools.shapefile.MappedShapefile;
 import org.geotools.shapefile.Shapefile;
+import org.geotools.shapefile.ShapefileSpatialIndex;
 
 import java.io.*;
 
@@ -75,6 +77,23 @@ import java.util.*;
  *          'xyzm' are the same as 'xyz' 
  *       </td>
  *   </tr>
+ *   <tr>
+ *       <td>SpatialIndex</td>
+ *       <td>
+ *          'true' to also write the spatial index file read by
+ *          {@link ShapefileReader}. An existing index file beside the
+ *          output is always rewritten, so that it does not go stale.
+ *       </td>
+ *   </tr>
+ *   <tr>
+ *       <td>StringLengths</td>
+ *       <td>
+ *          Only used when writing a {@link FeatureInputStream}: the width of
+ *          STRING columns, as comma-separated 'name=width' pairs. A bare
+ *          width sets it for every column not named, e.g. '40,NAME=100'.
+ *          Otherwise STRING columns are 254 characters wide.
+ *       </td>
+ *   </tr>
  * </table><br>
  *
  * <p>
@@ -205,6 +224,8 @@ public class ShapefileWriter implements JUMPWriter {
 	public static final String FILE_PROPERTY_KEY = "File";
 	public static final String DEFAULT_VALUE_PROPERTY_KEY = "DefaultValue";
 	public static final String SHAPE_TYPE_PROPERTY_KEY = "ShapeType";
+	public static final String SPATIAL_INDEX_PROPERTY_KEY = "SpatialIndex";
+	public static final String STRING_LENGTHS_PROPERTY_KEY = "StringLengths";
 	
     protected static CGAlgorithms cga = new RobustCGAlgorithms();
 
@@ -272,29 +293,12 @@ public class ShapefileWriter implements JUMPWriter {
         // polygons will have the rings in the correct order
         gc = makeSHAPEGeometryCollection(featureCollection);
 
-        shapeType = 2; //x,y
-
-        if (dp.getProperty(SHAPE_TYPE_PROPERTY_KEY) != null) {
-            String st = dp.getProperty(SHAPE_TYPE_PROPERTY_KEY);
-
-            if (st.equalsIgnoreCase("xy")) {
-                shapeType = 2;
-            } else if (st.equalsIgnoreCase("xym")) {
-                shapeType = 3;
-            } else if (st.equalsIgnoreCase("xymz")) {
-                shapeType = 4;
-            } else if (st.equalsIgnoreCase("xyzm")) {
-                shapeType = 4;
-            } else if (st.equalsIgnoreCase("xyz")) {
-                shapeType = 4;
-            } else {
-                throw new IllegalParametersException(
-                    "ShapefileWriter.write() - dataproperties has a 'ShapeType' that isnt 'xy', 'xym', or 'xymz'");
-            }
-        } else {
-            if (gc.getNumGeometries() > 0) {
-                shapeType = guessCoorinateDims(gc.getGeometryN(0));
-            }
+        shapeType = getShapeFileDimentions(dp);
+
+        if ((shapeType == 0) && (gc.getNumGeometries() > 0)) {
+            shapeType = guessCoorinateDims(gc.getGeometryN(0));
+        } else if (shapeType == 0) {
+            shapeType = 2; //x,y
         }
 
         URL url = new URL("file", "localhost", shpfileName);
@@ -308,6 +312,134 @@ public class ShapefileWriter implements JUMPWriter {
         EndianDataOutputStream sfile = new EndianDataOutputStream(in);
 
         myshape.writeIndex(gc, sfile, shapeType);
+
+        writeSpatialIndex(new File(shpfileName), dp);
+    }
+
+    /**
+     * Write the features from a stream to a shapefile, one at a time, so that
+     * memory use does not depend on the number of features. See
+     * {@link StreamingShapefileWriter} for how this differs from
+     * {@link #write(FeatureCollection, DriverProperties)}.
+     *
+     * @param features stream to write; it is closed when done
+     * @param dp 'OutputFile' or 'DefaultValue' to specify where to write, 'ShapeType' to specify dimentionality, and 'StringLengths' to specify the width of STRING columns.
+     */
+    public void write(FeatureInputStream features, DriverProperties dp)
+        throws IllegalParametersException, Exception {
+        String shpfileName = dp.getProperty(FILE_PROPERTY_KEY);
+
+        if (shpfileName == null) {
+            shpfileName = dp.getProperty(DEFAULT_VALUE_PROPERTY_KEY);
+        }
+
+        if (shpfileName == null) {
+            throw new IllegalParametersException("no output filename specified");
+        }
+
+        File shpFile = new File(shpfileName);
+        FeatureSchema fs = features.getFeatureSchema();
+        StreamingShapefileWriter writer = new StreamingShapefileWriter(shpFile,
+                fs, getShapeFileDimentions(dp), getStringLengths(fs, dp));
+
+        try {
+            writer.write(features);
+        } finally {
+            writer.close();
+        }
+
+        writeSpatialIndex(shpFile, dp);
+    }
+
+    /**
+     * Returns the dimentionality set by the 'ShapeType' property, or 0 if it
+     * is not set.
+     */
+    int getShapeFileDimentions(DriverProperties dp)
+        throws IllegalParametersException {
+        String st = dp.getProperty(SHAPE_TYPE_PROPERTY_KEY);
+
+        if (st == null) {
+            return 0;
+        } else if (st.equalsIgnoreCase("xy")) {
+            return 2;
+        } else if (st.equalsIgnoreCase("xym")) {
+            return 3;
+        } else if (st.equalsIgnoreCase("xymz")) {
+            return 4;
+        } else if (st.equalsIgnoreCase("xyzm")) {
+            return 4;
+        } else if (st.equalsIgnoreCase("xyz")) {
+            return 4;
+        } else {
+            throw new IllegalParametersException(
+                "ShapefileWriter.write() - dataproperties has a 'ShapeType' that isnt 'xy', 'xym', or 'xymz'");
+        }
+    }
+
+    /**
+     * Returns the STRING column widths set by the 'StringLengths' property,
+     * indexed by attribute, or null if it is not set.
+     */
+    int[] getStringLengths(FeatureSchema fs, DriverProperties dp)
+        throws IllegalParametersException {
+        String sl = dp.getProperty(STRING_LENGTHS_PROPERTY_KEY);
+
+        if (sl == null) {
+            return null;
+        }
+
+        int defaultLength = StreamingShapefileWriter.DEFAULT_STRING_LENGTH;
+        Map lengths = new HashMap();
+        StringTokenizer tokens = new StringTokenizer(sl, ",");
+
+        try {
+            while (tokens.hasMoreTokens()) {
+                String token = tokens.nextToken().trim();
+                int loc = token.indexOf('=');
+
+                if (loc == -1) {
+                    defaultLength = Integer.parseInt(token);
+                } else {
+                    lengths.put(token.substring(0, loc).trim(),
+                        new Integer(token.substring(loc + 1).trim()));
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalParametersException(
+                "ShapefileWriter.write() - dataproperties has a 'StringLengths' that isnt a list of 'name=width' pairs");
+        }
+
+        int[] stringLengths = new int[fs.getAttributeCount()];
+
+        for (int t = 0; t < stringLengths.length; t++) {
+            if (fs.getAttributeType(t) == AttributeType.STRING) {
+                Integer length = (Integer) lengths.get(fs.getAttributeName(t));
+                stringLengths[t] = (length == null) ? defaultLength
+                                                    : length.intValue();
+            }
+        }
+
+        return stringLengths;
+    }
+
+    /**
+     * (Re)write the spatial index beside a shapefile that has just been
+     * written, if it was asked for or already exists.
+     */
+    void writeSpatialIndex(File shpFile, DriverProperties dp)
+        throws Exception {
+        if ("true".equalsIgnoreCase(dp.getProperty(SPATIAL_INDEX_PROPERTY_KEY)) ||
+                ShapefileSpatialIndex.getIndexFile(shpFile).exists()) {
+            MappedShapefile mappedShapefile = new MappedShapefile(shpFile,
+                    StreamingShapefileWriter.getSiblingFile(shpFile, ".shx"));
+
+            try {
+                ShapefileSpatialIndex.write(mappedShapefile);
+            } finally {
+                mappedShapefile.close();
+            }
+        }
     }
 
     /**
@@ -339,19 +471,51 @@ public class ShapefileWriter implements JUMPWriter {
         DbfFileWriter dbf;
         FeatureSchema fs;
         int t;
-        int f;
-        int u;
         int num;
 
         fs = featureCollection.getFeatureSchema();
 
+        int[] stringLengths = new int[fs.getAttributeCount()];
+
+        for (t = 0; t < fs.getAttributeCount(); t++) {
+            if (fs.getAttributeType(t) == AttributeType.STRING) {
+                stringLengths[t] = findMaxStringLength(featureCollection, t);
+            }
+        }
+
+        // write header
+        dbf = new DbfFileWriter(fname);
+        dbf.writeHeader(makeDbfFields(fs, stringLengths), featureCollection.size());
+
+        //write rows
+        num = featureCollection.size();
+
+        List features = featureCollection.getFeatures();
+
+        for (t = 0; t < num; t++) {
+            //System.out.println("dbf: record "+t);
+            Feature feature = (Feature) features.get(t);
+
+            dbf.writeRecord(makeDbfRow(feature, fs));
+        }
+
+        dbf.close();
+    }
+
+    /**
+     * Make the dbf column definitions for a schema.
+     * @param fs schema of the features to write
+     * @param stringLengths width of each STRING column, indexed by attribute
+     */
+    static DbfFieldDef[] makeDbfFields(FeatureSchema fs, int[] stringLengths)
+        throws Exception {
         // -1 because one of the columns is geometry
         DbfFieldDef[] fields = new DbfFieldDef[fs.getAttributeCount() - 1];
 
         // dbf column type and size
-        f = 0;
+        int f = 0;
 
-        for (t = 0; t < fs.getAttributeCount(); t++) {
+        for (int t = 0; t < fs.getAttributeCount(); t++) {
             AttributeType columnType = fs.getAttributeType(t);
             String columnName = fs.getAttributeName(t);
 
@@ -362,7 +526,7 @@ public class ShapefileWriter implements JUMPWriter {
                 fields[f] = new DbfFieldDef(columnName, 'N', 33, 16);
                 f++;
             } else if (columnType == AttributeType.STRING) {
-                int maxlength = findMaxStringLength(featureCollection, t);
+                int maxlength = stringLengths[t];
 
                 if (maxlength > 255) {
                     throw new Exception(
@@ -382,67 +546,61 @@ public class ShapefileWriter implements JUMPWriter {
             }
         }
 
-        // write header
-        dbf = new DbfFileWriter(fname);
-        dbf.writeHeader(fields, featureCollection.size());
-
-        //write rows
-        num = featureCollection.size();
-
-        List features = featureCollection.getFeatures();
+        return fields;
+    }
 
-        for (t = 0; t < num; t++) {
-            //System.out.println("dbf: record "+t);
-            Feature feature = (Feature) features.get(t);
-            Vector DBFrow = new Vector();
+    /**
+     * Make the dbf row for a feature, replacing nulls with 0 or "".
+     * @param feature feature to convert
+     * @param fs schema of the feature
+     */
+    static Vector makeDbfRow(Feature feature, FeatureSchema fs) {
+        Vector DBFrow = new Vector();
 
-            //make data for each column in this feature (row)
-            for (u = 0; u < fs.getAttributeCount(); u++) {
-                AttributeType columnType = fs.getAttributeType(u);
+        //make data for each column in this feature (row)
+        for (int u = 0; u < fs.getAttributeCount(); u++) {
+            AttributeType columnType = fs.getAttributeType(u);
 
-                if (columnType == AttributeType.INTEGER) {
-                    Object a = feature.getAttribute(u);
+            if (columnType == AttributeType.INTEGER) {
+                Object a = feature.getAttribute(u);
 
-                    if (a == null) {
-                        DBFrow.add(new Integer(0));
-                    } else {
-                        DBFrow.add((Integer) a);
-                    }
-                } else if (columnType == AttributeType.DOUBLE) {
-                    Object a = feature.getAttribute(u);
+                if (a == null) {
+                    DBFrow.add(new Integer(0));
+                } else {
+                    DBFrow.add((Integer) a);
+                }
+            } else if (columnType == AttributeType.DOUBLE) {
+                Object a = feature.getAttribute(u);
 
-                    if (a == null) {
-                        DBFrow.add(new Double(0.0));
-                    } else {
-                        DBFrow.add((Double) a);
-                    }
-                } else if (columnType == AttributeType.DATE) {
-                    Object a = feature.getAttribute(u);
-                    if (a == null) {
-                        DBFrow.add("");
-                    } else {
-                        DBFrow.add(DbfFile.DATE_PARSER.format((Date)a));
-                    }                    
-                } else if (columnType == AttributeType.STRING) {
-                    Object a = feature.getAttribute(u);
+                if (a == null) {
+                    DBFrow.add(new Double(0.0));
+                } else {
+                    DBFrow.add((Double) a);
+                }
+            } else if (columnType == AttributeType.DATE) {
+                Object a = feature.getAttribute(u);
+                if (a == null) {
+                    DBFrow.add("");
+                } else {
+                    DBFrow.add(DbfFile.DATE_PARSER.format((Date)a));
+                }                    
+            } else if (columnType == AttributeType.STRING) {
+                Object a = feature.getAttribute(u);
 
-                    if (a == null) {
-                        DBFrow.add(new String(""));
+                if (a == null) {
+                    DBFrow.add(new String(""));
+                } else {
+                    // MD 16 jan 03 - added some defensive programming
+                    if (a instanceof String) {
+                        DBFrow.add(a);
                     } else {
-                        // MD 16 jan 03 - added some defensive programming
-                        if (a instanceof String) {
-                            DBFrow.add(a);
-                        } else {
-                            DBFrow.add(a.toString());
-                        }
+                        DBFrow.add(a.toString());
                     }
                 }
             }
-
-            dbf.writeRecord(DBFrow);
         }
 
-        dbf.close();
+        return DBFrow;
     }
 
     /**
@@ -478,34 +636,45 @@ public class ShapefileWriter implements JUMPWriter {
      *@param fc feature collection containing tet geometries.
      **/
     int findBestGeometryType(FeatureCollection fc) {
-        Geometry geom;
-
         for (Iterator i = fc.iterator(); i.hasNext();) {
-            geom = ((Feature) i.next()).getGeometry();
+            int geomtype = getGeometryType(((Feature) i.next()).getGeometry());
 
-            if (geom instanceof Point) {
-                return 1;
+            if (geomtype != 0) {
+                return geomtype;
             }
+        }
 
-            if (geom instanceof MultiPoint) {
-                return 1;
-            }
+        return 0;
+    }
 
-            if (geom instanceof Polygon) {
-                return 3;
-            }
+    /**
+     * Find the generic geometry type of a single geometry, using the same
+     * codes as {@link #findBestGeometryType(FeatureCollection)}.
+     *@param geom geometry to test
+     **/
+    static int getGeometryType(Geometry geom) {
+        if (geom instanceof Point) {
+            return 1;
+        }
 
-            if (geom instanceof MultiPolygon) {
-                return 3;
-            }
+        if (geom instanceof MultiPoint) {
+            return 1;
+        }
 
-            if (geom instanceof LineString) {
-                return 2;
-            }
+        if (geom instanceof Polygon) {
+            return 3;
+        }
 
-            if (geom instanceof MultiLineString) {
-                return 2;
-            }
+        if (geom instanceof MultiPolygon) {
+            return 3;
+        }
+
+        if (geom instanceof LineString) {
+            return 2;
+        }
+
+        if (geom instanceof MultiLineString) {
+            return 2;
         }
 
         return 0;
@@ -598,62 +767,75 @@ public class ShapefileWriter implements JUMPWriter {
         List features = fc.getFeatures();
 
         for (int t = 0; t < features.size(); t++) {
-            Geometry geom;
-            geom = ((Feature) features.get(t)).getGeometry();
+            allGeoms[t] = makeSHAPEGeometry(((Feature) features.get(t)).getGeometry(),
+                    geomtype);
+        }
+
+        result = new GeometryCollection(allGeoms, new PrecisionModel(), 0);
 
-            switch (geomtype) {
-            case 1: //point
+        return result;
+    }
 
-                if ((geom instanceof Point)) {
-                    //good!
-                    Point[] p = new Point[1];
-                    p[0] = (Point) geom;
+    /**
+     * Convert a geometry to the multi-geometry written to the shapefile
+     * for the generic geometry type - (Multipoint,Multilinestring, or
+     * Multipolygon) - or to an empty one if the types don't match.
+     *@param geom geometry to convert
+     *@param geomtype generic geometry type, as returned by findBestGeometryType
+     */
+    Geometry makeSHAPEGeometry(Geometry geom, int geomtype) {
+        Geometry result = null;
 
-                    allGeoms[t] = new MultiPoint(p, new PrecisionModel(), 0);
-                } else if (geom instanceof MultiPoint) {
-                    allGeoms[t] = geom;
-                } else {
-                    allGeoms[t] = new MultiPoint(null, new PrecisionModel(), 0);
-                }
+        switch (geomtype) {
+        case 1: //point
 
-                break;
+            if ((geom instanceof Point)) {
+                //good!
+                Point[] p = new Point[1];
+                p[0] = (Point) geom;
 
-            case 2: //line
+                result = new MultiPoint(p, new PrecisionModel(), 0);
+            } else if (geom instanceof MultiPoint) {
+                result = geom;
+            } else {
+                result = new MultiPoint(null, new PrecisionModel(), 0);
+            }
 
-                if ((geom instanceof LineString)) {
-                    LineString[] l = new LineString[1];
-                    l[0] = (LineString) geom;
+            break;
 
-                    allGeoms[t] = new MultiLineString(l, new PrecisionModel(), 0);
-                } else if (geom instanceof MultiLineString) {
-                    allGeoms[t] = geom;
-                } else {
-                    allGeoms[t] = new MultiLineString(null,
-                            new PrecisionModel(), 0);
-                }
+        case 2: //line
 
-                break;
+            if ((geom instanceof LineString)) {
+                LineString[] l = new LineString[1];
+                l[0] = (LineString) geom;
 
-            case 3: //polygon
+                result = new MultiLineString(l, new PrecisionModel(), 0);
+            } else if (geom instanceof MultiLineString) {
+                result = geom;
+            } else {
+                result = new MultiLineString(null,
+                        new PrecisionModel(), 0);
+            }
 
-                if (geom instanceof Polygon) {
-                    //good!
-                    Polygon[] p = new Polygon[1];
-                    p[0] = (Polygon) geom;
+            break;
 
-                    allGeoms[t] = makeGoodSHAPEMultiPolygon(new MultiPolygon(
-                                p, new PrecisionModel(), 0));
-                } else if (geom instanceof MultiPolygon) {
-                    allGeoms[t] = makeGoodSHAPEMultiPolygon((MultiPolygon) geom);
-                } else {
-                    allGeoms[t] = new MultiPolygon(null, new PrecisionModel(), 0);
-                }
+        case 3: //polygon
 
-                break;
+            if (geom instanceof Polygon) {
+                //good!
+                Polygon[] p = new Polygon[1];
+                p[0] = (Polygon) geom;
+
+                result = makeGoodSHAPEMultiPolygon(new MultiPolygon(
+                            p, new PrecisionModel(), 0));
+            } else if (geom instanceof MultiPolygon) {
+                result = makeGoodSHAPEMultiPolygon((MultiPolygon) geom);
+            } else {
+                result = new MultiPolygon(null, new PrecisionModel(), 0);
             }
-        }
 
-        result = new GeometryCollection(allGeoms, new PrecisionModel(), 0);
+            break;
+        }
 
         return result;
     }
@@ -0,0 +1,285 @@
+/*
+ * The Unified Mapping Platform (JUMP) is an extensible, interactive GUI
+ * for visualizing and manipulating spatial features with geometry and attributes.
+ *
+ * Copyright (C) 2003 Vivid Solutions
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * For more information, contact:
+ *
+ * Vivid Solutions
+ * Suite #1A
+ * 2328 Government Street
+ * Victoria BC  V8T 5G5
+ * Canada
+ *
+ * (250)385-6040
+ * www.vividsolutions.com
+ */
+package com.vividsolutions.jump.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+import org.geotools.dbffile.DbfFileWriter;
+import org.geotools.shapefile.ShapeHandler;
+import org.geotools.shapefile.Shapefile;
+import org.geotools.shapefile.ShapefileException;
+import org.geotools.shapefile.ShapefileHeader;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jump.feature.AttributeType;
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureSchema;
+
+/**
+ * Writes a shapefile one feature at a time, so that the output need not fit
+ * in memory.
+ * <p>
+ * The .shp, .shx and .dbf records are appended as each feature is written.
+ * The headers are written as placeholders and patched on {@link #close}
+ * with the bounds, file length and record count.
+ * <p>
+ * Geometries are normalized as in {@link ShapefileWriter}, except that the
+ * shape type is taken from the first point, line or polygon written. Features
+ * written before that are stored as NULL shapes. Because string lengths
+ * cannot be measured in advance, STRING columns have a fixed width (254
+ * unless given), and longer values are truncated, with a warning on
+ * System.err the first time it happens in each column.
+ */
+public class StreamingShapefileWriter {
+    public static final int DEFAULT_STRING_LENGTH = 254;
+
+    private static final int HEADER_LENGTH = 100;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private FeatureSchema featureSchema;
+    private int shapeFileDimentions;
+    private int[] stringLengths;
+    private boolean[] truncated;
+    private ShapefileWriter converter = new ShapefileWriter();
+
+    private FileChannel shpChannel;
+    private FileChannel shxChannel;
+    private EndianDataOutputStream shp;
+    private EndianDataOutputStream shx;
+    private DbfFileWriter dbf;
+
+    private int geomtype = 0;
+    private ShapeHandler handler;
+    private Envelope bounds = new Envelope();
+    private int numRecords = 0;
+    // position of the next record, in 16 bit words
+    private long pos = HEADER_LENGTH / 2;
+
+    /**
+     * Creates the .shp, .shx and .dbf files beside each other.
+     * @param shpFile the .shp file to write
+     * @param featureSchema the schema of the features to be written
+     * @param shapeFileDimentions 2=x,y ; 3=x,y,m ; 4=x,y,z,m, or 0 to guess
+     * from the first geometry, as ShapefileWriter does
+     * @param stringLengths the width of each STRING column, indexed by
+     * attribute, or null to use DEFAULT_STRING_LENGTH for all
+     */
+    public StreamingShapefileWriter(File shpFile, FeatureSchema featureSchema,
+        int shapeFileDimentions, int[] stringLengths) throws Exception {
+        this.featureSchema = featureSchema;
+        this.shapeFileDimentions = shapeFileDimentions;
+
+        if (stringLengths == null) {
+            stringLengths = new int[featureSchema.getAttributeCount()];
+
+            for (int t = 0; t < stringLengths.length; t++) {
+                if (featureSchema.getAttributeType(t) == AttributeType.STRING) {
+                    stringLengths[t] = DEFAULT_STRING_LENGTH;
+                }
+            }
+        }
+
+        this.stringLengths = stringLengths;
+        truncated = new boolean[stringLengths.length];
+
+        dbf = new DbfFileWriter(getSiblingFile(shpFile, ".dbf").getPath());
+        dbf.writeHeader(ShapefileWriter.makeDbfFields(featureSchema,
+                stringLengths), 0);
+
+        shpChannel = openChannel(shpFile);
+        shp = new EndianDataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(shpChannel), BUFFER_SIZE));
+        shxChannel = openChannel(getSiblingFile(shpFile, ".shx"));
+        shx = new EndianDataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(shxChannel), BUFFER_SIZE));
+
+        //placeholders, replaced on close
+        shp.write(new byte[HEADER_LENGTH], 0, HEADER_LENGTH);
+        shx.write(new byte[HEADER_LENGTH], 0, HEADER_LENGTH);
+    }
+
+    /**
+     * Returns the file with the same name as the given .shp file but another
+     * extension, e.g. ".dbf".
+     */
+    public static File getSiblingFile(File shpFile, String extension) {
+        String name = shpFile.getPath();
+        int loc = name.lastIndexOf('.');
+
+        return new File(((loc == -1) ? name : name.substring(0, loc)) +
+            extension);
+    }
+
+    private static FileChannel openChannel(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+
+        return raf.getChannel();
+    }
+
+    /**
+     * Writes every feature in the stream, then closes the stream (but not
+     * this writer).
+     */
+    public void write(FeatureInputStream features) throws Exception {
+        try {
+            while (features.hasNext()) {
+                write(features.next());
+            }
+        } finally {
+            features.close();
+        }
+    }
+
+    /**
+     * Appends a feature to the .shp, .shx and .dbf files.
+     */
+    public void write(Feature feature) throws Exception {
+        Geometry geom = feature.getGeometry();
+
+        if ((geomtype == 0) && (ShapefileWriter.getGeometryType(geom) != 0)) {
+            geomtype = ShapefileWriter.getGeometryType(geom);
+
+            if (shapeFileDimentions == 0) {
+                shapeFileDimentions = converter.guessCoorinateDims(geom);
+            }
+
+            handler = Shapefile.getShapeHandler(converter.makeSHAPEGeometry(
+                        geom, geomtype), shapeFileDimentions);
+        }
+
+        int length;
+
+        if (geomtype == 0) {
+            //NULL shape - the type is not known yet
+            length = 2;
+            writeRecordHeader(length);
+            shp.writeIntLE(Shapefile.NULL);
+        } else {
+            Geometry body = converter.makeSHAPEGeometry(geom, geomtype);
+            length = handler.getLength(body);
+            writeRecordHeader(length);
+            handler.write(body, shp);
+
+            if (!body.isEmpty()) {
+                bounds.expandToInclude(body.getEnvelopeInternal());
+            }
+        }
+
+        pos += (4 + length);
+        checkStringLengths(feature);
+        dbf.writeRecord(ShapefileWriter.makeDbfRow(feature, featureSchema));
+    }
+
+    private void checkStringLengths(Feature feature) {
+        for (int t = 0; t < stringLengths.length; t++) {
+            if (truncated[t] ||
+                    (featureSchema.getAttributeType(t) != AttributeType.STRING)) {
+                continue;
+            }
+
+            Object value = feature.getAttribute(t);
+
+            if ((value != null) &&
+                    (value.toString().length() > stringLengths[t])) {
+                truncated[t] = true;
+                System.err.println("StreamingShapefileWriter: values of " +
+                    featureSchema.getAttributeName(t) + " truncated to " +
+                    stringLengths[t] + " characters, first in record " +
+                    numRecords);
+            }
+        }
+    }
+
+    private void writeRecordHeader(int length)
+        throws IOException, ShapefileException {
+        if ((pos + 4 + length) > Integer.MAX_VALUE) {
+            throw new ShapefileException(
+                "Shapefile would exceed the maximum file size of 4GB");
+        }
+
+        numRecords++;
+        shp.writeIntBE(numRecords);
+        shp.writeIntBE(length);
+        shx.writeIntBE((int) pos);
+        shx.writeIntBE(length);
+    }
+
+    /**
+     * Returns the number of features written so far.
+     */
+    public int getNumRecords() {
+        return numRecords;
+    }
+
+    /**
+     * Patches the headers and closes the files.
+     */
+    public void close() throws IOException {
+        try {
+            //a file with no typed geometries is written as points, like
+            //Shapefile.write does for an empty collection
+            int shapeType = (handler == null) ? Shapefile.POINT
+                                              : handler.getShapeType();
+            //with no shapes to bound, write zeros rather than the null
+            //Envelope's (0, 0, -1, -1)
+            ShapefileHeader header = new ShapefileHeader(shapeType,
+                    bounds.isNull() ? new Envelope(0, 0, 0, 0) : bounds,
+                    (int) pos, numRecords);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_LENGTH);
+            EndianDataOutputStream out = new EndianDataOutputStream(bytes);
+
+            header.write(out);
+            out.flush();
+            shp.flush();
+            shpChannel.write(ByteBuffer.wrap(bytes.toByteArray()), 0);
+
+            bytes.reset();
+            header.writeToIndex(out);
+            out.flush();
+            shx.flush();
+            shxChannel.write(ByteBuffer.wrap(bytes.toByteArray()), 0);
+        } finally {
+            shp.close();
+            shx.close();
+            dbf.close();
+        }
+    }
+}
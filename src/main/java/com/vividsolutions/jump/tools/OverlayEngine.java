@@ -85,7 +85,8 @@ public class OverlayEngine {
         monitor.allowCancellationRequests();
         monitor.report("Indexing second feature collection...");
 
-        IndexedFeatureCollection indexedB = new IndexedFeatureCollection(b);
+        FeatureCollection indexedB = FeatureDataset.isIndexed(b)
+            ? b : new IndexedFeatureCollection(b);
         monitor.report("Overlaying feature collections...");
 
         FeatureDataset overlay = new FeatureDataset(mapping.createSchema(
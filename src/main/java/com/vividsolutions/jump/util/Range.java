@@ -68,6 +68,24 @@ public class Range {
     public boolean equals(Object obj) {
         return Range.RANGE_COMPARATOR.compare(this, obj) == 0;
     }
+    /**
+     * Like RANGE_COMPARATOR, but without wrapping the value in a Range.
+     * @return a negative number if the value is below this range, a
+     * positive number if it is above, and 0 if the range contains it
+     */
+    public int locate(Object value) {
+        int valueComparedToMin = INFINITY_COMPARATOR.compare(value, min);
+        if (valueComparedToMin < 0
+            || (valueComparedToMin == 0 && !includingMin)) {
+            return -1;
+        }
+        int valueComparedToMax = INFINITY_COMPARATOR.compare(value, max);
+        if (valueComparedToMax > 0
+            || (valueComparedToMax == 0 && !includingMax)) {
+            return +1;
+        }
+        return 0;
+    }
     public boolean isIncludingMax() {
         return includingMax;
     }
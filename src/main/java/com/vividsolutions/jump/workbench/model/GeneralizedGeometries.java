@@ -0,0 +1,530 @@
+/*
+ * The Unified Mapping Platform (JUMP) is an extensible, interactive GUI
+ * for visualizing and manipulating spatial features with geometry and attributes.
+ *
+ * Copyright (C) 2003 Vivid Solutions
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * For more information, contact:
+ *
+ * Vivid Solutions
+ * Suite #1A
+ * 2328 Government Street
+ * Victoria BC  V8T 5G5
+ * Canada
+ *
+ * (250)385-6040
+ * www.vividsolutions.com
+ */
+package com.vividsolutions.jump.workbench.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.util.GeometryTransformer;
+import com.vividsolutions.jts.simplify.DouglasPeuckerLineSimplifier;
+import com.vividsolutions.jump.feature.AbstractBasicFeature;
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.feature.FeatureSchema;
+
+/**
+ * Douglas-Peucker generalizations of a Layer's lines and polygons at a few
+ * tolerances, so that a zoomed-out view can be drawn from far fewer
+ * vertices. They are built in the background the first time they are asked
+ * for. A Feature whose geometry changes, or that is added, is drawn as is
+ * until it has been generalized again, also in the background.
+ * <p>
+ * A level is only used at scales where its error is at most a quarter of a
+ * pixel, which Java2DConverter's rounding to whole pixels all but hides.
+ *
+ * @see Layer#getGeneralizedGeometries
+ */
+public class GeneralizedGeometries {
+	/**
+	 * Set this to true on a Layer's Blackboard to keep generalized geometries
+	 * for it. Worthwhile for large, detailed layers that are often viewed
+	 * zoomed out.
+	 */
+	public static final String USE_GENERALIZED_GEOMETRIES_KEY = GeneralizedGeometries.class
+			.getName()
+			+ " - USE GENERALIZED GEOMETRIES";
+
+	//In pixels
+	private static final double MAX_ERROR = 0.25;
+
+	//The coarsest level's tolerance is this fraction of the layer's extent,
+	//so that it can be used while the whole layer spans up to about 1500
+	//pixels. Each finer level covers four times the magnification.
+	private static final double COARSEST_TOLERANCE = 1d / 8192;
+
+	private static final int LEVEL_COUNT = 4;
+
+	private static final double LEVEL_RATIO = 4;
+
+	private Layer layer;
+
+	//Finest first; null until built
+	private Level[] levels = null;
+
+	private boolean building = false;
+
+	//Incremented to abandon a build in progress
+	private volatile int generation = 0;
+
+	//The Features changed while building, which the build must leave out
+	private Set changedFeatures = null;
+
+	//Features modified or added since they were last generalized, waiting
+	//for the regenerating thread
+	private Set pendingFeatures = new HashSet();
+
+	private boolean regenerating = false;
+
+	//The Feature the regenerating thread is working on; set to null if it
+	//changes meanwhile, so that the result is thrown away
+	private Feature regeneratingFeature = null;
+
+	public GeneralizedGeometries(Layer layer) {
+		this.layer = layer;
+	}
+
+	/**
+	 * @param features
+	 *            Features of the Layer, to be drawn at the given scale
+	 * @return the Features, those with a suitably generalized geometry being
+	 *         replaced by a read-only Feature with that geometry and the same
+	 *         attributes; or the Features themselves if there is no suitable
+	 *         level or the levels are not yet built
+	 */
+	public List generalize(List features, double scale) {
+		if (layer.isEditable()) {
+			//Show the vertices being edited
+			return features;
+		}
+		Level level = level(scale);
+		if (level == null) {
+			return features;
+		}
+		List generalizedFeatures = new ArrayList(features.size());
+		//The maps are modified on other threads as Features change
+		synchronized (this) {
+			for (Iterator i = features.iterator(); i.hasNext();) {
+				Feature feature = (Feature) i.next();
+				Geometry geometry = (Geometry) level.featureToGeometryMap
+						.get(feature);
+				generalizedFeatures.add(geometry == null ? feature
+						: new GeneralizedFeature(feature, geometry));
+			}
+		}
+		return generalizedFeatures;
+	}
+
+	/**
+	 * @return the coarsest level whose error at the given scale is within
+	 *         MAX_ERROR, or null if there is none; starts building the levels
+	 *         if they are not built
+	 */
+	private synchronized Level level(double scale) {
+		if (levels == null) {
+			if (!building) {
+				startBuilding();
+			}
+			return null;
+		}
+		for (int i = levels.length - 1; i >= 0; i--) {
+			if (levels[i].error * scale <= MAX_ERROR) {
+				return levels[i];
+			}
+		}
+		return null;
+	}
+
+	private void startBuilding() {
+		building = true;
+		final int generation = this.generation;
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				build(generation);
+			}
+		}, "Generalizer");
+		thread.setDaemon(true);
+		//Keep the GUI responsive
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * Builds the levels on the calling thread, replacing any already built.
+	 */
+	public void build() {
+		int generation;
+		synchronized (this) {
+			building = true;
+			generation = ++this.generation;
+		}
+		build(generation);
+	}
+
+	private void build(int generation) {
+		FeatureCollection featureCollection;
+		synchronized (this) {
+			if (generation != this.generation) {
+				return;
+			}
+			changedFeatures = new HashSet();
+			featureCollection = layer.getFeatureCollectionWrapper();
+		}
+		Level[] newLevels = null;
+		try {
+			newLevels = build(featureCollection, generation);
+		} finally {
+			synchronized (this) {
+				if (generation == this.generation) {
+					if (newLevels != null) {
+						remove(changedFeatures, newLevels);
+					}
+					levels = newLevels;
+					changedFeatures = null;
+					building = false;
+					if (levels != null && !pendingFeatures.isEmpty()
+							&& !regenerating) {
+						startRegenerating();
+					}
+				}
+			}
+		}
+	}
+
+	private Level[] build(FeatureCollection featureCollection, int generation) {
+		Envelope envelope = featureCollection.getEnvelope();
+		double extent = Math.max(envelope.getWidth(), envelope.getHeight());
+		Level[] newLevels = new Level[LEVEL_COUNT];
+		double error = 0;
+		for (int i = 0; i < LEVEL_COUNT; i++) {
+			double tolerance = extent * COARSEST_TOLERANCE
+					/ Math.pow(LEVEL_RATIO, LEVEL_COUNT - 1 - i);
+			//Each level generalizes the one before, so the errors add up.
+			error += tolerance;
+			newLevels[i] = new Level(tolerance, error);
+		}
+		for (Iterator i = featureCollection.iterator(); i.hasNext();) {
+			if (generation != this.generation) {
+				return null;
+			}
+			Feature feature = (Feature) i.next();
+			put(feature, generalize(feature.getGeometry(), newLevels),
+					newLevels);
+		}
+		return newLevels;
+	}
+
+	/**
+	 * @return for each level, the generalized geometry, or null where it
+	 *         would be the original geometry
+	 */
+	private static Geometry[] generalize(Geometry original, Level[] levels) {
+		Geometry[] geometries = new Geometry[levels.length];
+		if (!(original instanceof Polygon || original instanceof MultiPolygon
+				|| original instanceof LineString || original instanceof MultiLineString)) {
+			return geometries;
+		}
+		Geometry geometry = original;
+		for (int j = 0; j < levels.length; j++) {
+			Geometry generalized = new Simplifier(levels[j].tolerance)
+					.transform(geometry);
+			if (generalized.getNumPoints() < geometry.getNumPoints()) {
+				geometry = generalized;
+			}
+			if (geometry != original) {
+				geometries[j] = geometry;
+			}
+		}
+		return geometries;
+	}
+
+	private static void put(Feature feature, Geometry[] geometries,
+			Level[] levels) {
+		for (int j = 0; j < levels.length; j++) {
+			if (geometries[j] != null) {
+				levels[j].featureToGeometryMap.put(feature, geometries[j]);
+			}
+		}
+	}
+
+	/**
+	 * Called by the Layer when some of its Features have been modified or
+	 * added. They are drawn as they are until they have been generalized
+	 * again in the background.
+	 */
+	public synchronized void featuresChanged(Collection features) {
+		forget(features);
+		if (levels == null && !building) {
+			//The next build will see the new geometries
+			return;
+		}
+		pendingFeatures.addAll(features);
+		if (levels != null && !regenerating) {
+			startRegenerating();
+		}
+	}
+
+	/**
+	 * Called by the Layer when some of its Features have been deleted.
+	 */
+	public synchronized void featuresDeleted(Collection features) {
+		forget(features);
+		//Not Set#removeAll, which may call List#contains for each entry
+		for (Iterator i = features.iterator(); i.hasNext();) {
+			pendingFeatures.remove(i.next());
+		}
+	}
+
+	private void forget(Collection features) {
+		if (changedFeatures != null) {
+			changedFeatures.addAll(features);
+		}
+		if (levels != null) {
+			remove(features, levels);
+		}
+		if (regeneratingFeature != null
+				&& features.contains(regeneratingFeature)) {
+			regeneratingFeature = null;
+		}
+	}
+
+	private void startRegenerating() {
+		regenerating = true;
+		final int generation = this.generation;
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				regenerate(generation);
+			}
+		}, "Generalizer");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * Generalizes the pending Features one at a time, until there are none
+	 * left or the levels are invalidated.
+	 */
+	private void regenerate(int generation) {
+		while (true) {
+			Feature feature;
+			Level[] levels;
+			synchronized (this) {
+				if (generation != this.generation || this.levels == null
+						|| pendingFeatures.isEmpty()) {
+					if (generation == this.generation) {
+						regenerating = false;
+					}
+					return;
+				}
+				Iterator i = pendingFeatures.iterator();
+				feature = (Feature) i.next();
+				i.remove();
+				regeneratingFeature = feature;
+				levels = this.levels;
+			}
+			Geometry[] geometries = generalize(feature.getGeometry(), levels);
+			synchronized (this) {
+				if (generation != this.generation) {
+					return;
+				}
+				if (regeneratingFeature == feature) {
+					put(feature, geometries, levels);
+				}
+				regeneratingFeature = null;
+			}
+		}
+	}
+
+	private static void remove(Collection features, Level[] levels) {
+		//Not Set#removeAll, which may call List#contains for each entry
+		for (Iterator i = features.iterator(); i.hasNext();) {
+			Object feature = i.next();
+			for (int j = 0; j < levels.length; j++) {
+				levels[j].featureToGeometryMap.remove(feature);
+			}
+		}
+	}
+
+	/**
+	 * Called by the Layer when its FeatureCollection has been replaced. The
+	 * levels are built again when next asked for.
+	 */
+	public synchronized void invalidate() {
+		generation++;
+		levels = null;
+		changedFeatures = null;
+		building = false;
+		pendingFeatures.clear();
+		regenerating = false;
+		regeneratingFeature = null;
+	}
+
+	private static class Level {
+		private double tolerance;
+
+		//In model units, relative to the original geometries
+		private double error;
+
+		private Map featureToGeometryMap = new HashMap();
+
+		public Level(double tolerance, double error) {
+			this.tolerance = tolerance;
+			this.error = error;
+		}
+	}
+
+	/**
+	 * Simplifies each line and ring on its own, without the validity checks
+	 * of DouglasPeuckerSimplifier, which only matter for analysis, not
+	 * drawing. A ring that would collapse is kept as is; it is too small to
+	 * see anyway.
+	 */
+	private static class Simplifier extends GeometryTransformer {
+		private double tolerance;
+
+		public Simplifier(double tolerance) {
+			this.tolerance = tolerance;
+		}
+
+		protected CoordinateSequence transformCoordinates(
+				CoordinateSequence coordinates, Geometry parent) {
+			CoordinateSequence simplified = createCoordinateSequence(DouglasPeuckerLineSimplifier
+					.simplify(coordinates.toCoordinateArray(), tolerance));
+			if (parent instanceof LinearRing && simplified.size() < 4) {
+				return coordinates;
+			}
+			return simplified;
+		}
+	}
+
+	/**
+	 * A read-only view of a Feature with a generalized geometry.
+	 */
+	private static class GeneralizedFeature implements Feature {
+		private Feature feature;
+
+		private Geometry geometry;
+
+		public GeneralizedFeature(Feature feature, Geometry geometry) {
+			this.feature = feature;
+			this.geometry = geometry;
+		}
+
+		public void setAttributes(Object[] attributes) {
+			throw new UnsupportedOperationException(
+					"Generalized features are read-only");
+		}
+
+		public void setSchema(FeatureSchema schema) {
+			throw new UnsupportedOperationException(
+					"Generalized features are read-only");
+		}
+
+		public int getID() {
+			return feature.getID();
+		}
+
+		public void setAttribute(int attributeIndex, Object newAttribute) {
+			throw new UnsupportedOperationException(
+					"Generalized features are read-only");
+		}
+
+		public void setAttribute(String attributeName, Object newAttribute) {
+			throw new UnsupportedOperationException(
+					"Generalized features are read-only");
+		}
+
+		public void setGeometry(Geometry geometry) {
+			throw new UnsupportedOperationException(
+					"Generalized features are read-only");
+		}
+
+		public Object getAttribute(int i) {
+			if (i == getSchema().getGeometryIndex()) {
+				return geometry;
+			}
+			return feature.getAttribute(i);
+		}
+
+		public Object getAttribute(String name) {
+			return getAttribute(getSchema().getAttributeIndex(name));
+		}
+
+		public String getString(int attributeIndex) {
+			return feature.getString(attributeIndex);
+		}
+
+		public int getInteger(int attributeIndex) {
+			return feature.getInteger(attributeIndex);
+		}
+
+		public double getDouble(int attributeIndex) {
+			return feature.getDouble(attributeIndex);
+		}
+
+		public String getString(String attributeName) {
+			return feature.getString(attributeName);
+		}
+
+		public Geometry getGeometry() {
+			return geometry;
+		}
+
+		public FeatureSchema getSchema() {
+			return feature.getSchema();
+		}
+
+		public Object clone() {
+			return clone(true);
+		}
+
+		public Feature clone(boolean deep) {
+			return AbstractBasicFeature.clone(this, deep);
+		}
+
+		public Object[] getAttributes() {
+			Object[] attributes = new Object[getSchema().getAttributeCount()];
+			for (int i = 0; i < attributes.length; i++) {
+				attributes[i] = getAttribute(i);
+			}
+			return attributes;
+		}
+
+		public int compareTo(Object o) {
+			return AbstractBasicFeature.compare(this, (Feature) o);
+		}
+	}
+}
@@ -87,6 +87,8 @@ public class Layer extends AbstractLayerable implements LayerManagerProxy {
 
 	private DataSourceQuery dataSourceQuery;
 
+	private GeneralizedGeometries generalizedGeometries = null;
+
 	/**
 	 * Called by Java2XML
 	 */
@@ -241,6 +243,29 @@ public class Layer extends AbstractLayerable implements LayerManagerProxy {
 		}
 
 		setFeatureCollectionWrapper(observableFeatureCollection);
+		synchronized (this) {
+			if (generalizedGeometries != null) {
+				generalizedGeometries.invalidate();
+			}
+		}
+	}
+
+	/**
+	 * @return the generalized geometries kept for this layer, or null if
+	 *         GeneralizedGeometries#USE_GENERALIZED_GEOMETRIES_KEY is not set
+	 *         on its Blackboard
+	 */
+	public synchronized GeneralizedGeometries getGeneralizedGeometries() {
+		if (!getBlackboard().get(
+				GeneralizedGeometries.USE_GENERALIZED_GEOMETRIES_KEY, false)) {
+			//Let the geometries be garbage-collected
+			generalizedGeometries = null;
+			return null;
+		}
+		if (generalizedGeometries == null) {
+			generalizedGeometries = new GeneralizedGeometries(this);
+		}
+		return generalizedGeometries;
 	}
 
 	/**
@@ -412,6 +437,21 @@ public class Layer extends AbstractLayerable implements LayerManagerProxy {
 				public void featuresChanged(FeatureEvent e) {
 					if (e.getLayer() == Layer.this) {
 						setFeatureCollectionModified(true);
+						GeneralizedGeometries generalizedGeometries = Layer.this.generalizedGeometries;
+						if (generalizedGeometries != null) {
+							if (e.getType() == FeatureEventType.GEOMETRY_MODIFIED
+									|| e.getType() == FeatureEventType.ADDED) {
+								generalizedGeometries.featuresChanged(e
+										.getFeatures());
+							} else if (e.getType() == FeatureEventType.DELETED) {
+								generalizedGeometries.featuresDeleted(e
+										.getFeatures());
+							}
+						}
+						LabelStyle labelStyle = getLabelStyle();
+						if (labelStyle != null) {
+							labelStyle.featuresChanged();
+						}
 
 						//Before I wasn't firing appearance-changed on an
 						// attribute
@@ -1,10 +1,13 @@
 package com.vividsolutions.jump.workbench.model.cache;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 
 import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jump.feature.Feature;
@@ -28,10 +31,40 @@ public class CachingFeatureCollection extends FeatureCollectionWrapper {
 
     private Envelope envelopeOfCompletedCache = new Envelope();
 
+    // Features fetched to be drawn with simplified geometries or only some
+    // attributes, kept apart from the cache of features in full; see
+    // DynamicFeatureCollection#query
+    private FeatureCollection renderCache = null;
+
+    private Envelope envelopeOfCompletedRenderCache = new Envelope();
+
+    // What the render cache's features were fetched with, set when fetching
+    // starts
+    private volatile double simplificationToleranceOfRenderCache = 0;
+
+    private volatile String[] propertyNamesOfRenderCache = null;
+
+    // Whether the features last fetched to be drawn went to the render
+    // cache, leaving the cache of features in full to be filled on demand
+    private volatile boolean renderingSimplified = false;
+
+    // The envelope whose features are being fetched in full in the
+    // background for the GUI thread, or null; a fetch overtaken by a later
+    // one or by #emptyCache leaves the cache alone
+    private Envelope envelopeBeingFetched = null;
+
+    private ChangeListener fullFeaturesListener = null;
+
     private FeatureCollection featureCollection;
 
     private boolean cachingByEnvelope = true;
 
+    // Null until the first query off the GUI thread, then NO_TILE_CACHE if
+    // the features cannot be told apart
+    private Object tileCache = null;
+
+    private static final Object NO_TILE_CACHE = new Object();
+
 //    private static final FeatureCollection DUMMY_CACHED_FEATURE_COLLECTION = AddNewLayerPlugIn.createBlankFeatureCollection();
 
     public CachingFeatureCollection(final FeatureCollection featureCollection) {
@@ -65,6 +98,26 @@ public class CachingFeatureCollection extends FeatureCollectionWrapper {
 	}
 
     public List query(final Envelope envelope) {
+        return query(envelope, 0, null);
+    }
+
+    /**
+     * Queries for features to be drawn, passing the arguments on to
+     * DynamicFeatureCollection#query(Envelope, double, String[]) if that is
+     * what this wraps. Features fetched with simplified geometries or only
+     * some attributes are kept in a cache of their own, so that callers of
+     * #query(Envelope), such as the info and selection tools, are only ever
+     * given features in full. While the layer is drawn from such features,
+     * those callers have the features in full fetched for them, as the
+     * drawing does not fetch them: off the GUI thread there and then, on it
+     * in the background, making do with the features drawn until they arrive.
+     *
+     * @see #setFullFeaturesListener(ChangeListener)
+     */
+    public List query(final Envelope envelope,
+            final double simplificationTolerance, final String[] propertyNames) {
+        final boolean simplified = featureCollection instanceof DynamicFeatureCollection
+                && (simplificationTolerance > 0 || propertyNames != null);
         // This code achieves its simplicity using two wrappers:
         // LazyList and ListWrapper. [Jon Aquino 2005-03-22]
 
@@ -78,7 +131,12 @@ public class CachingFeatureCollection extends FeatureCollectionWrapper {
         final LazyList cachedFeatureCollectionQueryResults = new LazyList(
                 new Block() {
                     public Object yield() {
-                        return getCachedFeatureCollection().query(envelope);
+                        if (simplified
+                                && renderCacheIsDetailedEnough(
+                                        simplificationTolerance, propertyNames)) {
+                            return getRenderCache().query(envelope);
+                        }
+                        return queryCachedFeatureCollection(envelope);
                     }
                 });
         // Use a ListWrapper to delegate all calls to the cached feature
@@ -93,7 +151,11 @@ public class CachingFeatureCollection extends FeatureCollectionWrapper {
             public Iterator iterator() {
                 // Caching criterion 1: envelope check [Jon Aquino 2005-03-22]
                 if (cachingByEnvelope
-                        && envelopeOfCompletedCache.contains(envelope)) {
+                        && (simplified ? envelopeOfCompletedRenderCache
+                                .contains(envelope)
+                                && renderCacheIsDetailedEnough(
+                                        simplificationTolerance, propertyNames)
+                                : envelopeOfCompletedCache.contains(envelope))) {
                     return super.iterator();
                 }
                 // Caching criterion 2: GUI-thread check [Jon Aquino 2005-03-22]
@@ -104,27 +166,58 @@ public class CachingFeatureCollection extends FeatureCollectionWrapper {
                     // [Jon Aquino 2005-03-03]
                     return super.iterator();
                 }
-                final Iterator iterator = featureCollection.query(envelope)
-                        .iterator();
+                final boolean dynamic = featureCollection instanceof DynamicFeatureCollection;
+                FeatureTileCache tileCache = getTileCache();
+                final Iterator iterator = tileCache != null ? tileCache
+                        .iterator(envelope, simplificationTolerance,
+                                propertyNames)
+                        : (dynamic ? ((DynamicFeatureCollection) featureCollection)
+                                .query(envelope, simplificationTolerance,
+                                        propertyNames)
+                                : featureCollection.query(envelope))
+                                .iterator();
                 initializeCacheIfNecessary();
-                emptyCache();
-                envelopeOfCompletedCache = new Envelope();
-                return new Iterator() {
+                renderingSimplified = simplified;
+                final FeatureCollection cache;
+                if (simplified) {
+                    cache = getRenderCache();
+                    cache.clear();
+                    envelopeOfCompletedRenderCache = new Envelope();
+                    simplificationToleranceOfRenderCache = simplificationTolerance;
+                    propertyNamesOfRenderCache = propertyNames;
+                } else {
+                    // Not #emptyCache, which also drops the tile cache
+                    cache = getCachedFeatureCollection();
+                    cache.clear();
+                    envelopeOfCompletedCache = new Envelope();
+                }
+                return new ClosableIterator() {
                     public void remove() {
                         iterator.remove();
                     }
 
+                    public void close() {
+                        if (iterator instanceof ClosableIterator) {
+                            ((ClosableIterator) iterator).close();
+                        }
+                    }
+
                     public boolean hasNext() {
                         return iterator.hasNext();
                     }
 
                     public Object next() {
                         Feature nextFeature = (Feature) iterator.next();
-                        getCachedFeatureCollection().add(nextFeature);
+                        cache.add(nextFeature);
                         if (!hasNext()) {
                             // Set the cache envelope only when the cache is
                             // complete. [Jon Aquino 2005-03-03]
-                            envelopeOfCompletedCache = new Envelope(envelope);
+                            if (simplified) {
+                                envelopeOfCompletedRenderCache = new Envelope(
+                                        envelope);
+                            } else {
+                                envelopeOfCompletedCache = new Envelope(envelope);
+                            }
                         }
                         return nextFeature;
                     }
@@ -134,6 +227,130 @@ public class CachingFeatureCollection extends FeatureCollectionWrapper {
         };
     }
 
+    private boolean renderCacheIsDetailedEnough(
+            double simplificationTolerance, String[] propertyNames) {
+        return simplificationToleranceOfRenderCache <= simplificationTolerance
+                && includes(propertyNamesOfRenderCache, propertyNames);
+    }
+
+    /**
+     * @return the cached features in full in the envelope, first fetching
+     *         them if the layer is drawn from the render cache and they have
+     *         not been fetched for the envelope. The GUI thread is not held
+     *         up by the fetch: it is given the features drawn instead.
+     */
+    private List queryCachedFeatureCollection(Envelope envelope) {
+        if (!renderingSimplified || envelopeOfCompletedCache.contains(envelope)) {
+            return getCachedFeatureCollection().query(envelope);
+        }
+        Envelope fetching = startFetching(envelope);
+        if (SwingUtilities.isEventDispatchThread()) {
+            Thread thread = new Thread(fetchInFull(fetching),
+                    "Fetch features in full");
+            thread.setDaemon(true);
+            thread.start();
+            return getRenderCache().query(envelope);
+        }
+        fetchInFull(fetching).run();
+        return getCachedFeatureCollection().query(envelope);
+    }
+
+    private synchronized Envelope startFetching(Envelope envelope) {
+        envelopeBeingFetched = new Envelope(envelope);
+        return envelopeBeingFetched;
+    }
+
+    private Runnable fetchInFull(final Envelope envelope) {
+        return new Runnable() {
+            public void run() {
+                List features = ((DynamicFeatureCollection) featureCollection)
+                        .fetch(envelope);
+                synchronized (CachingFeatureCollection.this) {
+                    if (envelopeBeingFetched != envelope) {
+                        return;
+                    }
+                    envelopeBeingFetched = null;
+                    initializeCacheIfNecessary();
+                    getCachedFeatureCollection().clear();
+                    getCachedFeatureCollection().addAll(features);
+                    envelopeOfCompletedCache = envelope;
+                }
+                fireFullFeaturesFetched();
+            }
+        };
+    }
+
+    private void fireFullFeaturesFetched() {
+        final ChangeListener listener = fullFeaturesListener;
+        if (listener == null) {
+            return;
+        }
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                listener.stateChanged(new ChangeEvent(
+                        CachingFeatureCollection.this));
+            }
+        });
+    }
+
+    /**
+     * @param fullFeaturesListener
+     *            notified on the GUI thread when features in full have been
+     *            fetched for the cache, so that what was shown from the
+     *            features drawn can be brought up to date; or null
+     */
+    public void setFullFeaturesListener(ChangeListener fullFeaturesListener) {
+        this.fullFeaturesListener = fullFeaturesListener;
+    }
+
+    private synchronized FeatureCollection getRenderCache() {
+        if (renderCache == null) {
+            renderCache = new ThreadSafeFeatureCollectionWrapper(
+                    new FeatureDataset(featureCollection.getFeatureSchema()));
+        }
+        return renderCache;
+    }
+
+    /**
+     * @return the cache of the areas fetched, or null if caching by envelope
+     *         is off or the features have no primary key
+     */
+    private synchronized FeatureTileCache getTileCache() {
+        if (!cachingByEnvelope
+                || !(featureCollection instanceof DynamicFeatureCollection)) {
+            return null;
+        }
+        if (tileCache == null) {
+            DynamicFeatureCollection dynamicFeatureCollection = (DynamicFeatureCollection) featureCollection;
+            String primaryKeyAttributeName = dynamicFeatureCollection
+                    .getPrimaryKeyAttributeName();
+            // A feature limit would make each area look complete
+            tileCache = primaryKeyAttributeName == null
+                    || dynamicFeatureCollection.getFeatureLimit() != null ? NO_TILE_CACHE
+                    : new FeatureTileCache(dynamicFeatureCollection,
+                            primaryKeyAttributeName,
+                            FeatureTileCache.DEFAULT_MAX_COORDINATES);
+        }
+        return tileCache == NO_TILE_CACHE ? null
+                : (FeatureTileCache) tileCache;
+    }
+
+    /**
+     * @return whether the attributes fetched include all those asked for;
+     *         null meaning all attributes
+     */
+    private static boolean includes(String[] fetchedPropertyNames,
+            String[] propertyNames) {
+        if (fetchedPropertyNames == null) {
+            return true;
+        }
+        if (propertyNames == null) {
+            return false;
+        }
+        return Arrays.asList(fetchedPropertyNames).containsAll(
+                Arrays.asList(propertyNames));
+    }
+
     private boolean initialized = false;
     private void initializeCacheIfNecessary() {
         // The FeatureSchema might not defined until the last minute
@@ -172,7 +389,18 @@ public class CachingFeatureCollection extends FeatureCollectionWrapper {
     }
 
 	public void emptyCache() {
+        if (featureCollection instanceof DynamicFeatureCollection) {
+            ((DynamicFeatureCollection) featureCollection)
+                    .closeCurrentFeatureInputStream();
+        }
 		getCachedFeatureCollection().clear();
         envelopeOfCompletedCache = new Envelope();
+        envelopeOfCompletedRenderCache = new Envelope();
+        synchronized (this) {
+            envelopeBeingFetched = null;
+            renderCache = null;
+            // Look for the primary key again too
+            tileCache = null;
+        }
 	}
 }
\ No newline at end of file
@@ -0,0 +1,17 @@
+package com.vividsolutions.jump.workbench.model.cache;
+
+import java.util.Iterator;
+
+/**
+ * An Iterator over features read from a datastore, which holds the
+ * database connection until it has returned the last feature or is closed.
+ * Readers that stop early, such as a cancelled render, close it so that the
+ * connection is given back at once.
+ */
+public interface ClosableIterator extends Iterator {
+    /**
+     * Stops reading; #hasNext then returns false. May be called more than
+     * once.
+     */
+    void close();
+}
@@ -1,5 +1,6 @@
 package com.vividsolutions.jump.workbench.model.cache;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
@@ -40,8 +41,36 @@ public class DynamicFeatureCollection implements FeatureCollection {
     this.featureLimit = featureLimit;
   }
 
+  public Integer getFeatureLimit() {
+    return featureLimit;
+  }
+
+  /**
+   * @return the attribute identifying each feature, if the datastore can
+   * tell; otherwise null
+   * @see FeatureTileCache
+   */
+  public String getPrimaryKeyAttributeName() {
+    try {
+      DataStoreMetadata metadata = connectionManager.getOpenConnection(
+          connectionDescriptor).getMetadata();
+      return metadata instanceof PrimaryKeyMetadata
+          ? ((PrimaryKeyMetadata) metadata)
+              .getPrimaryKeyColumnName(spatialQuery.getDatasetName())
+          : null;
+    } catch (Throwable t) {
+      // ignore, even a LinkageError from a driver built against other
+      // classes; the features are then not cached by area
+      return null;
+    }
+  }
+
   private volatile Object currentQueryContext;
 
+  // Its readers close it as soon as they stop; failing that, the next query
+  // or #closeCurrentFeatureInputStream does, giving back its connection
+  private FeatureInputStream currentFeatureInputStream;
+
   private FeatureSchema schema = AddNewLayerPlugIn
                                .createBlankFeatureCollection().getFeatureSchema();
 
@@ -50,9 +79,25 @@ public class DynamicFeatureCollection implements FeatureCollection {
   }
 
   public List query(Envelope envelope) {
+    return query(envelope, 0, null);
+  }
+
+  /**
+   * Queries for features to be drawn rather than edited or inspected.
+   *
+   * @param simplificationTolerance the distance by which the geometries
+   * may be simplified; 0 for none
+   * @param propertyNames the attributes to fetch, the others being null;
+   * or null for all
+   * @see FilterQuery#setSimplificationTolerance(double)
+   */
+  public List query(Envelope envelope, double simplificationTolerance,
+                    String[] propertyNames) {
     final Object myQueryContext = new Object();
     currentQueryContext = myQueryContext;
-    
+
+    spatialQuery.setSimplificationTolerance(simplificationTolerance);
+    spatialQuery.setPropertyNames(propertyNames);
     Envelope layerExtents = getEnvelope();
     if(layerExtents == null || layerExtents.isNull() || layerExtents.contains(envelope)){
     	spatialQuery.setFilterGeometry(new GeometryFactory().toGeometry(envelope));
@@ -65,6 +110,10 @@ public class DynamicFeatureCollection implements FeatureCollection {
     // requested. Implication: You cannot have two streams active from
     // the same DynamicFeatureCollection. But JUMP does not need this
     // capability. [Jon Aquino 2005-03-02]
+    // Closing the previous stream, even if it is still being read by an
+    // abandoned render, frees its rows and ends a streaming query's
+    // transaction; it must be safe to close from another thread.
+    closeCurrentFeatureInputStream();
     final FeatureInputStream myFeatureInputStream;
     try {
       myFeatureInputStream = connectionManager.getOpenConnection(
@@ -72,9 +121,19 @@ public class DynamicFeatureCollection implements FeatureCollection {
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
+    synchronized (this) {
+      currentFeatureInputStream = myFeatureInputStream;
+    }
     // Sometimes #execute takes a long time (e.g. SDE), and other calls to
     // #query may have occurred. [Jon Aquino 2005-03-15]
     if (myQueryContext != currentQueryContext) {
+      // The later query may have closed the current stream before this
+      // one became it
+      try {
+        myFeatureInputStream.close();
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
       return Collections.EMPTY_LIST;
     }
     schema = myFeatureInputStream.getFeatureSchema();
@@ -85,7 +144,7 @@ public class DynamicFeatureCollection implements FeatureCollection {
       }
 
       public Iterator iterator() {
-        return new Iterator() {
+        return new ClosableIterator() {
           private int featuresReturned = 0;
 
           private boolean featureInputStreamOpen = true;
@@ -129,6 +188,18 @@ public class DynamicFeatureCollection implements FeatureCollection {
             featureInputStreamOpen = false;
           }
 
+          public void close() {
+            if (!featureInputStreamOpen) {
+              return;
+            }
+            try {
+              closeFeatureInputStream();
+            } catch (Exception e) {
+              // The features are no longer wanted, so carry on
+              e.printStackTrace();
+            }
+          }
+
           public Object next() {
             assertNotInGUIThread();
             if (!hasNext()) {
@@ -146,6 +217,61 @@ public class DynamicFeatureCollection implements FeatureCollection {
     };
   }
 
+  /**
+   * Reads the features in the envelope in full, with a query of its own, so
+   * that the stream of #query is left alone. For the few features that the
+   * tools ask for while the layer is drawn from simplified ones. Not to be
+   * called on the GUI thread.
+   *
+   * @return the features, or none if the query fails
+   * @see CachingFeatureCollection#query(Envelope, double, String[])
+   */
+  public List fetch(Envelope envelope) {
+    assertNotInGUIThread();
+    FilterQuery query = new FilterQuery();
+    query.setDatasetName(spatialQuery.getDatasetName());
+    query.setGeometryAttributeName(spatialQuery.getGeometryAttributeName());
+    query.setCondition(spatialQuery.getCondition());
+    query.setSRSName(spatialQuery.getSRSName());
+    query.setFilterGeometry(new GeometryFactory().toGeometry(envelope));
+    List features = new ArrayList();
+    try {
+      FeatureInputStream featureInputStream = connectionManager
+          .getOpenConnection(connectionDescriptor).execute(query);
+      try {
+        while (featureInputStream.hasNext()
+            && (featureLimit == null || features.size() < featureLimit
+                .intValue())) {
+          features.add(featureInputStream.next());
+        }
+      } finally {
+        featureInputStream.close();
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+      return Collections.EMPTY_LIST;
+    }
+    return features;
+  }
+
+  /**
+   * Closes the stream of the last query, if still open, so that it gives
+   * back its connection without waiting for the next query.
+   */
+  public synchronized void closeCurrentFeatureInputStream() {
+    FeatureInputStream featureInputStream = currentFeatureInputStream;
+    currentFeatureInputStream = null;
+    if (featureInputStream == null) {
+      return;
+    }
+    try {
+      featureInputStream.close();
+    } catch (Exception e) {
+      // The stream is no longer wanted, so carry on
+      e.printStackTrace();
+    }
+  }
+
   public void add(Feature feature) {
     throw new UnsupportedOperationException();
   }
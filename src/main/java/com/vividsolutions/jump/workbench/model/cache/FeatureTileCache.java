@@ -0,0 +1,509 @@
+package com.vividsolutions.jump.workbench.model.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.index.quadtree.Quadtree;
+import com.vividsolutions.jump.feature.Feature;
+
+/**
+ * Keeps the features a DynamicFeatureCollection has fetched for the areas
+ * viewed, so that after a pan or zoom only the areas not yet fetched are
+ * queried. The areas are the tiles of a grid whose cell size, a power of
+ * two, is chosen so that about four cells span the query; a tile need not
+ * be fetched if it, or a larger tile containing it, already has been.
+ * Features are keyed by the table's primary key, so that one spanning
+ * several tiles is kept, and returned, once. When more than the maximum
+ * number of coordinates are kept, the tiles farthest from the view are
+ * dropped, along with the features no other tile holds.
+ */
+public class FeatureTileCache {
+
+    public static final int DEFAULT_MAX_COORDINATES = 2000000;
+
+    // The query's envelope spans about this many tiles
+    private static final int TILES_ACROSS = 4;
+
+    // How many sizes of larger tile to look for one already fetched in
+    private static final int MAX_ANCESTOR_LEVELS = 16;
+
+    private DynamicFeatureCollection featureCollection;
+
+    private String primaryKeyAttributeName;
+
+    private int maxCoordinates;
+
+    // Tile key -> Tile
+    private Map tiles = new HashMap();
+
+    // Primary key -> Entry
+    private Map entries = new HashMap();
+
+    // The primary keys of Entries fetched for tiles not yet complete
+    private Set unownedKeys = new HashSet();
+
+    private Quadtree index = new Quadtree();
+
+    private long coordinateCount = 0;
+
+    // The attributes fetched for every tile; null for all
+    private String[] propertyNames = null;
+
+    // Whether propertyNames has been set by a query since the cache was
+    // last cleared
+    private boolean propertyNamesSet = false;
+
+    // Incremented by each query, so that one abandoned for a newer one does
+    // not record its tiles as fetched
+    private int generation = 0;
+
+    /**
+     * @param primaryKeyAttributeName
+     *            the attribute whose value identifies a feature
+     */
+    public FeatureTileCache(DynamicFeatureCollection featureCollection,
+            String primaryKeyAttributeName, int maxCoordinates) {
+        this.featureCollection = featureCollection;
+        this.primaryKeyAttributeName = primaryKeyAttributeName;
+        this.maxCoordinates = maxCoordinates;
+    }
+
+    public synchronized void clear() {
+        tiles.clear();
+        entries.clear();
+        unownedKeys.clear();
+        index = new Quadtree();
+        coordinateCount = 0;
+        generation++;
+        propertyNamesSet = false;
+    }
+
+    /**
+     * @return the features in the envelope: first those kept, then those
+     *         fetched, as they arrive, for the tiles not yet fetched
+     * @see DynamicFeatureCollection#query(Envelope, double, String[])
+     */
+    public synchronized Iterator iterator(Envelope envelope,
+            double simplificationTolerance, String[] propertyNames) {
+        generation++;
+        if (!propertyNamesSet || !includes(this.propertyNames, propertyNames)) {
+            // Nothing is kept yet, or the styles have changed; the latter is
+            // rare enough to start again
+            clear();
+            this.propertyNames = withPrimaryKey(propertyNames);
+            propertyNamesSet = true;
+        }
+        removeUnownedEntries();
+        evict(envelope);
+        List cachedFeatures = new ArrayList();
+        Set returnedKeys = new HashSet();
+        for (Iterator i = index.query(envelope).iterator(); i.hasNext();) {
+            Entry entry = (Entry) i.next();
+            if (entry.simplificationTolerance <= simplificationTolerance
+                    && entry.feature.getGeometry().getEnvelopeInternal()
+                            .intersects(envelope)) {
+                cachedFeatures.add(entry.feature);
+                returnedKeys.add(entry.primaryKey);
+            }
+        }
+        return new TileIterator(cachedFeatures, returnedKeys, missingAreas(
+                envelope, simplificationTolerance), simplificationTolerance,
+                generation);
+    }
+
+    private String[] withPrimaryKey(String[] propertyNames) {
+        if (propertyNames == null
+                || Arrays.asList(propertyNames).contains(
+                        primaryKeyAttributeName)) {
+            return propertyNames;
+        }
+        List names = new ArrayList(Arrays.asList(propertyNames));
+        names.add(primaryKeyAttributeName);
+        return (String[]) names.toArray(new String[names.size()]);
+    }
+
+    private static boolean includes(String[] fetchedPropertyNames,
+            String[] propertyNames) {
+        if (fetchedPropertyNames == null) {
+            return true;
+        }
+        if (propertyNames == null) {
+            return false;
+        }
+        return Arrays.asList(fetchedPropertyNames).containsAll(
+                Arrays.asList(propertyNames));
+    }
+
+    /**
+     * @return the runs of adjacent tiles in the envelope, merged across rows
+     *         where they line up, that have not been fetched in enough
+     *         detail
+     */
+    private List missingAreas(Envelope envelope, double simplificationTolerance) {
+        int level = (int) Math.ceil(Math.log(Math.max(envelope.getWidth(),
+                envelope.getHeight())
+                / TILES_ACROSS)
+                / Math.log(2));
+        double cellSize = Math.pow(2, level);
+        if (envelope.isNull() || cellSize == 0 || Double.isNaN(cellSize)) {
+            // A point; not worth tiling
+            List areas = new ArrayList();
+            areas.add(new MissingArea(new Envelope(envelope)));
+            return areas;
+        }
+        long minColumn = (long) Math.floor(envelope.getMinX() / cellSize);
+        long maxColumn = (long) Math.floor(envelope.getMaxX() / cellSize);
+        long minRow = (long) Math.floor(envelope.getMinY() / cellSize);
+        long maxRow = (long) Math.floor(envelope.getMaxY() / cellSize);
+        List areas = new ArrayList();
+        // First column -> MissingArea, for the runs in the previous row
+        Map previousRowAreas = new HashMap();
+        for (long row = minRow; row <= maxRow; row++) {
+            Map rowAreas = new HashMap();
+            for (long column = minColumn; column <= maxColumn; column++) {
+                if (isFetched(level, column, row, simplificationTolerance)) {
+                    continue;
+                }
+                long runStart = column;
+                while (column < maxColumn
+                        && !isFetched(level, column + 1, row,
+                                simplificationTolerance)) {
+                    column++;
+                }
+                Long runKey = new Long(runStart);
+                MissingArea area = (MissingArea) previousRowAreas.get(runKey);
+                if (area == null || area.lastColumn != column) {
+                    area = new MissingArea(new Envelope());
+                    area.lastColumn = column;
+                    areas.add(area);
+                }
+                for (long c = runStart; c <= column; c++) {
+                    Tile tile = new Tile(key(level, c, row), new Envelope(c
+                            * cellSize, (c + 1) * cellSize, row * cellSize,
+                            (row + 1) * cellSize));
+                    area.tiles.add(tile);
+                    area.envelope.expandToInclude(tile.envelope);
+                }
+                rowAreas.put(runKey, area);
+            }
+            previousRowAreas = rowAreas;
+        }
+        return areas;
+    }
+
+    private boolean isFetched(int level, long column, long row,
+            double simplificationTolerance) {
+        for (int i = 0; i <= MAX_ANCESTOR_LEVELS; i++) {
+            // Arithmetic shifts, so that negative indices round down
+            Tile tile = (Tile) tiles.get(key(level + i, column >> i, row >> i));
+            if (tile != null
+                    && tile.simplificationTolerance <= simplificationTolerance) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List key(int level, long column, long row) {
+        return Arrays.asList(new Object[] { new Integer(level),
+                new Long(column), new Long(row) });
+    }
+
+    /**
+     * Keeps the feature, or the kept one if that is more detailed.
+     *
+     * @return the Entry for the feature
+     */
+    private Entry put(Object primaryKey, Feature feature,
+            double simplificationTolerance) {
+        Entry entry = (Entry) entries.get(primaryKey);
+        if (entry == null) {
+            entry = new Entry(primaryKey);
+            entries.put(primaryKey, entry);
+            unownedKeys.add(primaryKey);
+        } else if (entry.simplificationTolerance <= simplificationTolerance) {
+            return entry;
+        } else {
+            remove(entry);
+        }
+        entry.feature = feature;
+        entry.simplificationTolerance = simplificationTolerance;
+        index.insert(feature.getGeometry().getEnvelopeInternal(), entry);
+        coordinateCount += feature.getGeometry().getNumPoints();
+        return entry;
+    }
+
+    /**
+     * Removes the Entry's feature from the index.
+     */
+    private void remove(Entry entry) {
+        index.remove(entry.feature.getGeometry().getEnvelopeInternal(), entry);
+        coordinateCount -= entry.feature.getGeometry().getNumPoints();
+    }
+
+    /**
+     * Records the tiles of an area as fetched, now that its query is
+     * complete.
+     */
+    private synchronized void fetched(MissingArea area,
+            double simplificationTolerance, int generation) {
+        if (generation != this.generation) {
+            return;
+        }
+        List replacedTiles = new ArrayList();
+        for (Iterator i = area.tiles.iterator(); i.hasNext();) {
+            Tile tile = (Tile) i.next();
+            tile.simplificationTolerance = simplificationTolerance;
+            Tile replacedTile = (Tile) tiles.put(tile.key, tile);
+            if (replacedTile != null) {
+                replacedTiles.add(replacedTile);
+            }
+        }
+        for (Iterator i = area.primaryKeys.iterator(); i.hasNext();) {
+            Object primaryKey = i.next();
+            Entry entry = (Entry) entries.get(primaryKey);
+            if (entry == null) {
+                continue;
+            }
+            Envelope featureEnvelope = entry.feature.getGeometry()
+                    .getEnvelopeInternal();
+            for (Iterator j = area.tiles.iterator(); j.hasNext();) {
+                Tile tile = (Tile) j.next();
+                if (tile.envelope.intersects(featureEnvelope)
+                        && tile.primaryKeys.add(primaryKey)) {
+                    entry.tileCount++;
+                    unownedKeys.remove(primaryKey);
+                }
+            }
+        }
+        // Only now, so that the features the new tiles hold are kept
+        for (Iterator i = replacedTiles.iterator(); i.hasNext();) {
+            release((Tile) i.next());
+        }
+    }
+
+    /**
+     * Drops the features held only by the tile.
+     */
+    private void release(Tile tile) {
+        for (Iterator i = tile.primaryKeys.iterator(); i.hasNext();) {
+            Entry entry = (Entry) entries.get(i.next());
+            if (entry == null) {
+                continue;
+            }
+            entry.tileCount--;
+            if (entry.tileCount == 0) {
+                remove(entry);
+                entries.remove(entry.primaryKey);
+            }
+        }
+    }
+
+    /**
+     * Drops the features fetched by queries abandoned before they
+     * completed.
+     */
+    private void removeUnownedEntries() {
+        for (Iterator i = unownedKeys.iterator(); i.hasNext();) {
+            Entry entry = (Entry) entries.remove(i.next());
+            if (entry != null && entry.feature != null) {
+                remove(entry);
+            }
+        }
+        unownedKeys.clear();
+    }
+
+    /**
+     * Drops tiles, farthest from the envelope first, until no more than the
+     * maximum number of coordinates are kept. Tiles the envelope touches
+     * are kept.
+     */
+    private void evict(final Envelope envelope) {
+        if (coordinateCount <= maxCoordinates) {
+            return;
+        }
+        List farTiles = new ArrayList();
+        for (Iterator i = tiles.values().iterator(); i.hasNext();) {
+            Tile tile = (Tile) i.next();
+            if (!tile.envelope.intersects(envelope)) {
+                farTiles.add(tile);
+            }
+        }
+        Collections.sort(farTiles, new Comparator() {
+            public int compare(Object a, Object b) {
+                return Double.compare(((Tile) b).envelope.distance(envelope),
+                        ((Tile) a).envelope.distance(envelope));
+            }
+        });
+        for (Iterator i = farTiles.iterator(); i.hasNext()
+                && coordinateCount > maxCoordinates;) {
+            Tile tile = (Tile) i.next();
+            tiles.remove(tile.key);
+            release(tile);
+        }
+    }
+
+    /**
+     * Returns the kept features, then fetches the missing areas one after
+     * the other. The database is queried outside the cache's lock.
+     */
+    private class TileIterator implements ClosableIterator {
+        private Iterator cachedFeatures;
+
+        private Set returnedKeys;
+
+        private Iterator missingAreas;
+
+        private double simplificationTolerance;
+
+        private int generation;
+
+        private MissingArea area = null;
+
+        private Iterator areaFeatures = null;
+
+        private Feature next = null;
+
+        public TileIterator(List cachedFeatures, Set returnedKeys,
+                List missingAreas, double simplificationTolerance,
+                int generation) {
+            this.cachedFeatures = cachedFeatures.iterator();
+            this.returnedKeys = returnedKeys;
+            this.missingAreas = missingAreas.iterator();
+            this.simplificationTolerance = simplificationTolerance;
+            this.generation = generation;
+        }
+
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (cachedFeatures.hasNext()) {
+                next = (Feature) cachedFeatures.next();
+                return true;
+            }
+            while (true) {
+                if (areaFeatures == null) {
+                    if (!missingAreas.hasNext()) {
+                        return false;
+                    }
+                    area = (MissingArea) missingAreas.next();
+                    areaFeatures = featureCollection.query(area.envelope,
+                            simplificationTolerance, propertyNames).iterator();
+                }
+                if (!areaFeatures.hasNext()) {
+                    fetched(area, simplificationTolerance, generation);
+                    areaFeatures = null;
+                    continue;
+                }
+                Feature feature = (Feature) areaFeatures.next();
+                next = add(feature);
+                if (next != null) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * @return the feature, or null if it has already been returned
+         */
+        private Feature add(Feature feature) {
+            if (!feature.getSchema().hasAttribute(primaryKeyAttributeName)) {
+                return feature;
+            }
+            Object primaryKey = feature.getAttribute(primaryKeyAttributeName);
+            if (primaryKey == null) {
+                return feature;
+            }
+            area.primaryKeys.add(primaryKey);
+            if (!returnedKeys.add(primaryKey)) {
+                return null;
+            }
+            synchronized (FeatureTileCache.this) {
+                put(primaryKey, feature, simplificationTolerance);
+            }
+            return feature;
+        }
+
+        public Object next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Feature feature = next;
+            next = null;
+            return feature;
+        }
+
+        /**
+         * Stops fetching; the area being fetched is not recorded as fetched.
+         */
+        public void close() {
+            if (areaFeatures instanceof ClosableIterator) {
+                ((ClosableIterator) areaFeatures).close();
+            }
+            areaFeatures = null;
+            cachedFeatures = Collections.EMPTY_LIST.iterator();
+            missingAreas = Collections.EMPTY_LIST.iterator();
+            next = null;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static class MissingArea {
+        private Envelope envelope;
+
+        private List tiles = new ArrayList();
+
+        // Of the features fetched
+        private Set primaryKeys = new HashSet();
+
+        private long lastColumn;
+
+        public MissingArea(Envelope envelope) {
+            this.envelope = envelope;
+        }
+    }
+
+    private static class Tile {
+        private List key;
+
+        private Envelope envelope;
+
+        private double simplificationTolerance;
+
+        private Set primaryKeys = new HashSet();
+
+        public Tile(List key, Envelope envelope) {
+            this.key = key;
+            this.envelope = envelope;
+        }
+    }
+
+    private static class Entry {
+        private Object primaryKey;
+
+        private Feature feature;
+
+        private double simplificationTolerance;
+
+        // The tiles holding the feature
+        private int tileCount = 0;
+
+        public Entry(Object primaryKey) {
+            this.primaryKey = primaryKey;
+        }
+    }
+}
@@ -54,7 +54,7 @@ import com.vividsolutions.jump.workbench.ui.renderer.java2D.Java2DConverter;
  */
 
 //<<TODO:NAMING>> Rename to Viewport [Jon Aquino]
-public class Viewport implements Java2DConverter.PointConverter {
+public class Viewport implements Java2DConverter.AffinePointConverter {
     static private final int INITIAL_VIEW_ORIGIN_X = 0;
     static private final int INITIAL_VIEW_ORIGIN_Y = 0;
     private ArrayList listeners = new ArrayList();
@@ -71,9 +71,7 @@ public class Viewport implements Java2DConverter.PointConverter {
     private ZoomHistory zoomHistory;
 
     public Viewport(LayerViewPanel panel) {
-        this.panel = panel;
-        zoomHistory = new ZoomHistory(panel);
-        java2DConverter = new Java2DConverter(this);
+        this(panel, new ZoomHistory(panel));
         panel.addComponentListener(new ComponentAdapter() {
             public void componentResized(ComponentEvent e) {
                 fireZoomChanged(getEnvelopeInModelCoordinates());
@@ -81,6 +79,16 @@ public class Viewport implements Java2DConverter.PointConverter {
         });
     }
 
+    /**
+     * For subclasses that paint the panel's layers somewhere other than the
+     * panel (e.g. into an image), and so do not follow the panel's size.
+     */
+    protected Viewport(LayerViewPanel panel, ZoomHistory zoomHistory) {
+        this.panel = panel;
+        this.zoomHistory = zoomHistory;
+        java2DConverter = new Java2DConverter(this);
+    }
+
     public LayerViewPanel getPanel() {
         return panel;
     }
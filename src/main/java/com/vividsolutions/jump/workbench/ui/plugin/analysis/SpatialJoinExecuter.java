@@ -46,6 +46,8 @@ public class SpatialJoinExecuter
     if (srcAFC.size() > 10) buildIndex = true;
     if (srcBFC.size() > 100) buildIndex = true;
     if (pred instanceof GeometryPredicate.DisjointPredicate) buildIndex = false;
+    // share the dataset's own index rather than building another
+    if (FeatureDataset.isIndexed(srcBFC)) buildIndex = false;
 
     if (buildIndex) {
       queryFC = new IndexedFeatureCollection(srcBFC);
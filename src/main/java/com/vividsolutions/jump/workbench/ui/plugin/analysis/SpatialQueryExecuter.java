@@ -70,6 +70,8 @@ public class SpatialQueryExecuter
     if (maskFC.size() > 10) buildIndex = true;
     if (sourceFC.size() > 100) buildIndex = true;
     if (pred instanceof GeometryPredicate.DisjointPredicate) buildIndex = false;
+    // share the dataset's own index rather than building another
+    if (FeatureDataset.isIndexed(sourceFC)) buildIndex = false;
 
     if (buildIndex) {
       queryFC = new IndexedFeatureCollection(sourceFC);
@@ -2,10 +2,14 @@ package com.vividsolutions.jump.workbench.ui.plugin.datastore;
 
 import javax.swing.JComponent;
 
+import com.vividsolutions.jump.datastore.DataStoreConnection;
+import com.vividsolutions.jump.datastore.postgis.PostgisDSMetadata;
 import com.vividsolutions.jump.feature.FeatureCollection;
 import com.vividsolutions.jump.feature.FeatureCollectionWrapper;
 import com.vividsolutions.jump.io.datasource.DataSourceQuery;
 import com.vividsolutions.jump.workbench.WorkbenchContext;
+import com.vividsolutions.jump.workbench.datastore.ConnectionDescriptor;
+import com.vividsolutions.jump.workbench.datastore.ConnectionManager;
 import com.vividsolutions.jump.workbench.model.Layer;
 import com.vividsolutions.jump.workbench.model.LayerEventType;
 import com.vividsolutions.jump.workbench.model.cache.CachingFeatureCollection;
@@ -59,10 +63,29 @@ public class RefreshDataStoreLayerPlugin extends AbstractPlugIn {
     		// must be a cache
     		CachingFeatureCollection cfc = (CachingFeatureCollection)fcw;
     		cfc.emptyCache();
+    		invalidateMetadata(layer, context);
     		
     		context.getLayerManager().fireLayerChanged(layer,LayerEventType.APPEARANCE_CHANGED);
     	}
     	
         return false;
     }
+
+    /**
+     * Makes the datastore look again at the dataset's columns and extents,
+     * which it caches.
+     */
+    private void invalidateMetadata(Layer layer, PlugInContext context) throws Exception {
+        DataStoreDataSource dataSource = (DataStoreDataSource) layer.getDataSourceQuery().getDataSource();
+        DataStoreConnection connection = ConnectionManager.instance(context.getWorkbenchContext())
+                .getConnection((ConnectionDescriptor) dataSource.getProperties().get(
+                        DataStoreDataSource.CONNECTION_DESCRIPTOR_KEY));
+        if (connection.isClosed()) {
+            return;
+        }
+        if (connection.getMetadata() instanceof PostgisDSMetadata) {
+            ((PostgisDSMetadata) connection.getMetadata()).invalidate((String) dataSource
+                    .getProperties().get(DataStoreDataSource.DATASET_NAME_KEY));
+        }
+    }
 }
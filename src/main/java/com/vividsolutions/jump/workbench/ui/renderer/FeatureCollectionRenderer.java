@@ -1,13 +1,21 @@
 package com.vividsolutions.jump.workbench.ui.renderer;
 
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
 
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jump.workbench.ui.LayerViewPanel;
+import com.vividsolutions.jump.workbench.ui.renderer.style.BasicStyle;
+import com.vividsolutions.jump.workbench.ui.renderer.style.ColorThemingStyle;
+import com.vividsolutions.jump.workbench.ui.renderer.style.Style;
+import com.vividsolutions.jump.workbench.ui.renderer.style.VertexStyle;
 
 public abstract class FeatureCollectionRenderer implements Renderer {
+	private LayerViewPanel panel;
+
 	private ImageCachingFeatureCollectionRenderer imageCachingFeatureCollectionRenderer;
 
 	private SimpleFeatureCollectionRenderer simpleFeatureCollectionRenderer;
@@ -23,6 +31,7 @@ public abstract class FeatureCollectionRenderer implements Renderer {
 			Object contentID,
 			LayerViewPanel panel,
 			ImageCachingFeatureCollectionRenderer imageCachingFeatureCollectionRenderer) {
+		this.panel = panel;
 		this.imageCachingFeatureCollectionRenderer = imageCachingFeatureCollectionRenderer;
 		simpleFeatureCollectionRenderer = new SimpleFeatureCollectionRenderer(
 				contentID, panel);
@@ -60,6 +69,75 @@ public abstract class FeatureCollectionRenderer implements Renderer {
 		return currentFeatureCollectionRenderer.createRunnable();
 	}
 
+	/**
+	 * Moves the cached image dx pixels right and dy pixels down, after the
+	 * view has been panned, and returns a Runnable that queries and paints
+	 * only the strips uncovered by the move.
+	 * 
+	 * @return null if the content must be rendered in full instead
+	 */
+	public Runnable createPanRunnable(int dx, int dy) throws Exception {
+		if (currentFeatureCollectionRenderer != imageCachingFeatureCollectionRenderer) {
+			return null;
+		}
+		Collection styles = styles();
+		int margin = panMargin(styles);
+		if (margin == -1) {
+			return null;
+		}
+		Rectangle[] strips = ImageCachingFeatureCollectionRenderer
+				.uncoveredStrips(dx, dy, panel.getWidth(), panel.getHeight());
+		Map[] stripLayerToFeaturesMaps = new Map[strips.length];
+		for (int i = 0; i < strips.length; i++) {
+			Rectangle strip = strips[i];
+			Map layerToFeaturesMap = layerToFeaturesMap(panel.getViewport()
+					.toModelEnvelope(strip.getMinX() - margin,
+							strip.getMaxX() + margin, strip.getMinY() - margin,
+							strip.getMaxY() + margin));
+			if (layerToFeaturesMap == null) {
+				return null;
+			}
+			stripLayerToFeaturesMaps[i] = layerToFeaturesMap;
+		}
+		imageCachingFeatureCollectionRenderer
+				.setStripLayerToFeaturesMaps(stripLayerToFeaturesMaps);
+		imageCachingFeatureCollectionRenderer.setStyles(styles);
+		return imageCachingFeatureCollectionRenderer.createPanRunnable(dx, dy);
+	}
+
+	/**
+	 * @return how many pixels beyond a feature's envelope the enabled styles
+	 *         may paint, so that a strip uncovered by panning also gets the
+	 *         strokes and markers of features just outside it; or -1 if a
+	 *         style paints to an extent not known here
+	 */
+	private static int panMargin(Collection styles) {
+		int margin = 0;
+		for (Iterator i = styles.iterator(); i.hasNext();) {
+			Style style = (Style) i.next();
+			if (style == null || !style.isEnabled()) {
+				continue;
+			}
+			if (style instanceof BasicStyle
+					|| style instanceof ColorThemingStyle
+					|| style instanceof VertexStyle) {
+				margin = Math.max(margin, TiledRenderer.margin(style));
+			} else {
+				return -1;
+			}
+		}
+		return margin;
+	}
+
+	/**
+	 * @return the Features to paint that lie in the given part of the view,
+	 *         or null if the content cannot be queried by area, in which case
+	 *         it is always rendered in full
+	 */
+	protected Map layerToFeaturesMap(Envelope modelEnvelope) {
+		return null;
+	}
+
 	protected boolean useImageCaching(Map layerToFeaturesMap) {
 		return featureCount(layerToFeaturesMap) >= 100;
 	}
@@ -1,17 +1,23 @@
 package com.vividsolutions.jump.workbench.ui.renderer;
 
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.util.*;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import com.vividsolutions.jump.feature.Feature;
 import com.vividsolutions.jump.workbench.model.Layer;
+import com.vividsolutions.jump.workbench.model.cache.ClosableIterator;
 import com.vividsolutions.jump.workbench.ui.LayerViewPanel;
+import com.vividsolutions.jump.workbench.ui.renderer.java2D.Java2DConverter;
+import com.vividsolutions.jump.workbench.ui.renderer.style.LabelStyle;
 import com.vividsolutions.jump.workbench.ui.renderer.style.Style;
+import com.vividsolutions.jump.workbench.ui.renderer.style.StyleUtil;
 
 /**
  * @see SimpleFeatureCollectionRenderer
@@ -28,6 +34,16 @@ public class ImageCachingFeatureCollectionRenderer extends ImageCachingRenderer
 
 	private Map layerToFeaturesMap = new HashMap();
 
+	private Map[] stripLayerToFeaturesMaps = null;
+
+	/**
+	 * Layers with fewer features than this are not worth splitting into
+	 * tiles.
+	 */
+	private static final int MIN_TILED_FEATURES = 1000;
+
+	private volatile TiledRenderer tiledRenderer = null;
+
 	protected void setLayerToFeaturesMap(Map layerToFeaturesMap) {
 		this.layerToFeaturesMap = layerToFeaturesMap;
 	}
@@ -36,6 +52,23 @@ public class ImageCachingFeatureCollectionRenderer extends ImageCachingRenderer
 		this.styles = styles;
 	}
 
+	/**
+	 * @param stripLayerToFeaturesMaps
+	 *            for each strip uncovered by the next #createPanRunnable, the
+	 *            Features to paint in it
+	 */
+	protected void setStripLayerToFeaturesMaps(Map[] stripLayerToFeaturesMaps) {
+		this.stripLayerToFeaturesMaps = stripLayerToFeaturesMaps;
+	}
+
+	protected Collection getStyles() {
+		return styles;
+	}
+
+	protected Map getLayerToFeaturesMap() {
+		return layerToFeaturesMap;
+	}
+
 	protected void renderHook(ThreadSafeImage image, Collection features,
 			Layer layer, final Style style) throws Exception {
 		if (!layer.isVisible()) {
@@ -45,40 +78,186 @@ public class ImageCachingFeatureCollectionRenderer extends ImageCachingRenderer
 			return;
 		}
 		style.initialize(layer);
+		if (style instanceof LabelStyle) {
+			//Labels are placed together, so that they can avoid each other.
+			final Collection labelledFeatures = features;
+			image.draw(new ThreadSafeImage.Drawer() {
+				public void draw(Graphics2D g) throws Exception {
+					((LabelStyle) style).paint(labelledFeatures, g, panel
+							.getViewport());
+				}
+			});
+			return;
+		}
+		final LevelOfDetail levelOfDetail = new LevelOfDetail(layer, style,
+				panel.getViewport());
+		TiledRenderer tiledRenderer = this.tiledRenderer;
+		if (tiledRenderer != null && TiledRenderer.isTileable(style)
+				&& features.size() >= MIN_TILED_FEATURES) {
+			tiledRenderer.render(image, features, style, levelOfDetail, panel
+					.getViewport(), panel.getWidth(), panel.getHeight());
+			return;
+		}
 		//new ArrayList to avoid ConcurrentModificationException. [Jon Aquino]
 
 		// Revert to the original list, as the features may be a LazyList
 		// containing a huge number of features from a database. Monitor the
 		// frequency of ConcurrentModificationException errors. [Jon Aquino
 		// 2005-03-02]
-		for (Iterator i = features.iterator(); i.hasNext();) {
-			final Feature feature = (Feature) i.next();
-			if (cancelled) {
-				break;
+		Iterator i = features.iterator();
+		try {
+			while (i.hasNext()) {
+				final Feature feature = (Feature) i.next();
+				if (cancelled) {
+					break;
+				}
+				if (feature.getGeometry() == null
+						|| feature.getGeometry().isEmpty()) {
+					continue;
+				}
+				if (levelOfDetail.isSmall(feature)) {
+					if (levelOfDetail.isDrawingDots()) {
+						image.draw(new ThreadSafeImage.Drawer() {
+							public void draw(Graphics2D g) throws Exception {
+								levelOfDetail.paintDot(feature, g);
+							}
+						});
+					}
+					continue;
+				}
+				//Because image.draw is synchronized, it might be faster to do
+				//several paints inside #draw. [Jon Aquino]
+				image.draw(new ThreadSafeImage.Drawer() {
+					public void draw(Graphics2D g) throws Exception {
+						style.paint(feature, g, panel.getViewport());
+					}
+				});
 			}
-			if (feature.getGeometry() == null || feature.getGeometry().isEmpty()) {
-				continue;
+		} finally {
+			//Give back a cancelled query's database connection now, rather
+			//than when the layer is next queried.
+			if (i instanceof ClosableIterator) {
+				((ClosableIterator) i).close();
 			}
-			//Because image.draw is synchronized, it might be faster to do
-			//several paints inside #draw. [Jon Aquino]
-			image.draw(new ThreadSafeImage.Drawer() {
-				public void draw(Graphics2D g) throws Exception {
-					style.paint(feature, g, panel.getViewport());
-				}
-			});
 		}
 	}
 
 	protected void renderHook(ThreadSafeImage image) throws Exception {
-		for (Iterator i = styles.iterator(); i.hasNext();) {
-			Style style = (Style) i.next();
-			for (Iterator j = layerToFeaturesMap.keySet().iterator(); j
-					.hasNext();) {
-				Layer layer = (Layer) j.next();
-				Collection features = (Collection) layerToFeaturesMap
-						.get(layer);
-				renderHook(image, features, layer, style);
+		RenderingManager renderingManager = panel.getRenderingManager();
+		if (!renderingManager.isTiledRendering()) {
+			tiledRenderer = null;
+			if (!cancelled) {
+				renderHook(image, layerToFeaturesMap);
 			}
+			return;
+		}
+		ExecutorService tileExecutor = renderingManager.acquireTileExecutor();
+		try {
+			tiledRenderer = new TiledRenderer(tileExecutor);
+			if (cancelled) {
+				//#cancel may have been called before tiledRenderer was set
+				return;
+			}
+			renderHook(image, layerToFeaturesMap);
+		} finally {
+			renderingManager.releaseTileExecutor(tileExecutor);
+		}
+	}
+
+	/**
+	 * Moves the finished image dx pixels right and dy pixels down, after the
+	 * view has been panned, and returns a Runnable that paints only the
+	 * strips uncovered by the move, with the Features given to
+	 * #setStripLayerToFeaturesMaps.
+	 * 
+	 * @return null if there is no finished image to move
+	 */
+	protected Runnable createPanRunnable(int dx, int dy) {
+		if (image == null || rendering) {
+			return null;
+		}
+		image.translate(dx, dy);
+		final Rectangle[] strips = uncoveredStrips(dx, dy, panel.getWidth(),
+				panel.getHeight());
+		final Map[] stripLayerToFeaturesMaps = this.stripLayerToFeaturesMaps;
+		return createRunnable(new ImageUpdate() {
+			public void paint(ThreadSafeImage image) throws Exception {
+				renderStrips(image, strips, stripLayerToFeaturesMaps);
+			}
+		});
+	}
+
+	/**
+	 * @return the parts of a width x height view that moving its contents dx,
+	 *         dy pixels leaves empty: a full-width strip at the top or bottom,
+	 *         and a strip at the left or right of the remainder
+	 */
+	public static Rectangle[] uncoveredStrips(int dx, int dy, int width,
+			int height) {
+		List strips = new ArrayList();
+		if (dy > 0) {
+			strips.add(new Rectangle(0, 0, width, dy));
+		} else if (dy < 0) {
+			strips.add(new Rectangle(0, height + dy, width, -dy));
+		}
+		int top = Math.max(0, dy);
+		int remainingHeight = height - Math.abs(dy);
+		if (dx > 0) {
+			strips.add(new Rectangle(0, top, dx, remainingHeight));
+		} else if (dx < 0) {
+			strips.add(new Rectangle(width + dx, top, -dx, remainingHeight));
+		}
+		return (Rectangle[]) strips.toArray(new Rectangle[strips.size()]);
+	}
+
+	private void renderStrips(ThreadSafeImage image, Rectangle[] strips,
+			Map[] stripLayerToFeaturesMaps) throws Exception {
+		//Strips are small, so tiling them is not worthwhile.
+		tiledRenderer = null;
+		try {
+			for (int i = 0; i < strips.length && !cancelled; i++) {
+				image.setClip(strips[i]);
+				renderHook(image, stripLayerToFeaturesMaps[i]);
+			}
+		} finally {
+			image.setClip(null);
+		}
+	}
+
+	private void renderHook(ThreadSafeImage image, Map layerToFeaturesMap)
+			throws Exception {
+		//Styles are painted one after the other, for their z-order, so each
+		//feature is converted to a Shape once and shared by the styles after
+		//the first. Features painted by the TiledRenderer's threads are not
+		//shared.
+		Java2DConverter converter = panel.getViewport().getJava2DConverter();
+		boolean caching = StyleUtil.isSharingShapes(styles);
+		if (caching) {
+			converter.startCaching();
+		}
+		try {
+			for (Iterator i = styles.iterator(); i.hasNext();) {
+				Style style = (Style) i.next();
+				for (Iterator j = layerToFeaturesMap.keySet().iterator(); j
+						.hasNext();) {
+					Layer layer = (Layer) j.next();
+					Collection features = (Collection) layerToFeaturesMap
+							.get(layer);
+					renderHook(image, features, layer, style);
+				}
+			}
+		} finally {
+			if (caching) {
+				converter.stopCaching();
+			}
+		}
+	}
+
+	public void cancel() {
+		super.cancel();
+		TiledRenderer tiledRenderer = this.tiledRenderer;
+		if (tiledRenderer != null) {
+			tiledRenderer.cancel();
 		}
 	}
 
@@ -67,6 +67,21 @@ public abstract class ImageCachingRenderer implements Renderer {
 		if (image != null) {
 			return null;
 		}
+		return createRunnable(null);
+	}
+	/**
+	 * Paints part of the finished image, whose other pixels are already up to
+	 * date.
+	 */
+	protected static interface ImageUpdate {
+		public void paint(ThreadSafeImage image) throws Exception;
+	}
+	/**
+	 * @param update
+	 *            paints the parts of the finished image to bring up to date,
+	 *            or null to paint a new image with #renderHook(ThreadSafeImage)
+	 */
+	protected Runnable createRunnable(final ImageUpdate update) {
 		//Rendering starts as soon as the #createRunnable request is made,
 		//to get the animated clock icons going. [Jon Aquino]
 		rendering = true;
@@ -79,9 +94,15 @@ public abstract class ImageCachingRenderer implements Renderer {
 						// (21 March 2003). [Jon Aquino]
 						return;
 					}
-					image = new ThreadSafeImage(panel);
+					if (update == null) {
+						image = new ThreadSafeImage(panel);
+					}
 					try {
-						renderHook(image);
+						if (update == null) {
+							renderHook(image);
+						} else {
+							update.paint(image);
+						}
 					} catch (Throwable t) {
 						panel.getContext()
 								.warnUser(WorkbenchFrame.toMessage(t));
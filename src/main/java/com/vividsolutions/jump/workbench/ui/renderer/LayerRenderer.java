@@ -28,15 +28,28 @@ package com.vividsolutions.jump.workbench.ui.renderer;
 
 import java.awt.Graphics2D;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.util.Assert;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.feature.FeatureCollectionWrapper;
+import com.vividsolutions.jump.workbench.model.GeneralizedGeometries;
 import com.vividsolutions.jump.workbench.model.Layer;
 import com.vividsolutions.jump.workbench.model.Layerable;
+import com.vividsolutions.jump.workbench.model.cache.CachingFeatureCollection;
 import com.vividsolutions.jump.workbench.ui.LayerViewPanel;
+import com.vividsolutions.jump.workbench.ui.renderer.style.ColorThemingStyle;
+import com.vividsolutions.jump.workbench.ui.renderer.style.LabelStyle;
+import com.vividsolutions.jump.workbench.ui.renderer.style.Style;
 
 public class LayerRenderer extends FeatureCollectionRenderer {
     private Layer layer;
@@ -47,10 +60,25 @@ public class LayerRenderer extends FeatureCollectionRenderer {
             .getName()
             + " - ALWAYS USE IMAGE CACHING";
 
+    /**
+     * Set this to true on the Blackboard of a Layer read from a DataStore to
+     * have the database simplify its geometries to the pixel size, and leave
+     * out the attributes its styles do not use, when fetching features to
+     * draw. Worthwhile for large, detailed tables viewed zoomed out; the
+     * tools that query the layer, such as the info and selection tools, then
+     * have its features in full fetched as they need them, in the background
+     * on the GUI thread, the layer being repainted when they arrive.
+     */
+    public static final String SIMPLIFY_DATASTORE_QUERIES_KEY = LayerRenderer.class
+            .getName()
+            + " - SIMPLIFY DATASTORE QUERIES";
+
+    //In pixels
+    private static final double MAX_SIMPLIFICATION_ERROR = 0.25;
+
     public LayerRenderer(final Layer layer, LayerViewPanel panel) {
         //Use layer as the contentID [Jon Aquino]
-        super(layer, panel, new ImageCachingFeatureCollectionRenderer(layer,
-                panel) {
+        super(layer, panel, new TileCachingRenderer(layer, panel) {
             protected ThreadSafeImage getImage() {
                 if (!layer.isVisible()) {
                     return null;
@@ -145,14 +173,107 @@ public class LayerRenderer extends FeatureCollectionRenderer {
         if (layer.getBlackboard().get(ALWAYS_USE_IMAGE_CACHING_KEY, false)) {
             return true;
         }
+        if (TileCache.isCacheable(layer)) {
+            return true;
+        }
         return super.useImageCaching(layerToFeaturesMap);
     }
 
+    public Runnable createPanRunnable(int dx, int dy) throws Exception {
+        if (!render(layer, panel)) {
+            return null;
+        }
+        if (TileCache.isCacheable(layer)) {
+            //Already quick to render in full, from its tiles
+            return null;
+        }
+        if (layer.getLabelStyle().isEnabled()) {
+            //Labels are placed to avoid each other, so must all be placed
+            //afresh.
+            return null;
+        }
+        return super.createPanRunnable(dx, dy);
+    }
+
     protected Map layerToFeaturesMap() {
-        Envelope viewportEnvelope = panel.getViewport()
-                .getEnvelopeInModelCoordinates();
+        return layerToFeaturesMap(panel.getViewport()
+                .getEnvelopeInModelCoordinates());
+    }
 
-        return Collections.singletonMap(layer, layer
-                .getFeatureCollectionWrapper().query(viewportEnvelope));
+    protected Map layerToFeaturesMap(Envelope modelEnvelope) {
+        return Collections.singletonMap(layer, query(layer, modelEnvelope,
+                panel.getViewport().getScale()));
+    }
+
+    /**
+     * @return the layer's features in the envelope, with generalized
+     *         geometries where the layer keeps them and they are accurate
+     *         enough at the given scale
+     * @see GeneralizedGeometries
+     * @see #SIMPLIFY_DATASTORE_QUERIES_KEY
+     */
+    public static List query(final Layer layer, Envelope modelEnvelope,
+            double scale) {
+        CachingFeatureCollection cachingFeatureCollection = layer
+                .getBlackboard().get(SIMPLIFY_DATASTORE_QUERIES_KEY, false) ? cachingFeatureCollection(layer)
+                : null;
+        if (cachingFeatureCollection != null) {
+            // Redraw the selections etc. made from the features drawn
+            cachingFeatureCollection
+                    .setFullFeaturesListener(new ChangeListener() {
+                        public void stateChanged(ChangeEvent e) {
+                            layer.fireAppearanceChanged();
+                        }
+                    });
+        }
+        List features = cachingFeatureCollection != null ? cachingFeatureCollection
+                .query(modelEnvelope, MAX_SIMPLIFICATION_ERROR / scale,
+                        styledAttributeNames(layer))
+                : layer.getFeatureCollectionWrapper().query(modelEnvelope);
+        GeneralizedGeometries generalizedGeometries = layer
+                .getGeneralizedGeometries();
+        return generalizedGeometries == null ? features
+                : generalizedGeometries.generalize(features, scale);
+    }
+
+    private static CachingFeatureCollection cachingFeatureCollection(
+            Layer layer) {
+        FeatureCollection featureCollection = layer
+                .getFeatureCollectionWrapper();
+        while (featureCollection instanceof FeatureCollectionWrapper) {
+            if (featureCollection instanceof CachingFeatureCollection) {
+                return (CachingFeatureCollection) featureCollection;
+            }
+            featureCollection = ((FeatureCollectionWrapper) featureCollection)
+                    .getWrappee();
+        }
+        return null;
+    }
+
+    /**
+     * @return the attributes the layer's enabled styles draw from
+     */
+    private static String[] styledAttributeNames(Layer layer) {
+        List names = new ArrayList();
+        for (Iterator i = layer.getStyles().iterator(); i.hasNext();) {
+            Style style = (Style) i.next();
+            if (!style.isEnabled()) {
+                continue;
+            }
+            if (style instanceof ColorThemingStyle) {
+                names.add(((ColorThemingStyle) style).getAttributeName());
+            }
+            if (style instanceof LabelStyle) {
+                LabelStyle labelStyle = (LabelStyle) style;
+                //The attribute may be null, which LabelStyle#paint allows
+                if (!LabelStyle.FID_COLUMN.equals(labelStyle.getAttribute())) {
+                    names.add(labelStyle.getAttribute());
+                }
+                names.add(labelStyle.getAngleAttribute());
+                names.add(labelStyle.getHeightAttribute());
+            }
+        }
+        names.removeAll(Arrays.asList(new Object[] { null, "" }));
+        return (String[]) names.toArray(new String[names.size()]);
     }
 }
\ No newline at end of file
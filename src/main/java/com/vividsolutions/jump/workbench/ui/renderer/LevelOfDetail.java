@@ -0,0 +1,160 @@
+/*
+ * The Unified Mapping Platform (JUMP) is an extensible, interactive GUI for
+ * visualizing and manipulating spatial features with geometry and attributes.
+ *
+ * Copyright (C) 2003 Vivid Solutions
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information, contact:
+ *
+ * Vivid Solutions Suite #1A 2328 Government Street Victoria BC V8T 5G5 Canada
+ *
+ * (250)385-6040 www.vividsolutions.com
+ */
+
+package com.vividsolutions.jump.workbench.ui.renderer;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.workbench.model.Layer;
+import com.vividsolutions.jump.workbench.ui.Viewport;
+import com.vividsolutions.jump.workbench.ui.renderer.style.BasicStyle;
+import com.vividsolutions.jump.workbench.ui.renderer.style.ColorThemingStyle;
+import com.vividsolutions.jump.workbench.ui.renderer.style.Style;
+
+/**
+ * Picks out the lines and polygons that are too small at the current scale
+ * to be worth handing to a BasicStyle or ColorThemingStyle, so that the
+ * renderers can leave them out, or draw them as a single pixel, instead of
+ * clipping and converting every vertex. Other styles, and points, are not
+ * affected.
+ * <p>
+ * Vertices are rounded to whole pixels when drawn, so a line or polygon
+ * whose vertices all fall in one pixel draws nothing; such features are
+ * left out by default, which does not change the image.
+ */
+public class LevelOfDetail {
+	/**
+	 * Set this to an Integer on a Layer's Blackboard to leave out lines and
+	 * polygons that span fewer than this many pixels in both directions.
+	 * Defaults to 1, which leaves out only those that fall in a single pixel;
+	 * 0 turns this off.
+	 */
+	public static final String MIN_FEATURE_SIZE_KEY = LevelOfDetail.class
+			.getName()
+			+ " - MIN FEATURE SIZE";
+
+	/**
+	 * Set this to true on a Layer's Blackboard to draw the lines and
+	 * polygons that are left out as a single pixel in the style's line (or
+	 * else fill) color, so that small islands and the like remain visible.
+	 */
+	public static final String DRAW_SMALL_FEATURES_AS_DOTS_KEY = LevelOfDetail.class
+			.getName()
+			+ " - DRAW SMALL FEATURES AS DOTS";
+
+	private Style style;
+
+	private int minFeatureSize;
+
+	private boolean drawingDots;
+
+	private double scaleX;
+
+	private double translateX;
+
+	private double scaleY;
+
+	private double translateY;
+
+	public LevelOfDetail(Layer layer, Style style, Viewport viewport)
+			throws Exception {
+		this.style = style;
+		Object minFeatureSize = layer.getBlackboard().get(MIN_FEATURE_SIZE_KEY);
+		this.minFeatureSize = minFeatureSize instanceof Number ? ((Number) minFeatureSize)
+				.intValue()
+				: 1;
+		drawingDots = layer.getBlackboard().get(
+				DRAW_SMALL_FEATURES_AS_DOTS_KEY, false);
+		AffineTransform transform = viewport.getModelToViewTransform();
+		if (!(style instanceof BasicStyle || style instanceof ColorThemingStyle)
+				|| transform.getShearX() != 0 || transform.getShearY() != 0) {
+			this.minFeatureSize = 0;
+		}
+		scaleX = transform.getScaleX();
+		translateX = transform.getTranslateX();
+		scaleY = transform.getScaleY();
+		translateY = transform.getTranslateY();
+	}
+
+	/**
+	 * @return whether the Feature is too small to hand to the Style
+	 */
+	public boolean isSmall(Feature feature) {
+		if (minFeatureSize <= 0) {
+			return false;
+		}
+		Geometry geometry = feature.getGeometry();
+		if (!(geometry instanceof Polygon || geometry instanceof MultiPolygon
+				|| geometry instanceof LineString || geometry instanceof MultiLineString)) {
+			return false;
+		}
+		Envelope envelope = geometry.getEnvelopeInternal();
+		//Round as Java2DConverter does
+		return Math.abs(Math.round((scaleX * envelope.getMaxX()) + translateX)
+				- Math.round((scaleX * envelope.getMinX()) + translateX)) < minFeatureSize
+				&& Math.abs(Math.round((scaleY * envelope.getMaxY())
+						+ translateY)
+						- Math.round((scaleY * envelope.getMinY()) + translateY)) < minFeatureSize;
+	}
+
+	public boolean isDrawingDots() {
+		return drawingDots;
+	}
+
+	/**
+	 * Draws a Feature for which #isSmall is true as a single pixel at its
+	 * centre, if #isDrawingDots.
+	 */
+	public void paintDot(Feature feature, Graphics2D g) {
+		if (!drawingDots) {
+			return;
+		}
+		BasicStyle basicStyle = style instanceof ColorThemingStyle ? ((ColorThemingStyle) style)
+				.getStyle(feature)
+				: (BasicStyle) style;
+		Color color = basicStyle.isRenderingLine() ? basicStyle.getLineColor()
+				: basicStyle.isRenderingFill() ? basicStyle.getFillColor()
+						: null;
+		if (color == null) {
+			return;
+		}
+		Envelope envelope = feature.getGeometry().getEnvelopeInternal();
+		g.setColor(color);
+		g.fillRect((int) Math.round((scaleX * envelope.centre().x)
+				+ translateX), (int) Math.round((scaleY * envelope.centre().y)
+				+ translateY), 1, 1);
+	}
+}
@@ -27,13 +27,20 @@
 
 package com.vividsolutions.jump.workbench.ui.renderer;
 
+import java.awt.Dimension;
 import java.awt.Graphics2D;
+import java.awt.Point;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.geom.Point2D;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.Timer;
 
@@ -43,6 +50,7 @@ import com.vividsolutions.jump.workbench.model.Layer;
 import com.vividsolutions.jump.workbench.model.Layerable;
 import com.vividsolutions.jump.workbench.model.WMSLayer;
 import com.vividsolutions.jump.workbench.ui.LayerViewPanel;
+import com.vividsolutions.jump.workbench.ui.Viewport;
 
 public class RenderingManager {
 	private LayerViewPanel panel;
@@ -54,6 +62,30 @@ public class RenderingManager {
 			.getName()
 			+ " - USE MULTI RENDERING THREAD QUEUE";
 
+	/**
+	 * Set this to true on the panel's Blackboard to render layers in
+	 * parallel, one per processor, and to paint large layers in tiles on a
+	 * pool of worker threads.
+	 * 
+	 * @see TiledRenderer
+	 */
+	public static final String USE_TILED_RENDERING_KEY = RenderingManager.class
+			.getName()
+			+ " - USE TILED RENDERING";
+
+	/**
+	 * Set this to false on the panel's Blackboard to render everything
+	 * afresh after a pan, rather than moving the existing images and
+	 * rendering only the strips uncovered. Defaults to true.
+	 */
+	public static final String USE_INCREMENTAL_PANNING_KEY = RenderingManager.class
+			.getName()
+			+ " - USE INCREMENTAL PANNING";
+
+	//How far from a whole number of pixels a pan may be and still be done
+	//by moving the existing images
+	private static final double PAN_TOLERANCE = 1E-3;
+
 	private Map contentIDToRendererMap = new OrderedMap();
 
 	private OrderedMap contentIDToLowRendererFactoryMap = new OrderedMap();
@@ -75,6 +107,28 @@ public class RenderingManager {
 	 */
 	private ThreadQueue multiRendererThreadQueue = new ThreadQueue(20);
 
+	private int tiledRenderingThreads = Runtime.getRuntime()
+			.availableProcessors();
+
+	private ExecutorService tileExecutor = null;
+
+	//ExecutorService -> the number of renders using it, as an int[1]. An
+	//executor replaced by #setTiledRenderingThreads is shut down once the
+	//renders using it are done.
+	private Map tileExecutorToUserCountMap = new HashMap();
+
+	//The maximum last given to the defaultRendererThreadQueue
+	private int defaultRendererThreads = 1;
+
+	private TileCache tileCache = null;
+
+	//The view as of the last #renderAll
+	private double lastScale;
+
+	private Point2D lastOrigin = null;
+
+	private Dimension lastSize = null;
+
 	//250 ms wasn't as good as 1 s because less got painted on each repaint,
 	//making rendering appear to be slower. [Jon Aquino]
 	private Timer repaintTimer = new Timer(1000, new ActionListener() {
@@ -136,12 +190,81 @@ public class RenderingManager {
 		defaultRendererThreadQueue.clear();
 		multiRendererThreadQueue.clear();
 
-		for (Iterator i = contentIDs().iterator(); i.hasNext();) {
-			Object contentID = i.next();
-			render(contentID);
+		Point pan = panSinceLastRenderAll();
+
+		//Start from the top, so that the selection and the top layers appear
+		//first.
+		List contentIDs = contentIDs();
+		for (int i = contentIDs.size() - 1; i >= 0; i--) {
+			if (pan != null && pan(contentIDs.get(i), pan.x, pan.y, i)) {
+				continue;
+			}
+			render(contentIDs.get(i), true, i);
 		}
 	}
 
+	/**
+	 * @return how many pixels right and down the view has been moved since
+	 *         the last #renderAll, or null if it has also been zoomed or
+	 *         resized, or has not moved by a whole number of pixels
+	 */
+	private Point panSinceLastRenderAll() {
+		Viewport viewport = panel.getViewport();
+		double scale = viewport.getScale();
+		Point2D origin = viewport.getOriginInModelCoordinates();
+		Dimension size = panel.getSize();
+		Point pan = null;
+		if (lastOrigin != null
+				&& origin != null
+				&& size.equals(lastSize)
+				&& Math.abs(scale - lastScale) <= lastScale * 1E-9
+				&& panel.getBlackboard().get(USE_INCREMENTAL_PANNING_KEY, true)) {
+			//The model's y-axis points up, the view's down.
+			double dx = (lastOrigin.getX() - origin.getX()) * scale;
+			double dy = (origin.getY() - lastOrigin.getY()) * scale;
+			long roundedDx = Math.round(dx);
+			long roundedDy = Math.round(dy);
+			if (Math.abs(dx - roundedDx) < PAN_TOLERANCE
+					&& Math.abs(dy - roundedDy) < PAN_TOLERANCE
+					&& (roundedDx != 0 || roundedDy != 0)
+					&& Math.abs(roundedDx) < size.width
+					&& Math.abs(roundedDy) < size.height) {
+				pan = new Point((int) roundedDx, (int) roundedDy);
+			}
+		}
+		lastScale = scale;
+		lastOrigin = origin == null ? null : new Point2D.Double(origin.getX(),
+				origin.getY());
+		lastSize = size;
+		return pan;
+	}
+
+	/**
+	 * Moves the content's image rather than rendering it afresh, if it can.
+	 * 
+	 * @return false if the content must be rendered in full
+	 */
+	private boolean pan(Object contentID, int dx, int dy, int priority) {
+		Renderer renderer = getRenderer(contentID);
+		if (!(renderer instanceof FeatureCollectionRenderer)
+				|| renderer.isRendering()) {
+			return false;
+		}
+		Runnable runnable;
+		try {
+			runnable = ((FeatureCollectionRenderer) renderer)
+					.createPanRunnable(dx, dy);
+		} catch (Exception e) {
+			//Render it in full, which will report the problem if it persists
+			return false;
+		}
+		if (runnable == null) {
+			return false;
+		}
+		queue(contentID, runnable, priority);
+		return true;
+	}
+
 	protected List contentIDs() {
 		ArrayList contentIDs = new ArrayList();
 		contentIDs.addAll(contentIDToLowRendererFactoryMap.keyList());
@@ -169,6 +292,16 @@ public class RenderingManager {
 	}
 
 	public void render(Object contentID, boolean clearImageCache) {
+		render(contentID, clearImageCache, contentIDs().indexOf(contentID));
+	}
+
+	/**
+	 * @param priority
+	 *            the position of the content in the drawing order; content
+	 *            drawn on top is rendered first
+	 */
+	private void render(Object contentID, boolean clearImageCache,
+			int priority) {
 
 		if (getRenderer(contentID) == null) {
 			setRenderer(contentID, createRenderer(contentID));
@@ -190,12 +323,26 @@ public class RenderingManager {
 			// Before I would create threads that did nothing. Now I never do
 			// that -- I just return null. A dozen threads that do nothing make
 			// the system sluggish. [Jon Aquino]
-			((contentID instanceof Layerable && ((Layerable) contentID)
-					.getBlackboard().get(USE_MULTI_RENDERING_THREAD_QUEUE_KEY,
-							false)) ? multiRendererThreadQueue
-					: defaultRendererThreadQueue).add(runnable);
+			queue(contentID, runnable, priority);
+		} else {
+			startRepaintTimer();
 		}
+	}
+
+	private void queue(Object contentID, Runnable runnable, int priority) {
+		int maxRunningThreads = isTiledRendering() ? tiledRenderingThreads : 1;
+		if (maxRunningThreads != defaultRendererThreads) {
+			defaultRendererThreadQueue.setMaxRunningThreads(maxRunningThreads);
+			defaultRendererThreads = maxRunningThreads;
+		}
+		((contentID instanceof Layerable && ((Layerable) contentID)
+				.getBlackboard().get(USE_MULTI_RENDERING_THREAD_QUEUE_KEY,
+						false)) ? multiRendererThreadQueue
+				: defaultRendererThreadQueue).add(runnable, priority);
+		startRepaintTimer();
+	}
 
+	private void startRepaintTimer() {
 		if (!repaintTimer.isRunning()) {
 			repaintPanel();
 			repaintTimer.start();
@@ -249,10 +396,122 @@ public class RenderingManager {
 		return defaultRendererThreadQueue;
 	}
 
+	public boolean isTiledRendering() {
+		return panel.getBlackboard().get(USE_TILED_RENDERING_KEY, false);
+	}
+
+	/**
+	 * Sets the number of layers rendered at once, and of tiles painted at
+	 * once, when tiled rendering is on. Defaults to the number of processors.
+	 */
+	public synchronized void setTiledRenderingThreads(int tiledRenderingThreads) {
+		this.tiledRenderingThreads = Math.max(1, tiledRenderingThreads);
+		if (tileExecutor == null) {
+			return;
+		}
+		ExecutorService oldTileExecutor = tileExecutor;
+		tileExecutor = createTileExecutor();
+		//Renders still using the old executor finish with it; see
+		//#releaseTileExecutor
+		if (!tileExecutorToUserCountMap.containsKey(oldTileExecutor)) {
+			oldTileExecutor.shutdown();
+		}
+	}
+
+	/**
+	 * @return the worker threads shared by the TiledRenderers of all layers.
+	 *         Use #acquireTileExecutor to keep using them after the number
+	 *         of threads is changed.
+	 */
+	public synchronized ExecutorService getTileExecutor() {
+		if (tileExecutor == null) {
+			tileExecutor = createTileExecutor();
+		}
+		return tileExecutor;
+	}
+
+	private ExecutorService createTileExecutor() {
+		return Executors.newFixedThreadPool(tiledRenderingThreads,
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "Tile renderer");
+						thread.setDaemon(true);
+						//Keep the GUI responsive
+						thread.setPriority(Thread.MIN_PRIORITY);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * @return the tile executor, which is not shut down until it is given
+	 *         back with #releaseTileExecutor, even if
+	 *         #setTiledRenderingThreads replaces it meanwhile
+	 */
+	public synchronized ExecutorService acquireTileExecutor() {
+		ExecutorService executor = getTileExecutor();
+		int[] userCount = (int[]) tileExecutorToUserCountMap.get(executor);
+		if (userCount == null) {
+			userCount = new int[1];
+			tileExecutorToUserCountMap.put(executor, userCount);
+		}
+		userCount[0]++;
+		return executor;
+	}
+
+	/**
+	 * @param executor
+	 *            from #acquireTileExecutor
+	 */
+	public synchronized void releaseTileExecutor(ExecutorService executor) {
+		int[] userCount = (int[]) tileExecutorToUserCountMap.get(executor);
+		if (userCount == null) {
+			//disposed
+			return;
+		}
+		userCount[0]--;
+		if (userCount[0] > 0) {
+			return;
+		}
+		tileExecutorToUserCountMap.remove(executor);
+		if (executor != tileExecutor) {
+			//Tiles already submitted will still be painted.
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * @return the rendered tiles of static layers, shared by their
+	 *         TileCachingRenderers
+	 */
+	public synchronized TileCache getTileCache() {
+		if (tileCache == null) {
+			//Created on first use, as the panel's LayerManager is not yet set
+			//when the RenderingManager is constructed.
+			tileCache = new TileCache(panel.getLayerManager());
+		}
+		return tileCache;
+	}
+
 	public void dispose() {
 		repaintTimer.stop();
 		defaultRendererThreadQueue.dispose();
 		multiRendererThreadQueue.dispose();
+		synchronized (this) {
+			if (tileExecutor != null) {
+				tileExecutor.shutdownNow();
+				tileExecutor = null;
+			}
+			for (Iterator i = tileExecutorToUserCountMap.keySet().iterator(); i
+					.hasNext();) {
+				((ExecutorService) i.next()).shutdownNow();
+			}
+			tileExecutorToUserCountMap.clear();
+			if (tileCache != null) {
+				tileCache.dispose();
+				tileCache = null;
+			}
+		}
 		//The ThreadSafeImage cached in each Renderer consumes 1 MB of memory,
 		//according to OptimizeIt [Jon Aquino]
 		contentIDToRendererMap.clear();
@@ -10,7 +10,10 @@ import java.util.Map;
 import com.vividsolutions.jump.feature.Feature;
 import com.vividsolutions.jump.workbench.model.Layer;
 import com.vividsolutions.jump.workbench.ui.LayerViewPanel;
+import com.vividsolutions.jump.workbench.ui.renderer.java2D.Java2DConverter;
+import com.vividsolutions.jump.workbench.ui.renderer.style.LabelStyle;
 import com.vividsolutions.jump.workbench.ui.renderer.style.Style;
+import com.vividsolutions.jump.workbench.ui.renderer.style.StyleUtil;
 
 /**
  * @see ImageCachingFeatureCollectionRenderer
@@ -32,8 +35,14 @@ public class SimpleFeatureCollectionRenderer extends SimpleRenderer {
 			return;
 		}
 		style.initialize(layer);
-		//new ArrayList to avoid ConcurrentModificationException. [Jon Aquino]
-		for (Iterator i = new ArrayList(features).iterator(); i.hasNext();) {
+		if (style instanceof LabelStyle) {
+			//Labels are placed together, so that they can avoid each other.
+			((LabelStyle) style).paint(features, g, panel.getViewport());
+			return;
+		}
+		LevelOfDetail levelOfDetail = new LevelOfDetail(layer, style, panel
+				.getViewport());
+		for (Iterator i = features.iterator(); i.hasNext();) {
 			final Feature feature = (Feature) i.next();
 			if (cancelled) {
 				return;
@@ -41,25 +50,49 @@ public class SimpleFeatureCollectionRenderer extends SimpleRenderer {
 			if (feature.getGeometry().isEmpty()) {
 				continue;
 			}
+			if (levelOfDetail.isSmall(feature)) {
+				levelOfDetail.paintDot(feature, g);
+				continue;
+			}
 			style.paint(feature, g, panel.getViewport());
 		}
 	}
 
 	protected void paint(Graphics2D g) throws Exception {
-		for (Iterator i = styles.iterator(); i.hasNext();) {
-			Style style = (Style) i.next();
-			if (cancelled) {
-				return;
-			}
-			for (Iterator j = layerToFeaturesMap.keySet().iterator(); j
-					.hasNext();) {
-				Layer layer = (Layer) j.next();
+		//new ArrayList to avoid ConcurrentModificationException. [Jon Aquino]
+		//Copied once per layer, rather than once per style.
+		Map layerToFeatureListMap = new HashMap();
+		for (Iterator i = layerToFeaturesMap.keySet().iterator(); i.hasNext();) {
+			Layer layer = (Layer) i.next();
+			layerToFeatureListMap.put(layer, new ArrayList((Collection) layerToFeaturesMap
+					.get(layer)));
+		}
+		//Convert each feature to a Shape once, for all the styles.
+		Java2DConverter converter = panel.getViewport().getJava2DConverter();
+		boolean caching = StyleUtil.isSharingShapes(styles);
+		if (caching) {
+			converter.startCaching();
+		}
+		try {
+			for (Iterator i = styles.iterator(); i.hasNext();) {
+				Style style = (Style) i.next();
 				if (cancelled) {
 					return;
 				}
-				Collection features = (Collection) layerToFeaturesMap
-						.get(layer);
-				paint(g, features, layer, style);
+				for (Iterator j = layerToFeatureListMap.keySet().iterator(); j
+						.hasNext();) {
+					Layer layer = (Layer) j.next();
+					if (cancelled) {
+						return;
+					}
+					Collection features = (Collection) layerToFeatureListMap
+							.get(layer);
+					paint(g, features, layer, style);
+				}
+			}
+		} finally {
+			if (caching) {
+				converter.stopCaching();
 			}
 		}
 	}
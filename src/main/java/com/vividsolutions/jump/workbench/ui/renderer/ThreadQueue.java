@@ -34,79 +34,197 @@ package com.vividsolutions.jump.workbench.ui.renderer;
 
 import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.Vector;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
- * Limits the number of executing threads to a specified maximum.
+ * Limits the number of executing threads to a specified maximum. The threads
+ * are pooled: a thread that finishes a Runnable takes the next one from the
+ * queue, and idle threads die after a while, so that rapid panning and
+ * zooming does not create hundreds of short-lived threads.
+ * <p>
+ * Queued Runnables with a higher priority are run first; those with equal
+ * priorities are run in the order they were added.
  */
 public class ThreadQueue {
-    private volatile int runningThreads = 0;
+    public static final int DEFAULT_PRIORITY = 0;
 
-    //Vector is thread-safe. [Jon Aquino]
-    private Vector queuedRunnables = new Vector();
-    private int maxRunningThreads;
+    //Idle threads are kept this long, so that they can be reused by the
+    //renders that follow a pan or zoom.
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private AtomicInteger runningThreads = new AtomicInteger(0);
+
+    //Queued and running Runnables; counted when added, so that the count
+    //cannot drop to zero between a worker taking a Runnable from the queue
+    //and starting it
+    private AtomicInteger unfinishedRunnables = new AtomicInteger(0);
+    private AtomicLong nextSequence = new AtomicLong(0);
+    private ThreadPoolExecutor executor;
 
     public ThreadQueue(final int maxRunningThreads) {
-        this.maxRunningThreads = maxRunningThreads;
+        executor = new ThreadPoolExecutor(maxRunningThreads,
+                maxRunningThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue(),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "ThreadQueue");
+                        //Don't keep the application alive.
+                        thread.setDaemon(true);
+
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
     }
 
+    /**
+     * Changes the maximum, starting queued threads if it has been raised.
+     * Threads already running are not stopped if it has been lowered.
+     */
+    public synchronized void setMaxRunningThreads(int maxRunningThreads) {
+        if (maxRunningThreads == getMaxRunningThreads()) {
+            return;
+        }
+
+        //The maximum pool size may never be less than the core pool size.
+        if (maxRunningThreads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(maxRunningThreads);
+            executor.setCorePoolSize(maxRunningThreads);
+        } else {
+            executor.setCorePoolSize(maxRunningThreads);
+            executor.setMaximumPoolSize(maxRunningThreads);
+        }
+    }
+
+    public int getMaxRunningThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Removes the Runnables that have not started yet.
+     */
     public void clear() {
-        queuedRunnables.clear();
+        ArrayList removed = new ArrayList();
+        executor.getQueue().drainTo(removed);
+        finished(removed.size());
     }
 
-    private void processQueue() {
-        while (!queuedRunnables.isEmpty() &&
-                (runningThreads < maxRunningThreads) && enabled) {
-            setRunningThreads(getRunningThreads()+1);
-            new Thread((Runnable) queuedRunnables.remove(0)).start();
-            // I wonder if it would improve performance to put a little
-            // delay here. This loop seems pretty tight. Then again, I haven't
-            // worked with this code in several months, so I might be mistaken.
-            // [Jon Aquino 2005-03-2]
+    private void finished(int runnables) {
+        if ((runnables > 0) &&
+                (unfinishedRunnables.addAndGet(-runnables) == 0)) {
+            fireAllRunningThreadsFinished();
         }
     }
-    
-    private void setRunningThreads(int runningThreads) {
-        this.runningThreads = runningThreads;
-        if (runningThreads == 0) { fireAllRunningThreadsFinished(); }
-    }
-    
+
     public void add(final Runnable runnable) {
-        queuedRunnables.add(new Runnable() {
-            public void run() {
-                try {
-                    runnable.run();
-                } finally {
-                    setRunningThreads(getRunningThreads() - 1);
-                    processQueue();
-                }
-            }
-        });
-        processQueue();
+        add(runnable, DEFAULT_PRIORITY);
+    }
+
+    /**
+     * @param priority Runnables with higher priorities are run first
+     */
+    public void add(final Runnable runnable, int priority) {
+        unfinishedRunnables.incrementAndGet();
+
+        try {
+            //Start the threads first, so that the Runnable goes through the
+            //priority queue rather than straight to a new thread
+            executor.prestartAllCoreThreads();
+            executor.execute(new QueuedRunnable(runnable, priority,
+                    nextSequence.getAndIncrement()));
+        } catch (RejectedExecutionException e) {
+            //Disposed
+            finished(1);
+        }
     }
+
     public int getRunningThreads() {
-        return runningThreads;
+        return runningThreads.get();
     }
-    
+
     private ArrayList listeners = new ArrayList();
-    public void add(Listener listener) { listeners.add(listener); }
-    public void remove(Listener listener) { listeners.remove(listener); }    
+
+    public void add(Listener listener) {
+        synchronized (listeners) {
+            listeners.add(listener);
+        }
+    }
+
+    public void remove(Listener listener) {
+        synchronized (listeners) {
+            listeners.remove(listener);
+        }
+    }
+
     public static interface Listener {
+        /**
+         * Called when the last running Runnable finishes and no more are
+         * queued.
+         */
         public void allRunningThreadsFinished();
     }
+
     private void fireAllRunningThreadsFinished() {
-    	//new ArrayList to avoid ConcurrentModificationException [Jon Aquino]
-        for (Iterator i = new ArrayList(listeners).iterator(); i.hasNext(); ) {
+        ArrayList listenersCopy;
+
+        //new ArrayList to avoid ConcurrentModificationException [Jon Aquino]
+        synchronized (listeners) {
+            listenersCopy = new ArrayList(listeners);
+        }
+
+        for (Iterator i = listenersCopy.iterator(); i.hasNext();) {
             Listener listener = (Listener) i.next();
             listener.allRunningThreadsFinished();
         }
     }
 
+    /**
+     * Stops starting queued Runnables; those already running are allowed to
+     * finish.
+     */
     public void dispose() {
-        enabled = false;
+        executor.shutdown();
+        clear();
     }
-    
-    private volatile boolean enabled = true;
 
+    private class QueuedRunnable implements Runnable, Comparable {
+        private Runnable runnable;
+        private int priority;
+        private long sequence;
+
+        public QueuedRunnable(Runnable runnable, int priority, long sequence) {
+            this.runnable = runnable;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        public void run() {
+            runningThreads.incrementAndGet();
+
+            try {
+                runnable.run();
+            } finally {
+                runningThreads.decrementAndGet();
+                finished(1);
+            }
+        }
+
+        public int compareTo(Object o) {
+            QueuedRunnable other = (QueuedRunnable) o;
+
+            if (priority != other.priority) {
+                return (priority > other.priority) ? (-1) : 1;
+            }
+
+            return (sequence < other.sequence) ? (-1)
+                                               : ((sequence == other.sequence) ? 0 : 1);
+        }
+    }
 }
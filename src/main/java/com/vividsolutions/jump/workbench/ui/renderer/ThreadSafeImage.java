@@ -37,6 +37,7 @@ import java.awt.Dimension;
 import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.RenderingHints;
+import java.awt.Shape;
 import java.awt.image.ImageObserver;
 
 import com.vividsolutions.jump.workbench.ui.LayerViewPanel;
@@ -49,6 +50,7 @@ public class ThreadSafeImage implements Cloneable {
     private Image image = null;
     private Graphics2D graphics = null;
     private LayerViewPanel panel;
+    private Shape clip = null;
     private GraphicsState dummyGraphicsState = new GraphicsState() {
             public void restore(Graphics2D g) {
             }
@@ -110,9 +112,36 @@ public class ThreadSafeImage implements Cloneable {
         Graphics2D g = (Graphics2D) image.getGraphics();
         g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
             RenderingHints.VALUE_ANTIALIAS_ON);                    
+        if (clip != null) {
+            g.clip(clip);
+        }
         drawer.draw(g);
     }
 
+    /**
+     * Limits subsequent #draw calls to the given area.
+     * @param clip the area to draw in, or null to draw anywhere
+     */
+    public synchronized void setClip(Shape clip) {
+        this.clip = clip;
+    }
+
+    /**
+     * Moves the contents dx pixels right and dy pixels down, leaving the
+     * uncovered strips transparent.
+     */
+    public synchronized void translate(int dx, int dy) {
+        if (!isPanelReady()) {
+            return;
+        }
+        Image translated = panel.createBlankPanelImage();
+        Graphics2D g = (Graphics2D) translated.getGraphics();
+        g.drawImage(image, dx, dy, null);
+        g.dispose();
+        image = translated;
+        graphics = null;
+    }
+
     public synchronized GraphicsState getGraphicsState() {
         if (!isPanelReady()) {
             return dummyGraphicsState;
@@ -0,0 +1,433 @@
+/*
+ * The Unified Mapping Platform (JUMP) is an extensible, interactive GUI for
+ * visualizing and manipulating spatial features with geometry and attributes.
+ *
+ * Copyright (C) 2003 Vivid Solutions
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information, contact:
+ *
+ * Vivid Solutions Suite #1A 2328 Government Street Victoria BC V8T 5G5 Canada
+ *
+ * (250)385-6040 www.vividsolutions.com
+ */
+
+package com.vividsolutions.jump.workbench.ui.renderer;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import com.vividsolutions.jump.workbench.model.CategoryEvent;
+import com.vividsolutions.jump.workbench.model.FeatureEvent;
+import com.vividsolutions.jump.workbench.model.Layer;
+import com.vividsolutions.jump.workbench.model.LayerEvent;
+import com.vividsolutions.jump.workbench.model.LayerEventType;
+import com.vividsolutions.jump.workbench.model.LayerListener;
+import com.vividsolutions.jump.workbench.model.LayerManager;
+import com.vividsolutions.jump.workbench.ui.renderer.style.BasicStyle;
+import com.vividsolutions.jump.workbench.ui.renderer.style.ColorThemingStyle;
+import com.vividsolutions.jump.workbench.ui.renderer.style.Style;
+import com.vividsolutions.jump.workbench.ui.renderer.style.VertexStyle;
+
+/**
+ * Keeps rendered tiles of static layers, so that panning back and forth, or
+ * returning to a zoom level, repaints from the tiles instead of painting
+ * every feature again. Tiles are kept in memory, least recently used first
+ * out; if a disk directory has been set, tiles pushed out of memory are
+ * written there and read back when needed.
+ * <p>
+ * Only layers that are not editable, and have USE_TILE_CACHE_KEY set on their
+ * Blackboard, are cached. A layer's tiles are discarded when its features or
+ * appearance change; tiles are also keyed by a hash of its styles, so that a
+ * style change is never drawn from stale tiles.
+ *
+ * @see TileCachingRenderer
+ */
+public class TileCache implements LayerListener {
+	public static final String USE_TILE_CACHE_KEY = TileCache.class.getName()
+			+ " - USE TILE CACHE";
+
+	public static final int TILE_SIZE = 256;
+
+	//Scales within about 1 part in a million share a level, to allow for
+	//rounding error when returning to a zoom level. Tiles are painted at the
+	//level's own scale.
+	private static final double LEVELS_PER_DOUBLING = 1 << 20;
+
+	/**
+	 * Stands for a tile with no features in it.
+	 */
+	public static final BufferedImage EMPTY = new BufferedImage(1, 1,
+			BufferedImage.TYPE_INT_ARGB);
+
+	private LayerManager layerManager;
+
+	private long maxMemoryBytes = 64L * 1024 * 1024;
+
+	private long memoryBytes = 0;
+
+	//Key -> BufferedImage, least recently used first
+	private LinkedHashMap memory = new LinkedHashMap(16, 0.75f, true);
+
+	private File diskDirectory = null;
+
+	private long maxDiskBytes = 512L * 1024 * 1024;
+
+	private long diskBytes = 0;
+
+	//Key -> File, least recently used first
+	private LinkedHashMap disk = new LinkedHashMap(16, 0.75f, true);
+
+	private int nextFileNumber = 0;
+
+	//Layer -> Integer, for the layers painted into tiles and not since
+	//removed; others have no tiles to discard
+	private Map layerToVersionMap = new HashMap();
+
+	public TileCache(LayerManager layerManager) {
+		this.layerManager = layerManager;
+		layerManager.addLayerListener(this);
+	}
+
+	public static boolean isCacheable(Layer layer) {
+		return !layer.isEditable()
+				&& layer.getBlackboard().get(USE_TILE_CACHE_KEY, false);
+	}
+
+	/**
+	 * @return the zoom level that the scale falls in
+	 */
+	public static long level(double scale) {
+		return Math.round(Math.log(scale) / Math.log(2) * LEVELS_PER_DOUBLING);
+	}
+
+	/**
+	 * @return the scale at which the level's tiles are painted
+	 */
+	public static double scale(long level) {
+		return Math.pow(2, level / LEVELS_PER_DOUBLING);
+	}
+
+	public synchronized void setMaxMemoryBytes(long maxMemoryBytes) {
+		this.maxMemoryBytes = maxMemoryBytes;
+		trim();
+	}
+
+	/**
+	 * @param diskDirectory
+	 *            where to keep tiles that do not fit in memory, or null to
+	 *            discard them
+	 */
+	public synchronized void setDiskDirectory(File diskDirectory,
+			long maxDiskBytes) {
+		clearDisk();
+		this.diskDirectory = diskDirectory;
+		this.maxDiskBytes = maxDiskBytes;
+		if (diskDirectory != null) {
+			diskDirectory.mkdirs();
+		}
+	}
+
+	/**
+	 * @return the tile, EMPTY, or null if it is not cached
+	 */
+	public synchronized BufferedImage get(Key key) {
+		BufferedImage image = (BufferedImage) memory.get(key);
+		if (image != null) {
+			return image;
+		}
+		File file = (File) disk.remove(key);
+		if (file == null) {
+			return null;
+		}
+		diskBytes -= file.length();
+		try {
+			image = ImageIO.read(file);
+		} catch (IOException e) {
+			//Treat as not cached.
+			image = null;
+		}
+		file.delete();
+		if (image != null) {
+			put(key, image);
+		}
+		return image;
+	}
+
+	public synchronized void put(Key key, BufferedImage image) {
+		Integer version = (Integer) layerToVersionMap.get(key.layer);
+		if (version == null || key.version != version.intValue()) {
+			//The layer changed, or was removed, while the tile was being
+			//painted.
+			return;
+		}
+		BufferedImage old = (BufferedImage) memory.put(key, image);
+		if (old != null) {
+			memoryBytes -= bytes(old);
+		}
+		memoryBytes += bytes(image);
+		trim();
+	}
+
+	private static long bytes(BufferedImage image) {
+		return 4L * image.getWidth() * image.getHeight();
+	}
+
+	private void trim() {
+		for (Iterator i = memory.entrySet().iterator(); i.hasNext()
+				&& memoryBytes > maxMemoryBytes;) {
+			Map.Entry entry = (Map.Entry) i.next();
+			BufferedImage image = (BufferedImage) entry.getValue();
+			i.remove();
+			memoryBytes -= bytes(image);
+			spill((Key) entry.getKey(), image);
+		}
+	}
+
+	private void spill(Key key, BufferedImage image) {
+		if (diskDirectory == null || image == EMPTY) {
+			return;
+		}
+		File file = new File(diskDirectory, "tile" + (nextFileNumber++)
+				+ ".png");
+		try {
+			ImageIO.write(image, "png", file);
+		} catch (IOException e) {
+			file.delete();
+			return;
+		}
+		disk.put(key, file);
+		diskBytes += file.length();
+		for (Iterator i = disk.values().iterator(); i.hasNext()
+				&& diskBytes > maxDiskBytes;) {
+			File oldest = (File) i.next();
+			i.remove();
+			diskBytes -= oldest.length();
+			oldest.delete();
+		}
+	}
+
+	/**
+	 * Called before painting the layer's tiles, from when on its changes
+	 * are tracked.
+	 *
+	 * @return a number that changes whenever the layer's cached tiles are
+	 *         discarded
+	 */
+	public synchronized int version(Layer layer) {
+		Integer version = (Integer) layerToVersionMap.get(layer);
+		if (version == null) {
+			version = new Integer(0);
+			layerToVersionMap.put(layer, version);
+		}
+		return version.intValue();
+	}
+
+	/**
+	 * Discards the layer's tiles, if it has been painted into any.
+	 */
+	public synchronized void invalidate(Layer layer) {
+		Integer version = (Integer) layerToVersionMap.get(layer);
+		if (version == null) {
+			return;
+		}
+		layerToVersionMap.put(layer, new Integer(version.intValue() + 1));
+		discardTiles(layer);
+	}
+
+	/**
+	 * Discards the tiles of a layer that has been removed, and stops
+	 * tracking it.
+	 */
+	private synchronized void remove(Layer layer) {
+		if (layerToVersionMap.remove(layer) != null) {
+			discardTiles(layer);
+		}
+	}
+
+	private void discardTiles(Layer layer) {
+		for (Iterator i = memory.entrySet().iterator(); i.hasNext();) {
+			Map.Entry entry = (Map.Entry) i.next();
+			if (((Key) entry.getKey()).layer == layer) {
+				i.remove();
+				memoryBytes -= bytes((BufferedImage) entry.getValue());
+			}
+		}
+		for (Iterator i = disk.entrySet().iterator(); i.hasNext();) {
+			Map.Entry entry = (Map.Entry) i.next();
+			if (((Key) entry.getKey()).layer == layer) {
+				i.remove();
+				File file = (File) entry.getValue();
+				diskBytes -= file.length();
+				file.delete();
+			}
+		}
+	}
+
+	private void clearDisk() {
+		for (Iterator i = disk.values().iterator(); i.hasNext();) {
+			((File) i.next()).delete();
+		}
+		disk.clear();
+		diskBytes = 0;
+	}
+
+	public synchronized void dispose() {
+		layerManager.removeLayerListener(this);
+		memory.clear();
+		memoryBytes = 0;
+		clearDisk();
+		layerToVersionMap.clear();
+	}
+
+	public void featuresChanged(FeatureEvent e) {
+		invalidate(e.getLayer());
+	}
+
+	public void layerChanged(LayerEvent e) {
+		if (!(e.getLayerable() instanceof Layer)) {
+			return;
+		}
+		if (e.getType() == LayerEventType.APPEARANCE_CHANGED) {
+			invalidate((Layer) e.getLayerable());
+		} else if (e.getType() == LayerEventType.REMOVED) {
+			remove((Layer) e.getLayerable());
+		}
+	}
+
+	public void categoryChanged(CategoryEvent e) {
+	}
+
+	/**
+	 * @return a hash of the properties of the styles that affect how they
+	 *         paint, so that tiles painted with other styles are not used
+	 */
+	public static int styleHash(Layer layer) {
+		int hash = 0;
+		//new ArrayList to avoid ConcurrentModificationException
+		for (Iterator i = new ArrayList(layer.getStyles()).iterator(); i
+				.hasNext();) {
+			hash = (31 * hash) + styleHash((Style) i.next());
+		}
+		return hash;
+	}
+
+	private static int styleHash(Style style) {
+		int hash = style.getClass().hashCode();
+		hash = (31 * hash) + (style.isEnabled() ? 1 : 0);
+		if (style instanceof BasicStyle) {
+			BasicStyle basicStyle = (BasicStyle) style;
+			hash = (31 * hash) + hash(basicStyle.getFillColor());
+			hash = (31 * hash) + hash(basicStyle.getLineColor());
+			hash = (31 * hash) + basicStyle.getLineWidth();
+			hash = (31 * hash) + (basicStyle.isRenderingFill() ? 1 : 0);
+			hash = (31 * hash) + (basicStyle.isRenderingLine() ? 1 : 0);
+			hash = (31 * hash) + (basicStyle.isRenderingFillPattern() ? 1 : 0);
+			hash = (31 * hash) + (basicStyle.isRenderingLinePattern() ? 1 : 0);
+			hash = (31 * hash)
+					+ System.identityHashCode(basicStyle.getFillPattern());
+			hash = (31 * hash) + hash(basicStyle.getLinePattern());
+		} else if (style instanceof VertexStyle) {
+			hash = (31 * hash) + ((VertexStyle) style).getSize();
+		} else if (style instanceof ColorThemingStyle) {
+			ColorThemingStyle colorThemingStyle = (ColorThemingStyle) style;
+			hash = (31 * hash)
+					+ hash(colorThemingStyle.getAttributeName());
+			if (colorThemingStyle.getDefaultStyle() != null) {
+				hash = (31 * hash)
+						+ styleHash(colorThemingStyle.getDefaultStyle());
+			}
+			for (Iterator i = colorThemingStyle
+					.getAttributeValueToBasicStyleMap().entrySet().iterator(); i
+					.hasNext();) {
+				Map.Entry entry = (Map.Entry) i.next();
+				hash += hash(entry.getKey())
+						^ styleHash((Style) entry.getValue());
+			}
+		} else {
+			//Properties unknown
+			hash = (31 * hash) + System.identityHashCode(style);
+		}
+		return hash;
+	}
+
+	private static int hash(Object o) {
+		return o == null ? 0 : o.hashCode();
+	}
+
+	/**
+	 * Identifies a tile: tile (column, row) at level L covers model x from
+	 * column * TILE_SIZE / scale(L) and model y down from -row * TILE_SIZE /
+	 * scale(L). The margin is how many pixels beyond the tile its features
+	 * were gathered from.
+	 */
+	public static class Key {
+		private Layer layer;
+
+		private int version;
+
+		private int styleHash;
+
+		private long level;
+
+		private long column;
+
+		private long row;
+
+		private int margin;
+
+		public Key(Layer layer, int version, int styleHash, int margin,
+				long level, long column, long row) {
+			this.layer = layer;
+			this.version = version;
+			this.styleHash = styleHash;
+			this.margin = margin;
+			this.level = level;
+			this.column = column;
+			this.row = row;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return layer == other.layer && version == other.version
+					&& styleHash == other.styleHash && margin == other.margin
+					&& level == other.level
+					&& column == other.column && row == other.row;
+		}
+
+		public int hashCode() {
+			long hash = System.identityHashCode(layer);
+			hash = (31 * hash) + version;
+			hash = (31 * hash) + styleHash;
+			hash = (31 * hash) + margin;
+			hash = (31 * hash) + level;
+			hash = (31 * hash) + column;
+			hash = (31 * hash) + row;
+			return (int) (hash ^ (hash >>> 32));
+		}
+	}
+}
@@ -0,0 +1,273 @@
+/*
+ * The Unified Mapping Platform (JUMP) is an extensible, interactive GUI for
+ * visualizing and manipulating spatial features with geometry and attributes.
+ *
+ * Copyright (C) 2003 Vivid Solutions
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information, contact:
+ *
+ * Vivid Solutions Suite #1A 2328 Government Street Victoria BC V8T 5G5 Canada
+ *
+ * (250)385-6040 www.vividsolutions.com
+ */
+
+package com.vividsolutions.jump.workbench.ui.renderer;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.workbench.model.Layer;
+import com.vividsolutions.jump.workbench.model.cache.ClosableIterator;
+import com.vividsolutions.jump.workbench.ui.LayerViewPanel;
+import com.vividsolutions.jump.workbench.ui.Viewport;
+import com.vividsolutions.jump.workbench.ui.renderer.style.LabelStyle;
+import com.vividsolutions.jump.workbench.ui.renderer.style.Style;
+import com.vividsolutions.jump.workbench.ui.renderer.style.StyleUtil;
+
+/**
+ * Renders a static layer from the tiles in the RenderingManager's TileCache,
+ * painting only the tiles that are not there yet. Labels are painted afresh
+ * each time, as they are placed relative to the panel (and to each other)
+ * rather than to the features alone.
+ *
+ * @see TileCache#isCacheable
+ */
+public class TileCachingRenderer extends ImageCachingFeatureCollectionRenderer {
+
+	//The least margin, for markers (e.g. arrowheads) whose extent
+	//TiledRenderer.margin does not know.
+	private static final int MIN_MARGIN = 16;
+
+	public TileCachingRenderer(Object contentID, LayerViewPanel panel) {
+		super(contentID, panel);
+	}
+
+	protected void renderHook(ThreadSafeImage image) throws Exception {
+		Layer layer = (Layer) getContentID();
+		if (!TileCache.isCacheable(layer)) {
+			super.renderHook(image);
+			return;
+		}
+		if (!layer.isVisible()) {
+			return;
+		}
+		TileCache cache = panel.getRenderingManager().getTileCache();
+		//Read the version before the style hash and features, so that a tile
+		//painted during a change is filed under the old version.
+		int version = cache.version(layer);
+		int styleHash = TileCache.styleHash(layer);
+		long level = TileCache.level(panel.getViewport().getScale());
+		double scale = TileCache.scale(level);
+		double tileModelSize = TileCache.TILE_SIZE / scale;
+
+		List tileStyles = new ArrayList();
+		List labelStyles = new ArrayList();
+		for (Iterator i = getStyles().iterator(); i.hasNext();) {
+			Style style = (Style) i.next();
+			if (!style.isEnabled()) {
+				continue;
+			}
+			(style instanceof LabelStyle ? labelStyles : tileStyles).add(style);
+		}
+		//Features are painted in each tile they come within this many pixels
+		//of, so that strokes and point markers that spill over a tile edge
+		//are not cut off.
+		int margin = MIN_MARGIN;
+		for (Iterator i = tileStyles.iterator(); i.hasNext();) {
+			margin = Math.max(margin, TiledRenderer.margin((Style) i.next()));
+		}
+		boolean stylesInitialized = false;
+
+		//Rows count downwards from the model's y = 0, as view y does.
+		Envelope envelope = panel.getViewport().getEnvelopeInModelCoordinates();
+		long firstColumn = (long) Math.floor(envelope.getMinX() / tileModelSize);
+		long lastColumn = (long) Math.floor(envelope.getMaxX() / tileModelSize);
+		long firstRow = (long) Math.floor(-envelope.getMaxY() / tileModelSize);
+		long lastRow = (long) Math.floor(-envelope.getMinY() / tileModelSize);
+		AffineTransform modelToViewTransform = panel.getViewport()
+				.getModelToViewTransform();
+		for (long row = firstRow; row <= lastRow; row++) {
+			for (long column = firstColumn; column <= lastColumn; column++) {
+				if (cancelled) {
+					return;
+				}
+				TileCache.Key key = new TileCache.Key(layer, version,
+						styleHash, margin, level, column, row);
+				BufferedImage tile = cache.get(key);
+				Point2D.Double origin = new Point2D.Double(column
+						* tileModelSize, -row * tileModelSize);
+				if (tile == null) {
+					if (!stylesInitialized) {
+						for (Iterator i = tileStyles.iterator(); i.hasNext();) {
+							((Style) i.next()).initialize(layer);
+						}
+						stylesInitialized = true;
+					}
+					tile = paintTile(layer, tileStyles, scale, margin,
+							origin);
+					if (tile == null) {
+						//cancelled
+						return;
+					}
+					cache.put(key, tile);
+				}
+				if (tile == TileCache.EMPTY) {
+					continue;
+				}
+				drawTile(image, tile, modelToViewTransform.transform(origin,
+						null));
+			}
+		}
+		for (Iterator i = labelStyles.iterator(); i.hasNext();) {
+			Style style = (Style) i.next();
+			Collection features = (Collection) getLayerToFeaturesMap().get(
+					layer);
+			renderHook(image, features, layer, style);
+		}
+	}
+
+	private void drawTile(ThreadSafeImage image, final BufferedImage tile,
+			Point2D viewOrigin) throws Exception {
+		//The level's scale is the panel's to within rounding, so the tile is
+		//drawn unscaled, to the nearest pixel.
+		final int x = (int) Math.round(viewOrigin.getX());
+		final int y = (int) Math.round(viewOrigin.getY());
+		image.draw(new ThreadSafeImage.Drawer() {
+			public void draw(Graphics2D g) throws Exception {
+				g.drawImage(tile, x, y, null);
+			}
+		});
+	}
+
+	/**
+	 * @return the tile, EMPTY if no features are near it, or null if
+	 *         cancelled
+	 */
+	private BufferedImage paintTile(Layer layer, List styles, double scale,
+			int margin, Point2D.Double origin) throws Exception {
+		double tileModelSize = TileCache.TILE_SIZE / scale;
+		double modelMargin = margin / scale;
+		Envelope tileEnvelope = new Envelope(origin.x - modelMargin, origin.x
+				+ tileModelSize + modelMargin, origin.y - tileModelSize
+				- modelMargin, origin.y + modelMargin);
+		List features = LayerRenderer.query(layer, tileEnvelope, scale);
+		if (features.isEmpty() || styles.isEmpty()) {
+			return TileCache.EMPTY;
+		}
+		TileViewport viewport = new TileViewport(panel, scale, margin, origin);
+		//Premultiplied alpha is faster to composite.
+		BufferedImage tile = new BufferedImage(TileCache.TILE_SIZE,
+				TileCache.TILE_SIZE, BufferedImage.TYPE_INT_ARGB_PRE);
+		Graphics2D g = tile.createGraphics();
+		boolean caching = StyleUtil.isSharingShapes(styles);
+		if (caching) {
+			viewport.getJava2DConverter().startCaching();
+		}
+		try {
+			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+					RenderingHints.VALUE_ANTIALIAS_ON);
+			for (Iterator i = styles.iterator(); i.hasNext();) {
+				Style style = (Style) i.next();
+				LevelOfDetail levelOfDetail = new LevelOfDetail(layer, style,
+						viewport);
+				Iterator j = features.iterator();
+				try {
+					while (j.hasNext()) {
+						Feature feature = (Feature) j.next();
+						if (cancelled) {
+							return null;
+						}
+						if (feature.getGeometry() == null
+								|| feature.getGeometry().isEmpty()) {
+							continue;
+						}
+						if (levelOfDetail.isSmall(feature)) {
+							levelOfDetail.paintDot(feature, g);
+							continue;
+						}
+						style.paint(feature, g, viewport);
+					}
+				} finally {
+					//Give back a cancelled query's database connection now
+					if (j instanceof ClosableIterator) {
+						((ClosableIterator) j).close();
+					}
+				}
+			}
+		} finally {
+			if (caching) {
+				viewport.getJava2DConverter().stopCaching();
+			}
+			g.dispose();
+		}
+		return tile;
+	}
+
+	/**
+	 * The view of one tile: TILE_SIZE pixels square, with its top-left corner
+	 * at the given model point. Its envelope takes in the margin around the
+	 * tile, so that styles which skip what lies outside the view (e.g.
+	 * VertexStyle) still paint the markers that spill into the tile.
+	 */
+	private static class TileViewport extends Viewport {
+		private double scale;
+
+		private AffineTransform modelToViewTransform;
+
+		private Envelope envelope;
+
+		private Point2D.Double origin;
+
+		public TileViewport(LayerViewPanel panel, double scale, int margin,
+				Point2D.Double topLeft) {
+			super(panel, panel.getViewport().getZoomHistory());
+			this.scale = scale;
+			double tileModelSize = TileCache.TILE_SIZE / scale;
+			origin = new Point2D.Double(topLeft.x, topLeft.y - tileModelSize);
+			modelToViewTransform = modelToViewTransform(scale, origin,
+					TileCache.TILE_SIZE);
+			envelope = new Envelope(origin.x, origin.x + tileModelSize,
+					origin.y, topLeft.y);
+			envelope.expandBy(margin / scale);
+		}
+
+		public double getScale() {
+			return scale;
+		}
+
+		public AffineTransform getModelToViewTransform() {
+			return modelToViewTransform;
+		}
+
+		public Envelope getEnvelopeInModelCoordinates() {
+			return envelope;
+		}
+
+		public Point2D getOriginInModelCoordinates() {
+			return new Point2D.Double(origin.x, origin.y);
+		}
+	}
+}
@@ -0,0 +1,296 @@
+/*
+ * The Unified Mapping Platform (JUMP) is an extensible, interactive GUI for
+ * visualizing and manipulating spatial features with geometry and attributes.
+ *
+ * Copyright (C) 2003 Vivid Solutions
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+ * Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information, contact:
+ *
+ * Vivid Solutions Suite #1A 2328 Government Street Victoria BC V8T 5G5 Canada
+ *
+ * (250)385-6040 www.vividsolutions.com
+ */
+
+package com.vividsolutions.jump.workbench.ui.renderer;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.workbench.model.cache.ClosableIterator;
+import com.vividsolutions.jump.workbench.ui.Viewport;
+import com.vividsolutions.jump.workbench.ui.renderer.style.BasicStyle;
+import com.vividsolutions.jump.workbench.ui.renderer.style.ColorThemingStyle;
+import com.vividsolutions.jump.workbench.ui.renderer.style.Style;
+import com.vividsolutions.jump.workbench.ui.renderer.style.VertexStyle;
+
+/**
+ * Paints one Style for a collection of Features by splitting the panel into
+ * tiles and painting the tiles in parallel, each into its own image. Each
+ * tile is drawn into the ThreadSafeImage as soon as it is done, so the
+ * ThreadSafeImage is locked only briefly.
+ * <p>
+ * A Feature is painted in every tile it comes near, clipped to the tile, so
+ * the result looks the same as painting the Features in order directly.
+ * Styles are shared between the tiles, so only styles whose #paint does not
+ * modify the style can be tiled; see #isTileable.
+ */
+public class TiledRenderer {
+	public static final int TILE_SIZE = 256;
+
+	//Features are painted in each tile they come within this many pixels of,
+	//plus half the line width, so that strokes and point markers that spill
+	//over a tile edge are not cut off.
+	private static final int MARGIN = 4;
+
+	private ExecutorService executor;
+
+	private volatile boolean cancelled = false;
+
+	/**
+	 * @param executor
+	 *            the worker threads that paint the tiles
+	 */
+	public TiledRenderer(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @return whether the style can paint several Features at once
+	 */
+	public static boolean isTileable(Style style) {
+		return style instanceof BasicStyle
+				|| style instanceof ColorThemingStyle;
+	}
+
+	/**
+	 * @param levelOfDetail
+	 *            picks out the Features to leave out or draw as dots
+	 */
+	public void render(final ThreadSafeImage image, Collection features,
+			final Style style, final LevelOfDetail levelOfDetail,
+			final Viewport viewport, int width, int height) throws Exception {
+		int columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+		int rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+		List[] tileFeatures = assignToTiles(features, levelOfDetail, viewport,
+				columns, rows, margin(style));
+		if (tileFeatures == null) {
+			return;
+		}
+
+		CompletionService completionService = new ExecutorCompletionService(
+				executor);
+		List futures = new ArrayList();
+		for (int i = 0; i < tileFeatures.length; i++) {
+			if (tileFeatures[i] == null) {
+				continue;
+			}
+			final List featuresInTile = tileFeatures[i];
+			final int x = (i % columns) * TILE_SIZE;
+			final int y = (i / columns) * TILE_SIZE;
+			final int tileWidth = Math.min(TILE_SIZE, width - x);
+			final int tileHeight = Math.min(TILE_SIZE, height - y);
+			futures.add(completionService.submit(new Callable() {
+				public Object call() throws Exception {
+					return paintTile(featuresInTile, style, levelOfDetail,
+							viewport, x, y, tileWidth, tileHeight);
+				}
+			}));
+		}
+
+		try {
+			for (int i = 0; i < futures.size(); i++) {
+				final Tile tile = (Tile) completionService.take().get();
+				if (tile == null) {
+					//cancelled
+					continue;
+				}
+				image.draw(new ThreadSafeImage.Drawer() {
+					public void draw(Graphics2D g) throws Exception {
+						g.drawImage(tile.image, tile.x, tile.y, null);
+					}
+				});
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		} finally {
+			for (Iterator i = futures.iterator(); i.hasNext();) {
+				((Future) i.next()).cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * @return for each tile, the Features to paint in it in their original
+	 *         order, or null if there are none; or null if cancelled
+	 */
+	private List[] assignToTiles(Collection features,
+			LevelOfDetail levelOfDetail, Viewport viewport, int columns,
+			int rows, int margin) throws Exception {
+		List[] tileFeatures = new List[columns * rows];
+		AffineTransform transform = viewport.getModelToViewTransform();
+		Point2D.Double min = new Point2D.Double();
+		Point2D.Double max = new Point2D.Double();
+		Iterator i = features.iterator();
+		try {
+			while (i.hasNext()) {
+				Feature feature = (Feature) i.next();
+				if (cancelled) {
+					return null;
+				}
+				if (feature.getGeometry() == null
+						|| feature.getGeometry().isEmpty()) {
+					continue;
+				}
+				if (levelOfDetail.isSmall(feature)
+						&& !levelOfDetail.isDrawingDots()) {
+					continue;
+				}
+				Envelope envelope = feature.getGeometry().getEnvelopeInternal();
+				//The transform flips the y-axis, so the model's max y is the
+				//view's min y.
+				min.setLocation(envelope.getMinX(), envelope.getMaxY());
+				max.setLocation(envelope.getMaxX(), envelope.getMinY());
+				transform.transform(min, min);
+				transform.transform(max, max);
+				int firstColumn = Math.max(0, tile(min.x - margin));
+				int lastColumn = Math.min(columns - 1, tile(max.x + margin));
+				int firstRow = Math.max(0, tile(min.y - margin));
+				int lastRow = Math.min(rows - 1, tile(max.y + margin));
+				for (int row = firstRow; row <= lastRow; row++) {
+					for (int column = firstColumn; column <= lastColumn; column++) {
+						int index = (row * columns) + column;
+						if (tileFeatures[index] == null) {
+							tileFeatures[index] = new ArrayList();
+						}
+						tileFeatures[index].add(feature);
+					}
+				}
+			}
+		} finally {
+			//Give back a cancelled query's database connection now
+			if (i instanceof ClosableIterator) {
+				((ClosableIterator) i).close();
+			}
+		}
+		return tileFeatures;
+	}
+
+	private static int tile(double viewCoordinate) {
+		return (int) Math.floor(viewCoordinate / TILE_SIZE);
+	}
+
+	/**
+	 * @return how many pixels beyond a feature's envelope the given
+	 *         BasicStyle, ColorThemingStyle or VertexStyle may paint
+	 */
+	static int margin(Style style) {
+		int lineWidth = 0;
+		if (style instanceof VertexStyle) {
+			//a marker centred on each vertex, like a stroke of its size
+			lineWidth = ((VertexStyle) style).getSize();
+		} else if (style instanceof BasicStyle) {
+			lineWidth = ((BasicStyle) style).getLineWidth();
+		} else if (style instanceof ColorThemingStyle) {
+			ColorThemingStyle colorThemingStyle = (ColorThemingStyle) style;
+			if (colorThemingStyle.getDefaultStyle() != null) {
+				lineWidth = colorThemingStyle.getDefaultStyle().getLineWidth();
+			}
+			Map map = colorThemingStyle.getAttributeValueToBasicStyleMap();
+			for (Iterator i = map.values().iterator(); i.hasNext();) {
+				lineWidth = Math.max(lineWidth, ((BasicStyle) i.next())
+						.getLineWidth());
+			}
+		}
+		return MARGIN + ((lineWidth + 1) / 2);
+	}
+
+	/**
+	 * @return null if cancelled
+	 */
+	private Tile paintTile(List features, Style style,
+			LevelOfDetail levelOfDetail, Viewport viewport, int x, int y,
+			int width, int height) throws Exception {
+		if (cancelled) {
+			return null;
+		}
+		//Premultiplied alpha is faster to composite.
+		BufferedImage image = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_ARGB_PRE);
+		Graphics2D g = image.createGraphics();
+		try {
+			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+					RenderingHints.VALUE_ANTIALIAS_ON);
+			g.translate(-x, -y);
+			g.clipRect(x, y, width, height);
+			for (Iterator i = features.iterator(); i.hasNext();) {
+				if (cancelled) {
+					return null;
+				}
+				Feature feature = (Feature) i.next();
+				if (levelOfDetail.isSmall(feature)) {
+					levelOfDetail.paintDot(feature, g);
+					continue;
+				}
+				style.paint(feature, g, viewport);
+			}
+		} finally {
+			g.dispose();
+		}
+		return new Tile(image, x, y);
+	}
+
+	private static class Tile {
+		private BufferedImage image;
+
+		private int x;
+
+		private int y;
+
+		public Tile(BufferedImage image, int x, int y) {
+			this.image = image;
+			this.x = x;
+			this.y = y;
+		}
+	}
+}
@@ -34,14 +34,20 @@
 package com.vividsolutions.jump.workbench.ui.renderer.java2D;
 
 import java.awt.Shape;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.geom.Point2D.Double;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryCollection;
 import com.vividsolutions.jts.geom.LineString;
@@ -57,6 +63,22 @@ public class Java2DConverter {
 	private static double POINT_MARKER_SIZE = 3.0;
 	private PointConverter pointConverter;
 
+	//The paths returned by #toReusableShape, one pair per thread so that
+	//several threads can render at once
+	private static ThreadLocal areaPath = new ThreadLocal() {
+		protected Object initialValue() {
+			return new Path2D.Double(PathIterator.WIND_EVEN_ODD);
+		}
+	};
+	private static ThreadLocal linePath = new ThreadLocal() {
+		protected Object initialValue() {
+			return new GeneralPath();
+		}
+	};
+
+	//Geometry -> Shape, on threads that have called #startCaching
+	private ThreadLocal cache = new ThreadLocal();
+
 	public Java2DConverter(PointConverter pointConverter) {
 		this.pointConverter = pointConverter;
 	}
@@ -160,6 +182,154 @@ public class Java2DConverter {
 			throws NoninvertibleTransformException;
 	}
 
+	/**
+	 * A PointConverter whose conversion is an AffineTransform, which
+	 * #toReusableShape can apply to the coordinates directly.
+	 */
+	public static interface AffinePointConverter extends PointConverter {
+		public AffineTransform getModelToViewTransform()
+			throws NoninvertibleTransformException;
+	}
+
+	/**
+	 * Starts keeping, for this thread, a Shape for each Geometry painted, so
+	 * that the styles that paint a Geometry after the first can share its
+	 * Shape. Until #stopCaching, #toReusableShape returns new paths, as they
+	 * may be kept.
+	 *
+	 * @see #getCache
+	 */
+	public void startCaching() {
+		cache.set(new IdentityHashMap());
+	}
+
+	public void stopCaching() {
+		cache.set(null);
+	}
+
+	/**
+	 * @return the Shapes kept for this thread, by Geometry, or null if
+	 *         #startCaching has not been called
+	 */
+	public Map getCache() {
+		return (Map) cache.get();
+	}
+
+	/**
+	 * Like #toShape, but Polygons, MultiPolygons, LineStrings and
+	 * MultiLineStrings are converted into a path that is reused by the next
+	 * call on the same thread, and no objects are created per vertex. Use
+	 * this when the Shape is drawn straight away and then discarded, as when
+	 * rendering.
+	 */
+	public Shape toReusableShape(Geometry geometry)
+		throws NoninvertibleTransformException {
+		if (geometry.isEmpty()) {
+			return toShape(geometry);
+		}
+
+		boolean caching = getCache() != null;
+		if (geometry instanceof Polygon || geometry instanceof MultiPolygon) {
+			Path2D.Double path = caching
+				? new Path2D.Double(PathIterator.WIND_EVEN_ODD)
+				: (Path2D.Double) areaPath.get();
+			path.reset();
+			AffineTransform transform = modelToViewTransform();
+			for (int i = 0; i < geometry.getNumGeometries(); i++) {
+				Polygon polygon = (Polygon) geometry.getGeometryN(i);
+				append(polygon.getExteriorRing(), path, transform, true);
+				for (int j = 0; j < polygon.getNumInteriorRing(); j++) {
+					append(polygon.getInteriorRingN(j), path, transform, true);
+				}
+			}
+			return path;
+		}
+
+		if (geometry instanceof LineString
+				|| geometry instanceof MultiLineString) {
+			//A GeneralPath, as for #toShape, so that StyleUtil does not fill it
+			GeneralPath path = caching
+				? new GeneralPath()
+				: (GeneralPath) linePath.get();
+			path.reset();
+			AffineTransform transform = modelToViewTransform();
+			for (int i = 0; i < geometry.getNumGeometries(); i++) {
+				append((LineString) geometry.getGeometryN(i), path, transform,
+					false);
+			}
+			return path;
+		}
+
+		return toShape(geometry);
+	}
+
+	/**
+	 * @return null if the PointConverter is not an AffinePointConverter
+	 */
+	private AffineTransform modelToViewTransform()
+		throws NoninvertibleTransformException {
+		return pointConverter instanceof AffinePointConverter
+			? ((AffinePointConverter) pointConverter).getModelToViewTransform()
+			: null;
+	}
+
+	/**
+	 * Rounds the view coordinates, as #toViewPoint does, and leaves out
+	 * vertices that round to the same pixel as the one before, which when
+	 * zoomed out on detailed geometries is most of them.
+	 */
+	private void append(LineString lineString, Path2D path,
+		AffineTransform transform, boolean closed)
+		throws NoninvertibleTransformException {
+		CoordinateSequence coordinates = lineString.getCoordinateSequence();
+		if (coordinates.size() == 0) {
+			return;
+		}
+		double m00 = 0, m01 = 0, m02 = 0, m10 = 0, m11 = 0, m12 = 0;
+		if (transform != null) {
+			m00 = transform.getScaleX();
+			m01 = transform.getShearX();
+			m02 = transform.getTranslateX();
+			m10 = transform.getShearY();
+			m11 = transform.getScaleY();
+			m12 = transform.getTranslateY();
+		}
+		double lastX = 0;
+		double lastY = 0;
+		int last = coordinates.size() - 1;
+		boolean segmentAdded = false;
+		for (int i = 0; i <= last; i++) {
+			double viewX;
+			double viewY;
+			if (transform == null) {
+				Point2D viewPoint = toViewPoint(coordinates.getCoordinate(i));
+				viewX = viewPoint.getX();
+				viewY = viewPoint.getY();
+			} else {
+				double x = coordinates.getX(i);
+				double y = coordinates.getY(i);
+				viewX = Math.round((m00 * x) + (m01 * y) + m02);
+				viewY = Math.round((m10 * x) + (m11 * y) + m12);
+			}
+			if (i == 0) {
+				path.moveTo(viewX, viewY);
+			} else if (viewX != lastX || viewY != lastY) {
+				path.lineTo(viewX, viewY);
+				segmentAdded = true;
+			} else if (i == last && !closed && !segmentAdded) {
+				//Keep a line that falls in one pixel, as #toShape does
+				path.lineTo(viewX, viewY);
+			} else {
+				continue;
+			}
+			lastX = viewX;
+			lastY = viewY;
+		}
+		if (closed) {
+			path.closePath();
+		}
+	}
+
 	/**
 	 * If you pass in a general GeometryCollection, note that a Shape cannot
 	 * preserve information about which elements are 1D and which are 2D.
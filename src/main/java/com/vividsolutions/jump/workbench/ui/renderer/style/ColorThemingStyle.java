@@ -39,6 +39,7 @@ import javax.swing.Icon;
 import com.vividsolutions.jts.util.Assert;
 import com.vividsolutions.jump.feature.Feature;
 import com.vividsolutions.jump.feature.FeatureSchema;
+import com.vividsolutions.jump.util.Range;
 import com.vividsolutions.jump.workbench.model.Layer;
 import com.vividsolutions.jump.workbench.ui.GUIUtil;
 import com.vividsolutions.jump.workbench.ui.Viewport;
@@ -87,31 +88,14 @@ public class ColorThemingStyle implements Style {
 			throws Exception {
 		getStyle(f).paint(f, g, viewport);
 	}
-	private BasicStyle getStyle(Feature feature) {
-		//Attribute name will be null if a layer has only a spatial attribute.
-		// [Jon Aquino]
-		//If we can't find an attribute with this name, just use the
-		//defaultStyle. The attribute may have been deleted. [Jon Aquino]
-		// If the attribute data type for color theming has been changed -
-		// throws multiple exceptions and the layer dissappears due to the 
-		// fact that it can't find the style in the valuetobasicstyle map.
-		// Solved here by catching the exception and returning the default style 
-		// (just like when the attribute name has been changed). [Ed Deen]
-		BasicStyle style = null;
-		try {
-				style = attributeName != null
-					&& feature.getSchema().hasAttribute(attributeName)
-					&& feature.getAttribute(attributeName) != null ? (BasicStyle) attributeValueToBasicStyleMap
-							.get(trimIfString(feature.getAttribute(attributeName)))
-							: defaultStyle;
+	public BasicStyle getStyle(Feature feature) {
+		Lookup lookup = this.lookup;
+		if (lookup == null) {
+			lookup = new Lookup(attributeName, attributeValueToBasicStyleMap,
+					defaultStyle);
+			this.lookup = lookup;
 		}
-		catch (ClassCastException e)
-		{
-			// Do Nothing
-		}; /*try*/
-		
-		return style == null ? defaultStyle : style;
-		
+		return lookup.getStyle(feature);
 	}
 	public static Object trimIfString(Object object) {
 		return object != null && object instanceof String ? ((String) object)
@@ -120,6 +104,9 @@ public class ColorThemingStyle implements Style {
 	private Layer layer;
 	private Map attributeValueToBasicStyleMap = new HashMap();
 	private String attributeName;
+	//Compiled from the above by #initialize, before each render, as the
+	//map's contents may have been changed.
+	private volatile Lookup lookup = null;
 	public Object clone() {
 		try {
 			ColorThemingStyle clone = (ColorThemingStyle) super.clone();
@@ -134,6 +121,7 @@ public class ColorThemingStyle implements Style {
 								.get(attribute)).clone());
 			}
 			clone.attributeValueToBasicStyleMap = mapClone;
+			clone.lookup = null;
 			return clone;
 		} catch (InstantiationException e) {
 			Assert.shouldNeverReachHere();
@@ -160,9 +148,11 @@ public class ColorThemingStyle implements Style {
 	 */
 	public void setAttributeValueToBasicStyleMap(Map attributeValueToStyleMap) {
 		this.attributeValueToBasicStyleMap = attributeValueToStyleMap;
+		lookup = null;
 	}
 	public void setAttributeName(String attributeName) {
 		this.attributeName = attributeName;
+		lookup = null;
 	}
 	public Map getAttributeValueToBasicStyleMap() {
 		return attributeValueToBasicStyleMap;
@@ -170,6 +160,8 @@ public class ColorThemingStyle implements Style {
 	private boolean enabled = false;
 	public void initialize(Layer layer) {
 		this.layer = layer;
+		lookup = new Lookup(attributeName, attributeValueToBasicStyleMap,
+				defaultStyle);
 	}
 	public void setEnabled(boolean enabled) {
 		this.enabled = enabled;
@@ -200,5 +192,103 @@ public class ColorThemingStyle implements Style {
 	}
 	public void setDefaultStyle(BasicStyle defaultStyle) {
 		this.defaultStyle = defaultStyle;
+		lookup = null;
+	}
+	/**
+	 * Finds the BasicStyle for a feature by the index of the attribute rather
+	 * than its name, and for ranges by binary search over an array rather
+	 * than through a RangeTreeMap, which wraps the value in a new Range for
+	 * each comparison.
+	 */
+	private static class Lookup {
+		private String attributeName;
+		private Map attributeValueToBasicStyleMap;
+		private BasicStyle defaultStyle;
+		//Sorted; null unless the keys are Ranges
+		private Range[] ranges = null;
+		private BasicStyle[] rangeStyles;
+		//The features of a layer normally share one schema
+		private volatile AttributeIndex attributeIndex = null;
+		public Lookup(String attributeName, Map attributeValueToBasicStyleMap,
+				BasicStyle defaultStyle) {
+			this.attributeName = attributeName;
+			this.attributeValueToBasicStyleMap = attributeValueToBasicStyleMap;
+			this.defaultStyle = defaultStyle;
+			//As the UI does, test only the first key for a Range.
+			if (attributeValueToBasicStyleMap instanceof SortedMap
+					&& !attributeValueToBasicStyleMap.isEmpty()
+					&& attributeValueToBasicStyleMap.keySet().iterator().next() instanceof Range) {
+				ranges = (Range[]) attributeValueToBasicStyleMap.keySet()
+						.toArray(new Range[0]);
+				rangeStyles = new BasicStyle[ranges.length];
+				for (int i = 0; i < ranges.length; i++) {
+					rangeStyles[i] = (BasicStyle) attributeValueToBasicStyleMap
+							.get(ranges[i]);
+				}
+			}
+		}
+		public BasicStyle getStyle(Feature feature) {
+			//Attribute name will be null if a layer has only a spatial attribute.
+			// [Jon Aquino]
+			if (attributeName == null) {
+				return defaultStyle;
+			}
+			AttributeIndex attributeIndex = this.attributeIndex;
+			if (attributeIndex == null
+					|| attributeIndex.schema != feature.getSchema()) {
+				attributeIndex = new AttributeIndex(feature.getSchema(),
+						attributeName);
+				this.attributeIndex = attributeIndex;
+			}
+			if (attributeIndex.index == -1) {
+				//If we can't find an attribute with this name, just use the
+				//defaultStyle. The attribute may have been deleted. [Jon Aquino]
+				return defaultStyle;
+			}
+			Object value = trimIfString(feature
+					.getAttribute(attributeIndex.index));
+			if (value == null) {
+				return defaultStyle;
+			}
+			BasicStyle style = null;
+			try {
+				style = ranges != null ? rangeStyle(value)
+						: (BasicStyle) attributeValueToBasicStyleMap
+								.get(value);
+			} catch (ClassCastException e) {
+				// If the attribute data type for color theming has been changed -
+				// throws multiple exceptions and the layer dissappears due to the 
+				// fact that it can't find the style in the valuetobasicstyle map.
+				// Solved here by catching the exception and returning the default style 
+				// (just like when the attribute name has been changed). [Ed Deen]
+			}
+			return style == null ? defaultStyle : style;
+		}
+		private BasicStyle rangeStyle(Object value) {
+			int low = 0;
+			int high = ranges.length - 1;
+			while (low <= high) {
+				int middle = (low + high) >>> 1;
+				int location = ranges[middle].locate(value);
+				if (location < 0) {
+					high = middle - 1;
+				} else if (location > 0) {
+					low = middle + 1;
+				} else {
+					return rangeStyles[middle];
+				}
+			}
+			return null;
+		}
+	}
+	private static class AttributeIndex {
+		private FeatureSchema schema;
+		//-1 if the schema has no such attribute
+		private int index;
+		public AttributeIndex(FeatureSchema schema, String attributeName) {
+			this.schema = schema;
+			this.index = schema.hasAttribute(attributeName) ? schema
+					.getAttributeIndex(attributeName) : -1;
+		}
 	}
 }
\ No newline at end of file
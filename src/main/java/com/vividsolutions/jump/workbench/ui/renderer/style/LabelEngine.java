@@ -0,0 +1,247 @@
+/*
+ * The Unified Mapping Platform (JUMP) is an extensible, interactive GUI
+ * for visualizing and manipulating spatial features with geometry and attributes.
+ *
+ * Copyright (C) 2003 Vivid Solutions
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * For more information, contact:
+ *
+ * Vivid Solutions
+ * Suite #1A
+ * 2328 Government Street
+ * Victoria BC  V8T 5G5
+ * Canada
+ *
+ * (250)385-6040
+ * www.vividsolutions.com
+ */
+package com.vividsolutions.jump.workbench.ui.renderer.style;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.font.FontRenderContext;
+import java.awt.font.TextLayout;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Places labels so that they do not overlap: the labels with the highest
+ * priority are placed first, each at the first of its candidate positions
+ * that is clear of the labels already placed. Placed labels are kept in a
+ * grid of view-space cells, so that a label is only tested against the
+ * labels near it.
+ * <p>
+ * Also keeps the TextLayouts of recently drawn labels, as they are slow to
+ * create.
+ */
+public class LabelEngine {
+    //In pixels
+    private static final int CELL_SIZE = 64;
+    private static final int MAX_CACHED_TEXT_LAYOUTS = 4096;
+    private static Map textLayoutCache = new LinkedHashMap(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry eldest) {
+            return size() > MAX_CACHED_TEXT_LAYOUTS;
+        }
+    };
+    //Cell key -> List of Labels
+    private Map grid = new HashMap();
+    /**
+     * @return a TextLayout for the text, shared with other labels drawn with
+     * the same text, font and FontRenderContext
+     */
+    public static TextLayout textLayout(String text, Font font,
+        FontRenderContext fontRenderContext) {
+        List key = new ArrayList(3);
+        key.add(text);
+        key.add(font);
+        key.add(fontRenderContext);
+        synchronized (textLayoutCache) {
+            TextLayout layout = (TextLayout) textLayoutCache.get(key);
+            if (layout == null) {
+                layout = new TextLayout(text, font, fontRenderContext);
+                textLayoutCache.put(key, layout);
+            }
+            return layout;
+        }
+    }
+    /**
+     * Places each Candidate at its first position that does not overlap a
+     * label already placed, highest priority first, leaving it out if there
+     * is none.
+     * @param candidates Candidates, in the order to place those of equal
+     * priority
+     * @return the placed Labels
+     */
+    public List place(List candidates) {
+        List sortedCandidates = new ArrayList(candidates);
+        //Stable, so features of equal priority keep their order
+        Collections.sort(sortedCandidates, new Comparator() {
+            public int compare(Object a, Object b) {
+                return Double.compare(((Candidate) b).priority,
+                    ((Candidate) a).priority);
+            }
+        });
+        List labels = new ArrayList();
+        for (Iterator i = sortedCandidates.iterator(); i.hasNext();) {
+            Candidate candidate = (Candidate) i.next();
+            for (int j = 0; j < candidate.positions.length; j++) {
+                if (add(candidate.positions[j])) {
+                    labels.add(candidate.positions[j]);
+                    break;
+                }
+            }
+        }
+        return labels;
+    }
+    /**
+     * @return false, leaving the label out, if it overlaps a label already
+     * added
+     */
+    public boolean add(Label label) {
+        Rectangle2D bounds = label.bounds;
+        int minColumn = cell(bounds.getMinX());
+        int maxColumn = cell(bounds.getMaxX());
+        int minRow = cell(bounds.getMinY());
+        int maxRow = cell(bounds.getMaxY());
+        for (int column = minColumn; column <= maxColumn; column++) {
+            for (int row = minRow; row <= maxRow; row++) {
+                List cellLabels = (List) grid.get(key(column, row));
+                if (cellLabels == null) {
+                    continue;
+                }
+                for (Iterator i = cellLabels.iterator(); i.hasNext();) {
+                    if (((Label) i.next()).overlaps(label)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        for (int column = minColumn; column <= maxColumn; column++) {
+            for (int row = minRow; row <= maxRow; row++) {
+                Long key = key(column, row);
+                List cellLabels = (List) grid.get(key);
+                if (cellLabels == null) {
+                    cellLabels = new ArrayList(4);
+                    grid.put(key, cellLabels);
+                }
+                cellLabels.add(label);
+            }
+        }
+        return true;
+    }
+    private static int cell(double viewCoordinate) {
+        return (int) Math.floor(viewCoordinate / CELL_SIZE);
+    }
+    private static Long key(int column, int row) {
+        return new Long(((long) column << 32) | (row & 0xFFFFFFFFL));
+    }
+    /**
+     * A label with its text's layout and the transform that takes it to its
+     * place in the view.
+     */
+    public static class Label {
+        private TextLayout layout;
+        private AffineTransform transform;
+        //The corners of the text's bounds in the view: x0, y0, ... x3, y3
+        private double[] corners = new double[8];
+        private Rectangle2D bounds;
+        public Label(TextLayout layout, AffineTransform transform) {
+            this.layout = layout;
+            this.transform = transform;
+            Rectangle2D textBounds = layout.getBounds();
+            transform.transform(new double[] {
+                    textBounds.getMinX(), textBounds.getMinY(),
+                    textBounds.getMaxX(), textBounds.getMinY(),
+                    textBounds.getMaxX(), textBounds.getMaxY(),
+                    textBounds.getMinX(), textBounds.getMaxY()}, 0, corners, 0, 4);
+            bounds = new Rectangle2D.Double(corners[0], corners[1], 0, 0);
+            for (int i = 2; i < 8; i += 2) {
+                bounds.add(corners[i], corners[i + 1]);
+            }
+        }
+        public void draw(Graphics2D g) {
+            AffineTransform originalTransform = g.getTransform();
+            try {
+                g.transform(transform);
+                layout.draw(g, 0, 0);
+            } finally {
+                g.setTransform(originalTransform);
+            }
+        }
+        /**
+         * @return whether the text bounds intersect, which as they are
+         * parallelograms is when no edge of either separates them
+         */
+        public boolean overlaps(Label other) {
+            if (!bounds.intersects(other.bounds)) {
+                return false;
+            }
+            return !separates(this, other) && !separates(other, this);
+        }
+        private static boolean separates(Label a, Label b) {
+            for (int i = 0; i < 4; i++) {
+                int j = (i + 1) % 4;
+                //The edge's normal
+                double nx = a.corners[(2 * j) + 1] - a.corners[(2 * i) + 1];
+                double ny = a.corners[2 * i] - a.corners[2 * j];
+                double aMin = Double.POSITIVE_INFINITY;
+                double aMax = Double.NEGATIVE_INFINITY;
+                double bMin = Double.POSITIVE_INFINITY;
+                double bMax = Double.NEGATIVE_INFINITY;
+                for (int k = 0; k < 4; k++) {
+                    double aProjection = (nx * a.corners[2 * k])
+                        + (ny * a.corners[(2 * k) + 1]);
+                    aMin = Math.min(aMin, aProjection);
+                    aMax = Math.max(aMax, aProjection);
+                    double bProjection = (nx * b.corners[2 * k])
+                        + (ny * b.corners[(2 * k) + 1]);
+                    bMin = Math.min(bMin, bProjection);
+                    bMax = Math.max(bMax, bProjection);
+                }
+                //Touching labels do not overlap, as with Area#intersect
+                if ((bMin >= aMax) || (aMin >= bMax)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+    /**
+     * The positions at which a feature's label may be placed, best first.
+     */
+    public static class Candidate {
+        private double priority;
+        private Label[] positions;
+        /**
+         * @param priority candidates with a higher priority are placed first
+         */
+        public Candidate(double priority, Label[] positions) {
+            this.priority = priority;
+            this.positions = positions;
+        }
+        public Label[] getPositions() {
+            return positions;
+        }
+    }
+}
@@ -33,14 +33,16 @@ package com.vividsolutions.jump.workbench.ui.renderer.style;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics2D;
-import java.awt.Shape;
+import java.awt.font.FontRenderContext;
 import java.awt.font.TextLayout;
 import java.awt.geom.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
 import com.vividsolutions.jts.geom.*;
-import com.vividsolutions.jts.index.quadtree.Quadtree;
 import com.vividsolutions.jts.util.Assert;
 import com.vividsolutions.jump.feature.Feature;
 import com.vividsolutions.jump.geom.Angle;
@@ -62,7 +64,10 @@ public class LabelStyle implements Style {
     private Layer layer;
     private Geometry viewportRectangle = null;
     private InteriorPointFinder interiorPointFinder = new InteriorPointFinder();
-    private Quadtree labelsDrawn = null;
+    private LabelEngine labelEngine = null;
+    //The labels placed by the last #paint(Collection, ...), reused until the
+    //view or the labels' text, geometries or settings change
+    private Placement placement = null;
     private String attribute = LabelStyle.FID_COLUMN;
     private String angleAttribute = ""; //"" means no angle attribute [Jon Aquino]
     private String heightAttribute = ""; //"" means no height attribute [Jon Aquino]
@@ -75,7 +80,7 @@ public class LabelStyle implements Style {
     public String verticalAlignment = ABOVE_LINE;
     public LabelStyle() {}
     public void initialize(Layer layer) {
-        labelsDrawn = new Quadtree();
+        labelEngine = new LabelEngine();
         viewportRectangle = null;
         //Set the vertices' fill colour to the layer's line colour
         this.layer = layer;
@@ -86,21 +91,156 @@ public class LabelStyle implements Style {
         if ((attribute == null) || (attribute.toString().length() == 0)) {
             return;
         }
-        Geometry viewportIntersection = intersection(f.getGeometry(), viewport);
-        if (viewportIntersection == null) {
+        LabelEngine.Candidate candidate = candidate(f, attribute.toString(),
+            angle(f, getAngleAttribute(), Double.NaN),
+            height(f, getHeightAttribute(), getHeight()), viewport,
+            g.getFontRenderContext());
+        if (candidate == null) {
             return;
         }
+        draw(g, isHidingOverlappingLabels()
+            ? labelEngine.place(Collections.singletonList(candidate))
+            : Collections.singletonList(candidate.getPositions()[0]));
+    }
+
+    /**
+     * Labels the features in one pass, placing the labels of the largest
+     * features first, each at the first of its candidate positions that is
+     * clear of the labels already placed. The placement is reused while the
+     * view, the features' labels and geometries, and this style's settings
+     * stay the same, until #featuresChanged is called.
+     */
+    public synchronized void paint(Collection features, Graphics2D g,
+        Viewport viewport) throws NoninvertibleTransformException {
+        //Copied, as the Placement goes through the features twice, and some
+        //collections (e.g. of a datastore layer) query afresh on each
+        //#iterator, so their size and order can change in between.
+        features = new ArrayList(features);
+        Placement newPlacement = new Placement(features, viewport,
+            g.getFontRenderContext());
+        if ((placement == null) || !placement.matches(newPlacement)) {
+            newPlacement.place(features, viewport);
+            placement = newPlacement;
+        }
+        draw(g, placement.labels);
+    }
+
+    /**
+     * Called by the Layer when its Features have changed, so that the labels
+     * are placed afresh. Some tools edit Geometries in place, which the
+     * placement cannot always detect.
+     */
+    public synchronized void featuresChanged() {
+        placement = null;
+    }
+
+    private void draw(Graphics2D g, List labels) {
+        setup(g);
+        try {
+            g.setColor(getColor());
+            for (Iterator i = labels.iterator(); i.hasNext();) {
+                ((LabelEngine.Label) i.next()).draw(g);
+            }
+        } finally {
+            cleanup(g);
+        }
+    }
+
+    /**
+     * @param angle NaN to use the angle of the feature's geometry
+     * @return the positions at which the feature's label may go, or null if
+     * the feature is not in view
+     */
+    private LabelEngine.Candidate candidate(Feature f, String text,
+        double angle, double height, Viewport viewport,
+        FontRenderContext fontRenderContext)
+        throws NoninvertibleTransformException {
+        if (f.getGeometry() == null) {
+            return null;
+        }
+        Geometry viewportIntersection = intersection(f.getGeometry(), viewport);
+        if ((viewportIntersection == null) || viewportIntersection.isEmpty()) {
+            return null;
+        }
         ModelSpaceLabelSpec spec = modelSpaceLabelSpec(viewportIntersection);
-        Point2D labelCentreInViewSpace =
+        Point2D viewCentre =
             viewport.toViewPoint(new Point2D.Double(spec.location.x, spec.location.y));
-        paint(
-            g,
-            attribute.toString(),
-            viewport.getScale(),
-            labelCentreInViewSpace,
-            angle(f, getAngleAttribute(), spec.angle),
-            height(f, getHeightAttribute(), getHeight()),
-            spec.linear);
+        if (Double.isNaN(angle)) {
+            angle = spec.angle;
+        }
+        double scale = scale(height, viewport.getScale());
+        TextLayout layout =
+            LabelEngine.textLayout(text, getFont(), fontRenderContext);
+        List positions = new ArrayList();
+        positions.add(label(layout, viewCentre, scale, angle, spec.linear,
+            getVerticalAlignment()));
+        if (isHidingOverlappingLabels()) {
+            addAlternativePositions(positions, layout, viewCentre, scale, angle,
+                spec.linear, viewportIntersection.getDimension() == 0);
+        }
+        return new LabelEngine.Candidate(priority(viewportIntersection),
+            (LabelEngine.Label[]) positions.toArray(new LabelEngine.Label[0]));
+    }
+
+    private void addAlternativePositions(List positions, TextLayout layout,
+        Point2D viewCentre, double scale, double angle, boolean linear,
+        boolean point) {
+        if (linear) {
+            //The other side of the line
+            if (getVerticalAlignment().equals(ABOVE_LINE)) {
+                positions.add(label(layout, viewCentre, scale, angle, linear,
+                    BELOW_LINE));
+            } else if (getVerticalAlignment().equals(BELOW_LINE)) {
+                positions.add(label(layout, viewCentre, scale, angle, linear,
+                    ABOVE_LINE));
+            }
+            return;
+        }
+        if (!point) {
+            //Keep polygon labels inside their polygons
+            return;
+        }
+        //Diagonally off the point, as is usual on maps
+        double gap = 3;
+        double dx = (scale * layout.getBounds().getWidth() / 2d) + gap;
+        double dy = (scale * layout.getBounds().getHeight() / 2d) + gap;
+        double[] signs = { 1, -1, -1, -1, 1, 1, -1, 1 };
+        for (int i = 0; i < signs.length; i += 2) {
+            positions.add(label(layout,
+                new Point2D.Double(viewCentre.getX() + (signs[i] * dx),
+                    viewCentre.getY() + (signs[i + 1] * dy)), scale, angle,
+                linear, getVerticalAlignment()));
+        }
+    }
+
+    private LabelEngine.Label label(TextLayout layout, Point2D viewCentre,
+        double scale, double angle, boolean linear, String verticalAlignment) {
+        AffineTransform transform = new AffineTransform();
+        configureTransform(transform, viewCentre, scale, layout, angle, linear,
+            verticalAlignment);
+        return new LabelEngine.Label(layout, transform);
+    }
+
+    /**
+     * Larger features are labelled first: polygons by area, lines by their
+     * longest segment, which is where the label goes.
+     */
+    private double priority(Geometry viewportIntersection) {
+        if (viewportIntersection.getDimension() == 2) {
+            return viewportIntersection.getArea();
+        }
+        if (viewportIntersection.getDimension() == 1) {
+            return longestSegment(viewportIntersection).getLength();
+        }
+        return 0;
+    }
+
+    private double scale(double height, double viewportScale) {
+        double scale = height / getFont().getSize2D();
+        if (isScaling()) {
+            scale *= viewportScale;
+        }
+        return scale;
     }
 
     /**
@@ -204,56 +344,14 @@ public class LabelStyle implements Style {
         double angle,
         double height,
         boolean linear) {
-        setup(g);
-        try {
-            double scale = height / getFont().getSize2D();
-            if (isScaling()) {
-                scale *= viewportScale;
-            }
-            g.setColor(getColor());
-            TextLayout layout = new TextLayout(text, getFont(), g.getFontRenderContext());
-            AffineTransform transform = g.getTransform();
-            configureTransform(transform, viewCentre, scale, layout, angle, linear);
-            g.setTransform(transform);
-            if (isHidingOverlappingLabels()) {
-                Area transformedLabelBounds =
-                    new Area(layout.getBounds()).createTransformedArea(transform);
-                Envelope transformedLabelBoundsEnvelope =
-                    envelope(transformedLabelBounds);
-                if (collidesWithExistingLabel(transformedLabelBounds,
-                    transformedLabelBoundsEnvelope)) {
-                    return;
-                }
-                labelsDrawn.insert(
-                    transformedLabelBoundsEnvelope,
-                    transformedLabelBounds);
-            }
-            layout.draw(g, 0, 0);
-        } finally {
-            cleanup(g);
-        }
-    }
-    private Envelope envelope(Shape shape) {
-        Rectangle2D bounds = shape.getBounds2D();
-        return new Envelope(
-            bounds.getMinX(),
-            bounds.getMaxX(),
-            bounds.getMinY(),
-            bounds.getMaxY());
-    }
-    private boolean collidesWithExistingLabel(
-        Area transformedLabelBounds,
-        Envelope transformedLabelBoundsEnvelope) {
-        List potentialCollisions = labelsDrawn.query(transformedLabelBoundsEnvelope);
-        for (Iterator i = potentialCollisions.iterator(); i.hasNext();) {
-            Area potentialCollision = (Area) i.next();
-            Area intersection = new Area(potentialCollision);
-            intersection.intersect(transformedLabelBounds);
-            if (!intersection.isEmpty()) {
-                return true;
-            }
+        LabelEngine.Label label = label(
+            LabelEngine.textLayout(text, getFont(), g.getFontRenderContext()),
+            viewCentre, scale(height, viewportScale), angle, linear,
+            getVerticalAlignment());
+        if (isHidingOverlappingLabels() && !labelEngine.add(label)) {
+            return;
         }
-        return false;
+        draw(g, Collections.singletonList(label));
     }
     private void setup(Graphics2D g) {
         originalTransform = g.getTransform();
@@ -300,14 +398,16 @@ public class LabelStyle implements Style {
         double scale,
         TextLayout layout,
         double angle,
-        boolean linear) {
+        boolean linear,
+        String verticalAlignment) {
         double xTranslation =
             viewCentre.getX() - ((scale * layout.getBounds().getWidth()) / 2d);
         double yTranslation =
             viewCentre.getY() + ((scale * GUIUtil.trueAscent(layout)) / 2d);
         if (linear) {
             yTranslation
-                -= verticalAlignmentOffset(scale * layout.getBounds().getHeight());
+                -= verticalAlignmentOffset(scale * layout.getBounds().getHeight(),
+                    verticalAlignment);
         }
         //Negate the angle because the positive y-axis points downwards.
         //See the #rotate JavaDoc. [Jon Aquino]
@@ -315,8 +415,9 @@ public class LabelStyle implements Style {
         transform.translate(xTranslation, yTranslation);
         transform.scale(scale, scale);
     }
-    private double verticalAlignmentOffset(double scaledLabelHeight) {
-        if (getVerticalAlignment().equals(ON_LINE)) {
+    private double verticalAlignmentOffset(double scaledLabelHeight,
+        String verticalAlignment) {
+        if (verticalAlignment.equals(ON_LINE)) {
             return 0;
         }
         double buffer = 3;
@@ -324,10 +425,10 @@ public class LabelStyle implements Style {
             buffer
                 + (layer.getBasicStyle().getLineWidth() / 2d)
                 + (scaledLabelHeight / 2d);
-        if (getVerticalAlignment().equals(ABOVE_LINE)) {
+        if (verticalAlignment.equals(ABOVE_LINE)) {
             return offset;
         }
-        if (getVerticalAlignment().equals(BELOW_LINE)) {
+        if (verticalAlignment.equals(BELOW_LINE)) {
             return -offset;
         }
         Assert.shouldNeverReachHere();
@@ -395,12 +496,116 @@ public class LabelStyle implements Style {
     }
     public Object clone() {
         try {
-            return super.clone();
+            LabelStyle clone = (LabelStyle) super.clone();
+            clone.placement = null;
+            return clone;
         } catch (CloneNotSupportedException e) {
             Assert.shouldNeverReachHere();
             return null;
         }
     }
+    /**
+     * Labels placed for a view, with what they were placed for.
+     */
+    private class Placement {
+        private AffineTransform modelToViewTransform;
+        private int width;
+        private int height;
+        private FontRenderContext fontRenderContext;
+        private List settings = new ArrayList();
+        private int[] ids;
+        private Geometry[] geometries;
+        //Copies, as a Geometry may be changed in place
+        private Envelope[] envelopes;
+        private String[] texts;
+        //NaN where there is no angle attribute value
+        private double[] angles;
+        private double[] heights;
+        private List labels;
+        public Placement(Collection features, Viewport viewport,
+            FontRenderContext fontRenderContext)
+            throws NoninvertibleTransformException {
+            modelToViewTransform = viewport.getModelToViewTransform();
+            width = viewport.getPanel().getWidth();
+            height = viewport.getPanel().getHeight();
+            this.fontRenderContext = fontRenderContext;
+            settings.add(getAttribute());
+            settings.add(getAngleAttribute());
+            settings.add(getHeightAttribute());
+            settings.add(getFont());
+            settings.add(Boolean.valueOf(isScaling()));
+            settings.add(new Double(getHeight()));
+            settings.add(Boolean.valueOf(isHidingOverlappingLabels()));
+            settings.add(getVerticalAlignment());
+            settings.add(new Double(layer.getBasicStyle().getLineWidth()));
+            ids = new int[features.size()];
+            geometries = new Geometry[ids.length];
+            envelopes = new Envelope[ids.length];
+            texts = new String[ids.length];
+            angles = new double[ids.length];
+            heights = new double[ids.length];
+            int j = 0;
+            for (Iterator i = features.iterator(); i.hasNext(); j++) {
+                Feature feature = (Feature) i.next();
+                Object attribute = getAttributeValue(feature);
+                ids[j] = feature.getID();
+                geometries[j] = feature.getGeometry();
+                envelopes[j] = geometries[j] == null ? new Envelope()
+                    : new Envelope(geometries[j].getEnvelopeInternal());
+                texts[j] = attribute == null ? "" : attribute.toString();
+                angles[j] = angle(feature, getAngleAttribute(), Double.NaN);
+                heights[j] = height(feature, getHeightAttribute(), getHeight());
+            }
+        }
+        public boolean matches(Placement other) {
+            if (!modelToViewTransform.equals(other.modelToViewTransform)
+                || (width != other.width) || (height != other.height)
+                || !fontRenderContext.equals(other.fontRenderContext)
+                || !settings.equals(other.settings)
+                || (ids.length != other.ids.length)) {
+                return false;
+            }
+            for (int i = 0; i < ids.length; i++) {
+                //A Geometry changed in place keeps its identity, and moving
+                //a vertex need not change its envelope, so the Layer also
+                //calls #featuresChanged.
+                if ((ids[i] != other.ids[i])
+                    || (geometries[i] != other.geometries[i])
+                    || !envelopes[i].equals(other.envelopes[i])
+                    || !texts[i].equals(other.texts[i])
+                    || (Double.compare(angles[i], other.angles[i]) != 0)
+                    || (heights[i] != other.heights[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        public void place(Collection features, Viewport viewport)
+            throws NoninvertibleTransformException {
+            viewportRectangle = null;
+            List candidates = new ArrayList();
+            int j = 0;
+            for (Iterator i = features.iterator(); i.hasNext(); j++) {
+                Feature feature = (Feature) i.next();
+                if (texts[j].length() == 0) {
+                    continue;
+                }
+                LabelEngine.Candidate candidate = candidate(feature, texts[j],
+                    angles[j], heights[j], viewport, fontRenderContext);
+                if (candidate != null) {
+                    candidates.add(candidate);
+                }
+            }
+            if (isHidingOverlappingLabels()) {
+                labels = new LabelEngine().place(candidates);
+                return;
+            }
+            labels = new ArrayList();
+            for (Iterator i = candidates.iterator(); i.hasNext();) {
+                labels.add(((LabelEngine.Candidate) i.next()).getPositions()[0]);
+            }
+        }
+    }
     private class ModelSpaceLabelSpec {
         public double angle;
         public Coordinate location;
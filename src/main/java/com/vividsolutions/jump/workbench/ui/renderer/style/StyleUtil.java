@@ -44,6 +44,9 @@ import java.awt.*;
 import java.awt.*;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.NoninvertibleTransformException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
 
 
 public class StyleUtil {
@@ -90,7 +93,46 @@ public class StyleUtil {
         }
     }
 
-    private static Shape toShape(Geometry geometry, Viewport viewport)
+    /**
+     * @return whether more than one of the styles paints with the Shapes
+     * from #toShape, so that it is worth converting each Geometry only once;
+     * see Java2DConverter#startCaching
+     */
+    public static boolean isSharingShapes(Collection styles) {
+        int count = 0;
+        for (Iterator i = styles.iterator(); i.hasNext();) {
+            Style style = (Style) i.next();
+            if (style.isEnabled()
+                    && (style instanceof BasicStyle
+                    || style instanceof ColorThemingStyle
+                    || style instanceof VertexStyle)) {
+                count++;
+            }
+        }
+        return count > 1;
+    }
+
+    /**
+     * @return the Geometry, which must not be a general GeometryCollection,
+     * in view coordinates, clipped near the viewport. Unless the
+     * Java2DConverter is caching, the Shape is reused by the next call on the
+     * same thread.
+     */
+    public static Shape toShape(Geometry geometry, Viewport viewport)
+        throws NoninvertibleTransformException {
+        Map cache = viewport.getJava2DConverter().getCache();
+        if (cache == null) {
+            return toUncachedShape(geometry, viewport);
+        }
+        Shape shape = (Shape) cache.get(geometry);
+        if (shape == null) {
+            shape = toUncachedShape(geometry, viewport);
+            cache.put(geometry, shape);
+        }
+        return shape;
+    }
+
+    private static Shape toUncachedShape(Geometry geometry, Viewport viewport)
         throws NoninvertibleTransformException {
         //At high magnifications, Java rendering can be sped up by clipping
         //the Geometry to only that portion visible inside the viewport.
@@ -109,7 +151,9 @@ public class StyleUtil {
             //System.out.println("cl");
           //}
         }
-        return viewport.getJava2DConverter().toShape(actualGeometry);
+        //Unless the converter is caching, the Shape is painted straight
+        //away, so its path can be reused.
+        return viewport.getJava2DConverter().toReusableShape(actualGeometry);
     }
 
     /**
@@ -35,12 +35,18 @@ package com.vividsolutions.jump.workbench.ui.renderer.style;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.awt.geom.RectangularShape;
 
 import javax.swing.Icon;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.util.Assert;
 import com.vividsolutions.jump.feature.Feature;
 import com.vividsolutions.jump.workbench.model.Layer;
@@ -82,8 +88,40 @@ public abstract class VertexStyle implements Style {
 
     public void paint(Feature f, Graphics2D g, Viewport viewport)
         throws Exception {
-        Coordinate[] coordinates = f.getGeometry().getCoordinates();
         g.setColor(fillColor);
+        paint(f.getGeometry(), g, viewport);
+    }
+
+    private void paint(Geometry geometry, Graphics2D g, Viewport viewport)
+        throws Exception {
+        if (geometry instanceof Polygon || geometry instanceof LineString) {
+            //Share the Shape that BasicStyle paints, so that the vertices
+            //are placed at the same (rounded) points. Clipping may have
+            //added vertices, but only outside the viewport.
+            Rectangle2D viewRectangle = viewport.toViewRectangle(
+                    viewport.getEnvelopeInModelCoordinates());
+            Point2D.Double point = new Point2D.Double();
+            double[] coords = new double[6];
+            for (PathIterator i = StyleUtil.toShape(geometry, viewport)
+                    .getPathIterator(null); !i.isDone(); i.next()) {
+                if (i.currentSegment(coords) == PathIterator.SEG_CLOSE) {
+                    continue;
+                }
+                point.setLocation(coords[0], coords[1]);
+                if (!viewRectangle.contains(point)) {
+                    continue;
+                }
+                paint(g, point);
+            }
+            return;
+        }
+        if (geometry instanceof GeometryCollection) {
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                paint(geometry.getGeometryN(i), g, viewport);
+            }
+            return;
+        }
+        Coordinate[] coordinates = geometry.getCoordinates();
 
         for (int i = 0; i < coordinates.length; i++) {
             if (!viewport.getEnvelopeInModelCoordinates().contains(coordinates[i])) {
@@ -36,6 +36,8 @@ public class DbfFile implements DbfConsts {
     int rec_size;
     boolean hasmemo;
     public EndianDataInputStream dFile;
+    // the row dFile is positioned at
+    private int nextStreamRow = 0;
     RandomAccessFile rFile;
     int filesize;
     int numfields;
@@ -207,12 +209,18 @@ public class DbfFile implements DbfConsts {
     public StringBuffer GetDbfRec(int row) throws java.io.IOException {
         StringBuffer record = new StringBuffer(rec_size + numfields);
 
-        rFile.seek(data_offset + (rec_size * row));
-
         //Multi byte character modification thanks to Hisaji ONO
         byte[] strbuf = new byte[rec_size]; // <---- byte array buffer fo storing string's byte data
 
-        dFile.readByteLEnum(strbuf);
+        // Rows read in order come from the buffered stream; anything else
+        // (e.g. lazily loaded features) seeks the random access file.
+        if (row == nextStreamRow) {
+            dFile.readByteLEnum(strbuf);
+            nextStreamRow++;
+        } else {
+            rFile.seek(data_offset + (rec_size * (long) row));
+            rFile.readFully(strbuf);
+        }
         record.append(new String(strbuf)); // <- append byte array to String Buffer
 
         //record.append(strbuf);
@@ -725,7 +733,13 @@ public class DbfFile implements DbfConsts {
         if (s.equals("00000000")) {
             //Not sure if Jan 1, 0001 is the most appropriate value.
             //Year 0000 gives me a ParseException. [Jon Aquino]
-            return DATE_PARSER.parse("00010101");
+            return dateParser.parse("00010101");
+        }
+
+        Date date = parseDigits(s);
+
+        if (date != null) {
+            return date;
         }
         try{
             return lastFormat.parse(s);
@@ -749,7 +763,52 @@ public class DbfFile implements DbfConsts {
         
         return null;
     }
-    private DateFormat lastFormat = DATE_PARSER;
+    // SimpleDateFormat is not thread-safe: each reader (e.g. each
+    // MappedDbfFile#duplicate()) parses dates with formats of its own
+    private DateFormat dateParser = newDateParser();
+    private DateFormat lastFormat = dateParser;
+    private Calendar dateCalendar = (Calendar) dateParser.getCalendar().clone();
+
+    /**
+     * Reads 8 digits as yyyyMMdd, giving the same Date as dateParser (which
+     * any format tried first fails on or agrees with) at a fraction of its
+     * cost, which otherwise dominates reading a .dbf with date fields.
+     * @return null if s is not 8 digits, or its year is 0
+     */
+    private Date parseDigits(String s) {
+        if (s.length() != 8) {
+            return null;
+        }
+
+        int value = 0;
+
+        for (int i = 0; i < 8; i++) {
+            int digit = s.charAt(i) - '0';
+
+            if ((digit < 0) || (digit > 9)) {
+                return null;
+            }
+
+            value = (value * 10) + digit;
+        }
+
+        if (value < 10000) {
+            return null;
+        }
+
+        //lenient, as dateParser is, so 20230230 is March 2nd
+        dateCalendar.clear();
+        dateCalendar.set(value / 10000, ((value / 100) % 100) - 1, value % 100);
+
+        return dateCalendar.getTime();
+    }
+
+    private static DateFormat newDateParser() {
+        DateFormat parser = new SimpleDateFormat("yyyyMMdd");
+        parser.setLenient(true);
+
+        return parser;
+    }
 
     public static void main(String[] args) throws Exception {
         System.out.println(new SimpleDateFormat("yyyymmdd") {
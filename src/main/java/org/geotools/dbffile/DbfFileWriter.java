@@ -1,6 +1,8 @@
 package org.geotools.dbffile;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.*;
 
 import org.geotools.misc.FormatedString;
@@ -35,13 +37,19 @@ public class DbfFileWriter implements DbfConsts{
 
   EndianDataOutputStream ls;
 
+  FileOutputStream out;
+
+  int recsWritten = 0;
+
 	private boolean header = false;
 
   public DbfFileWriter(String file) throws IOException{
 
 	if(DEBUG)System.out.println("---->uk.ac.leeds.ccg.dbffile.DbfFileWriter constructed. Will identify itself as "+DBC);
 
-	ls = new EndianDataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+	out = new FileOutputStream(file);
+
+	ls = new EndianDataOutputStream(new BufferedOutputStream(out));
 
   }
 
@@ -166,6 +174,8 @@ public class DbfFileWriter implements DbfConsts{
 
     String s;
 
+    recsWritten++;
+
     ls.writeByteLE(' ');
 
 		int len;
@@ -254,10 +264,28 @@ public class DbfFileWriter implements DbfConsts{
 
   }
 
+  /**
+   * Closes the file. If the number of records written differs from the
+   * number given to writeHeader - such as when records are streamed with
+   * an unknown count - the count in the header is patched.
+   */
+
   public void close() throws IOException{
 
     ls.writeByteLE(0x1a); // eof mark
 
+    ls.flush();
+
+    if(header && recsWritten!=NoRecs){
+
+      ByteBuffer count = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+
+      count.putInt(0, recsWritten);
+
+      out.getChannel().write(count, 4);
+
+    }
+
     ls.close();
 
   }
@@ -0,0 +1,621 @@
+package org.geotools.dbffile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A DbfFile that reads a memory-mapped file instead of a stream, or with
+ * {@link #readFully(String)} a copy of the file in a heap buffer.<p>
+ * Fields are parsed straight from the mapped bytes: numbers without going
+ * through a String, and strings with a reusable CharsetDecoder. Besides the
+ * row-oriented DbfFile methods it offers whole columns as primitive arrays
+ * ({@link #getIntColumn}, {@link #getDoubleColumn}) and
+ * {@link #readColumns(int[])}, which parses only the requested fields.<p>
+ * Parsing follows DbfFile#ParseRecordColumn: integers that cannot be parsed
+ * are read as 0 and doubles as NaN.<p>
+ * The mapped file may be shared between threads, but the decoding buffers may
+ * not: use {@link #duplicate()} to get a reader for each thread.
+ */
+public class MappedDbfFile extends DbfFile {
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private RandomAccessFile raf;
+    private ByteBuffer buffer;
+    private Charset charset;
+    private CharsetDecoder decoder;
+    private CharBuffer chars;
+    private byte[] scratch;
+    private int nextRow = 0;
+
+    /**
+     * Maps the given file, decoding strings with the platform's default
+     * charset as DbfFile does.
+     * @param file The file to be opened, includes path and .dbf
+     */
+    public MappedDbfFile(String file) throws IOException, DbfFileException {
+        this(file, Charset.defaultCharset());
+    }
+
+    /**
+     * Maps the given file.
+     * @param file The file to be opened, includes path and .dbf
+     * @param charset the encoding of the character fields
+     */
+    public MappedDbfFile(String file, Charset charset) throws IOException, DbfFileException {
+        raf = new RandomAccessFile(new File(file), "r");
+        FileChannel channel = raf.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        readHeader();
+        init(charset);
+    }
+
+    private MappedDbfFile(ByteBuffer buffer, Charset charset) throws DbfFileException {
+        raf = null;
+        this.buffer = buffer;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        readHeader();
+        init(charset);
+    }
+
+    /**
+     * Reads the whole of the given file into a heap buffer, decoding strings
+     * with the platform's default charset as DbfFile does. The file is
+     * closed before this returns, so unlike a mapped file it is not held
+     * open (and on Windows locked) until the mapping is garbage collected.
+     * @param file The file to be read, includes path and .dbf
+     */
+    public static MappedDbfFile readFully(String file) throws IOException, DbfFileException {
+        RandomAccessFile raf = new RandomAccessFile(new File(file), "r");
+
+        try {
+            FileChannel channel = raf.getChannel();
+
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new DbfFileException("DbFi>File too large to read into memory");
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) == -1) {
+                    //truncated since its size was read; readHeader copes
+                    break;
+                }
+            }
+
+            buffer.flip();
+
+            return new MappedDbfFile(buffer.slice(), Charset.defaultCharset());
+        } finally {
+            raf.close();
+        }
+    }
+
+    private MappedDbfFile(MappedDbfFile other) {
+        raf = null;
+        buffer = other.buffer.duplicate();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        dbf_id = other.dbf_id;
+        hasmemo = other.hasmemo;
+        last_update_y = other.last_update_y;
+        last_update_m = other.last_update_m;
+        last_update_d = other.last_update_d;
+        last_rec = other.last_rec;
+        data_offset = other.data_offset;
+        rec_size = other.rec_size;
+        filesize = other.filesize;
+        numfields = other.numfields;
+        fielddef = other.fielddef;
+        init(other.charset);
+    }
+
+    private void init(Charset charset) {
+        this.charset = charset;
+        decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        chars = CharBuffer.allocate(Math.max(rec_size, 1) *
+                (int) Math.ceil(decoder.maxCharsPerByte()));
+        scratch = new byte[Math.max(rec_size, 1)];
+    }
+
+    /**
+     * Returns a reader of the same mapped file with its own decoding buffers,
+     * for use by another thread. Closing the copy has no effect.
+     */
+    public MappedDbfFile duplicate() {
+        return new MappedDbfFile(this);
+    }
+
+    private void readHeader() throws DbfFileException {
+        if (buffer.capacity() < DBF_BUFFSIZE) {
+            throw new DbfFileException("DbFi>File too short to contain a header");
+        }
+
+        dbf_id = buffer.get(0) & 0xff;
+        hasmemo = (dbf_id != 3);
+        last_update_y = (buffer.get(1) & 0xff) + DBF_CENTURY;
+        last_update_m = buffer.get(2) & 0xff;
+        last_update_d = buffer.get(3) & 0xff;
+        last_rec = buffer.getInt(4);
+        data_offset = buffer.getShort(8) & 0xffff;
+        rec_size = buffer.getShort(10) & 0xffff;
+        filesize = (rec_size * last_rec) + data_offset + 1;
+        numfields = (data_offset - DBF_BUFFSIZE - 1) / DBF_BUFFSIZE;
+
+        if ((long) data_offset + ((long) rec_size * last_rec) > buffer.capacity()) {
+            //tolerate truncated files, as the streaming reader would up to the EOF
+            last_rec = (rec_size == 0) ? 0 : (buffer.capacity() - data_offset) / rec_size;
+        }
+
+        fielddef = new DbfFieldDef[numfields];
+        int widthsofar = 1;
+
+        for (int index = 0; index < numfields; index++) {
+            int position = DBF_BUFFSIZE * (index + 1);
+            DbfFieldDef def = new DbfFieldDef();
+            int nameLength = 0;
+
+            //as in DbfFieldDef#setup, the name ends at the first null
+            while ((nameLength < DBF_NAMELEN) && (buffer.get(position + nameLength) != 0)) {
+                nameLength++;
+            }
+
+            byte[] name = new byte[nameLength];
+
+            for (int i = 0; i < nameLength; i++) {
+                name[i] = buffer.get(position + i);
+            }
+
+            def.fieldname.append(new String(name).trim());
+            def.fieldtype = (char) (buffer.get(position + 11) & 0xff);
+            def.fieldstart = widthsofar;
+            def.fieldlen = buffer.get(position + 16) & 0xff;
+            def.fieldnumdec = buffer.get(position + 17) & 0xff;
+
+            switch (def.fieldtype) {
+            case 'N':
+            case 'n':
+            case 'F':
+            case 'f':
+                break;
+
+            default:
+                def.fieldnumdec = 0;
+            }
+
+            fielddef[index] = def;
+            widthsofar += def.fieldlen;
+        }
+    }
+
+    private int recordOffset(int row) {
+        if ((row < 0) || (row >= last_rec)) {
+            throw new IndexOutOfBoundsException("DbFi>No such record: " + row);
+        }
+
+        return data_offset + (rec_size * row);
+    }
+
+    private int fieldOffset(int row, int col) {
+        return recordOffset(row) + fielddef[col].fieldstart;
+    }
+
+    /**
+     * fetches the <i>row</i>th row of the file
+     * @param row - the row to fetch
+     */
+    public StringBuffer GetDbfRec(int row) throws IOException {
+        int position = recordOffset(row);
+
+        for (int i = 0; i < rec_size; i++) {
+            scratch[i] = buffer.get(position + i);
+        }
+
+        StringBuffer record = new StringBuffer(rec_size + numfields);
+        record.append(new String(scratch, 0, rec_size, charset.name()));
+
+        return record;
+    }
+
+    /**
+     * gets the next record and returns it as a string.
+     */
+    public StringBuffer GetNextDbfRec() throws IOException {
+        return GetDbfRec(nextRow++);
+    }
+
+    /**
+     * Parses one field of one row straight from the mapped bytes.
+     * @return a String, Integer, Double or Date, as DbfFile#ParseRecordColumn
+     */
+    public Object getValue(int row, int col) throws Exception {
+        DbfFieldDef def = fielddef[col];
+
+        switch (def.fieldtype) {
+        case 'N':
+
+            if (def.fieldnumdec == 0) {
+                return new Integer(getInt(row, col));
+            }
+
+            return new Double(getDouble(row, col));
+
+        case 'F':
+            return new Double(getDouble(row, col));
+
+        case 'D':
+            return parseDate(getString(row, col));
+
+        default:
+            return getString(row, col);
+        }
+    }
+
+    /**
+     * Parses the given fields of one row into <code>values</code>, which
+     * must be at least as long as <code>cols</code>.
+     */
+    public void readRecord(int row, int[] cols, Object[] values)
+        throws Exception {
+        for (int i = 0; i < cols.length; i++) {
+            values[i] = getValue(row, cols[i]);
+        }
+    }
+
+    /**
+     * Returns a numeric field as an int; 0 if it is not an integer.
+     */
+    public int getInt(int row, int col) {
+        int start = fieldOffset(row, col);
+        int end = start + fielddef[col].fieldlen;
+
+        while ((start < end) && isBlank(buffer.get(start))) {
+            start++;
+        }
+
+        while ((end > start) && isBlank(buffer.get(end - 1))) {
+            end--;
+        }
+
+        boolean negative = false;
+        int i = start;
+
+        if ((i < end) && ((buffer.get(i) == '-') || (buffer.get(i) == '+'))) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+
+        //more than 9 digits may overflow; leave those to Integer#parseInt
+        if ((i == end) || ((end - i) > 9)) {
+            return parseIntSlowly(start, end);
+        }
+
+        int value = 0;
+
+        for (; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+
+            if ((digit < 0) || (digit > 9)) {
+                return parseIntSlowly(start, end);
+            }
+
+            value = (value * 10) + digit;
+        }
+
+        return negative ? (-value) : value;
+    }
+
+    private int parseIntSlowly(int start, int end) {
+        try {
+            return Integer.parseInt(decode(start, end).trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns a numeric field as a double; NaN if it is not a number.
+     */
+    public double getDouble(int row, int col) {
+        int start = fieldOffset(row, col);
+        int end = start + fielddef[col].fieldlen;
+
+        while ((start < end) && isBlank(buffer.get(start))) {
+            start++;
+        }
+
+        while ((end > start) && isBlank(buffer.get(end - 1))) {
+            end--;
+        }
+
+        boolean negative = false;
+        int i = start;
+
+        if ((i < end) && ((buffer.get(i) == '-') || (buffer.get(i) == '+'))) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+
+        //zeros after the point are only counted once a non-zero digit
+        //follows, so the padding of e.g. 1.5000000000000000 (as written by
+        //ShapefileWriter) does not use up the digits
+        int pendingZeros = 0;
+
+        for (; i < end; i++) {
+            byte b = buffer.get(i);
+
+            if ((b == '.') && (fractionDigits == -1)) {
+                fractionDigits = 0;
+
+                continue;
+            }
+
+            int digit = b - '0';
+
+            //exponents, '*' overflow markers etc. are left to Double#parseDouble
+            if ((digit < 0) || (digit > 9)) {
+                return parseDoubleSlowly(start, end);
+            }
+
+            if ((digit == 0) && (fractionDigits != -1)) {
+                pendingZeros++;
+
+                continue;
+            }
+
+            if ((digits + pendingZeros) >= 18) {
+                return parseDoubleSlowly(start, end);
+            }
+
+            for (; pendingZeros > 0; pendingZeros--) {
+                mantissa *= 10;
+                digits++;
+                fractionDigits++;
+            }
+
+            mantissa = (mantissa * 10) + digit;
+            digits++;
+
+            if (fractionDigits != -1) {
+                fractionDigits++;
+            }
+        }
+
+        //".000" is a number, though its digits were never counted
+        if ((digits == 0) && (pendingZeros > 0)) {
+            digits = 1;
+        }
+
+        //the division is exact only for mantissas below 2^53
+        if ((digits == 0) || (mantissa >= (1L << 53)) ||
+                (fractionDigits >= POWERS_OF_TEN.length)) {
+            return parseDoubleSlowly(start, end);
+        }
+
+        double value = (fractionDigits > 0)
+            ? (mantissa / POWERS_OF_TEN[fractionDigits]) : mantissa;
+
+        return negative ? (-value) : value;
+    }
+
+    private double parseDoubleSlowly(int start, int end) {
+        try {
+            return Double.parseDouble(decode(start, end).trim());
+        } catch (NumberFormatException e) {
+            // dBase can have numbers that look like '********' !! This isn't ideal but at least reads them
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Returns a field as an (untrimmed) String.
+     */
+    public String getString(int row, int col) {
+        int start = fieldOffset(row, col);
+
+        return decode(start, start + fielddef[col].fieldlen);
+    }
+
+    private String decode(int start, int end) {
+        ByteBuffer field = buffer.duplicate();
+        field.limit(end);
+        field.position(start);
+        decoder.reset();
+        chars.clear();
+        decoder.decode(field, chars, true);
+        decoder.flush(chars);
+        chars.flip();
+
+        return chars.toString();
+    }
+
+    private static boolean isBlank(byte b) {
+        //as String#trim
+        return (b >= 0) && (b <= ' ');
+    }
+
+    /**
+     * Fetches a numeric column as ints.
+     * @param col the column to fetch
+     * @exception DbfFileException - column is not numeric.
+     */
+    public int[] getIntColumn(int col) throws DbfFileException {
+        checkNumeric(col);
+
+        int[] column = new int[last_rec];
+
+        for (int row = 0; row < last_rec; row++) {
+            column[row] = getInt(row, col);
+        }
+
+        return column;
+    }
+
+    /**
+     * Fetches a numeric column as doubles.
+     * @param col the column to fetch
+     * @exception DbfFileException - column is not numeric.
+     */
+    public double[] getDoubleColumn(int col) throws DbfFileException {
+        checkNumeric(col);
+
+        double[] column = new double[last_rec];
+
+        for (int row = 0; row < last_rec; row++) {
+            column[row] = getDouble(row, col);
+        }
+
+        return column;
+    }
+
+    /**
+     * Fetches any column as (untrimmed) Strings.
+     * @param col the column to fetch
+     */
+    public String[] getStringColumn(int col) throws DbfFileException {
+        checkColumn(col);
+
+        String[] column = new String[last_rec];
+
+        for (int row = 0; row < last_rec; row++) {
+            column[row] = getString(row, col);
+        }
+
+        return column;
+    }
+
+    /**
+     * Parses only the given columns. Integer columns are returned as int[],
+     * other numeric columns as double[], dates as Date[] and everything else
+     * as String[].
+     * @param cols the indices of the fields to read
+     * @return one array per requested column, in the order requested
+     */
+    public Object[] readColumns(int[] cols) throws Exception {
+        Object[] columns = new Object[cols.length];
+
+        for (int i = 0; i < cols.length; i++) {
+            checkColumn(cols[i]);
+
+            if (getFieldType(cols[i]).equals("INTEGER")) {
+                columns[i] = getIntColumn(cols[i]);
+            } else if (getFieldType(cols[i]).equals("DOUBLE")) {
+                columns[i] = getDoubleColumn(cols[i]);
+            } else if (getFieldType(cols[i]).equals("DATE")) {
+                java.util.Date[] dates = new java.util.Date[last_rec];
+
+                for (int row = 0; row < last_rec; row++) {
+                    dates[row] = parseDate(getString(row, cols[i]));
+                }
+
+                columns[i] = dates;
+            } else {
+                columns[i] = getStringColumn(cols[i]);
+            }
+        }
+
+        return columns;
+    }
+
+    public Integer[] getIntegerCol(int col, int start, int end)
+        throws DbfFileException {
+        checkColumn(col);
+
+        if (fielddef[col].fieldtype != 'N') {
+            throw new DbfFileException("DbFi>Column " + col +
+                " is not Integer");
+        }
+
+        Integer[] column = new Integer[end - start];
+
+        for (int row = start; row < end; row++) {
+            column[row - start] = new Integer(getInt(row, col));
+        }
+
+        return column;
+    }
+
+    public Double[] getFloatCol(int col, int start, int end)
+        throws DbfFileException {
+        checkColumn(col);
+
+        if (fielddef[col].fieldtype != 'F') {
+            throw new DbfFileException("DbFi>Column " + col +
+                " is not Double " + fielddef[col].fieldtype);
+        }
+
+        Double[] column = new Double[end - start];
+
+        for (int row = start; row < end; row++) {
+            column[row - start] = new Double(getDouble(row, col));
+        }
+
+        return column;
+    }
+
+    public String[] getStringCol(int col, int start, int end)
+        throws DbfFileException {
+        checkColumn(col);
+
+        if (fielddef[col].fieldtype != 'C') {
+            throw new DbfFileException("DbFi>Column " + col +
+                " is not a String");
+        }
+
+        String[] column = new String[end - start];
+
+        for (int row = start; row < end; row++) {
+            column[row - start] = getString(row, col);
+        }
+
+        return column;
+    }
+
+    private void checkColumn(int col) throws DbfFileException {
+        if ((col < 0) || (col >= numfields)) {
+            throw new DbfFileException("DbFi>No Such Column in file: " + col);
+        }
+    }
+
+    private void checkNumeric(int col) throws DbfFileException {
+        checkColumn(col);
+
+        if ((fielddef[col].fieldtype != 'N') && (fielddef[col].fieldtype != 'F')) {
+            throw new DbfFileException("DbFi>Column " + col +
+                " is not numeric " + fielddef[col].fieldtype);
+        }
+    }
+
+    /**
+     * Releases the file handle. The mapping itself is released when it is
+     * garbage collected.
+     */
+    public void close() throws IOException {
+        if (raf != null) {
+            raf.close();
+            raf = null;
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package org.geotools.shapefile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.vividsolutions.jts.geom.*;
+import com.vividsolutions.jump.io.EndianDataInputStream;
+
+/**
+ * Random-access view of an ESRI Shape file, backed by memory-mapped .shp and
+ * .shx files.<p>
+ * Unlike {@link Shapefile#read(GeometryFactory)}, which decodes every record
+ * up front, opening a MappedShapefile only reads the main header. The record
+ * offsets in the .shx index are then used to decode individual records on
+ * demand, either by record number or by envelope. Record envelopes are read
+ * straight from the mapped record headers without decoding the geometry.<p>
+ * Record numbers are zero-based here, i.e. record <i>n</i> is the (n+1)th
+ * record of the file and corresponds to row <i>n</i> of the .dbf file.<p>
+ * Instances are safe for concurrent reads from several threads.
+ */
+public class MappedShapefile {
+
+    /** Size of the main file header and of the index file header, in bytes */
+    static final int HEADER_LENGTH = 100;
+
+    /** Size of a record header (record number and content length), in bytes */
+    static final int RECORD_HEADER_LENGTH = 8;
+
+    /**
+     * Mapped regions are limited to 2GB, so large files are mapped as several
+     * consecutive segments of this size.
+     */
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private File shpFile;
+    private RandomAccessFile shpRaf;
+    private FileChannel shpChannel;
+    private MappedByteBuffer[] segments;
+    private long shpLength;
+
+    private RandomAccessFile shxRaf;
+    private MappedByteBuffer shxBuffer;
+
+    private ShapefileHeader header;
+    private int numRecords;
+    private ShapefileSpatialIndex spatialIndex;
+
+    /**
+     * Opens the given .shp file together with the .shx file beside it.
+     * @param shpFile the .shp file
+     */
+    public MappedShapefile(File shpFile) throws IOException, ShapefileException {
+        this(shpFile, findIndexFile(shpFile));
+    }
+
+    /**
+     * Opens the given .shp file using the given .shx index file.
+     * @param shpFile the .shp file
+     * @param shxFile the .shx file indexing <code>shpFile</code>
+     */
+    public MappedShapefile(File shpFile, File shxFile) throws IOException, ShapefileException {
+        this.shpFile = shpFile;
+        if (shxFile == null || !shxFile.exists()) {
+            throw new ShapefileException("Shapefile index (.shx) not found for " + shpFile);
+        }
+
+        shpRaf = new RandomAccessFile(shpFile, "r");
+        shpChannel = shpRaf.getChannel();
+        shpLength = shpChannel.size();
+        int numSegments = (int) ((shpLength + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        segments = new MappedByteBuffer[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            long start = i * SEGMENT_SIZE;
+            segments[i] = shpChannel.map(FileChannel.MapMode.READ_ONLY, start,
+                    Math.min(SEGMENT_SIZE, shpLength - start));
+        }
+
+        shxRaf = new RandomAccessFile(shxFile, "r");
+        FileChannel shxChannel = shxRaf.getChannel();
+        shxBuffer = shxChannel.map(FileChannel.MapMode.READ_ONLY, 0, shxChannel.size());
+        shxBuffer.order(ByteOrder.BIG_ENDIAN);
+
+        if (shpLength < HEADER_LENGTH || shxBuffer.capacity() < HEADER_LENGTH) {
+            close();
+            throw new InvalidShapefileException("Shapefile too short to contain a header: " + shpFile);
+        }
+
+        header = new ShapefileHeader(new EndianDataInputStream(buffer(0, HEADER_LENGTH)));
+        numRecords = (shxBuffer.capacity() - HEADER_LENGTH) / 8;
+    }
+
+    /**
+     * Returns the .shx file beside the given .shp file, trying both lower and
+     * upper case extensions.
+     */
+    public static File findIndexFile(File shpFile) {
+        String name = shpFile.getPath();
+        int loc = name.lastIndexOf('.');
+        String base = (loc == -1) ? name : name.substring(0, loc);
+        File shxFile = new File(base + ".shx");
+        if (!shxFile.exists()) {
+            File upper = new File(base + ".SHX");
+            if (upper.exists()) {
+                return upper;
+            }
+        }
+        return shxFile;
+    }
+
+    public File getFile() {
+        return shpFile;
+    }
+
+    public ShapefileHeader getHeader() {
+        return header;
+    }
+
+    public int getShapeType() {
+        return header.getShapeType();
+    }
+
+    /**
+     * Returns the bounds of all records, as recorded in the main header.
+     */
+    public Envelope getBounds() {
+        return header.getBounds();
+    }
+
+    /**
+     * Returns the number of records listed in the .shx index.
+     */
+    public int getNumRecords() {
+        return numRecords;
+    }
+
+    /**
+     * Returns the byte offset of the given record's header in the .shp file.
+     */
+    public long getRecordOffset(int recordIndex) {
+        checkRecordIndex(recordIndex);
+        //offsets are stored in 16 bit words, as unsigned ints
+        return (shxBuffer.getInt(HEADER_LENGTH + 8 * recordIndex) & 0xffffffffL) * 2;
+    }
+
+    /**
+     * Returns the length of the given record's content, in 16 bit words, as
+     * stored in the .shx index.
+     */
+    public int getContentLength(int recordIndex) {
+        checkRecordIndex(recordIndex);
+        return shxBuffer.getInt(HEADER_LENGTH + 8 * recordIndex + 4);
+    }
+
+    /**
+     * Returns the content of the given record (without its record header) as
+     * a little-endian buffer positioned at the shape type.
+     */
+    public ByteBuffer getRecordContent(int recordIndex) throws IOException {
+        long offset = getRecordOffset(recordIndex) + RECORD_HEADER_LENGTH;
+        int length = 2 * getContentLength(recordIndex);
+        if (offset + length > shpLength) {
+            throw new IOException("Record " + recordIndex
+                    + " extends past the end of " + shpFile);
+        }
+        ByteBuffer content = buffer(offset, length);
+        content.order(ByteOrder.LITTLE_ENDIAN);
+        return content;
+    }
+
+    /**
+     * Returns the envelope of the given record, read from the record's bounding
+     * box without decoding the geometry.
+     * @return the record's envelope, or null if it is a null shape
+     */
+    public Envelope getRecordEnvelope(int recordIndex) throws IOException {
+        ByteBuffer content = getRecordContent(recordIndex);
+        if (content.remaining() < 4) {
+            return null;
+        }
+        int shapeType = content.getInt(0);
+        switch (shapeType) {
+            case Shapefile.NULL:
+                return null;
+            case Shapefile.POINT:
+            case Shapefile.POINTZ:
+            case Shapefile.POINTM:
+                double x = content.getDouble(4);
+                double y = content.getDouble(12);
+                return new Envelope(x, x, y, y);
+            default:
+                //xmin, ymin, xmax, ymax
+                return new Envelope(content.getDouble(4), content.getDouble(20),
+                        content.getDouble(12), content.getDouble(28));
+        }
+    }
+
+    /**
+     * Decodes the given record.
+     * @return the record's geometry; an empty GeometryCollection if it could
+     * not be read, as in Shapefile#read
+     */
+    public Geometry readGeometry(int recordIndex, GeometryFactory geometryFactory)
+            throws IOException, ShapefileException {
+        ShapeHandler handler;
+        try {
+            handler = Shapefile.getShapeHandler(getShapeType());
+        } catch (Exception e) {
+            throw new ShapeTypeNotSupportedException("Unsuported shape type:" + getShapeType());
+        }
+        if (handler == null) {
+            throw new ShapeTypeNotSupportedException("Unsuported shape type:" + getShapeType());
+        }
+        return readGeometry(recordIndex, geometryFactory, handler);
+    }
+
+    /**
+     * Decodes the given record using the given handler. Callers decoding many
+     * records can reuse one handler per thread.
+     */
+    public Geometry readGeometry(int recordIndex, GeometryFactory geometryFactory,
+            ShapeHandler handler) throws IOException {
+        return readGeometry(getRecordContent(recordIndex), recordIndex, geometryFactory, handler);
+    }
+
+    /**
+     * Decodes a record whose content has already been read, e.g. by another
+     * thread.
+     * @param content the record content, as returned by #getRecordContent
+     * @param recordIndex the record number, for error messages
+     */
+    public static Geometry readGeometry(ByteBuffer content, int recordIndex,
+            GeometryFactory geometryFactory, ShapeHandler handler) {
+        int contentLength = content.remaining() / 2;
+        try {
+            return handler.read(new EndianDataInputStream(content), geometryFactory,
+                    contentLength);
+        } catch (IllegalArgumentException e) {
+            //NULL shape
+            return new GeometryCollection(null, null, -1);
+        } catch (Exception e) {
+            System.out.println("Error processing record (a):" + (recordIndex + 1));
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+            return new GeometryCollection(null, null, -1);
+        }
+    }
+
+    /**
+     * Sets the index used by #query, e.g. from ShapefileSpatialIndex#openOrBuild.
+     * @param spatialIndex the index of this file, or null to scan the records
+     */
+    public void setSpatialIndex(ShapefileSpatialIndex spatialIndex) {
+        this.spatialIndex = spatialIndex;
+    }
+
+    public ShapefileSpatialIndex getSpatialIndex() {
+        return spatialIndex;
+    }
+
+    /**
+     * Returns the numbers of the records whose bounding boxes intersect the
+     * given envelope, in ascending order. Uses the spatial index if one has
+     * been set; otherwise only the record headers are read.
+     */
+    public int[] query(Envelope envelope) throws IOException {
+        if (spatialIndex != null) {
+            return spatialIndex.query(envelope);
+        }
+        int[] result = new int[16];
+        int count = 0;
+        if (!envelope.intersects(getBounds())) {
+            return new int[0];
+        }
+        for (int i = 0; i < numRecords; i++) {
+            Envelope recordEnvelope = getRecordEnvelope(i);
+            if (recordEnvelope == null || !recordEnvelope.intersects(envelope)) {
+                continue;
+            }
+            if (count == result.length) {
+                int[] grown = new int[count * 2];
+                System.arraycopy(result, 0, grown, 0, count);
+                result = grown;
+            }
+            result[count++] = i;
+        }
+        int[] trimmed = new int[count];
+        System.arraycopy(result, 0, trimmed, 0, count);
+        return trimmed;
+    }
+
+    /**
+     * Releases the file handles. The mapped regions themselves are released
+     * when they are garbage collected.
+     */
+    public void close() throws IOException {
+        if (shpRaf != null) {
+            shpRaf.close();
+            shpRaf = null;
+        }
+        if (shxRaf != null) {
+            shxRaf.close();
+            shxRaf = null;
+        }
+    }
+
+    private void checkRecordIndex(int recordIndex) {
+        if (recordIndex < 0 || recordIndex >= numRecords) {
+            throw new IndexOutOfBoundsException("Record " + recordIndex
+                    + " out of range [0, " + numRecords + ")");
+        }
+    }
+
+    /**
+     * Returns a view of the given bytes of the .shp file. The shared segment
+     * buffers are never repositioned, so this is safe to call concurrently.
+     * Ranges that straddle two segments are copied into a heap buffer.
+     */
+    private ByteBuffer buffer(long offset, int length) throws IOException {
+        int segmentIndex = (int) (offset / SEGMENT_SIZE);
+        int start = (int) (offset - segmentIndex * SEGMENT_SIZE);
+        MappedByteBuffer segment = segments[segmentIndex];
+        if (start + length <= segment.capacity()) {
+            ByteBuffer view = segment.duplicate();
+            view.position(start);
+            view.limit(start + length);
+            return view.slice();
+        }
+        ByteBuffer copy = ByteBuffer.allocate(length);
+        while (copy.hasRemaining()) {
+            if (shpChannel.read(copy, offset + copy.position()) < 0) {
+                throw new IOException("Unexpected end of file in " + shpFile);
+            }
+        }
+        copy.flip();
+        return copy;
+    }
+}
@@ -3,10 +3,13 @@ package org.geotools.shapefile;
 import java.io.IOException;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import com.vividsolutions.jts.algorithm.CGAlgorithms;
 import com.vividsolutions.jts.algorithm.RobustCGAlgorithms;
 import com.vividsolutions.jts.geom.*;
+import com.vividsolutions.jts.index.strtree.STRtree;
 import com.vividsolutions.jump.io.EndianDataInputStream;
 import com.vividsolutions.jump.io.EndianDataOutputStream;
 
@@ -15,7 +18,15 @@ import com.vividsolutions.jump.io.EndianDataOutputStream;
  */
 public class PolygonHandler implements ShapeHandler{
     protected static CGAlgorithms cga = new RobustCGAlgorithms();
+
+    /**
+     * Polygons with more rings than this have their holes assigned to shells
+     * through a spatial index of the shells (see #assignHolesIndexed).
+     */
+    public static final int INDEXED_ASSIGNMENT_THRESHOLD = 32;
+
     int myShapeType;
+    int indexedAssignmentThreshold = INDEXED_ASSIGNMENT_THRESHOLD;
     
     public PolygonHandler()
     {
@@ -182,6 +193,40 @@ public class PolygonHandler implements ShapeHandler{
         }
         
         //find homes
+        if (numParts > indexedAssignmentThreshold) {
+            assignHolesIndexed(shells, holes, holesForShells);
+        }
+        else {
+            assignHolesLinear(shells, holes, holesForShells);
+        }
+        
+        Polygon[] polygons = new Polygon[shells.size()];
+        for(int i=0;i<shells.size();i++){
+            polygons[i]=geometryFactory.createPolygon((LinearRing)shells.get(i),(LinearRing[])((ArrayList)holesForShells.get(i)).toArray(new LinearRing[0]));
+        }
+        
+        if(polygons.length==1){
+            return polygons[0];
+        }
+        
+        holesForShells = null;
+        shells = null;
+        holes = null;
+        //its a multi part
+        
+
+        Geometry result =  geometryFactory.createMultiPolygon(polygons);
+     //   if (!(result.isValid()  ))
+     //   	System.out.println("geom isnt valid");
+        return result;        
+    }
+    
+    /**
+     * Assigns each hole to the smallest shell containing it by testing every
+     * shell.
+     */
+    void assignHolesLinear(ArrayList shells, ArrayList holes, ArrayList holesForShells)
+    {
         for(int i=0;i<holes.size();i++){
             LinearRing testRing = (LinearRing)holes.get(i);
             LinearRing minShell = null;
@@ -218,26 +263,60 @@ public class PolygonHandler implements ShapeHandler{
               ((ArrayList)holesForShells.get(shells.indexOf(minShell))).add(testRing);
             }
         }
-        
-        Polygon[] polygons = new Polygon[shells.size()];
+    }
+    
+    /**
+     * Assigns each hole to the smallest shell containing it, with the same
+     * result as #assignHolesLinear. Candidate shells come from an
+     * STRtree of shell envelopes (and are tried in their original order), and
+     * each shell is prepared for point-in-ring tests the first time it is
+     * tested, so many-ringed polygons are no longer quadratic.
+     */
+    void assignHolesIndexed(ArrayList shells, ArrayList holes, ArrayList holesForShells)
+    {
+        Envelope[] shellEnvs = new Envelope[shells.size()];
+        PreparedRing[] preparedShells = new PreparedRing[shells.size()];
+        STRtree index = new STRtree();
         for(int i=0;i<shells.size();i++){
-            polygons[i]=geometryFactory.createPolygon((LinearRing)shells.get(i),(LinearRing[])((ArrayList)holesForShells.get(i)).toArray(new LinearRing[0]));
+            shellEnvs[i] = ((LinearRing) shells.get(i)).getEnvelopeInternal();
+            index.insert(shellEnvs[i], new Integer(i));
         }
         
-        if(polygons.length==1){
-            return polygons[0];
+        for(int i=0;i<holes.size();i++){
+            LinearRing testRing = (LinearRing)holes.get(i);
+            Envelope testEnv = testRing.getEnvelopeInternal();
+            Coordinate testPt = testRing.getCoordinateN(0);
+            
+            List candidates = index.query(testEnv);
+            int[] candidateIndices = new int[candidates.size()];
+            for(int k=0;k<candidateIndices.length;k++){
+                candidateIndices[k] = ((Integer) candidates.get(k)).intValue();
+            }
+            Arrays.sort(candidateIndices);
+            
+            int minShell = -1;
+            for(int k=0;k<candidateIndices.length;k++){
+                int j = candidateIndices[k];
+                if (!shellEnvs[j].contains(testEnv))
+                    continue;
+                if (preparedShells[j] == null)
+                    preparedShells[j] = new PreparedRing(((LinearRing) shells.get(j)).getCoordinates(), shellEnvs[j]);
+                // check if this new containing ring is smaller than the current minimum ring
+                if (preparedShells[j].containsOrIsVertex(testPt)
+                        && (minShell == -1 || shellEnvs[minShell].contains(shellEnvs[j]))) {
+                    minShell = j;
+                }
+            }
+            
+            if (minShell == -1)
+            {
+                System.out.println("polygon found with a hole thats not inside a shell");
+            }
+            else
+            {
+              ((ArrayList)holesForShells.get(minShell)).add(testRing);
+            }
         }
-        
-        holesForShells = null;
-        shells = null;
-        holes = null;
-        //its a multi part
-        
-
-        Geometry result =  geometryFactory.createMultiPolygon(polygons);
-     //   if (!(result.isValid()  ))
-     //   	System.out.println("geom isnt valid");
-        return result;        
     }
     
      public void write(Geometry geometry,EndianDataOutputStream file)throws IOException{
@@ -0,0 +1,103 @@
+package org.geotools.shapefile;
+
+import com.vividsolutions.jts.algorithm.RobustDeterminant;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * A ring prepared for repeated point-in-ring tests.<p>
+ * The ring's edges are binned into horizontal bands by their y extent. A ray
+ * cast along the x axis from a test point can only cross edges whose y extent
+ * contains the point's y, so only the edges of one band need testing instead
+ * of the whole ring. The crossing test itself is the one used by
+ * CGAlgorithms#isPointInRing.
+ */
+class PreparedRing {
+    private static final int EDGES_PER_BAND = 4;
+    private static final int MAX_BANDS = 1024;
+
+    private Coordinate[] pts;
+    private double minY;
+    private double bandHeight;
+    private int numBands;
+
+    //edge indices of band b are bandEdges[bandStart[b]] .. bandEdges[bandStart[b+1]-1]
+    private int[] bandStart;
+    private int[] bandEdges;
+
+    public PreparedRing(Coordinate[] pts, Envelope envelope) {
+        this.pts = pts;
+        int numEdges = Math.max(0, pts.length - 1);
+        minY = envelope.getMinY();
+        numBands = Math.max(1, Math.min(MAX_BANDS, numEdges / EDGES_PER_BAND));
+        bandHeight = envelope.getHeight() / numBands;
+        if (bandHeight == 0) {
+            numBands = 1;
+        }
+
+        //count, then fill
+        bandStart = new int[numBands + 1];
+        for (int i = 0; i < numEdges; i++) {
+            int first = band(Math.min(pts[i].y, pts[i + 1].y));
+            int last = band(Math.max(pts[i].y, pts[i + 1].y));
+            for (int b = first; b <= last; b++) {
+                bandStart[b + 1]++;
+            }
+        }
+        for (int b = 0; b < numBands; b++) {
+            bandStart[b + 1] += bandStart[b];
+        }
+        bandEdges = new int[bandStart[numBands]];
+        int[] next = new int[numBands];
+        System.arraycopy(bandStart, 0, next, 0, numBands);
+        for (int i = 0; i < numEdges; i++) {
+            int first = band(Math.min(pts[i].y, pts[i + 1].y));
+            int last = band(Math.max(pts[i].y, pts[i + 1].y));
+            for (int b = first; b <= last; b++) {
+                bandEdges[next[b]++] = i;
+            }
+        }
+    }
+
+    private int band(double y) {
+        if (numBands == 1) {
+            return 0;
+        }
+        int b = (int) ((y - minY) / bandHeight);
+        return Math.max(0, Math.min(numBands - 1, b));
+    }
+
+    /**
+     * Returns whether the point is inside the ring or is one of its vertices,
+     * i.e. CGAlgorithms#isPointInRing(p, ring) || PolygonHandler#pointInList(p, ring).
+     */
+    public boolean containsOrIsVertex(Coordinate p) {
+        int b = band(p.y);
+        int crossings = 0;
+        for (int k = bandStart[b]; k < bandStart[b + 1]; k++) {
+            int i = bandEdges[k];
+            Coordinate p1 = pts[i + 1];
+            Coordinate p2 = pts[i];
+            if (isVertex(p, p1) || isVertex(p, p2)) {
+                return true;
+            }
+            if (((p1.y > p.y) && (p2.y <= p.y)) || ((p2.y > p.y) && (p1.y <= p.y))) {
+                double x1 = p1.x - p.x;
+                double y1 = p1.y - p.y;
+                double x2 = p2.x - p.x;
+                double y2 = p2.y - p.y;
+                double xInt = RobustDeterminant.signOfDet2x2(x1, y1, x2, y2) / (y2 - y1);
+                if (xInt > 0.0) {
+                    crossings++;
+                }
+            }
+        }
+        return (crossings % 2) == 1;
+    }
+
+    private static boolean isVertex(Coordinate testPoint, Coordinate p) {
+        //as PolygonHandler#pointInList; x!=x iff x is nan
+        return (testPoint.x == p.x) && (testPoint.y == p.y)
+                && ((testPoint.z == p.z) || (!(testPoint.z == testPoint.z)));
+    }
+}
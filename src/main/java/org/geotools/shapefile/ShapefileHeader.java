@@ -44,10 +44,12 @@ public class ShapefileHeader{
         version=file.readIntLE();
         shapeType=file.readIntLE();
        
-        //read in and for now ignore the bounding box
-        for(int i = 0;i<4;i++){
-            file.readDoubleLE();
-        }
+        //bounding box is stored as xmin, ymin, xmax, ymax
+        double minX = file.readDoubleLE();
+        double minY = file.readDoubleLE();
+        double maxX = file.readDoubleLE();
+        double maxY = file.readDoubleLE();
+        bounds = new Envelope(minX, maxX, minY, maxY);
         
         //skip remaining unused bytes
        // file.setLittleEndianMode(false);//well they may not be unused forever...
@@ -79,6 +81,24 @@ public class ShapefileHeader{
         indexLength = 50+(4*numShapes);
     }
     
+    /**
+     * Creates a header for a file whose contents are already known, such as
+     * one written a record at a time.
+     * @param shapeType the shape type of every record
+     * @param bounds the bounds of all the records
+     * @param fileLength the .shp file length in 16 bit words
+     * @param numShapes the number of records
+     */
+    public ShapefileHeader(int shapeType, Envelope bounds, int fileLength, int numShapes)
+    {
+        this.shapeType = shapeType;
+        version = Shapefile.VERSION;
+        fileCode = Shapefile.SHAPEFILE_ID;
+        this.bounds = bounds;
+        this.fileLength = fileLength;
+        indexLength = 50+(4*numShapes);
+    }
+    
     public void setFileLength(int fileLength){
         this.fileLength = fileLength;
     }
@@ -165,6 +185,13 @@ public class ShapefileHeader{
     public int getVersion(){
         return version;
     }
+
+    /**
+     * Returns the file length in 16 bit words, as recorded in the header.
+     */
+    public int getFileLength(){
+        return fileLength;
+    }
     
     public Envelope getBounds(){
         return bounds;
@@ -0,0 +1,354 @@
+package org.geotools.shapefile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * A packed R-tree over the record bounding boxes of a shapefile, stored in a
+ * sidecar file beside the .shp (in the spirit of the MapServer .qix file, but
+ * in a format of our own, hence the different extension).<p>
+ * The tree is built once by sorting the records along a Hilbert curve and
+ * grouping them bottom-up into nodes of fixed capacity. Because every level is
+ * stored as a contiguous array, the children of node <i>j</i> are simply
+ * entries <i>j*capacity</i> to <i>(j+1)*capacity-1</i> of the level below, and
+ * queries run directly against the memory-mapped file without building
+ * anything on the heap.<p>
+ * The length and modification time of the .shp file are recorded in the
+ * header, so an index that no longer matches its shapefile is ignored.
+ *
+ * <pre>
+ * header:  int magic, long shp length, long shp last modified,
+ *          int number of entries, int node capacity, int number of levels,
+ *          (int node count, int byte offset) per level, leaves first
+ * leaves:  double minx, miny, maxx, maxy, int record number
+ * nodes:   double minx, miny, maxx, maxy
+ * </pre>
+ */
+public class ShapefileSpatialIndex {
+
+    public static final String INDEX_EXTENSION = ".jix";
+
+    public static final int DEFAULT_NODE_CAPACITY = 16;
+
+    private static final int MAGIC = 0x4A495831; //"JIX1"
+    private static final int FIXED_HEADER_LENGTH = 32;
+    private static final int LEAF_LENGTH = 36;
+    private static final int NODE_LENGTH = 32;
+    private static final int HILBERT_ORDER = 15;
+
+    private ByteBuffer buffer;
+    private int numEntries;
+    private int nodeCapacity;
+    private int[] levelCounts;
+    private int[] levelOffsets;
+
+    private ShapefileSpatialIndex(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < FIXED_HEADER_LENGTH || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a shapefile spatial index");
+        }
+        numEntries = buffer.getInt(20);
+        nodeCapacity = buffer.getInt(24);
+        int numLevels = buffer.getInt(28);
+        levelCounts = new int[numLevels];
+        levelOffsets = new int[numLevels];
+        for (int i = 0; i < numLevels; i++) {
+            levelCounts[i] = buffer.getInt(FIXED_HEADER_LENGTH + 8 * i);
+            levelOffsets[i] = buffer.getInt(FIXED_HEADER_LENGTH + 8 * i + 4);
+        }
+    }
+
+    /**
+     * Returns the index file that belongs beside the given .shp file.
+     */
+    public static File getIndexFile(File shpFile) {
+        String name = shpFile.getPath();
+        int loc = name.lastIndexOf('.');
+        return new File(((loc == -1) ? name : name.substring(0, loc)) + INDEX_EXTENSION);
+    }
+
+    /**
+     * Memory-maps an existing index file.
+     * @return the index, or null if the file does not exist, is unreadable or
+     * was built for a different version of <code>shpFile</code>
+     */
+    public static ShapefileSpatialIndex open(File indexFile, File shpFile) {
+        if (!indexFile.exists()) {
+            return null;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                ShapefileSpatialIndex index = new ShapefileSpatialIndex(
+                        channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+                return index.isUpToDate(shpFile) ? index : null;
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Ignoring spatial index " + indexFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the index beside the given shapefile, building (and trying to
+     * save) it first if it is missing or out of date. If the index cannot be
+     * saved, e.g. because the directory is read-only, it is kept in memory.
+     */
+    public static ShapefileSpatialIndex openOrBuild(MappedShapefile shapefile) throws IOException {
+        File indexFile = getIndexFile(shapefile.getFile());
+        ShapefileSpatialIndex index = open(indexFile, shapefile.getFile());
+        if (index != null) {
+            return index;
+        }
+        ByteBuffer built = build(shapefile, DEFAULT_NODE_CAPACITY);
+        try {
+            write(built, indexFile);
+        } catch (IOException e) {
+            System.err.println("Could not save spatial index " + indexFile + ": " + e.getMessage());
+        }
+        return new ShapefileSpatialIndex(built);
+    }
+
+    /**
+     * Builds the index for the given shapefile and saves it beside it,
+     * replacing any existing index.
+     */
+    public static void write(MappedShapefile shapefile) throws IOException {
+        write(build(shapefile, DEFAULT_NODE_CAPACITY), getIndexFile(shapefile.getFile()));
+    }
+
+    private static void write(ByteBuffer index, File indexFile) throws IOException {
+        FileOutputStream out = new FileOutputStream(indexFile);
+        try {
+            ByteBuffer source = index.duplicate();
+            source.clear();
+            FileChannel channel = out.getChannel();
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Builds the index for the given shapefile in memory. Null shapes are
+     * left out.
+     */
+    static ByteBuffer build(MappedShapefile shapefile, int nodeCapacity) throws IOException {
+        int numRecords = shapefile.getNumRecords();
+        double[] bounds = new double[4 * numRecords];
+        int[] records = new int[numRecords];
+        int numEntries = 0;
+        Envelope extent = new Envelope();
+        for (int i = 0; i < numRecords; i++) {
+            Envelope env = shapefile.getRecordEnvelope(i);
+            if (env == null) {
+                continue;
+            }
+            bounds[4 * numEntries] = env.getMinX();
+            bounds[4 * numEntries + 1] = env.getMinY();
+            bounds[4 * numEntries + 2] = env.getMaxX();
+            bounds[4 * numEntries + 3] = env.getMaxY();
+            records[numEntries] = i;
+            numEntries++;
+            extent.expandToInclude(env);
+        }
+
+        //sort the entries along a Hilbert curve through their centres
+        long[] keys = new long[numEntries];
+        int side = 1 << HILBERT_ORDER;
+        double width = extent.getWidth() > 0 ? extent.getWidth() : 1;
+        double height = extent.getHeight() > 0 ? extent.getHeight() : 1;
+        for (int i = 0; i < numEntries; i++) {
+            double cx = (bounds[4 * i] + bounds[4 * i + 2]) / 2;
+            double cy = (bounds[4 * i + 1] + bounds[4 * i + 3]) / 2;
+            int x = (int) Math.min(side - 1, (side - 1) * (cx - extent.getMinX()) / width);
+            int y = (int) Math.min(side - 1, (side - 1) * (cy - extent.getMinY()) / height);
+            keys[i] = ((long) hilbert(x, y, side) << 32) | i;
+        }
+        Arrays.sort(keys);
+
+        //level sizes, leaves first, up to a single root
+        int numLevels = 1;
+        for (int n = numEntries; n > 1; n = (n + nodeCapacity - 1) / nodeCapacity) {
+            numLevels++;
+        }
+        int[] levelCounts = new int[numLevels];
+        int[] levelOffsets = new int[numLevels];
+        long offset = FIXED_HEADER_LENGTH + 8 * numLevels;
+        int count = numEntries;
+        for (int level = 0; level < numLevels; level++) {
+            levelCounts[level] = count;
+            levelOffsets[level] = (int) offset;
+            offset += (long) count * ((level == 0) ? LEAF_LENGTH : NODE_LENGTH);
+            count = (count + nodeCapacity - 1) / nodeCapacity;
+        }
+        if (offset > Integer.MAX_VALUE) {
+            throw new IOException("Too many records for a spatial index: " + numRecords);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) offset);
+        buffer.putInt(0, MAGIC);
+        buffer.putLong(4, shapefile.getFile().length());
+        buffer.putLong(12, shapefile.getFile().lastModified());
+        buffer.putInt(20, numEntries);
+        buffer.putInt(24, nodeCapacity);
+        buffer.putInt(28, numLevels);
+        for (int level = 0; level < numLevels; level++) {
+            buffer.putInt(FIXED_HEADER_LENGTH + 8 * level, levelCounts[level]);
+            buffer.putInt(FIXED_HEADER_LENGTH + 8 * level + 4, levelOffsets[level]);
+        }
+
+        for (int i = 0; i < numEntries; i++) {
+            int entry = (int) keys[i];
+            int position = levelOffsets[0] + i * LEAF_LENGTH;
+            for (int k = 0; k < 4; k++) {
+                buffer.putDouble(position + 8 * k, bounds[4 * entry + k]);
+            }
+            buffer.putInt(position + 32, records[entry]);
+        }
+
+        for (int level = 1; level < numLevels; level++) {
+            int childLength = (level == 1) ? LEAF_LENGTH : NODE_LENGTH;
+            for (int node = 0; node < levelCounts[level]; node++) {
+                int firstChild = node * nodeCapacity;
+                int lastChild = Math.min(firstChild + nodeCapacity, levelCounts[level - 1]);
+                double minX = Double.POSITIVE_INFINITY;
+                double minY = Double.POSITIVE_INFINITY;
+                double maxX = Double.NEGATIVE_INFINITY;
+                double maxY = Double.NEGATIVE_INFINITY;
+                for (int child = firstChild; child < lastChild; child++) {
+                    int position = levelOffsets[level - 1] + child * childLength;
+                    minX = Math.min(minX, buffer.getDouble(position));
+                    minY = Math.min(minY, buffer.getDouble(position + 8));
+                    maxX = Math.max(maxX, buffer.getDouble(position + 16));
+                    maxY = Math.max(maxY, buffer.getDouble(position + 24));
+                }
+                int position = levelOffsets[level] + node * NODE_LENGTH;
+                buffer.putDouble(position, minX);
+                buffer.putDouble(position + 8, minY);
+                buffer.putDouble(position + 16, maxX);
+                buffer.putDouble(position + 24, maxY);
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns the distance of the given cell along the Hilbert curve filling a
+     * side x side grid (side being a power of 2).
+     */
+    private static int hilbert(int x, int y, int side) {
+        int d = 0;
+        for (int s = side / 2; s > 0; s /= 2) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += s * s * ((3 * rx) ^ ry);
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = side - 1 - x;
+                    y = side - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    private boolean isUpToDate(File shpFile) {
+        return buffer.getLong(4) == shpFile.length()
+                && buffer.getLong(12) == shpFile.lastModified();
+    }
+
+    /**
+     * Returns the number of indexed (non-null) records.
+     */
+    public int size() {
+        return numEntries;
+    }
+
+    /**
+     * Returns the bounds of all indexed records.
+     */
+    public Envelope getBounds() {
+        if (numEntries == 0) {
+            return new Envelope();
+        }
+        int root = levelCounts.length - 1;
+        return nodeEnvelope(root, 0);
+    }
+
+    private Envelope nodeEnvelope(int level, int node) {
+        int position = levelOffsets[level] + node * ((level == 0) ? LEAF_LENGTH : NODE_LENGTH);
+        return new Envelope(buffer.getDouble(position), buffer.getDouble(position + 16),
+                buffer.getDouble(position + 8), buffer.getDouble(position + 24));
+    }
+
+    /**
+     * Returns the numbers of the records whose bounding boxes intersect the
+     * given envelope, in ascending order.
+     */
+    public int[] query(Envelope envelope) {
+        if (numEntries == 0 || envelope.isNull()) {
+            return new int[0];
+        }
+        double minX = envelope.getMinX();
+        double minY = envelope.getMinY();
+        double maxX = envelope.getMaxX();
+        double maxY = envelope.getMaxY();
+
+        int[] result = new int[16];
+        int resultCount = 0;
+
+        //depth-first traversal; the stack holds (level, node) pairs
+        int[] stack = new int[2 * (nodeCapacity * levelCounts.length + 1)];
+        int top = 0;
+        int root = levelCounts.length - 1;
+        for (int node = 0; node < levelCounts[root]; node++) {
+            stack[top++] = root;
+            stack[top++] = node;
+        }
+        while (top > 0) {
+            int node = stack[--top];
+            int level = stack[--top];
+            int position = levelOffsets[level] + node * ((level == 0) ? LEAF_LENGTH : NODE_LENGTH);
+            if (buffer.getDouble(position) > maxX || buffer.getDouble(position + 8) > maxY
+                    || buffer.getDouble(position + 16) < minX || buffer.getDouble(position + 24) < minY) {
+                continue;
+            }
+            if (level == 0) {
+                if (resultCount == result.length) {
+                    int[] grown = new int[2 * resultCount];
+                    System.arraycopy(result, 0, grown, 0, resultCount);
+                    result = grown;
+                }
+                result[resultCount++] = buffer.getInt(position + 32);
+                continue;
+            }
+            int firstChild = node * nodeCapacity;
+            int lastChild = Math.min(firstChild + nodeCapacity, levelCounts[level - 1]);
+            for (int child = lastChild - 1; child >= firstChild; child--) {
+                stack[top++] = level - 1;
+                stack[top++] = child;
+            }
+        }
+
+        int[] trimmed = new int[resultCount];
+        System.arraycopy(result, 0, trimmed, 0, resultCount);
+        Arrays.sort(trimmed);
+        return trimmed;
+    }
+}
@@ -0,0 +1,71 @@
+package com.vividsolutions.jump.workbench.model.cache;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jump.datastore.FilterQuery;
+
+public class FeatureTileCacheTest extends TestCase {
+
+    public void testFirstQueryFetchesOnlyTheColumnsAskedFor() {
+        RecordingFeatureCollection featureCollection = new RecordingFeatureCollection();
+        FeatureTileCache cache = new FeatureTileCache(featureCollection, "ID",
+                FeatureTileCache.DEFAULT_MAX_COORDINATES);
+        drain(cache.iterator(new Envelope(0, 10, 0, 10), 0, new String[] {
+                "NAME", "TYPE" }));
+        assertEquals(Arrays.asList(new String[] { "NAME", "TYPE", "ID" }),
+                Arrays.asList(featureCollection.propertyNames));
+    }
+
+    public void testLaterQueryForFewerColumnsFetchesThePrunedColumns() {
+        RecordingFeatureCollection featureCollection = new RecordingFeatureCollection();
+        FeatureTileCache cache = new FeatureTileCache(featureCollection, "ID",
+                FeatureTileCache.DEFAULT_MAX_COORDINATES);
+        drain(cache.iterator(new Envelope(0, 10, 0, 10), 0, new String[] {
+                "NAME", "TYPE" }));
+        featureCollection.propertyNames = null;
+        drain(cache.iterator(new Envelope(1000, 1010, 1000, 1010), 0,
+                new String[] { "NAME" }));
+        assertEquals(Arrays.asList(new String[] { "NAME", "TYPE", "ID" }),
+                Arrays.asList(featureCollection.propertyNames));
+    }
+
+    public void testQueryForAllColumnsFetchesAllColumns() {
+        RecordingFeatureCollection featureCollection = new RecordingFeatureCollection();
+        FeatureTileCache cache = new FeatureTileCache(featureCollection, "ID",
+                FeatureTileCache.DEFAULT_MAX_COORDINATES);
+        drain(cache.iterator(new Envelope(0, 10, 0, 10), 0,
+                new String[] { "NAME" }));
+        drain(cache.iterator(new Envelope(1000, 1010, 1000, 1010), 0, null));
+        assertNull(featureCollection.propertyNames);
+    }
+
+    private static void drain(Iterator i) {
+        while (i.hasNext()) {
+            i.next();
+        }
+    }
+
+    /**
+     * Finds no features, recording the attributes last asked for.
+     */
+    private static class RecordingFeatureCollection extends
+            DynamicFeatureCollection {
+        private String[] propertyNames;
+
+        public RecordingFeatureCollection() {
+            super(null, null, new FilterQuery());
+        }
+
+        public List query(Envelope envelope, double simplificationTolerance,
+                String[] propertyNames) {
+            this.propertyNames = propertyNames;
+            return Collections.EMPTY_LIST;
+        }
+    }
+}